@@ -53,7 +53,10 @@ public class GlobalConfiguration implements InitializingBean {
     private String sslKeystorePassword;
     private String signatureKeystorePath;
     private String signatureKeystorePassword;
+    private String accessTokenKeystorePath;
+    private String accessTokenKeystorePassword;
     private String staticResourcesPath;
+    private SignatureKeyRotationConfiguration signatureKeyRotation = new SignatureKeyRotationConfiguration();
 
     public String getBasePublicUrl() {
         return basePublicUrl;
@@ -111,6 +114,24 @@ public class GlobalConfiguration implements InitializingBean {
         this.signatureKeystorePassword = nullIfEmpty(signatureKeystorePassword);
     }
 
+    // Keystore of the access token signature keys. When not set, the access tokens are signed with the RSA keys
+    // of the signature keystore, shared with SAML
+    public String getAccessTokenKeystorePath() {
+        return accessTokenKeystorePath;
+    }
+
+    public void setAccessTokenKeystorePath(String accessTokenKeystorePath) {
+        this.accessTokenKeystorePath = nullIfEmpty(accessTokenKeystorePath);
+    }
+
+    public String getAccessTokenKeystorePassword() {
+        return accessTokenKeystorePassword;
+    }
+
+    public void setAccessTokenKeystorePassword(String accessTokenKeystorePassword) {
+        this.accessTokenKeystorePassword = nullIfEmpty(accessTokenKeystorePassword);
+    }
+
     public String getStaticResourcesPath() {
         return staticResourcesPath;
     }
@@ -119,6 +140,40 @@ public class GlobalConfiguration implements InitializingBean {
         this.staticResourcesPath = nullIfEmpty(staticResourcesPath);
     }
 
+    public SignatureKeyRotationConfiguration getSignatureKeyRotation() {
+        return signatureKeyRotation;
+    }
+
+    public void setSignatureKeyRotation(SignatureKeyRotationConfiguration signatureKeyRotation) {
+        this.signatureKeyRotation = signatureKeyRotation;
+    }
+
+    public static class SignatureKeyRotationConfiguration {
+
+        // Delay in seconds between the publication of a key added to the keystore and its first use.
+        // It should exceed the time during which the relying parties cache the published keys
+        private int activationDelay = 600;
+
+        // Duration in seconds during which a replaced key is still published, to verify the tokens it signed
+        private int retention = 3600;
+
+        public int getActivationDelay() {
+            return activationDelay;
+        }
+
+        public void setActivationDelay(int activationDelay) {
+            this.activationDelay = activationDelay;
+        }
+
+        public int getRetention() {
+            return retention;
+        }
+
+        public void setRetention(int retention) {
+            this.retention = retention;
+        }
+    }
+
     /// End: Configuration mapping handled by Spring Cloud config
 
     @Override
@@ -141,6 +196,9 @@ public class GlobalConfiguration implements InitializingBean {
         signatureKeystorePassword = signatureKeystorePassword != null ? signatureKeystorePassword : DEFAULT_KEYSTORE_PASSWORD;
         signatureKeystorePath = signatureKeystorePath != null ? signatureKeystorePath : DEFAULT_KEYSTORE_PATH;
 
+        if (accessTokenKeystorePath != null && accessTokenKeystorePassword == null)
+            accessTokenKeystorePassword = DEFAULT_KEYSTORE_PASSWORD;
+
         staticResourcesPath = staticResourcesPath != null ? staticResourcesPath : DEFAULT_STATIC_RESOURCE_PATH;
     }
 
@@ -158,6 +216,10 @@ public class GlobalConfiguration implements InitializingBean {
             IdentioServerApplication.quitOnConfigurationError(LOG,
                     "Global configuration error: Signature Keystore file " + sslKeystorePath + " doesn't exist");
 
+        if (accessTokenKeystorePath != null && !FileUtils.fileExists(accessTokenKeystorePath))
+            IdentioServerApplication.quitOnConfigurationError(LOG,
+                    "Global configuration error: Access token keystore file " + accessTokenKeystorePath + " doesn't exist");
+
         if (!FileUtils.fileExists(staticResourcesPath))
             IdentioServerApplication.quitOnConfigurationError(LOG,
                     "Global configuration error: Static resources directory " + staticResourcesPath + " doesn't exist");
@@ -30,6 +30,8 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 @RestController
 public class IntrospectionController {
 
@@ -64,4 +66,31 @@ public class IntrospectionController {
         }
 
     }
+
+    // Introspects several tokens, given as repeated token parameters, with a single authentication
+    @PostMapping(value = "/oauth/introspect/batch")
+    public ResponseEntity<?> introspectBatch(@RequestParam(value = "token", required = false) List<String> tokens,
+                                             @RequestHeader(value = "Authorization", required = false) String authorization) {
+
+        Result<List<OAuthToken>> result = tokenIntrospectionService.getTokensInformations(tokens, authorization);
+
+        switch(result.getResultStatus()) {
+            case FAIL:
+                return new ResponseEntity<>(
+                        new OAuthApiErrorResponse().setError(result.getErrorStatus()),
+                        HttpStatus.BAD_REQUEST);
+            default:
+            case SERVER_ERROR:
+                return new ResponseEntity<>(
+                        new OAuthApiErrorResponse().setError(result.getErrorStatus()),
+                        HttpStatus.INTERNAL_SERVER_ERROR);
+            case UNAUTHORIZED:
+                return new ResponseEntity<>(
+                        new OAuthApiErrorResponse().setError(result.getErrorStatus()),
+                        HttpStatus.UNAUTHORIZED);
+            case OK:
+                return new ResponseEntity<>(result.get(), HttpStatus.OK);
+
+        }
+    }
 }
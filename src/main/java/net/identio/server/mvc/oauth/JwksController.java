@@ -0,0 +1,66 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.mvc.oauth;
+
+import net.identio.server.service.oauth.JwksService;
+import net.identio.server.service.oauth.OAuthConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.concurrent.TimeUnit;
+
+@RestController
+public class JwksController {
+
+    @Autowired
+    private JwksService jwksService;
+
+    @Autowired
+    private OAuthConfiguration oAuthConfiguration;
+
+    @GetMapping(value = "/oauth/jwks")
+    public ResponseEntity<byte[]> getJwks(@RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+
+        JwksService.JwksDocument document = jwksService.getDocument();
+
+        CacheControl cacheControl = CacheControl.maxAge(oAuthConfiguration.getJwks().getMaxAge(), TimeUnit.SECONDS).cachePublic();
+
+        // The serialized document is shared: it is never rebuilt per request
+        if (ifNoneMatch != null && (ifNoneMatch.contains(document.getETag()) || "*".equals(ifNoneMatch.trim()))) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(document.getETag())
+                    .cacheControl(cacheControl)
+                    .build();
+        }
+
+        return ResponseEntity.ok()
+                .eTag(document.getETag())
+                .cacheControl(cacheControl)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(document.getContent());
+    }
+}
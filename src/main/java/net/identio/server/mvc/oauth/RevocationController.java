@@ -0,0 +1,91 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.mvc.oauth;
+
+import net.identio.server.model.Result;
+import net.identio.server.mvc.oauth.model.BulkRevocationResponse;
+import net.identio.server.mvc.oauth.model.OAuthApiErrorResponse;
+import net.identio.server.service.oauth.TokenRevocationService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+public class RevocationController {
+
+    @Autowired
+    private TokenRevocationService tokenRevocationService;
+
+    @PostMapping(value = "/oauth/revoke")
+    public ResponseEntity<?> revoke(@RequestParam(value = "token", required = false) String token,
+                                    @RequestParam(value = "token_type_hint", required = false) String tokenType,
+                                    @RequestHeader(value = "Authorization", required = false) String authorization) {
+
+        Result<Void> result = tokenRevocationService.revoke(token, tokenType, authorization);
+
+        switch (result.getResultStatus()) {
+            case FAIL:
+                return new ResponseEntity<>(
+                        new OAuthApiErrorResponse().setError(result.getErrorStatus()),
+                        HttpStatus.BAD_REQUEST);
+            default:
+            case SERVER_ERROR:
+                return new ResponseEntity<>(
+                        new OAuthApiErrorResponse().setError(result.getErrorStatus()),
+                        HttpStatus.INTERNAL_SERVER_ERROR);
+            case UNAUTHORIZED:
+                return new ResponseEntity<>(
+                        new OAuthApiErrorResponse().setError(result.getErrorStatus()),
+                        HttpStatus.UNAUTHORIZED);
+            case OK:
+                return new ResponseEntity<>(HttpStatus.OK);
+        }
+    }
+
+    @PostMapping(value = "/oauth/revoke/all")
+    public ResponseEntity<?> revokeAll(@RequestParam(value = "username", required = false) String username,
+                                       @RequestParam(value = "client_id", required = false) String clientId,
+                                       @RequestHeader(value = "Authorization", required = false) String authorization) {
+
+        Result<Long> result = tokenRevocationService.revokeAll(username, clientId, authorization);
+
+        switch (result.getResultStatus()) {
+            case FAIL:
+                return new ResponseEntity<>(
+                        new OAuthApiErrorResponse().setError(result.getErrorStatus()),
+                        HttpStatus.BAD_REQUEST);
+            default:
+            case SERVER_ERROR:
+                return new ResponseEntity<>(
+                        new OAuthApiErrorResponse().setError(result.getErrorStatus()),
+                        HttpStatus.INTERNAL_SERVER_ERROR);
+            case UNAUTHORIZED:
+                return new ResponseEntity<>(
+                        new OAuthApiErrorResponse().setError(result.getErrorStatus()),
+                        HttpStatus.UNAUTHORIZED);
+            case OK:
+                return new ResponseEntity<>(
+                        new BulkRevocationResponse().setRevokedTokens(result.get()),
+                        HttpStatus.OK);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.data;
+
+import net.identio.server.exceptions.InitializationException;
+import net.identio.server.service.data.cluster.ClusterNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+
+// In-memory key-value stores partitioned between several identio nodes.
+// The url of the data source is the address (host:port) this node listens on for the other members, the password
+// is the secret shared by the members.
+@Service
+public class ClusterDataService implements DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterDataService.class);
+
+    private HashMap<String, ClusterNode> nodes = new HashMap<>();
+
+    @Autowired
+    public ClusterDataService(DataConfiguration config) throws InitializationException {
+
+        List<DataConfiguration.DataSourcesConfiguration> dataSourceList = config.getDataSources();
+
+        if (dataSourceList == null) return;
+
+        for (DataConfiguration.DataSourcesConfiguration dataSourceConfiguration : dataSourceList) {
+
+            if ("cluster".equals(dataSourceConfiguration.getType())) {
+
+                String secret = dataSourceConfiguration.getPassword();
+
+                if (secret == null || secret.isEmpty()) {
+                    throw new InitializationException("Cluster data source " + dataSourceConfiguration.getName() +
+                            " has no password: it is the secret authenticating the members");
+                }
+
+                ClusterNode node = new ClusterNode(dataSourceConfiguration.getUrl(), dataSourceConfiguration.getMembers(),
+                        dataSourceConfiguration.getPartitions(), secret.getBytes(StandardCharsets.UTF_8));
+
+                try {
+                    node.start();
+                } catch (IOException e) {
+                    throw new InitializationException("Could not start cluster node " + dataSourceConfiguration.getUrl(), e);
+                }
+
+                nodes.put(dataSourceConfiguration.getName(), node);
+            }
+        }
+    }
+
+    public ClusterNode getNode(String name) {
+        return nodes.get(name);
+    }
+
+    @Override
+    public void destroy() {
+
+        for (ClusterNode node : nodes.values()) {
+            try {
+                node.close();
+            } catch (IOException e) {
+                LOG.error("Error when stopping cluster node: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -56,6 +56,17 @@ public class DataConfiguration implements InitializingBean {
         private String username;
         private String password;
 
+        // Maximum number of pooled connections of a jdbc data source
+        private int poolSize = 10;
+
+        // Size in bytes of the in-memory stores
+        private long capacity = 256L * 1024 * 1024;
+
+        // Addresses (host:port) of all the nodes of a cluster store, this one included. The members authenticate
+        // each other with the password of the data source
+        private List<String> members = new ArrayList<>();
+        private int partitions = 271;
+
         public String getName() {
             return name;
         }
@@ -103,6 +114,38 @@ public class DataConfiguration implements InitializingBean {
         public void setPassword(String password) {
             this.password = password;
         }
+
+        public long getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(long capacity) {
+            this.capacity = capacity;
+        }
+
+        public List<String> getMembers() {
+            return members;
+        }
+
+        public void setMembers(List<String> members) {
+            this.members = members;
+        }
+
+        public int getPartitions() {
+            return partitions;
+        }
+
+        public void setPartitions(int partitions) {
+            this.partitions = partitions;
+        }
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public void setPoolSize(int poolSize) {
+            this.poolSize = poolSize;
+        }
     }
 
     /// End: Configuration mapping handled by Spring Cloud config
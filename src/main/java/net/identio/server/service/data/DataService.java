@@ -24,6 +24,8 @@ package net.identio.server.service.data;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
+
 @Service
 public class DataService {
 
@@ -33,4 +35,8 @@ public class DataService {
     public DataConfiguration.DataSourcesConfiguration getDataSourceConfiguration(String name) {
        return config.getDataSourceConfiguration(name);
     }
+
+    public List<DataConfiguration.DataSourcesConfiguration> getDataSourceConfigurations() {
+        return config.getDataSources();
+    }
 }
@@ -0,0 +1,76 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.data;
+
+import org.h2.mvstore.MVStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+
+// File-backed key-value stores embedded in the server, for deployments without an external database.
+// The url of the data source is the path of the store file, which is accessed through memory-mapped pages.
+@Service
+public class EmbeddedDataService implements DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EmbeddedDataService.class);
+
+    private HashMap<String, MVStore> stores = new HashMap<>();
+
+    @Autowired
+    public EmbeddedDataService(DataConfiguration config) {
+
+        List<DataConfiguration.DataSourcesConfiguration> dataSourceList = config.getDataSources();
+
+        if (dataSourceList == null) return;
+
+        for (DataConfiguration.DataSourcesConfiguration dataSourceConfiguration : dataSourceList) {
+
+            if ("embedded".equals(dataSourceConfiguration.getType())) {
+
+                LOG.info("Opening embedded store {}", dataSourceConfiguration.getUrl());
+
+                MVStore store = new MVStore.Builder()
+                        .fileName("nioMapped:" + dataSourceConfiguration.getUrl())
+                        .open();
+
+                stores.put(dataSourceConfiguration.getName(), store);
+            }
+        }
+    }
+
+    public MVStore getStore(String name) {
+        return stores.get(name);
+    }
+
+    @Override
+    public void destroy() {
+
+        // Closing a store commits the pending changes
+        for (MVStore store : stores.values()) {
+            store.close();
+        }
+    }
+}
@@ -45,7 +45,7 @@ public class JdbcDataService {
             if ("jdbc".equals(dataSourceConfiguration.getType())) {
                 HikariDataSource ds = new HikariDataSource();
 
-                ds.setMaximumPoolSize(10);
+                ds.setMaximumPoolSize(dataSourceConfiguration.getPoolSize());
                 ds.setDriverClassName(dataSourceConfiguration.getDriver());
                 ds.setJdbcUrl(dataSourceConfiguration.getUrl());
                 ds.setUsername(dataSourceConfiguration.getUsername());
@@ -0,0 +1,252 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package net.identio.server.service.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+// Collects the items submitted concurrently during a short window and hands them to a handler as a single batch.
+// Each caller blocks until the batch containing its item has been processed, at most the submit timeout. An item
+// whose caller gave up is cancelled and skipped if its batch hasn't reached the handler yet. Otherwise it is still
+// processed: a timed-out write may be committed all the same.
+// When a batch fails, its items are processed again one by one so that a single bad item only fails its caller.
+// Several workers may take items from the same queue, each building and processing its own batches.
+public class MicroBatcher<T, R> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MicroBatcher.class);
+
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    // Shorter than the HTTP timeouts, so that a stalled batch fails the request instead of leaving it hanging
+    private static final long DEFAULT_SUBMIT_TIMEOUT_MILLIS = 5000;
+
+    @FunctionalInterface
+    public interface BatchHandler<T, R> {
+
+        // Must return one result per item, in the same order
+        List<R> process(List<T> items) throws Exception;
+    }
+
+    private static class PendingItem<T, R> {
+
+        private final T item;
+        private final CompletableFuture<R> future = new CompletableFuture<>();
+
+        private PendingItem(T item) {
+            this.item = item;
+        }
+    }
+
+    private final BlockingQueue<PendingItem<T, R>> queue = new LinkedBlockingQueue<>();
+    private final BatchHandler<T, R> handler;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final long submitTimeoutMillis;
+    private final List<Thread> workers = new ArrayList<>();
+
+    private volatile boolean running = true;
+
+    public MicroBatcher(String name, long window, TimeUnit unit, int maxBatchSize, BatchHandler<T, R> handler) {
+        this(name, window, unit, maxBatchSize, 1, handler);
+    }
+
+    public MicroBatcher(String name, long window, TimeUnit unit, int maxBatchSize, int workers,
+                        BatchHandler<T, R> handler) {
+        this(name, window, unit, maxBatchSize, workers, DEFAULT_SUBMIT_TIMEOUT_MILLIS, handler);
+    }
+
+    public MicroBatcher(String name, long window, TimeUnit unit, int maxBatchSize, int workers,
+                        long submitTimeoutMillis, BatchHandler<T, R> handler) {
+
+        if (workers < 1) throw new IllegalArgumentException("At least one worker is needed");
+
+        this.handler = handler;
+        this.windowNanos = unit.toNanos(window);
+        this.maxBatchSize = maxBatchSize;
+        this.submitTimeoutMillis = submitTimeoutMillis;
+
+        for (int i = 0; i < workers; i++) {
+
+            Thread worker = new Thread(this::run, workers == 1 ? name : name + "-" + i);
+            worker.setDaemon(true);
+            worker.start();
+
+            this.workers.add(worker);
+        }
+    }
+
+    public R submit(T item) throws ExecutionException, InterruptedException, TimeoutException {
+        return submit(item, submitTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public R submit(T item, long timeout, TimeUnit unit)
+            throws ExecutionException, InterruptedException, TimeoutException {
+
+        if (!running) throw new RejectedExecutionException("Batcher is stopped");
+
+        PendingItem<T, R> pendingItem = new PendingItem<>(item);
+        queue.add(pendingItem);
+
+        // close() may have drained the queue between the check and the insertion. If the item is still queued,
+        // nobody will process it. Otherwise the worker or close() took it and will complete its future
+        if (!running && queue.remove(pendingItem)) {
+            throw new RejectedExecutionException("Batcher is stopped");
+        }
+
+        try {
+            return pendingItem.future.get(timeout, unit);
+        } catch (TimeoutException e) {
+            // If a worker already took the item, the cancellation makes it skip the item, unless its batch is
+            // already in the handler
+            queue.remove(pendingItem);
+            pendingItem.future.cancel(false);
+            throw e;
+        }
+    }
+
+    public void close() {
+
+        // The workers are not interrupted: a batch in progress must not fail half-way. They see the flag after
+        // their current batch, or at the end of their idle poll
+        running = false;
+
+        long deadline = System.nanoTime() + windowNanos + TimeUnit.MILLISECONDS.toNanos(IDLE_POLL_MILLIS);
+
+        try {
+            for (Thread worker : workers) {
+                worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Fail whatever was left behind so that no caller stays blocked
+        List<PendingItem<T, R>> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+
+        for (PendingItem<T, R> pendingItem : remaining) {
+            pendingItem.future.completeExceptionally(new RejectedExecutionException("Batcher is stopped"));
+        }
+    }
+
+    private void run() {
+
+        List<PendingItem<T, R>> batch = new ArrayList<>(maxBatchSize);
+
+        while (running) {
+
+            try {
+                PendingItem<T, R> first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+                if (first == null) continue;
+
+                batch.add(first);
+
+                // Wait for the end of the window or until the batch is full
+                long deadline = System.nanoTime() + windowNanos;
+
+                while (batch.size() < maxBatchSize) {
+
+                    long remaining = deadline - System.nanoTime();
+
+                    if (remaining <= 0) {
+                        queue.drainTo(batch, maxBatchSize - batch.size());
+                        break;
+                    }
+
+                    PendingItem<T, R> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+
+                    if (next == null) break;
+
+                    batch.add(next);
+                }
+
+                processBatch(batch);
+
+            } catch (InterruptedException e) {
+                // The pending items of the current batch are still processed
+                processBatch(batch);
+            } catch (Throwable t) {
+                // The worker must survive: its callers are failed instead
+                LOG.error("Error when processing a batch of {} items: {}", batch.size(), t.toString());
+
+                for (PendingItem<T, R> pendingItem : batch) {
+                    pendingItem.future.completeExceptionally(t);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void processBatch(List<PendingItem<T, R>> batch) {
+
+        // Skip the items cancelled by their callers
+        batch.removeIf(pendingItem -> pendingItem.future.isDone());
+
+        if (batch.isEmpty()) return;
+
+        List<T> items = new ArrayList<>(batch.size());
+
+        for (PendingItem<T, R> pendingItem : batch) {
+            items.add(pendingItem.item);
+        }
+
+        try {
+            List<R> results = handler.process(items);
+
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(results != null ? results.get(i) : null);
+            }
+
+        } catch (Exception e) {
+
+            if (batch.size() == 1) {
+                batch.get(0).future.completeExceptionally(e);
+                return;
+            }
+
+            LOG.error("Error when processing a batch of {} items, retrying one by one: {}", batch.size(), e.getMessage());
+
+            for (PendingItem<T, R> pendingItem : batch) {
+                processItem(pendingItem);
+            }
+        }
+    }
+
+    private void processItem(PendingItem<T, R> pendingItem) {
+
+        try {
+            List<R> results = handler.process(Collections.singletonList(pendingItem.item));
+
+            pendingItem.future.complete(results != null ? results.get(0) : null);
+
+        } catch (Exception e) {
+            pendingItem.future.completeExceptionally(e);
+        }
+    }
+}
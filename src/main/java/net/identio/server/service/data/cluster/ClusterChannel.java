@@ -0,0 +1,185 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.data.cluster;
+
+import net.identio.server.utils.SecureIdentifiers;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+// Authenticated connection between two cluster members.
+// The connection starts with a handshake: the client sends a magic number and a random nonce, the server answers
+// with its own nonce. A key per direction is derived from the two nonces with the secret shared by the members.
+// Each frame is then: length of the body (4 bytes), body, HMAC-SHA256 of the frame sequence number and body.
+// A frame with an invalid length or tag, from a member that doesn't know the secret or replayed from another
+// connection, fails the read: the connection is closed before its content is looked at.
+class ClusterChannel implements Closeable {
+
+    static final int MAX_FRAME_SIZE = 1024 * 1024;
+
+    private static final int MAGIC = 0x49444331;
+    private static final int NONCE_LENGTH = 16;
+    private static final int TAG_LENGTH = 32;
+    private static final int HANDSHAKE_TIMEOUT = 2000;
+
+    private static final byte CLIENT_TO_SERVER = 1;
+    private static final byte SERVER_TO_CLIENT = 2;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    private final Mac inputMac;
+    private final Mac outputMac;
+
+    private long inputSequence;
+    private long outputSequence;
+
+    private ClusterChannel(Socket socket, DataInputStream in, DataOutputStream out, byte[] inputKey, byte[] outputKey)
+            throws IOException {
+
+        this.socket = socket;
+        this.in = in;
+        this.out = out;
+        this.inputMac = createMac(inputKey);
+        this.outputMac = createMac(outputKey);
+    }
+
+    // Client side of the handshake
+    static ClusterChannel connect(Socket socket, byte[] secret) throws IOException {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        byte[] clientNonce = new byte[NONCE_LENGTH];
+        SecureIdentifiers.nextBytes(clientNonce);
+
+        out.writeInt(MAGIC);
+        out.write(clientNonce);
+        out.flush();
+
+        byte[] serverNonce = new byte[NONCE_LENGTH];
+
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+        in.readFully(serverNonce);
+        socket.setSoTimeout(0);
+
+        return new ClusterChannel(socket, in, out, deriveKey(secret, SERVER_TO_CLIENT, clientNonce, serverNonce),
+                deriveKey(secret, CLIENT_TO_SERVER, clientNonce, serverNonce));
+    }
+
+    // Server side of the handshake
+    static ClusterChannel accept(Socket socket, byte[] secret) throws IOException {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        byte[] clientNonce = new byte[NONCE_LENGTH];
+
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+
+        if (in.readInt() != MAGIC) throw new ProtocolException("Not a cluster member");
+        in.readFully(clientNonce);
+
+        socket.setSoTimeout(0);
+
+        byte[] serverNonce = new byte[NONCE_LENGTH];
+        SecureIdentifiers.nextBytes(serverNonce);
+
+        out.write(serverNonce);
+        out.flush();
+
+        return new ClusterChannel(socket, in, out, deriveKey(secret, CLIENT_TO_SERVER, clientNonce, serverNonce),
+                deriveKey(secret, SERVER_TO_CLIENT, clientNonce, serverNonce));
+    }
+
+    // Frames can be written by several threads
+    synchronized void write(byte[] body) throws IOException {
+
+        if (body.length > MAX_FRAME_SIZE) throw new ProtocolException("Frame too large: " + body.length + " bytes");
+
+        out.writeInt(body.length);
+        out.write(body);
+        out.write(tag(outputMac, outputSequence++, body));
+        out.flush();
+    }
+
+    // Frames are read by a single thread
+    byte[] read() throws IOException {
+
+        int length = in.readInt();
+
+        if (length < 0 || length > MAX_FRAME_SIZE) throw new ProtocolException("Invalid frame length: " + length);
+
+        byte[] body = new byte[length];
+        in.readFully(body);
+
+        byte[] receivedTag = new byte[TAG_LENGTH];
+        in.readFully(receivedTag);
+
+        if (!MessageDigest.isEqual(receivedTag, tag(inputMac, inputSequence++, body))) {
+            throw new ProtocolException("Invalid frame authentication tag");
+        }
+
+        return body;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private static byte[] tag(Mac mac, long sequence, byte[] body) {
+
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            mac.update((byte) (sequence >>> shift));
+        }
+
+        return mac.doFinal(body);
+    }
+
+    private static byte[] deriveKey(byte[] secret, byte direction, byte[] clientNonce, byte[] serverNonce)
+            throws IOException {
+
+        Mac mac = createMac(secret);
+
+        mac.update(direction);
+        mac.update(clientNonce);
+
+        return mac.doFinal(serverNonce);
+    }
+
+    private static Mac createMac(byte[] key) throws IOException {
+
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not initialize the cluster frame authentication", e);
+        }
+    }
+}
@@ -0,0 +1,950 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.data.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+// Node of a partitioned in-memory key-value store.
+// The keyspace is split in partitions, each one being held by an owner and a backup chosen among the live
+// members by rendezvous hashing: when a member joins or leaves, only the partitions it holds change hands.
+// Reads and writes are forwarded to the owner, which copies the writes to the backup before answering.
+// Members check each other with heartbeats and push the partitions they hold to their new holders when
+// the set of live members changes, see migrate(). The members authenticate each other with a shared secret, see ClusterChannel.
+public class ClusterNode implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterNode.class);
+
+    // Request: operation (1 byte), request id (8 bytes), key length (4 bytes), key,
+    // expiration (8 bytes) and value for the writes.
+    // Response: status (1 byte), request id (8 bytes), value for the reads
+    private static final byte GET = 1;
+    private static final byte PUT = 2;
+    private static final byte REMOVE = 3;
+    private static final byte STORE = 4;
+    private static final byte DELETE = 5;
+    private static final byte PING = 6;
+    private static final byte TAKE = 7;
+    private static final byte MIGRATE = 8;
+    private static final byte SCAN = 9;
+
+    private static final byte OK = 0;
+    private static final byte NOT_FOUND = 1;
+    private static final byte ERROR = 2;
+
+    private static final int HEARTBEAT_INTERVAL = 1000;
+    private static final int FAILURE_TIMEOUT = 5000;
+    private static final int REQUEST_TIMEOUT = 2000;
+    private static final int PURGE_INTERVAL = 60000;
+
+    // Requests are handled by a bounded pool: when it is saturated, the connection thread handles the request
+    // itself and stops reading until it is done
+    private static final int WORKER_THREADS = 64;
+    private static final int WORKER_QUEUE_SIZE = 1024;
+
+    // Leaves room for the request header in a frame
+    private static final int MAX_ENTRY_SIZE = ClusterChannel.MAX_FRAME_SIZE / 2;
+
+    // Removed entries are remembered for this duration in seconds, so that a migration running meanwhile doesn't
+    // bring them back
+    private static final int TOMBSTONE_TTL = 600;
+
+    // Size of the batches of entries of the migrations and of the scans
+    private static final int BATCH_SIZE = 256 * 1024;
+
+    private final String self;
+    private final List<String> members;
+    private final int partitionCount;
+    private final byte[] secret;
+
+    private final List<ConcurrentHashMap<ByteBuffer, Entry>> partitions = new ArrayList<>();
+
+    // Owner and backup of each partition
+    private volatile String[][] replicas;
+    private volatile Set<String> liveMembers;
+
+    private final ConcurrentHashMap<String, Peer> peers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> lastSeen = new ConcurrentHashMap<>();
+
+    // Members that still have to receive the partitions held by this node, and whether a migration has work left
+    private final ConcurrentHashMap<Integer, Set<String>> pendingHandoffs = new ConcurrentHashMap<>();
+    private volatile boolean handoffPending;
+    private final AtomicBoolean migrationScheduled = new AtomicBoolean();
+
+    private final AtomicLong requestIds = new AtomicLong();
+
+    private ServerSocket server;
+    private ExecutorService workers;
+    private ScheduledExecutorService scheduler;
+    private ExecutorService migrator;
+    private ExecutorService pinger;
+    private volatile boolean running;
+
+    // A removed entry is replaced by a tombstone, without value
+    private static class Entry {
+
+        private final byte[] value;
+        private final long expiration;
+
+        private Entry(byte[] value, long expiration) {
+            this.value = value;
+            this.expiration = expiration;
+        }
+
+        private boolean isLive(long now) {
+            return value != null && (expiration == 0 || expiration >= now);
+        }
+    }
+
+    private interface EntryConsumer {
+        void accept(byte[] key, long expiration, byte[] value);
+    }
+
+    private static class Response {
+
+        private final byte status;
+        private final byte[] value;
+
+        private Response(byte status, byte[] value) {
+            this.status = status;
+            this.value = value;
+        }
+    }
+
+    public ClusterNode(String self, List<String> members, int partitionCount, byte[] secret) {
+
+        this.self = self;
+        this.partitionCount = partitionCount;
+        this.secret = secret;
+
+        Set<String> allMembers = new TreeSet<>(members);
+        allMembers.add(self);
+        this.members = new ArrayList<>(allMembers);
+
+        for (int i = 0; i < partitionCount; i++) {
+            partitions.add(new ConcurrentHashMap<>());
+        }
+
+        // Until the other members answer, this node holds every partition
+        liveMembers = Collections.singleton(self);
+        replicas = computeReplicas(liveMembers);
+    }
+
+    public void start() throws IOException {
+
+        running = true;
+
+        server = new ServerSocket();
+        server.bind(toAddress(self));
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(WORKER_QUEUE_SIZE), daemonThreads("cluster-worker"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        workers = pool;
+        scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("cluster-heartbeat"));
+        migrator = Executors.newSingleThreadExecutor(daemonThreads("cluster-migration"));
+        pinger = Executors.newFixedThreadPool(Math.max(1, members.size() - 1), daemonThreads("cluster-ping"));
+
+        Thread acceptor = daemonThreads("cluster-acceptor").newThread(this::accept);
+        acceptor.start();
+
+        scheduler.scheduleWithFixedDelay(this::heartbeat, 0, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::purge, PURGE_INTERVAL, PURGE_INTERVAL, TimeUnit.MILLISECONDS);
+
+        LOG.info("Cluster node {} started with members {}", self, members);
+    }
+
+    public byte[] get(byte[] key) throws IOException {
+
+        IOException failure = null;
+
+        // Ask the backup if the owner doesn't answer
+        for (String replica : replicasOf(key)) {
+
+            if (replica == null) continue;
+
+            if (replica.equals(self)) return getLocal(key);
+
+            try {
+                Response response = request(replica, GET, key, 0, null);
+
+                return response.status == OK ? response.value : null;
+
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        throw failure != null ? failure : new IOException("No live replica");
+    }
+
+    public void put(byte[] key, byte[] value, long expiration) throws IOException {
+
+        if (key.length + value.length > MAX_ENTRY_SIZE) {
+            throw new IOException("Entry too large for the cluster store: " + (key.length + value.length) + " bytes");
+        }
+
+        write(PUT, key, expiration, value);
+    }
+
+    public void remove(byte[] key) throws IOException {
+        write(REMOVE, key, 0, null);
+    }
+
+    // Removes the entry and returns its value: only one caller obtains a given entry
+    public byte[] take(byte[] key) throws IOException {
+        return write(TAKE, key, 0, null);
+    }
+
+    // Entries of every partition, read from their owners by batches. Entries written or moved while the scan
+    // runs may be missed or seen twice
+    public void forEach(BiConsumer<byte[], byte[]> consumer) throws IOException {
+
+        String[][] currentReplicas = replicas;
+
+        for (int partition = 0; partition < partitionCount; partition++) {
+
+            String owner = currentReplicas[partition][0];
+
+            if (owner.equals(self)) {
+
+                long now = System.currentTimeMillis() / 1000;
+
+                for (Map.Entry<ByteBuffer, Entry> entry : partitions.get(partition).entrySet()) {
+                    if (entry.getValue().isLive(now)) consumer.accept(entry.getKey().array(), entry.getValue().value);
+                }
+
+                continue;
+            }
+
+            int offset = 0;
+            boolean more = true;
+
+            while (more) {
+
+                byte[] position = ByteBuffer.allocate(8).putInt(partition).putInt(offset).array();
+
+                Response response = request(owner, SCAN, position, 0, null);
+
+                if (response.status != OK) throw new IOException("Scan of partition " + partition + " refused by " + owner);
+
+                ByteBuffer page = ByteBuffer.wrap(response.value);
+                more = page.get() != 0;
+
+                int[] count = new int[1];
+
+                readEntries(page, (key, expiration, value) -> {
+                    consumer.accept(key, value);
+                    count[0]++;
+                });
+
+                offset += count[0];
+            }
+        }
+    }
+
+    public Set<String> getLiveMembers() {
+        return liveMembers;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        running = false;
+
+        if (scheduler != null) scheduler.shutdownNow();
+        if (migrator != null) migrator.shutdownNow();
+        if (pinger != null) pinger.shutdownNow();
+        if (workers != null) workers.shutdownNow();
+
+        for (Peer peer : peers.values()) {
+            peer.close();
+        }
+
+        if (server != null) server.close();
+    }
+
+    // A write the owner doesn't answer is retried on the backup. PUT and REMOVE can be applied twice, but a TAKE the
+    // owner applied before timing out would hand the same value out again: it fails instead
+    private byte[] write(byte operation, byte[] key, long expiration, byte[] value) throws IOException {
+
+        IOException failure = null;
+
+        for (String replica : replicasOf(key)) {
+
+            if (replica == null) continue;
+
+            if (replica.equals(self)) return applyWrite(operation, key, expiration, value);
+
+            try {
+                Response response = request(replica, operation, key, expiration, value);
+
+                if (response.status != ERROR) return response.status == OK ? response.value : null;
+
+            } catch (IOException e) {
+                if (operation == TAKE) throw e;
+                failure = e;
+            }
+        }
+
+        throw failure != null ? failure : new IOException("No live replica");
+    }
+
+    // Applies a write as the owner of the key and copies it to the other replica. Returns the removed value
+    private byte[] applyWrite(byte operation, byte[] key, long expiration, byte[] value) {
+
+        byte[] previousValue = storeLocal(operation == PUT ? STORE : DELETE, key, expiration, value);
+
+        for (String replica : replicasOf(key)) {
+
+            if (replica == null || replica.equals(self)) continue;
+
+            try {
+                request(replica, operation == PUT ? STORE : DELETE, key, expiration, value);
+            } catch (IOException e) {
+                LOG.warn("Could not copy a write to replica {}: {}", replica, e.getMessage());
+            }
+        }
+
+        return previousValue;
+    }
+
+    private byte[] getLocal(byte[] key) {
+
+        Entry entry = partitions.get(partitionOf(key)).get(ByteBuffer.wrap(key));
+
+        return entry != null && entry.isLive(System.currentTimeMillis() / 1000) ? entry.value : null;
+    }
+
+    private byte[] storeLocal(byte operation, byte[] key, long expiration, byte[] value) {
+
+        long now = System.currentTimeMillis() / 1000;
+        int partitionIndex = partitionOf(key);
+
+        Entry previous = partitions.get(partitionIndex).put(ByteBuffer.wrap(key),
+                operation == STORE ? new Entry(value, expiration) : new Entry(null, now + TOMBSTONE_TTL));
+
+        // A write forwarded by a member that doesn't know the new replicas yet: it has to be handed off
+        if (operation == STORE && !isReplica(partitionIndex)) handoffPending = true;
+
+        return previous != null && previous.isLive(now) ? previous.value : null;
+    }
+
+    // Entries migrated from another member don't replace the ones written or removed since
+    private void migrateLocal(byte[] batch) {
+
+        readEntries(ByteBuffer.wrap(batch), (key, expiration, value) -> {
+
+            int partitionIndex = partitionOf(key);
+
+            partitions.get(partitionIndex).putIfAbsent(ByteBuffer.wrap(key), new Entry(value, expiration));
+
+            if (!isReplica(partitionIndex)) handoffPending = true;
+        });
+    }
+
+    // A page of the live entries of a partition, from an offset: more entries flag (1 byte), then the entries
+    private byte[] scanLocal(int partition, int offset) throws IOException {
+
+        ByteArrayOutputStream page = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(page);
+
+        out.writeByte(0);
+
+        long now = System.currentTimeMillis() / 1000;
+        int index = 0;
+        boolean more = false;
+
+        for (Map.Entry<ByteBuffer, Entry> entry : partitions.get(partition).entrySet()) {
+
+            if (!entry.getValue().isLive(now) || index++ < offset) continue;
+
+            if (page.size() >= BATCH_SIZE) {
+                more = true;
+                break;
+            }
+
+            writeEntry(out, entry.getKey().array(), entry.getValue());
+        }
+
+        byte[] result = page.toByteArray();
+        result[0] = (byte) (more ? 1 : 0);
+
+        return result;
+    }
+
+    // Entries of a batch: key length (4 bytes), key, expiration (8 bytes), value length (4 bytes), value
+    private static void writeEntry(DataOutputStream out, byte[] key, Entry entry) throws IOException {
+
+        out.writeInt(key.length);
+        out.write(key);
+        out.writeLong(entry.expiration);
+        out.writeInt(entry.value.length);
+        out.write(entry.value);
+    }
+
+    private static void readEntries(ByteBuffer entries, EntryConsumer consumer) {
+
+        while (entries.hasRemaining()) {
+
+            byte[] key = new byte[entries.getInt()];
+            entries.get(key);
+            long expiration = entries.getLong();
+            byte[] value = new byte[entries.getInt()];
+            entries.get(value);
+
+            consumer.accept(key, expiration, value);
+        }
+    }
+
+    private boolean isReplica(int partition) {
+        return Arrays.asList(replicas[partition]).contains(self);
+    }
+
+    private String[] replicasOf(byte[] key) {
+        return replicas[partitionOf(key)];
+    }
+
+    private int partitionOf(byte[] key) {
+
+        int hash = Arrays.hashCode(key);
+
+        return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % partitionCount;
+    }
+
+    // Rendezvous hashing: the two members with the highest score for a partition hold it
+    private String[][] computeReplicas(Set<String> live) {
+
+        String[][] result = new String[partitionCount][2];
+
+        for (int partition = 0; partition < partitionCount; partition++) {
+
+            long bestScore = Long.MIN_VALUE;
+            long secondScore = Long.MIN_VALUE;
+
+            for (String member : live) {
+
+                long score = mix(member.hashCode() * 0x9E3779B97F4A7C15L + partition);
+
+                if (result[partition][0] == null || score > bestScore) {
+                    result[partition][1] = result[partition][0];
+                    secondScore = bestScore;
+                    result[partition][0] = member;
+                    bestScore = score;
+                } else if (result[partition][1] == null || score > secondScore) {
+                    result[partition][1] = member;
+                    secondScore = score;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static long mix(long z) {
+
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+
+        return z ^ (z >>> 31);
+    }
+
+    // The members are pinged in parallel, so that a round lasts at most one connection and one request timeout
+    // whatever the number of dead members
+    private void heartbeat() {
+
+        List<Future<?>> pings = new ArrayList<>();
+
+        for (String member : members) {
+
+            if (member.equals(self)) continue;
+
+            pings.add(pinger.submit(() -> {
+                try {
+                    request(member, PING, new byte[0], 0, null);
+                    lastSeen.put(member, System.currentTimeMillis());
+                } catch (IOException e) {
+                    LOG.debug("Member {} didn't answer: {}", member, e.getMessage());
+                }
+            }));
+        }
+
+        for (Future<?> ping : pings) {
+            try {
+                ping.get();
+            } catch (ExecutionException e) {
+                LOG.error("Error when pinging a member: {}", e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+
+        Set<String> live = new TreeSet<>();
+        live.add(self);
+
+        for (Map.Entry<String, Long> member : lastSeen.entrySet()) {
+            if (now - member.getValue() < FAILURE_TIMEOUT) live.add(member.getKey());
+        }
+
+        if (!live.equals(liveMembers)) {
+
+            LOG.info("Cluster members changed from {} to {}", liveMembers, live);
+
+            String[][] previousReplicas = replicas;
+
+            liveMembers = live;
+            replicas = computeReplicas(live);
+
+            planHandoffs(previousReplicas, replicas);
+        }
+
+        // The migration runs on its own thread: the heartbeats go on while partitions are moved
+        if (handoffPending && migrationScheduled.compareAndSet(false, true)) {
+            migrator.execute(this::migrate);
+        }
+    }
+
+    // The new replicas of the partitions this node still holds have to receive them. The partitions this node
+    // doesn't hold anymore are handed off to all their replicas by migrate()
+    private void planHandoffs(String[][] previousReplicas, String[][] newReplicas) {
+
+        for (int partition = 0; partition < partitionCount; partition++) {
+
+            List<String> previous = Arrays.asList(previousReplicas[partition]);
+
+            if (!Arrays.asList(newReplicas[partition]).contains(self)) continue;
+
+            for (String replica : newReplicas[partition]) {
+
+                if (replica == null || replica.equals(self) || previous.contains(replica)) continue;
+
+                pendingHandoffs.computeIfAbsent(partition, key -> ConcurrentHashMap.newKeySet()).add(replica);
+            }
+        }
+
+        handoffPending = true;
+    }
+
+    // Pushes the partitions held by this node to their new replicas, by batches. An entry of a partition this node
+    // doesn't hold anymore is only dropped once every replica acknowledged it, and if it wasn't written again since.
+    // What couldn't be handed off is retried after the next heartbeat.
+    private void migrate() {
+
+        migrationScheduled.set(false);
+        handoffPending = false;
+
+        long start = System.currentTimeMillis();
+        long moved = 0;
+
+        String[][] currentReplicas = replicas;
+
+        for (int partition = 0; partition < partitionCount && running; partition++) {
+
+            Set<String> targets = new TreeSet<>();
+
+            Set<String> pending = pendingHandoffs.remove(partition);
+            if (pending != null) targets.addAll(pending);
+
+            List<String> partitionReplicas = Arrays.asList(currentReplicas[partition]);
+            boolean held = partitionReplicas.contains(self);
+
+            if (!held) {
+                for (String replica : partitionReplicas) {
+                    if (replica != null) targets.add(replica);
+                }
+            }
+
+            // Members that aren't replicas anymore don't need the partition
+            targets.retainAll(partitionReplicas);
+            targets.remove(self);
+
+            long now = System.currentTimeMillis() / 1000;
+
+            List<Map.Entry<ByteBuffer, Entry>> entries = new ArrayList<>();
+
+            for (Map.Entry<ByteBuffer, Entry> entry : partitions.get(partition).entrySet()) {
+                if (entry.getValue().isLive(now)) entries.add(entry);
+            }
+
+            if (entries.isEmpty() || targets.isEmpty()) continue;
+
+            Set<String> failedTargets = new TreeSet<>();
+
+            for (String target : targets) {
+                try {
+                    sendEntries(target, entries);
+                } catch (IOException e) {
+                    LOG.warn("Could not move partition {} to {}: {}", partition, target, e.getMessage());
+                    failedTargets.add(target);
+                }
+            }
+
+            if (!failedTargets.isEmpty()) {
+                if (held) pendingHandoffs.computeIfAbsent(partition, key -> ConcurrentHashMap.newKeySet()).addAll(failedTargets);
+                handoffPending = true;
+                continue;
+            }
+
+            moved += entries.size();
+
+            if (!held) {
+
+                for (Map.Entry<ByteBuffer, Entry> entry : entries) {
+                    partitions.get(partition).remove(entry.getKey(), entry.getValue());
+                }
+
+                // Written while the partition was moved
+                for (Entry entry : partitions.get(partition).values()) {
+                    if (entry.isLive(now)) handoffPending = true;
+                }
+            }
+        }
+
+        LOG.info("Moved {} entries to their new replicas in {}ms", moved, System.currentTimeMillis() - start);
+    }
+
+    private void sendEntries(String target, List<Map.Entry<ByteBuffer, Entry>> entries) throws IOException {
+
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(batch);
+
+        for (Map.Entry<ByteBuffer, Entry> entry : entries) {
+
+            writeEntry(out, entry.getKey().array(), entry.getValue());
+
+            if (batch.size() >= BATCH_SIZE) {
+                sendBatch(target, batch.toByteArray());
+                batch.reset();
+            }
+        }
+
+        if (batch.size() > 0) sendBatch(target, batch.toByteArray());
+    }
+
+    private void sendBatch(String target, byte[] batch) throws IOException {
+
+        Response response = request(target, MIGRATE, new byte[0], 0, batch);
+
+        if (response.status != OK) throw new IOException("Batch refused by " + target);
+    }
+
+    private void purge() {
+
+        long now = System.currentTimeMillis() / 1000;
+
+        for (ConcurrentHashMap<ByteBuffer, Entry> partition : partitions) {
+            partition.values().removeIf(entry -> entry.expiration != 0 && entry.expiration < now);
+        }
+    }
+
+    private Response request(String member, byte operation, byte[] key, long expiration, byte[] value) throws IOException {
+
+        Peer peer = peers.computeIfAbsent(member, Peer::new);
+
+        return peer.send(operation, key, expiration, value);
+    }
+
+    private void accept() {
+
+        while (running) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+
+                daemonThreads("cluster-connection").newThread(() -> serve(socket)).start();
+
+            } catch (IOException e) {
+                if (running) LOG.error("Error when accepting a cluster connection: {}", e.getMessage());
+            }
+        }
+    }
+
+    // Reads the requests of a member. They are handled by the workers as a write may wait for its backup.
+    // The connection is closed on the first frame that is not authenticated or not well formed
+    private void serve(Socket socket) {
+
+        try (Socket connection = socket;
+             ClusterChannel channel = ClusterChannel.accept(connection, secret)) {
+
+            while (running) {
+
+                ByteBuffer request = ByteBuffer.wrap(channel.read());
+
+                byte operation = request.get();
+                long requestId = request.getLong();
+
+                int keyLength = request.getInt();
+                if (keyLength < 0 || keyLength > request.remaining()) throw new ProtocolException("Invalid key length");
+
+                byte[] key = new byte[keyLength];
+                request.get(key);
+
+                long expiration = 0;
+                byte[] value = null;
+
+                if (operation == PUT || operation == STORE || operation == MIGRATE) {
+                    expiration = request.getLong();
+                    value = new byte[request.remaining()];
+                    request.get(value);
+                }
+
+                long requestExpiration = expiration;
+                byte[] requestValue = value;
+
+                workers.execute(() -> respond(channel, requestId, handle(operation, key, requestExpiration, requestValue)));
+            }
+
+        } catch (EOFException | SocketException e) {
+            LOG.debug("Cluster connection closed: {}", e.getMessage());
+        } catch (ProtocolException | BufferUnderflowException e) {
+            LOG.warn("Closing cluster connection from {}: {}", socket.getRemoteSocketAddress(), e.getMessage());
+        } catch (IOException | RejectedExecutionException e) {
+            if (running) LOG.error("Error on cluster connection: {}", e.getMessage());
+        }
+    }
+
+    private Response handle(byte operation, byte[] key, long expiration, byte[] value) {
+
+        switch (operation) {
+
+            case GET:
+                byte[] result = getLocal(key);
+                return result != null ? new Response(OK, result) : new Response(NOT_FOUND, null);
+
+            case PUT:
+            case REMOVE:
+                applyWrite(operation, key, expiration, value);
+                return new Response(OK, null);
+
+            case TAKE:
+                byte[] removed = applyWrite(operation, key, expiration, value);
+                return removed != null ? new Response(OK, removed) : new Response(NOT_FOUND, null);
+
+            case STORE:
+            case DELETE:
+                storeLocal(operation, key, expiration, value);
+                return new Response(OK, null);
+
+            case MIGRATE:
+                try {
+                    migrateLocal(value);
+                    return new Response(OK, null);
+                } catch (BufferUnderflowException | NegativeArraySizeException e) {
+                    return new Response(ERROR, null);
+                }
+
+            case SCAN:
+                if (key.length != 8) return new Response(ERROR, null);
+
+                ByteBuffer position = ByteBuffer.wrap(key);
+                int partition = position.getInt();
+                int offset = position.getInt();
+
+                if (partition < 0 || partition >= partitionCount || offset < 0) return new Response(ERROR, null);
+
+                try {
+                    return new Response(OK, scanLocal(partition, offset));
+                } catch (IOException e) {
+                    return new Response(ERROR, null);
+                }
+
+            case PING:
+                return new Response(OK, null);
+
+            default:
+                return new Response(ERROR, null);
+        }
+    }
+
+    private void respond(ClusterChannel channel, long requestId, Response response) {
+
+        int valueLength = response.value != null ? response.value.length : 0;
+
+        ByteBuffer frame = ByteBuffer.allocate(1 + 8 + valueLength);
+        frame.put(response.status);
+        frame.putLong(requestId);
+        if (response.value != null) frame.put(response.value);
+
+        try {
+            channel.write(frame.array());
+        } catch (IOException e) {
+            LOG.debug("Could not answer a cluster request: {}", e.getMessage());
+        }
+    }
+
+    // Connection to another member, multiplexing the requests of all the threads
+    private class Peer {
+
+        private final String member;
+
+        private ClusterChannel channel;
+
+        private final ConcurrentHashMap<Long, CompletableFuture<Response>> pendingRequests = new ConcurrentHashMap<>();
+
+        private Peer(String member) {
+            this.member = member;
+        }
+
+        private Response send(byte operation, byte[] key, long expiration, byte[] value) throws IOException {
+
+            long requestId = requestIds.incrementAndGet();
+            CompletableFuture<Response> future = new CompletableFuture<>();
+
+            pendingRequests.put(requestId, future);
+
+            try {
+                int valueLength = value != null ? 8 + value.length : 0;
+
+                ByteBuffer frame = ByteBuffer.allocate(1 + 8 + 4 + key.length + valueLength);
+                frame.put(operation);
+                frame.putLong(requestId);
+                frame.putInt(key.length);
+                frame.put(key);
+                if (value != null) {
+                    frame.putLong(expiration);
+                    frame.put(value);
+                }
+
+                synchronized (this) {
+                    connect().write(frame.array());
+                }
+
+                return future.get(REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+
+            } catch (IOException e) {
+                close();
+                throw e;
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            } catch (TimeoutException e) {
+                throw new IOException("Request to " + member + " timed out");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } finally {
+                pendingRequests.remove(requestId);
+            }
+        }
+
+        private ClusterChannel connect() throws IOException {
+
+            if (channel != null) return channel;
+
+            Socket connection = new Socket();
+
+            try {
+                connection.connect(toAddress(member), REQUEST_TIMEOUT);
+                connection.setTcpNoDelay(true);
+
+                channel = ClusterChannel.connect(connection, secret);
+            } catch (IOException e) {
+                connection.close();
+                throw e;
+            }
+
+            ClusterChannel connected = channel;
+
+            daemonThreads("cluster-peer").newThread(() -> readResponses(connected)).start();
+
+            return channel;
+        }
+
+        // The connection is closed on the first response that is not authenticated or not well formed
+        private void readResponses(ClusterChannel connection) {
+
+            try {
+                while (true) {
+
+                    ByteBuffer response = ByteBuffer.wrap(connection.read());
+
+                    byte status = response.get();
+                    long requestId = response.getLong();
+
+                    byte[] value = new byte[response.remaining()];
+                    response.get(value);
+
+                    CompletableFuture<Response> future = pendingRequests.get(requestId);
+
+                    if (future != null) future.complete(new Response(status, value));
+                }
+            } catch (ProtocolException | BufferUnderflowException e) {
+                LOG.warn("Closing connection to {}: {}", member, e.getMessage());
+            } catch (IOException e) {
+                LOG.debug("Connection to {} closed: {}", member, e.getMessage());
+            }
+
+            synchronized (this) {
+                if (channel == connection) close();
+            }
+
+            for (CompletableFuture<Response> future : pendingRequests.values()) {
+                future.completeExceptionally(new IOException("Connection to " + member + " lost"));
+            }
+        }
+
+        private synchronized void close() {
+
+            if (channel == null) return;
+
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.debug("Error when closing connection to {}: {}", member, e.getMessage());
+            }
+
+            channel = null;
+        }
+    }
+
+    private static InetSocketAddress toAddress(String member) {
+
+        int separator = member.lastIndexOf(':');
+
+        return new InetSocketAddress(member.substring(0, separator), Integer.parseInt(member.substring(separator + 1)));
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
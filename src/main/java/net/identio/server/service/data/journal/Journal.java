@@ -0,0 +1,483 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.data.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+// Write-ahead journal of a key-value store.
+// Mutations are appended to memory-mapped segment files: once written, they survive a crash of the process,
+// and segments are flushed to disk periodically. A snapshot of the whole store replaces the older segments.
+// Record: length (4 bytes), CRC32 of the rest (4 bytes), operation (1 byte), key length (4 bytes), key, value.
+// A zero length marks the end of a segment; a record with an invalid checksum was torn by a crash.
+public class Journal implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Journal.class);
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private static final int HEADER_LENGTH = 4 + 4 + 1 + 4;
+
+    private static final int REPLAY_BATCH_SIZE = 1024;
+
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("journal-(\\d+)\\.log");
+    private static final Pattern SNAPSHOT_PATTERN = Pattern.compile("snapshot-(\\d+)\\.snap");
+
+    public interface Replayer {
+
+        void put(byte[] key, byte[] value);
+
+        void remove(byte[] key);
+    }
+
+    public interface SnapshotSource {
+
+        // Calls the consumer with every live entry of the store
+        void forEach(BiConsumer<byte[], byte[]> consumer);
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+
+    private long segmentSequence;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+
+    private final CRC32 crc = new CRC32();
+
+    // Mutations hold the read side while they are recorded and applied to the store, the snapshot holds the write
+    // side while it rolls the segment: a mutation recorded before the roll is always seen by the snapshot
+    private final ReadWriteLock rollLock = new ReentrantReadWriteLock();
+
+    private ScheduledExecutorService executor;
+    private volatile boolean syncEveryWrite;
+
+    public Journal(Path directory, int segmentSize) throws IOException {
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        Files.createDirectories(directory);
+    }
+
+    // Rebuilds the store from the last snapshot and the following segments, then opens a new segment.
+    // Records are dispatched by key to several threads: the mutations of a given key are applied in order.
+    public void recover(Replayer replayer, int threads) throws IOException {
+
+        long start = System.currentTimeMillis();
+
+        long snapshotSequence = latestSequence(SNAPSHOT_PATTERN);
+        List<Long> segments = sequences(SEGMENT_PATTERN);
+
+        ParallelReplayer parallelReplayer = new ParallelReplayer(replayer, threads);
+        long records = 0;
+
+        try {
+            if (snapshotSequence >= 0) {
+                records += read(snapshotPath(snapshotSequence), parallelReplayer);
+            }
+
+            for (long sequence : segments) {
+                if (sequence >= snapshotSequence) {
+                    records += read(segmentPath(sequence), parallelReplayer);
+                }
+            }
+        } finally {
+            parallelReplayer.close();
+        }
+
+        segmentSequence = Math.max(snapshotSequence, segments.isEmpty() ? -1 : segments.get(segments.size() - 1)) + 1;
+        openSegment();
+
+        LOG.info("Replayed {} journal records from {} in {}ms", records, directory, System.currentTimeMillis() - start);
+    }
+
+    // Takes a snapshot of the store and flushes the current segment on a regular basis
+    public void schedule(SnapshotSource source, long snapshotInterval, long syncInterval) {
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "journal-" + directory.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot(source);
+            } catch (IOException e) {
+                LOG.error("Error when writing a snapshot of journal {}: {}", directory, e.getMessage());
+            }
+        }, snapshotInterval, snapshotInterval, TimeUnit.MILLISECONDS);
+
+        if (syncInterval > 0) {
+            executor.scheduleWithFixedDelay(this::sync, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        } else {
+            syncEveryWrite = true;
+        }
+    }
+
+    public void put(byte[] key, byte[] value) throws IOException {
+        put(key, value, () -> {});
+    }
+
+    public void remove(byte[] key) throws IOException {
+        remove(key, () -> {});
+    }
+
+    // Records the mutation, then applies it to the store with the given action
+    public void put(byte[] key, byte[] value, Runnable apply) throws IOException {
+        mutate(PUT, key, value, apply);
+    }
+
+    public void remove(byte[] key, Runnable apply) throws IOException {
+        mutate(REMOVE, key, new byte[0], apply);
+    }
+
+    public synchronized void sync() {
+        if (segment != null) segment.force();
+    }
+
+    // The journal is rolled to a new segment before the store is read: mutations that happen while the snapshot is
+    // written land in this segment and are replayed on top of the snapshot. Records are idempotent, so an entry
+    // present in both is simply applied twice.
+    public void snapshot(SnapshotSource source) throws IOException {
+
+        long snapshotSequence;
+
+        rollLock.writeLock().lock();
+
+        try {
+            synchronized (this) {
+                rollSegment();
+                snapshotSequence = segmentSequence;
+            }
+        } finally {
+            rollLock.writeLock().unlock();
+        }
+
+        Path temporaryPath = directory.resolve("snapshot-" + snapshotSequence + ".tmp");
+
+        try (FileChannel snapshotChannel = FileChannel.open(temporaryPath,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(snapshotChannel)))) {
+
+            CRC32 snapshotCrc = new CRC32();
+            IOException[] error = new IOException[1];
+
+            source.forEach((key, value) -> {
+                if (error[0] != null) return;
+                try {
+                    out.write(encode(snapshotCrc, PUT, key, value));
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            });
+
+            if (error[0] != null) throw error[0];
+
+            out.flush();
+            snapshotChannel.force(true);
+        }
+
+        Files.move(temporaryPath, snapshotPath(snapshotSequence), StandardCopyOption.ATOMIC_MOVE);
+
+        // The renaming must be on disk before the segments it replaces are deleted
+        syncDirectory();
+
+        // Everything before the snapshot is now obsolete
+        for (long sequence : sequences(SEGMENT_PATTERN)) {
+            if (sequence < snapshotSequence) Files.deleteIfExists(segmentPath(sequence));
+        }
+
+        for (long sequence : sequences(SNAPSHOT_PATTERN)) {
+            if (sequence < snapshotSequence) Files.deleteIfExists(snapshotPath(sequence));
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+
+        if (executor != null) executor.shutdownNow();
+
+        if (segment != null) {
+            segment.force();
+            channel.close();
+            segment = null;
+        }
+    }
+
+    private void mutate(byte op, byte[] key, byte[] value, Runnable apply) throws IOException {
+
+        rollLock.readLock().lock();
+
+        try {
+            append(op, key, value);
+            apply.run();
+        } finally {
+            rollLock.readLock().unlock();
+        }
+    }
+
+    private synchronized void append(byte op, byte[] key, byte[] value) throws IOException {
+
+        int length = HEADER_LENGTH + key.length + value.length;
+
+        if (length > segmentSize) throw new IllegalArgumentException("Journal record is larger than a segment");
+
+        if (segment.remaining() < length) rollSegment();
+
+        int position = segment.position();
+
+        crc.reset();
+        crc.update(op);
+        crc.update(ByteBuffer.allocate(4).putInt(0, key.length).array(), 0, 4);
+        crc.update(key, 0, key.length);
+        crc.update(value, 0, value.length);
+
+        segment.position(position + 4);
+        segment.putInt((int) crc.getValue());
+        segment.put(op);
+        segment.putInt(key.length);
+        segment.put(key);
+        segment.put(value);
+
+        // The length is written last: a record torn by a crash is seen as the end of the segment
+        segment.putInt(position, length);
+
+        if (syncEveryWrite) segment.force();
+    }
+
+    private byte[] encode(CRC32 recordCrc, byte op, byte[] key, byte[] value) {
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + key.length + value.length);
+
+        buffer.putInt(buffer.capacity());
+        buffer.putInt(0);
+        buffer.put(op);
+        buffer.putInt(key.length);
+        buffer.put(key);
+        buffer.put(value);
+
+        recordCrc.reset();
+        recordCrc.update(buffer.array(), 8, buffer.capacity() - 8);
+        buffer.putInt(4, (int) recordCrc.getValue());
+
+        return buffer.array();
+    }
+
+    private long read(Path path, ParallelReplayer replayer) throws IOException {
+
+        long records = 0;
+        CRC32 recordCrc = new CRC32();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+
+            while (true) {
+
+                int length;
+
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                if (length < HEADER_LENGTH || length > segmentSize) break;
+
+                int expectedCrc = in.readInt();
+
+                byte[] body = new byte[length - 8];
+                in.readFully(body);
+
+                recordCrc.reset();
+                recordCrc.update(body, 0, body.length);
+
+                if ((int) recordCrc.getValue() != expectedCrc) {
+                    LOG.warn("Ignoring torn record at the end of {}", path.getFileName());
+                    break;
+                }
+
+                ByteBuffer buffer = ByteBuffer.wrap(body);
+
+                byte op = buffer.get();
+                byte[] key = new byte[buffer.getInt()];
+                buffer.get(key);
+                byte[] value = new byte[buffer.remaining()];
+                buffer.get(value);
+
+                replayer.dispatch(op, key, value);
+                records++;
+            }
+
+        } catch (EOFException e) {
+            LOG.warn("Ignoring truncated record at the end of {}", path.getFileName());
+        }
+
+        return records;
+    }
+
+    private void rollSegment() throws IOException {
+
+        if (segment != null) {
+            segment.force();
+            channel.close();
+        }
+
+        segmentSequence++;
+        openSegment();
+    }
+
+    private void openSegment() throws IOException {
+
+        channel = FileChannel.open(segmentPath(segmentSequence),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+
+    private void syncDirectory() throws IOException {
+
+        try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            directoryChannel.force(true);
+        } catch (AccessDeniedException e) {
+            // Directories can't be opened on Windows, where a renaming is durable once done
+            LOG.debug("Could not sync directory {}", directory);
+        }
+    }
+
+    private Path segmentPath(long sequence) {
+        return directory.resolve(String.format("journal-%016d.log", sequence));
+    }
+
+    private Path snapshotPath(long sequence) {
+        return directory.resolve(String.format("snapshot-%016d.snap", sequence));
+    }
+
+    private long latestSequence(Pattern pattern) throws IOException {
+
+        List<Long> sequences = sequences(pattern);
+
+        return sequences.isEmpty() ? -1 : sequences.get(sequences.size() - 1);
+    }
+
+    private List<Long> sequences(Pattern pattern) throws IOException {
+
+        List<Long> sequences = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                Matcher matcher = pattern.matcher(path.getFileName().toString());
+                if (matcher.matches()) sequences.add(Long.parseLong(matcher.group(1)));
+            }
+        }
+
+        sequences.sort(null);
+
+        return sequences;
+    }
+
+    // Dispatches the records to single-threaded partitions chosen by key
+    private static class ParallelReplayer implements Closeable {
+
+        private final Replayer replayer;
+        private final ExecutorService[] partitions;
+        private final List<List<Object[]>> batches = new ArrayList<>();
+
+        private final List<Future<?>> futures = new ArrayList<>();
+
+        private ParallelReplayer(Replayer replayer, int threads) {
+
+            this.replayer = replayer;
+            this.partitions = new ExecutorService[threads];
+
+            for (int i = 0; i < threads; i++) {
+                partitions[i] = Executors.newSingleThreadExecutor();
+                batches.add(new ArrayList<>(REPLAY_BATCH_SIZE));
+            }
+        }
+
+        private void dispatch(byte op, byte[] key, byte[] value) {
+
+            int partition = (Arrays.hashCode(key) & 0x7fffffff) % partitions.length;
+
+            List<Object[]> batch = batches.get(partition);
+            batch.add(new Object[]{op, key, value});
+
+            if (batch.size() == REPLAY_BATCH_SIZE) {
+                submit(partition);
+            }
+        }
+
+        private void submit(int partition) {
+
+            List<Object[]> batch = batches.get(partition);
+            batches.set(partition, new ArrayList<>(REPLAY_BATCH_SIZE));
+
+            futures.add(partitions[partition].submit(() -> {
+                for (Object[] record : batch) {
+                    if ((byte) record[0] == PUT) {
+                        replayer.put((byte[]) record[1], (byte[]) record[2]);
+                    } else {
+                        replayer.remove((byte[]) record[1]);
+                    }
+                }
+            }));
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            for (int i = 0; i < partitions.length; i++) {
+                if (!batches.get(i).isEmpty()) submit(i);
+                partitions[i].shutdown();
+            }
+
+            try {
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Journal replay interrupted");
+            } catch (ExecutionException e) {
+                throw new IOException("Error when replaying the journal", e.getCause());
+            }
+        }
+    }
+}
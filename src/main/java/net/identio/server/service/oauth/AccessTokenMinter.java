@@ -0,0 +1,354 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth;
+
+import net.identio.server.exceptions.InitializationException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.Arrays;
+
+// Builds signed JWT access tokens without going through the generic JWT builder.
+// The header segment and the issuer claim are encoded once. Each thread writes the claims, their base64url
+// encoding and the signature in its own buffers, with a Signature instance initialized once with the key.
+public class AccessTokenMinter {
+
+    private static final byte[] BASE64URL_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int ES256_COORDINATE_LENGTH = 32;
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    // Large enough for RSA keys up to 8192 bits
+    private static final int SIGNATURE_BUFFER_SIZE = 1024;
+
+    private final String jdkAlgorithm;
+    private final PrivateKey privateKey;
+    private final boolean derSignature;
+
+    private final byte[] headerSegment;
+    private final byte[] issuerClaim;
+
+    private final ThreadLocal<MintingContext> contexts;
+
+    private static class MintingContext {
+
+        private final Signature signature;
+
+        private byte[] payload = new byte[INITIAL_BUFFER_SIZE];
+        private int payloadLength;
+
+        private byte[] token = new byte[INITIAL_BUFFER_SIZE];
+
+        private final byte[] signatureBuffer = new byte[SIGNATURE_BUFFER_SIZE];
+        private final byte[] concatenatedSignature = new byte[2 * ES256_COORDINATE_LENGTH];
+
+        private MintingContext(Signature signature) {
+            this.signature = signature;
+        }
+    }
+
+    public AccessTokenMinter(PrivateKey privateKey, String algorithm, String keyId, String issuer)
+            throws InitializationException {
+
+        switch (algorithm) {
+            case "RS256":
+                jdkAlgorithm = "SHA256withRSA";
+                break;
+            case "ES256":
+                jdkAlgorithm = "SHA256withECDSA";
+                break;
+            case "EdDSA":
+                jdkAlgorithm = "Ed25519";
+                break;
+            default:
+                throw new InitializationException("Unsupported token signature algorithm: " + algorithm);
+        }
+
+        this.privateKey = privateKey;
+
+        // The JDK encodes ECDSA signatures in DER while JWS expects the raw R and S values
+        this.derSignature = "ES256".equals(algorithm);
+
+        String header = "{\"alg\":\"" + algorithm + "\",\"typ\":\"JWT\"" +
+                (keyId != null ? ",\"kid\":\"" + keyId + "\"" : "") + "}";
+
+        byte[] headerBytes = header.getBytes(StandardCharsets.UTF_8);
+        byte[] encodedHeader = new byte[encodedLength(headerBytes.length) + 1];
+        encodeBase64Url(headerBytes, headerBytes.length, encodedHeader, 0);
+        encodedHeader[encodedHeader.length - 1] = '.';
+
+        headerSegment = encodedHeader;
+
+        issuerClaim = toFirstClaim("iss", issuer);
+
+        // Fail at startup rather than on the first token if the key doesn't match the algorithm
+        createSignature();
+
+        contexts = ThreadLocal.withInitial(() -> new MintingContext(createSignature()));
+    }
+
+    // Times are in seconds since the epoch. The subject is omitted when null, like in the generic builder
+    public String mint(String subject, String clientId, String scope, String jwtId, long issuedAt, long expiration) {
+
+        MintingContext context = contexts.get();
+
+        context.payloadLength = 0;
+
+        writeBytes(context, issuerClaim);
+        writeLongClaim(context, "exp", expiration);
+        writeLongClaim(context, "iat", issuedAt);
+        writeLongClaim(context, "nbf", issuedAt);
+
+        if (subject != null) writeStringClaim(context, "sub", subject);
+
+        writeStringClaim(context, "jti", jwtId);
+
+        if (scope != null) writeStringClaim(context, "scope", scope);
+        if (clientId != null) writeStringClaim(context, "client_id", clientId);
+
+        writeByte(context, (byte) '}');
+
+        // header.payload, then the signature of these bytes
+        int signingInputLength = headerSegment.length + encodedLength(context.payloadLength);
+
+        ensureTokenCapacity(context, signingInputLength + 1 + encodedLength(SIGNATURE_BUFFER_SIZE));
+
+        System.arraycopy(headerSegment, 0, context.token, 0, headerSegment.length);
+        encodeBase64Url(context.payload, context.payloadLength, context.token, headerSegment.length);
+
+        byte[] signature = context.signatureBuffer;
+        int signatureLength;
+
+        try {
+            context.signature.update(context.token, 0, signingInputLength);
+            signatureLength = context.signature.sign(signature, 0, signature.length);
+        } catch (SignatureException e) {
+            // The signature was initialized at creation: it can't be in an invalid state
+            throw new IllegalStateException("Could not sign access token", e);
+        }
+
+        if (derSignature) {
+            derToConcatenated(signature, context.concatenatedSignature);
+            signature = context.concatenatedSignature;
+            signatureLength = signature.length;
+        }
+
+        context.token[signingInputLength] = '.';
+
+        int tokenLength = signingInputLength + 1 +
+                encodeBase64Url(signature, signatureLength, context.token, signingInputLength + 1);
+
+        // Only ASCII characters were written
+        return new String(context.token, 0, tokenLength, StandardCharsets.ISO_8859_1);
+    }
+
+    private Signature createSignature() {
+
+        try {
+            Signature signature = Signature.getInstance(jdkAlgorithm);
+            signature.initSign(privateKey);
+            return signature;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not initialize " + jdkAlgorithm + " signature", e);
+        }
+    }
+
+    // Claims are written as ,"name":value after the first one
+    private static void writeName(MintingContext context, String name) {
+
+        writeByte(context, (byte) ',');
+        writeByte(context, (byte) '"');
+        writeEscaped(context, name);
+        writeByte(context, (byte) '"');
+        writeByte(context, (byte) ':');
+    }
+
+    private static void writeStringClaim(MintingContext context, String name, String value) {
+
+        writeName(context, name);
+        writeByte(context, (byte) '"');
+        writeEscaped(context, value);
+        writeByte(context, (byte) '"');
+    }
+
+    private static void writeLongClaim(MintingContext context, String name, long value) {
+
+        writeName(context, name);
+
+        if (value < 0) {
+            writeByte(context, (byte) '-');
+            value = -value;
+        }
+
+        long divisor = 1;
+
+        while (value / divisor >= 10) divisor *= 10;
+
+        for (; divisor > 0; divisor /= 10) {
+            writeByte(context, (byte) ('0' + value / divisor % 10));
+        }
+    }
+
+    // JSON string escaping and UTF-8 encoding in a single pass
+    private static void writeEscaped(MintingContext context, String value) {
+
+        for (int i = 0; i < value.length(); i++) {
+
+            char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                writeByte(context, (byte) '\\');
+                writeByte(context, (byte) c);
+            } else if (c < 0x20) {
+                writeByte(context, (byte) '\\');
+                writeByte(context, (byte) 'u');
+                writeByte(context, (byte) '0');
+                writeByte(context, (byte) '0');
+                writeByte(context, hexDigit(c >> 4));
+                writeByte(context, hexDigit(c & 0xF));
+            } else if (c < 0x80) {
+                writeByte(context, (byte) c);
+            } else if (c < 0x800) {
+                writeByte(context, (byte) (0xC0 | c >> 6));
+                writeByte(context, (byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                writeByte(context, (byte) (0xF0 | codePoint >> 18));
+                writeByte(context, (byte) (0x80 | codePoint >> 12 & 0x3F));
+                writeByte(context, (byte) (0x80 | codePoint >> 6 & 0x3F));
+                writeByte(context, (byte) (0x80 | codePoint & 0x3F));
+            } else {
+                writeByte(context, (byte) (0xE0 | c >> 12));
+                writeByte(context, (byte) (0x80 | c >> 6 & 0x3F));
+                writeByte(context, (byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    private static byte hexDigit(int value) {
+        return (byte) (value < 10 ? '0' + value : 'a' + value - 10);
+    }
+
+    private static void writeBytes(MintingContext context, byte[] bytes) {
+
+        ensurePayloadCapacity(context, bytes.length);
+
+        System.arraycopy(bytes, 0, context.payload, context.payloadLength, bytes.length);
+        context.payloadLength += bytes.length;
+    }
+
+    private static void writeByte(MintingContext context, byte b) {
+
+        ensurePayloadCapacity(context, 1);
+
+        context.payload[context.payloadLength++] = b;
+    }
+
+    private static void ensurePayloadCapacity(MintingContext context, int additional) {
+
+        if (context.payloadLength + additional > context.payload.length) {
+            context.payload = Arrays.copyOf(context.payload, Math.max(context.payload.length * 2, context.payloadLength + additional));
+        }
+    }
+
+    private static void ensureTokenCapacity(MintingContext context, int capacity) {
+
+        if (capacity > context.token.length) {
+            context.token = new byte[Math.max(context.token.length * 2, capacity)];
+        }
+    }
+
+    // {"name":"value" without the closing brace, to be followed by the other claims
+    private static byte[] toFirstClaim(String name, String value) {
+
+        MintingContext context = new MintingContext(null);
+
+        writeStringClaim(context, name, value);
+
+        // The leading comma opens the object instead
+        context.payload[0] = '{';
+
+        return Arrays.copyOf(context.payload, context.payloadLength);
+    }
+
+    private static int encodedLength(int length) {
+        return (length * 4 + 2) / 3;
+    }
+
+    // Unpadded base64url encoding, returns the number of bytes written
+    private static int encodeBase64Url(byte[] src, int length, byte[] dst, int offset) {
+
+        int d = offset;
+        int s = 0;
+
+        for (; s + 3 <= length; s += 3) {
+
+            int bits = (src[s] & 0xFF) << 16 | (src[s + 1] & 0xFF) << 8 | src[s + 2] & 0xFF;
+
+            dst[d++] = BASE64URL_ALPHABET[bits >>> 18 & 0x3F];
+            dst[d++] = BASE64URL_ALPHABET[bits >>> 12 & 0x3F];
+            dst[d++] = BASE64URL_ALPHABET[bits >>> 6 & 0x3F];
+            dst[d++] = BASE64URL_ALPHABET[bits & 0x3F];
+        }
+
+        int remaining = length - s;
+
+        if (remaining > 0) {
+
+            int bits = (src[s] & 0xFF) << 16 | (remaining == 2 ? (src[s + 1] & 0xFF) << 8 : 0);
+
+            dst[d++] = BASE64URL_ALPHABET[bits >>> 18 & 0x3F];
+            dst[d++] = BASE64URL_ALPHABET[bits >>> 12 & 0x3F];
+
+            if (remaining == 2) dst[d++] = BASE64URL_ALPHABET[bits >>> 6 & 0x3F];
+        }
+
+        return d - offset;
+    }
+
+    // SEQUENCE { INTEGER r, INTEGER s } to the 64 bytes of r and s
+    private static void derToConcatenated(byte[] der, byte[] result) {
+
+        Arrays.fill(result, (byte) 0);
+
+        // The sequence length takes one byte for P-256 signatures
+        int offset = 2;
+
+        for (int i = 0; i < 2; i++) {
+
+            int length = der[offset + 1];
+            int start = offset + 2;
+
+            // Skip the sign byte of the integer
+            int skip = Math.max(0, length - ES256_COORDINATE_LENGTH);
+
+            System.arraycopy(der, start + skip, result, (i + 1) * ES256_COORDINATE_LENGTH - (length - skip), length - skip);
+
+            offset = start + length;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package net.identio.server.service.oauth;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import net.identio.server.service.oauth.model.OAuthToken;
+import net.identio.server.service.signature.SigningKey;
+import net.identio.server.service.signature.SigningKeyService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.Optional;
+
+@Service
+public class AccessTokenVerifier {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AccessTokenVerifier.class);
+
+    @Autowired
+    private SigningKeyService signingKeyService;
+
+    public boolean isSelfContained(String token) {
+
+        // A JWS compact serialization has exactly two dots, opaque tokens have none
+        int firstDot = token.indexOf('.');
+        int lastDot = token.lastIndexOf('.');
+
+        return firstDot > 0 && lastDot > firstDot && token.indexOf('.', firstDot + 1) == lastDot;
+    }
+
+    public Optional<OAuthToken> verify(String token) {
+
+        DecodedJWT jwt;
+
+        try {
+            // Tokens are checked with the published key they name, so that they outlive a key rotation
+            String keyId = JWT.decode(token).getKeyId();
+
+            SigningKey key = keyId != null ? signingKeyService.getKeySet().getKey(keyId) :
+                    signingKeyService.getActiveKey();
+
+            if (key == null) {
+                LOG.debug("Invalid access token: unknown key {}", keyId);
+                return Optional.empty();
+            }
+
+            jwt = key.getAccessTokenVerifier().verify(token);
+        } catch (JWTVerificationException e) {
+            LOG.debug("Invalid access token: {}", e.getMessage());
+            return Optional.empty();
+        }
+
+        return Optional.of(new OAuthToken()
+                .setValue(token)
+                .setType(OAuthToken.BEARER_TOKEN_TYPE)
+                .setActive(true)
+                .setIssuer(jwt.getIssuer())
+                .setSubject(jwt.getSubject())
+                .setUsername(jwt.getSubject())
+                .setClientId(jwt.getClaim("client_id").asString())
+                .setScope(jwt.getClaim("scope").asString())
+                .setJwtId(jwt.getId())
+                .setIssuedAt(toEpoch(jwt.getIssuedAt()))
+                .setNotBefore(toEpoch(jwt.getNotBefore()))
+                .setExpiration(toEpoch(jwt.getExpiresAt())));
+    }
+
+    private long toEpoch(Date date) {
+        return date != null ? date.getTime() / 1000 : 0;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth;
+
+import net.identio.server.exceptions.InitializationException;
+import net.identio.server.service.oauth.infrastructure.AuthorizationCodeRecordCodec;
+import net.identio.server.service.oauth.model.AuthorizationCode;
+import net.identio.server.utils.SecureIdentifiers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Optional;
+
+// Seals the data of an authorization code in the code itself, with AES-GCM:
+// version (1 byte), nonce (12 bytes), then the encrypted code record followed by the authentication tag.
+// The version and the nonce are authenticated too. The nonce identifies the code when it is redeemed.
+@Service
+public class AuthorizationCodeSealer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuthorizationCodeSealer.class);
+
+    private static final byte VERSION = 1;
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+    private static final int HEADER_LENGTH = 1 + NONCE_LENGTH;
+
+    private static final ThreadLocal<Cipher> AES_GCM = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new IllegalStateException("AES-GCM is not supported", e);
+        }
+    });
+
+
+    private SecretKey key;
+
+    @Autowired
+    public AuthorizationCodeSealer(OAuthConfiguration config) throws InitializationException {
+
+        String configuredKey = config.getStatelessCode().getKey();
+
+        if (configuredKey != null) {
+            key = new SecretKeySpec(decodeKey(configuredKey), "AES");
+            return;
+        }
+
+        if (config.isStatelessAuthorizationCode()) {
+            LOG.warn("No key configured for sealed authorization codes: codes can only be redeemed on this node until its next restart");
+        }
+
+        try {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(256);
+            key = generator.generateKey();
+        } catch (NoSuchAlgorithmException e) {
+            throw new InitializationException("Could not generate authorization code sealing key", e);
+        }
+    }
+
+    // AES-128, AES-192 or AES-256 key
+    private static byte[] decodeKey(String configuredKey) throws InitializationException {
+
+        byte[] decodedKey;
+
+        try {
+            decodedKey = Base64.getDecoder().decode(configuredKey);
+        } catch (IllegalArgumentException e) {
+            throw new InitializationException("The authorization code sealing key is not valid base64", e);
+        }
+
+        if (decodedKey.length != 16 && decodedKey.length != 24 && decodedKey.length != 32) {
+            LOG.error("Invalid authorization code sealing key length: {} bytes instead of 16, 24 or 32", decodedKey.length);
+            throw new InitializationException("Invalid authorization code sealing key length");
+        }
+
+        return decodedKey;
+    }
+
+    public String seal(AuthorizationCode code) {
+
+        byte[] record = AuthorizationCodeRecordCodec.encode(code);
+
+        byte[] sealed = new byte[HEADER_LENGTH + record.length + TAG_LENGTH];
+        sealed[0] = VERSION;
+
+        byte[] nonce = new byte[NONCE_LENGTH];
+        SecureIdentifiers.nextBytes(nonce);
+        System.arraycopy(nonce, 0, sealed, 1, NONCE_LENGTH);
+
+        try {
+            Cipher cipher = AES_GCM.get();
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+            cipher.updateAAD(sealed, 0, HEADER_LENGTH);
+            cipher.doFinal(record, 0, record.length, sealed, HEADER_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not seal authorization code", e);
+        }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sealed);
+    }
+
+    // Returns the code data if the code was sealed with our key and hasn't been tampered with
+    public Optional<AuthorizationCode> open(String value) {
+
+        byte[] sealed;
+
+        try {
+            sealed = Base64.getUrlDecoder().decode(value);
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+
+        if (sealed.length < HEADER_LENGTH + TAG_LENGTH || sealed[0] != VERSION) return Optional.empty();
+
+        byte[] record;
+
+        try {
+            Cipher cipher = AES_GCM.get();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, sealed, 1, NONCE_LENGTH));
+            cipher.updateAAD(sealed, 0, HEADER_LENGTH);
+            record = cipher.doFinal(sealed, HEADER_LENGTH, sealed.length - HEADER_LENGTH);
+        } catch (GeneralSecurityException e) {
+            LOG.debug("Invalid sealed authorization code: {}", e.getMessage());
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.of(AuthorizationCodeRecordCodec.decode(value, record));
+        } catch (BufferUnderflowException e) {
+            return Optional.empty();
+        }
+    }
+
+    // Identifier of a sealed code, derived from its nonce
+    public static String getCodeId(String value) {
+        return value.substring(0, (HEADER_LENGTH * 4 + 2) / 3);
+    }
+}
@@ -28,7 +28,6 @@ import net.identio.server.service.authorization.exceptions.NoScopeProvidedExcept
 import net.identio.server.service.authorization.exceptions.UnknownScopeException;
 import net.identio.server.service.oauth.infrastructure.AuthorizationCodeRepository;
 import net.identio.server.service.oauth.infrastructure.OAuthActorsRepository;
-import net.identio.server.service.oauth.infrastructure.exceptions.AuthorizationCodeDeleteException;
 import net.identio.server.service.oauth.infrastructure.exceptions.AuthorizationCodeFetchException;
 import net.identio.server.service.oauth.model.*;
 import net.identio.server.utils.MiscUtils;
@@ -81,10 +80,10 @@ public class AuthorizationCodeService {
         if (!isAuthorizationCodeGrantAuthorizedForClient(client))
             return Result.fail(OAuthErrors.UNAUTHORIZED_CLIENT);
 
-        // Fetch the authorization code data
+        // Fetch the authorization code data and remove it from the repository, so that it can only be redeemed once
         AuthorizationCode code;
         try {
-            Optional<AuthorizationCode> result = authorizationCodeRepository.getAuthorizationCodeByValue(request.getCode());
+            Optional<AuthorizationCode> result = authorizationCodeRepository.consume(request.getCode());
 
             if (!result.isPresent()) {
                 LOG.error("Unknown authorization code");
@@ -124,13 +123,6 @@ public class AuthorizationCodeService {
         if (!accessTokenResponse.isSuccess())
             return Result.serverError();
 
-        // Delete authorization code from repository
-        try {
-            authorizationCodeRepository.delete(code);
-        } catch (AuthorizationCodeDeleteException e) {
-            return Result.serverError();
-        }
-
         return Result.success(accessTokenResponse.get());
     }
 
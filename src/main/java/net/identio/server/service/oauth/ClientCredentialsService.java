@@ -50,6 +50,9 @@ public class ClientCredentialsService {
     @Autowired
     private AuthorizationService authorizationService;
 
+    @Autowired
+    private ClientTokenReuseCache tokenReuseCache;
+
     public Result<AccessTokenResponse> validateClientCredentialsRequest(
             ClientCredentialsRequest request, String authorization) {
 
@@ -74,6 +77,14 @@ public class ClientCredentialsService {
         if (!scopeResult.isSuccess())
             return Result.fail(OAuthErrors.INVALID_SCOPE);
 
+        // Clients opting in get the token previously issued for the same scopes while it is fresh enough
+        if (client.isReuseAccessToken()) {
+
+            AccessTokenResponse reusedResponse = tokenReuseCache.get(client.getClientId(), scopeResult.get().keySet());
+
+            if (reusedResponse != null) return Result.success(reusedResponse);
+        }
+
         // Everything's ok, generate response
         Result<AccessTokenResponse> accessTokenResponse = oAuthResponseService.generateTokenResponse(scopeResult.get().values(),
                 client.getClientId(), null, false);
@@ -81,6 +92,10 @@ public class ClientCredentialsService {
         if (!accessTokenResponse.isSuccess())
             return Result.serverError();
 
+        if (client.isReuseAccessToken()) {
+            tokenReuseCache.put(client.getClientId(), scopeResult.get().keySet(), accessTokenResponse.get());
+        }
+
         return Result.success(accessTokenResponse.get());
     }
 
@@ -0,0 +1,185 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import net.identio.server.service.oauth.infrastructure.TokenRepository;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenFetchException;
+import net.identio.server.service.oauth.model.AccessTokenResponse;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Access tokens issued by the client credentials grant, served again to the same client for the same scopes
+// until a fraction of their lifetime has elapsed. Repeat callers then skip the signature and the storage of a new token.
+// The cache is local to each node: before being served again, a token is checked against the token store, or against
+// the revoked token registry when it is self-contained, so that a revocation made on another node is honored.
+@Service
+public class ClientTokenReuseCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClientTokenReuseCache.class);
+
+    private OAuthConfiguration.TokenReuseConfiguration config;
+
+    private boolean statelessAccessToken;
+
+    private TokenRepository tokenRepository;
+
+    private RevokedTokenRegistry revokedTokenRegistry;
+
+    private AccessTokenVerifier accessTokenVerifier;
+
+    private Cache<String, ReusableToken> cache;
+
+    // Cache key of each cached access token, so that a revoked token is found without a scan
+    private ConcurrentHashMap<String, String> keysByToken = new ConcurrentHashMap<>();
+
+    private static class ReusableToken {
+
+        private final String clientId;
+        private final AccessTokenResponse response;
+        private final long expiration;
+        private final long reuseLimit;
+
+        // Claims of a self-contained token, checked against the revoked token registry. Null for a stored token
+        private final OAuthToken claims;
+
+        private ReusableToken(String clientId, AccessTokenResponse response, long expiration, long reuseLimit,
+                              OAuthToken claims) {
+            this.clientId = clientId;
+            this.response = response;
+            this.expiration = expiration;
+            this.reuseLimit = reuseLimit;
+            this.claims = claims;
+        }
+    }
+
+    @Autowired
+    public ClientTokenReuseCache(OAuthConfiguration config, TokenRepository tokenRepository,
+                                 RevokedTokenRegistry revokedTokenRegistry, AccessTokenVerifier accessTokenVerifier) {
+
+        this.config = config.getTokenReuse();
+        this.statelessAccessToken = config.isStatelessAccessToken();
+        this.tokenRepository = tokenRepository;
+        this.revokedTokenRegistry = revokedTokenRegistry;
+        this.accessTokenVerifier = accessTokenVerifier;
+
+        cache = CacheBuilder.newBuilder().maximumSize(this.config.getMaxSize())
+                .<String, ReusableToken>removalListener(
+                        notification -> keysByToken.remove(notification.getValue().response.getAccessToken(),
+                                notification.getKey()))
+                .build();
+    }
+
+    public AccessTokenResponse get(String clientId, Collection<String> scopes) {
+
+        String key = keyOf(clientId, scopes);
+
+        ReusableToken token = cache.getIfPresent(key);
+
+        if (token == null) return null;
+
+        long now = System.currentTimeMillis();
+
+        if (now >= token.reuseLimit || isRevoked(token)) {
+            cache.asMap().remove(key, token);
+            return null;
+        }
+
+        // The response is shared: the remaining lifetime is returned in a copy
+        return new AccessTokenResponse().setAccessToken(token.response.getAccessToken())
+                .setTokenType(token.response.getTokenType())
+                .setScope(token.response.getScope())
+                .setExpiresIn((token.expiration - now) / 1000);
+    }
+
+    public void put(String clientId, Collection<String> scopes, AccessTokenResponse response) {
+
+        String accessToken = response.getAccessToken();
+
+        OAuthToken claims = null;
+
+        if (statelessAccessToken && accessTokenVerifier.isSelfContained(accessToken)) {
+
+            Optional<OAuthToken> verifiedToken = accessTokenVerifier.verify(accessToken);
+
+            if (!verifiedToken.isPresent()) return;
+
+            claims = verifiedToken.get();
+        }
+
+        long now = System.currentTimeMillis();
+        long lifetime = response.getExpiresIn() * 1000;
+
+        String key = keyOf(clientId, scopes);
+
+        // Indexed first, so that the index entry is removed with the cache entry if it is evicted right away
+        keysByToken.put(accessToken, key);
+
+        cache.put(key, new ReusableToken(clientId, response, now + lifetime,
+                now + (long) (lifetime * config.getMaxElapsedRatio()), claims));
+    }
+
+    public void invalidateToken(String accessToken) {
+
+        String key = keysByToken.get(accessToken);
+
+        if (key == null) return;
+
+        ReusableToken token = cache.getIfPresent(key);
+
+        if (token != null && token.response.getAccessToken().equals(accessToken)) {
+            cache.asMap().remove(key, token);
+        }
+    }
+
+    // Only called by bulk revocations, which scan the stored tokens anyway
+    public void invalidateClient(String clientId) {
+        cache.asMap().values().removeIf(token -> token.clientId.equals(clientId));
+    }
+
+    // A token that can't be checked is not served again: a new one is issued instead
+    private boolean isRevoked(ReusableToken token) {
+
+        if (token.claims != null) return revokedTokenRegistry.isRevoked(token.claims);
+
+        try {
+            return !tokenRepository.getTokenByValue(token.response.getAccessToken(), OAuthToken.BEARER_TOKEN_TYPE)
+                    .isPresent();
+        } catch (TokenFetchException e) {
+            LOG.error("Could not check the reused access token of client {}: {}", token.clientId, e.getMessage());
+            return true;
+        }
+    }
+
+    // The order of the requested scopes doesn't matter
+    private static String keyOf(String clientId, Collection<String> scopes) {
+        return clientId + ' ' + String.join(" ", new TreeSet<>(scopes));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth;
+
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.SignatureGenerationException;
+import com.auth0.jwt.exceptions.SignatureVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Base64;
+
+// EdDSA (RFC 8037) signature of JWTs, which the JWT library doesn't provide.
+// It relies on the Ed25519 implementation of the JDK, available from Java 15.
+public class EdDsaAlgorithm extends Algorithm {
+
+    private static final String JDK_ALGORITHM = "Ed25519";
+
+    private final PublicKey publicKey;
+    private final PrivateKey privateKey;
+
+    public EdDsaAlgorithm(PublicKey publicKey, PrivateKey privateKey) {
+
+        super("EdDSA", JDK_ALGORITHM);
+
+        this.publicKey = publicKey;
+        this.privateKey = privateKey;
+    }
+
+    public static boolean isSupported() {
+
+        try {
+            Signature.getInstance(JDK_ALGORITHM);
+            return true;
+        } catch (NoSuchAlgorithmException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void verify(DecodedJWT jwt) throws SignatureVerificationException {
+
+        byte[] content = (jwt.getHeader() + "." + jwt.getPayload()).getBytes(StandardCharsets.UTF_8);
+
+        try {
+            Signature signature = Signature.getInstance(JDK_ALGORITHM);
+            signature.initVerify(publicKey);
+            signature.update(content);
+
+            if (!signature.verify(Base64.getUrlDecoder().decode(jwt.getSignature()))) {
+                throw new SignatureVerificationException(this);
+            }
+
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new SignatureVerificationException(this, e);
+        }
+    }
+
+    @Override
+    public byte[] sign(byte[] contentBytes) throws SignatureGenerationException {
+
+        try {
+            Signature signature = Signature.getInstance(JDK_ALGORITHM);
+            signature.initSign(privateKey);
+            signature.update(contentBytes);
+
+            return signature.sign();
+
+        } catch (GeneralSecurityException e) {
+            throw new SignatureGenerationException(this, e);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// JSON Web Key (RFC 7517) representation of the token signature public keys.
+// Key ids are the RFC 7638 thumbprints of the keys, so that every node computes the same id for a key.
+public final class JsonWebKeys {
+
+    private static final int EC_P256_COORDINATE_LENGTH = 32;
+    private static final int ED25519_KEY_LENGTH = 32;
+
+    private JsonWebKeys() {
+    }
+
+    public static Map<String, String> toJwk(PublicKey publicKey, String algorithm) {
+
+        Map<String, String> jwk = new LinkedHashMap<>(requiredMembers(publicKey));
+
+        jwk.put("use", "sig");
+        jwk.put("alg", algorithm);
+        jwk.put("kid", thumbprint(publicKey));
+
+        return jwk;
+    }
+
+    public static String thumbprint(PublicKey publicKey) {
+
+        // The required members are serialized without whitespace, in lexicographic order
+        StringBuilder json = new StringBuilder("{");
+
+        for (Map.Entry<String, String> member : requiredMembers(publicKey).entrySet()) {
+
+            if (json.length() > 1) json.append(',');
+
+            json.append('"').append(member.getKey()).append("\":\"").append(member.getValue()).append('"');
+        }
+
+        json.append('}');
+
+        try {
+            return encode(MessageDigest.getInstance("SHA-256").digest(json.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    // Members in lexicographic order
+    private static Map<String, String> requiredMembers(PublicKey publicKey) {
+
+        Map<String, String> members = new LinkedHashMap<>();
+
+        if (publicKey instanceof RSAPublicKey) {
+
+            RSAPublicKey rsaKey = (RSAPublicKey) publicKey;
+
+            members.put("e", encode(unsigned(rsaKey.getPublicExponent())));
+            members.put("kty", "RSA");
+            members.put("n", encode(unsigned(rsaKey.getModulus())));
+
+        } else if (publicKey instanceof ECPublicKey) {
+
+            ECPublicKey ecKey = (ECPublicKey) publicKey;
+
+            members.put("crv", "P-256");
+            members.put("kty", "EC");
+            members.put("x", encode(unsigned(ecKey.getW().getAffineX(), EC_P256_COORDINATE_LENGTH)));
+            members.put("y", encode(unsigned(ecKey.getW().getAffineY(), EC_P256_COORDINATE_LENGTH)));
+
+        } else {
+
+            // Ed25519 keys are only known by their X.509 encoding, which ends with the raw key
+            byte[] encoded = publicKey.getEncoded();
+
+            members.put("crv", "Ed25519");
+            members.put("kty", "OKP");
+            members.put("x", encode(Arrays.copyOfRange(encoded, encoded.length - ED25519_KEY_LENGTH, encoded.length)));
+        }
+
+        return members;
+    }
+
+    private static byte[] unsigned(BigInteger value) {
+
+        byte[] bytes = value.toByteArray();
+
+        return bytes.length > 1 && bytes[0] == 0 ? Arrays.copyOfRange(bytes, 1, bytes.length) : bytes;
+    }
+
+    private static byte[] unsigned(BigInteger value, int length) {
+
+        byte[] bytes = unsigned(value);
+        byte[] padded = new byte[length];
+
+        System.arraycopy(bytes, 0, padded, length - bytes.length, bytes.length);
+
+        return padded;
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
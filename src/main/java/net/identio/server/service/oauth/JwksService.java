@@ -0,0 +1,127 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.identio.server.exceptions.InitializationException;
+import net.identio.server.service.signature.SigningKey;
+import net.identio.server.service.signature.SigningKeyService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+// JWK Set of the token signature keys, letting resource servers verify access tokens without introspection.
+// The document is serialized once per key change and served as is, along with an ETag derived from its content.
+// After a key rotation, it is serialized again by the first request that sees the new keys.
+@Service
+public class JwksService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JwksService.class);
+
+    private SigningKeyService signingKeyService;
+
+    private volatile JwksDocument document;
+
+    // Key set that could not be published: the previous document is served until the keys change again
+    private volatile SigningKeyService.KeySet failedKeySet;
+
+    public static class JwksDocument {
+
+        private final byte[] content;
+        private final String eTag;
+        private final SigningKeyService.KeySet keySet;
+
+        private JwksDocument(byte[] content, String eTag, SigningKeyService.KeySet keySet) {
+            this.content = content;
+            this.eTag = eTag;
+            this.keySet = keySet;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+    }
+
+    @Autowired
+    public JwksService(SigningKeyService signingKeyService) throws InitializationException {
+
+        this.signingKeyService = signingKeyService;
+
+        publish(signingKeyService.getKeySet());
+    }
+
+    // Replaces the published keys
+    private void publish(SigningKeyService.KeySet keySet) throws InitializationException {
+
+        List<Map<String, String>> jwks = new ArrayList<>();
+
+        for (SigningKey key : keySet.getPublishedKeys()) {
+            jwks.add(JsonWebKeys.toJwk(key.getPublicKey(), key.getAlgorithm().getName()));
+        }
+
+        try {
+            byte[] content = new ObjectMapper().writeValueAsBytes(Collections.singletonMap("keys", jwks));
+
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+
+            document = new JwksDocument(content,
+                    "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + "\"", keySet);
+
+            LOG.info("Publishing JWK Set {}", document.eTag);
+
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new InitializationException("Could not serialize the JWK Set", e);
+        }
+    }
+
+    public JwksDocument getDocument() {
+
+        SigningKeyService.KeySet keySet = signingKeyService.getKeySet();
+
+        if (document.keySet != keySet && failedKeySet != keySet) refresh(keySet);
+
+        return document;
+    }
+
+    // Concurrent requests seeing the new keys publish them once. A key set that can't be published is tried once:
+    // it is reported a single time and the previous document stays in place
+    private synchronized void refresh(SigningKeyService.KeySet keySet) {
+
+        if (document.keySet == keySet || failedKeySet == keySet) return;
+
+        try {
+            publish(keySet);
+        } catch (InitializationException | RuntimeException e) {
+            failedKeySet = keySet;
+            LOG.error("Could not publish the new signature keys: {}", e.getMessage());
+        }
+    }
+}
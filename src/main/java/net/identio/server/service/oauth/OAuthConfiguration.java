@@ -24,6 +24,9 @@ package net.identio.server.service.oauth;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Configuration
 @ConfigurationProperties(prefix = "oAuthServer")
 public class OAuthConfiguration {
@@ -33,6 +36,20 @@ public class OAuthConfiguration {
     private String actorsFile;
     private String dataSource;
     private boolean jwtToken;
+    private boolean statelessJwt;
+    private GroupCommitConfiguration groupCommit = new GroupCommitConfiguration();
+    private TokenCacheConfiguration tokenCache = new TokenCacheConfiguration();
+    private ReaperConfiguration reaper = new ReaperConfiguration();
+    private ShardingConfiguration sharding = new ShardingConfiguration();
+    private RevocationConfiguration revocation = new RevocationConfiguration();
+    private JournalConfiguration journal = new JournalConfiguration();
+    private StatelessCodeConfiguration statelessCode = new StatelessCodeConfiguration();
+    private StorageConfiguration storage = new StorageConfiguration();
+    private DumpConfiguration dump = new DumpConfiguration();
+    private TokenReuseConfiguration tokenReuse = new TokenReuseConfiguration();
+    private ReadCoalescingConfiguration readCoalescing = new ReadCoalescingConfiguration();
+    private JwksConfiguration jwks = new JwksConfiguration();
+    private CredentialCacheConfiguration credentialCache = new CredentialCacheConfiguration();
 
     public String getActorsFile() {
         return actorsFile;
@@ -58,5 +75,677 @@ public class OAuthConfiguration {
         this.jwtToken = jwtToken;
     }
 
+    public boolean isStatelessJwt() {
+        return statelessJwt;
+    }
+
+    public void setStatelessJwt(boolean statelessJwt) {
+        this.statelessJwt = statelessJwt;
+    }
+
+    public GroupCommitConfiguration getGroupCommit() {
+        return groupCommit;
+    }
+
+    public void setGroupCommit(GroupCommitConfiguration groupCommit) {
+        this.groupCommit = groupCommit;
+    }
+
+    public TokenCacheConfiguration getTokenCache() {
+        return tokenCache;
+    }
+
+    public void setTokenCache(TokenCacheConfiguration tokenCache) {
+        this.tokenCache = tokenCache;
+    }
+
+    public ReaperConfiguration getReaper() {
+        return reaper;
+    }
+
+    public void setReaper(ReaperConfiguration reaper) {
+        this.reaper = reaper;
+    }
+
+    public ShardingConfiguration getSharding() {
+        return sharding;
+    }
+
+    public void setSharding(ShardingConfiguration sharding) {
+        this.sharding = sharding;
+    }
+
+    public RevocationConfiguration getRevocation() {
+        return revocation;
+    }
+
+    public void setRevocation(RevocationConfiguration revocation) {
+        this.revocation = revocation;
+    }
+
+    public JournalConfiguration getJournal() {
+        return journal;
+    }
+
+    public void setJournal(JournalConfiguration journal) {
+        this.journal = journal;
+    }
+
+    public StatelessCodeConfiguration getStatelessCode() {
+        return statelessCode;
+    }
+
+    public void setStatelessCode(StatelessCodeConfiguration statelessCode) {
+        this.statelessCode = statelessCode;
+    }
+
+    public StorageConfiguration getStorage() {
+        return storage;
+    }
+
+    public void setStorage(StorageConfiguration storage) {
+        this.storage = storage;
+    }
+
+    public DumpConfiguration getDump() {
+        return dump;
+    }
+
+    public void setDump(DumpConfiguration dump) {
+        this.dump = dump;
+    }
+
+    public TokenReuseConfiguration getTokenReuse() {
+        return tokenReuse;
+    }
+
+    public void setTokenReuse(TokenReuseConfiguration tokenReuse) {
+        this.tokenReuse = tokenReuse;
+    }
+
+    public ReadCoalescingConfiguration getReadCoalescing() {
+        return readCoalescing;
+    }
+
+    public void setReadCoalescing(ReadCoalescingConfiguration readCoalescing) {
+        this.readCoalescing = readCoalescing;
+    }
+
+    public JwksConfiguration getJwks() {
+        return jwks;
+    }
+
+    public void setJwks(JwksConfiguration jwks) {
+        this.jwks = jwks;
+    }
+
+    public CredentialCacheConfiguration getCredentialCache() {
+        return credentialCache;
+    }
+
+    public void setCredentialCache(CredentialCacheConfiguration credentialCache) {
+        this.credentialCache = credentialCache;
+    }
+
+    public static class GroupCommitConfiguration {
+
+        // Batching window in milliseconds. 0 disables group commit
+        private int window;
+        private int maxBatchSize = 100;
+
+        // Time in milliseconds a token creation waits for its batch, kept below the HTTP timeouts. A token whose
+        // wait timed out may still be stored if its batch was already being written
+        private int submitTimeout = 5000;
+
+        public int getWindow() {
+            return window;
+        }
+
+        public void setWindow(int window) {
+            this.window = window;
+        }
+
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        public void setMaxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        public int getSubmitTimeout() {
+            return submitTimeout;
+        }
+
+        public void setSubmitTimeout(int submitTimeout) {
+            this.submitTimeout = submitTimeout;
+        }
+    }
+
+    public static class TokenCacheConfiguration {
+
+        private boolean enabled;
+        private int maxSize = 100000;
+
+        // TTLs in seconds
+        private int ttl = 30;
+        private int negativeTtl = 5;
+
+        // Delay between two logs of the hit and miss counts, in seconds. 0 disables them
+        private int statsInterval = 300;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public int getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(int ttl) {
+            this.ttl = ttl;
+        }
+
+        public int getNegativeTtl() {
+            return negativeTtl;
+        }
+
+        public void setNegativeTtl(int negativeTtl) {
+            this.negativeTtl = negativeTtl;
+        }
+
+        public int getStatsInterval() {
+            return statsInterval;
+        }
+
+        public void setStatsInterval(int statsInterval) {
+            this.statsInterval = statsInterval;
+        }
+    }
+
+    public static class ReaperConfiguration {
+
+        private boolean enabled = true;
+
+        // Delay between two purges in seconds
+        private int interval = 300;
+        private int batchSize = 500;
+
+        // Pause between two batches in milliseconds
+        private int batchPause = 200;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getInterval() {
+            return interval;
+        }
+
+        public void setInterval(int interval) {
+            this.interval = interval;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public int getBatchPause() {
+            return batchPause;
+        }
+
+        public void setBatchPause(int batchPause) {
+            this.batchPause = batchPause;
+        }
+    }
+
+    public static class ShardingConfiguration {
+
+        // JDBC data sources holding the tokens. Empty to store them in the main data source
+        private List<String> dataSources = new ArrayList<>();
+        private int virtualNodes = 160;
+        private boolean rebalanceOnStartup;
+
+        public List<String> getDataSources() {
+            return dataSources;
+        }
+
+        public void setDataSources(List<String> dataSources) {
+            this.dataSources = dataSources;
+        }
+
+        public int getVirtualNodes() {
+            return virtualNodes;
+        }
+
+        public void setVirtualNodes(int virtualNodes) {
+            this.virtualNodes = virtualNodes;
+        }
+
+        public boolean isRebalanceOnStartup() {
+            return rebalanceOnStartup;
+        }
+
+        public void setRebalanceOnStartup(boolean rebalanceOnStartup) {
+            this.rebalanceOnStartup = rebalanceOnStartup;
+        }
+    }
+
+    public static class RevocationConfiguration {
+
+        // Revoked JWT ids are grouped by expiration in buckets of this duration, in seconds
+        private int bucketDuration = 300;
+        private int expectedRevocationsPerBucket = 10000;
+        private double falsePositiveRate = 0.001;
+
+        // Above this number of revoked ids, only the bloom filters are kept
+        private int maxExactEntries = 100000;
+
+        // Bulk revocations of a user or a client are kept this long, in seconds: it must exceed the token lifetimes
+        private int cutoffRetention = 86400;
+
+        // Write revocations to the token store and read the ones of the other nodes. It must be enabled on every
+        // node when several nodes share the token store: a token revoked on one node would stay active on the others.
+        // When not set, it is enabled if the access tokens are stored in a JDBC or a cluster data source
+        private Boolean shared;
+
+        // Delay between two reads of the revocations of the other nodes, in seconds. A token revoked on a node stays
+        // active on the others until then
+        private int syncInterval = 5;
+
+        public int getBucketDuration() {
+            return bucketDuration;
+        }
+
+        public void setBucketDuration(int bucketDuration) {
+            this.bucketDuration = bucketDuration;
+        }
+
+        public int getExpectedRevocationsPerBucket() {
+            return expectedRevocationsPerBucket;
+        }
+
+        public void setExpectedRevocationsPerBucket(int expectedRevocationsPerBucket) {
+            this.expectedRevocationsPerBucket = expectedRevocationsPerBucket;
+        }
+
+        public double getFalsePositiveRate() {
+            return falsePositiveRate;
+        }
+
+        public void setFalsePositiveRate(double falsePositiveRate) {
+            this.falsePositiveRate = falsePositiveRate;
+        }
+
+        public int getMaxExactEntries() {
+            return maxExactEntries;
+        }
+
+        public void setMaxExactEntries(int maxExactEntries) {
+            this.maxExactEntries = maxExactEntries;
+        }
+
+        public int getCutoffRetention() {
+            return cutoffRetention;
+        }
+
+        public void setCutoffRetention(int cutoffRetention) {
+            this.cutoffRetention = cutoffRetention;
+        }
+
+        public Boolean getShared() {
+            return shared;
+        }
+
+        public void setShared(Boolean shared) {
+            this.shared = shared;
+        }
+
+        public int getSyncInterval() {
+            return syncInterval;
+        }
+
+        public void setSyncInterval(int syncInterval) {
+            this.syncInterval = syncInterval;
+        }
+    }
+
+    public static class JournalConfiguration {
+
+        // Directory of the journals of the in-memory data sources, one per data source, and of the user sessions.
+        // Null disables the journal
+        private String directory;
+        private int segmentSize = 64 * 1024 * 1024;
+
+        // Delay between two fsyncs in milliseconds. 0 syncs every write
+        private int syncInterval = 1000;
+
+        // Delay between two snapshots in seconds
+        private int snapshotInterval = 600;
+        private int replayThreads = Runtime.getRuntime().availableProcessors();
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public int getSegmentSize() {
+            return segmentSize;
+        }
+
+        public void setSegmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+        }
+
+        public int getSyncInterval() {
+            return syncInterval;
+        }
+
+        public void setSyncInterval(int syncInterval) {
+            this.syncInterval = syncInterval;
+        }
+
+        public int getSnapshotInterval() {
+            return snapshotInterval;
+        }
+
+        public void setSnapshotInterval(int snapshotInterval) {
+            this.snapshotInterval = snapshotInterval;
+        }
+
+        public int getReplayThreads() {
+            return replayThreads;
+        }
+
+        public void setReplayThreads(int replayThreads) {
+            this.replayThreads = replayThreads;
+        }
+    }
+
+    public static class StatelessCodeConfiguration {
+
+        private boolean enabled;
+
+        // Base64 encoded AES key sealing the codes. A random key is generated when empty
+        private String key;
+
+        // JDBC data source sharing the redeemed codes between the nodes. They are kept in memory when empty
+        private String dataSource;
+
+        // Redeemed codes are grouped by expiration in buckets of this duration, in seconds
+        private int bucketDuration = 10;
+        private int maxUsedCodes = 100000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public void setKey(String key) {
+            this.key = key;
+        }
+
+        public String getDataSource() {
+            return dataSource;
+        }
+
+        public void setDataSource(String dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        public int getBucketDuration() {
+            return bucketDuration;
+        }
+
+        public void setBucketDuration(int bucketDuration) {
+            this.bucketDuration = bucketDuration;
+        }
+
+        public int getMaxUsedCodes() {
+            return maxUsedCodes;
+        }
+
+        public void setMaxUsedCodes(int maxUsedCodes) {
+            this.maxUsedCodes = maxUsedCodes;
+        }
+    }
+
+    public static class StorageConfiguration {
+
+        // Storage of each kind of artifact. The data source defaults to the main data source,
+        // "in-memory" keeps the artifacts in memory whatever the main data source
+        private TokenStorageConfiguration accessTokens = new TokenStorageConfiguration();
+        private TokenStorageConfiguration refreshTokens = new TokenStorageConfiguration();
+        private String authorizationCodes;
+
+        public TokenStorageConfiguration getAccessTokens() {
+            return accessTokens;
+        }
+
+        public void setAccessTokens(TokenStorageConfiguration accessTokens) {
+            this.accessTokens = accessTokens;
+        }
+
+        public TokenStorageConfiguration getRefreshTokens() {
+            return refreshTokens;
+        }
+
+        public void setRefreshTokens(TokenStorageConfiguration refreshTokens) {
+            this.refreshTokens = refreshTokens;
+        }
+
+        public String getAuthorizationCodes() {
+            return authorizationCodes;
+        }
+
+        public void setAuthorizationCodes(String authorizationCodes) {
+            this.authorizationCodes = authorizationCodes;
+        }
+    }
+
+    public static class TokenStorageConfiguration {
+
+        private String dataSource;
+
+        // Keeps the tokens read recently in memory in front of the data source, with the token cache settings
+        private boolean tiered;
+
+        public String getDataSource() {
+            return dataSource;
+        }
+
+        public void setDataSource(String dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        public boolean isTiered() {
+            return tiered;
+        }
+
+        public void setTiered(boolean tiered) {
+            this.tiered = tiered;
+        }
+    }
+
+    public static class DumpConfiguration {
+
+        // Dump imported at startup, for instance exported by another node
+        private String importFile;
+
+        // Dump written on shutdown
+        private String exportFile;
+
+        private int importThreads = Runtime.getRuntime().availableProcessors();
+        private int batchSize = 1000;
+
+        public String getImportFile() {
+            return importFile;
+        }
+
+        public void setImportFile(String importFile) {
+            this.importFile = importFile;
+        }
+
+        public String getExportFile() {
+            return exportFile;
+        }
+
+        public void setExportFile(String exportFile) {
+            this.exportFile = exportFile;
+        }
+
+        public int getImportThreads() {
+            return importThreads;
+        }
+
+        public void setImportThreads(int importThreads) {
+            this.importThreads = importThreads;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+    }
+
+    public static class TokenReuseConfiguration {
+
+        // A token is served again until this fraction of its lifetime has elapsed
+        private double maxElapsedRatio = 0.5;
+        private int maxSize = 10000;
+
+        public double getMaxElapsedRatio() {
+            return maxElapsedRatio;
+        }
+
+        public void setMaxElapsedRatio(double maxElapsedRatio) {
+            this.maxElapsedRatio = maxElapsedRatio;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
+
+    public static class ReadCoalescingConfiguration {
+
+        // Batching window of the token lookups in microseconds. 0 disables read coalescing
+        private int window;
+        private int maxBatchSize = 100;
+
+        // Threads running the batched lookups, each holding a pooled connection while it runs.
+        // 0 uses a quarter of the connection pool, leaving the other connections to the rest of the server
+        private int workers;
+
+        public int getWindow() {
+            return window;
+        }
+
+        public void setWindow(int window) {
+            this.window = window;
+        }
+
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        public void setMaxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        public int getWorkers() {
+            return workers;
+        }
+
+        public void setWorkers(int workers) {
+            this.workers = workers;
+        }
+    }
+
+    public static class JwksConfiguration {
+
+        // Duration in seconds during which resource servers may cache the JWK Set without revalidating it
+        private int maxAge = 300;
+
+        public int getMaxAge() {
+            return maxAge;
+        }
+
+        public void setMaxAge(int maxAge) {
+            this.maxAge = maxAge;
+        }
+    }
+
+    public static class CredentialCacheConfiguration {
+
+        // Duration in seconds during which a verified client secret is accepted without checking its hash again.
+        // 0 disables the cache
+        private int ttl = 60;
+        private int maxSize = 10000;
+
+        public int getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(int ttl) {
+            this.ttl = ttl;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
+
     // End: Configuration mapping handled by Spring Cloud config
+
+    // Self-contained JWT access tokens are verified locally and never written to the token store
+    public boolean isStatelessAccessToken() {
+        return jwtToken && statelessJwt;
+    }
+
+    // Sealed authorization codes carry their own data and are never written to the code store
+    public boolean isStatelessAuthorizationCode() {
+        return statelessCode.isEnabled();
+    }
 }
@@ -0,0 +1,298 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth;
+
+import net.identio.server.model.Result;
+import net.identio.server.service.oauth.infrastructure.AuthorizationCodeRecordCodec;
+import net.identio.server.service.oauth.infrastructure.AuthorizationCodeRepository;
+import net.identio.server.service.oauth.infrastructure.StoredToken;
+import net.identio.server.service.oauth.infrastructure.TokenDigests;
+import net.identio.server.service.oauth.infrastructure.TokenRecordCodec;
+import net.identio.server.service.oauth.infrastructure.TokenRepository;
+import net.identio.server.service.oauth.infrastructure.exceptions.AuthorizationCodeFetchException;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenFetchException;
+import net.identio.server.service.oauth.model.AuthorizationCode;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Moves the live tokens and authorization codes between data sources through a dump file.
+// Dump: magic number, then records until an end marker. A token record is its digest followed by its
+// TokenRecordCodec encoding, a code record is the code followed by its AuthorizationCodeRecordCodec encoding.
+// Both repositories are read with a cursor and the file is read as a stream, so memory usage doesn't depend
+// on the number of records.
+@Service
+public class OAuthDumpService implements InitializingBean, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OAuthDumpService.class);
+
+    private static final int MAGIC = 0x49444401;
+
+    private static final byte END = 0;
+    private static final byte TOKEN = 1;
+    private static final byte CODE = 2;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Far above the size of a valid record: a larger length means the dump is corrupted
+    private static final int MAX_RECORD_LENGTH = 1024 * 1024;
+
+    @Autowired
+    private OAuthConfiguration config;
+
+    @Autowired
+    private TokenRepository tokenRepository;
+
+    @Autowired
+    private AuthorizationCodeRepository authorizationCodeRepository;
+
+    @Override
+    public void afterPropertiesSet() {
+
+        String importFile = config.getDump().getImportFile();
+
+        if (importFile != null && Files.exists(Paths.get(importFile))) importDump(Paths.get(importFile));
+    }
+
+    @Override
+    public void destroy() {
+
+        String exportFile = config.getDump().getExportFile();
+
+        if (exportFile != null) exportDump(Paths.get(exportFile));
+    }
+
+    public Result<Long> exportDump(Path file) {
+
+        long start = System.currentTimeMillis();
+        long now = start / 1000;
+        long[] count = new long[1];
+
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile), BUFFER_SIZE))) {
+
+            out.writeInt(MAGIC);
+
+            tokenRepository.exportTokens(token -> {
+
+                OAuthToken oAuthToken = token.getToken();
+
+                if (oAuthToken.getExpiration() != 0 && oAuthToken.getExpiration() < now) return;
+
+                byte[] record = TokenRecordCodec.encode(oAuthToken);
+
+                try {
+                    out.writeByte(TOKEN);
+                    out.write(token.getDigest());
+                    out.writeInt(record.length);
+                    out.write(record);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                count[0]++;
+            });
+
+            authorizationCodeRepository.exportCodes(code -> {
+
+                if (code.getExpirationTime() < now) return;
+
+                byte[] value = code.getCode().getBytes(StandardCharsets.UTF_8);
+                byte[] record = AuthorizationCodeRecordCodec.encode(code);
+
+                try {
+                    out.writeByte(CODE);
+                    out.writeInt(value.length);
+                    out.write(value);
+                    out.writeInt(record.length);
+                    out.write(record);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                count[0]++;
+            });
+
+            out.writeByte(END);
+
+        } catch (IOException | UncheckedIOException | TokenFetchException | AuthorizationCodeFetchException e) {
+            LOG.error("Error when exporting OAuth data to {}: {}", file, e.getMessage());
+            return Result.serverError();
+        }
+
+        try {
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.error("Error when exporting OAuth data to {}: {}", file, e.getMessage());
+            return Result.serverError();
+        }
+
+        LOG.info("Exported {} tokens and codes to {} in {}ms", count[0], file, System.currentTimeMillis() - start);
+
+        return Result.success(count[0]);
+    }
+
+    // Records are imported by batches, in parallel. At most two batches per thread are in memory at a time
+    public Result<Long> importDump(Path file) {
+
+        long start = System.currentTimeMillis();
+        long count = 0;
+
+        int threads = config.getDump().getImportThreads();
+        int batchSize = config.getDump().getBatchSize();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Semaphore pendingBatches = new Semaphore(threads * 2);
+        AtomicReference<Exception> error = new AtomicReference<>();
+
+        List<StoredToken> tokens = new ArrayList<>(batchSize);
+        List<AuthorizationCode> codes = new ArrayList<>(batchSize);
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+
+            if (in.readInt() != MAGIC) throw new IOException("Not an OAuth dump");
+
+            for (byte type = in.readByte(); type != END && error.get() == null; type = in.readByte()) {
+
+                switch (type) {
+
+                    case TOKEN:
+                        byte[] digest = new byte[TokenDigests.DIGEST_LENGTH];
+                        in.readFully(digest);
+
+                        tokens.add(new StoredToken(digest, TokenRecordCodec.decode(ByteBuffer.wrap(readBytes(in)), null)));
+
+                        if (tokens.size() == batchSize) {
+                            submitTokens(executor, pendingBatches, error, tokens);
+                            tokens = new ArrayList<>(batchSize);
+                        }
+                        break;
+
+                    case CODE:
+                        String code = new String(readBytes(in), StandardCharsets.UTF_8);
+
+                        codes.add(AuthorizationCodeRecordCodec.decode(code, readBytes(in)));
+
+                        if (codes.size() == batchSize) {
+                            submitCodes(executor, pendingBatches, error, codes);
+                            codes = new ArrayList<>(batchSize);
+                        }
+                        break;
+
+                    default:
+                        throw new IOException("Unknown record type " + type);
+                }
+
+                count++;
+            }
+
+            if (!tokens.isEmpty()) submitTokens(executor, pendingBatches, error, tokens);
+            if (!codes.isEmpty()) submitCodes(executor, pendingBatches, error, codes);
+
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        } catch (IOException e) {
+            error.compareAndSet(null, e);
+        } catch (RuntimeException e) {
+            // The codecs fail with runtime exceptions on a truncated or corrupted record
+            error.compareAndSet(null, new IOException("Corrupted record: " + e, e));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error.compareAndSet(null, e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (error.get() != null) {
+            LOG.error("Error when importing OAuth data from {}: {}", file, error.get().getMessage());
+            return Result.serverError();
+        }
+
+        LOG.info("Imported {} tokens and codes from {} in {}ms", count, file, System.currentTimeMillis() - start);
+
+        return Result.success(count);
+    }
+
+    private void submitTokens(ExecutorService executor, Semaphore pendingBatches, AtomicReference<Exception> error,
+                              List<StoredToken> tokens) throws InterruptedException {
+
+        pendingBatches.acquire();
+
+        executor.execute(() -> {
+            try {
+                tokenRepository.importTokens(tokens);
+            } catch (Exception e) {
+                error.compareAndSet(null, e);
+            } finally {
+                pendingBatches.release();
+            }
+        });
+    }
+
+    private void submitCodes(ExecutorService executor, Semaphore pendingBatches, AtomicReference<Exception> error,
+                             List<AuthorizationCode> codes) throws InterruptedException {
+
+        pendingBatches.acquire();
+
+        executor.execute(() -> {
+            try {
+                authorizationCodeRepository.importCodes(codes);
+            } catch (Exception e) {
+                error.compareAndSet(null, e);
+            } finally {
+                pendingBatches.release();
+            }
+        });
+    }
+
+    private byte[] readBytes(DataInputStream in) throws IOException {
+
+        int length = in.readInt();
+
+        if (length < 0 || length > MAX_RECORD_LENGTH) throw new IOException("Invalid record length " + length);
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+
+        return bytes;
+    }
+}
@@ -21,10 +21,7 @@
 
 package net.identio.server.service.oauth;
 
-import com.auth0.jwt.JWT;
-import com.auth0.jwt.algorithms.Algorithm;
 import net.identio.server.boot.GlobalConfiguration;
-import net.identio.server.exceptions.InitializationException;
 import net.identio.server.model.AuthorizationScope;
 import net.identio.server.model.Result;
 import net.identio.server.model.UserSession;
@@ -37,19 +34,11 @@ import net.identio.server.service.oauth.infrastructure.exceptions.TokenCreationE
 import net.identio.server.service.oauth.model.*;
 import net.identio.server.service.orchestration.model.RequestParsingInfo;
 import net.identio.server.service.orchestration.model.ResponseData;
-import net.identio.server.utils.SecurityUtils;
+import net.identio.server.service.signature.SigningKeyService;
+import net.identio.server.utils.SecureIdentifiers;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.UnrecoverableEntryException;
-import java.security.cert.CertificateException;
-import java.security.interfaces.RSAPrivateKey;
-import java.security.interfaces.RSAPublicKey;
 import java.time.Instant;
 import java.util.*;
 
@@ -58,10 +47,8 @@ public class OAuthResponseService {
 
     private static final int AT_DEFAULT_EXPIRATION_TIME = 3600;
     private static final int CODE_DEFAULT_EXPIRATION_TIME = 60;
-    private static final int TOKEN_LENGTH = 100;
-
-    private RSAPrivateKey signingKey;
-    private RSAPublicKey publicKey;
+    // 256-bit token and code values
+    private static final int TOKEN_BYTES = 32;
 
     private GlobalConfiguration globalConfiguration;
 
@@ -78,37 +65,16 @@ public class OAuthResponseService {
     private AuthorizationService authorizationService;
 
     @Autowired
-    public OAuthResponseService(GlobalConfiguration globalConfiguration) throws InitializationException {
-
-        this.globalConfiguration = globalConfiguration;
-
-        // Cache signing certificate
-        try (FileInputStream fis = new FileInputStream(globalConfiguration.getSignatureKeystorePath())) {
-
-            KeyStore ks = KeyStore.getInstance("PKCS12");
-            ks.load(fis, globalConfiguration.getSignatureKeystorePassword().toCharArray());
-
-            Enumeration<String> aliases = ks.aliases();
-
-            if (aliases == null || !aliases.hasMoreElements()) {
-                throw new InitializationException("Keystore doesn't contain a certificate");
-            }
-
-            String alias = aliases.nextElement();
+    private AuthorizationCodeSealer authorizationCodeSealer;
 
-            KeyStore.PrivateKeyEntry keyEntry = (KeyStore.PrivateKeyEntry) ks.getEntry(alias,
-                    new KeyStore.PasswordProtection(globalConfiguration.getSignatureKeystorePassword().toCharArray()));
-
-            signingKey = (RSAPrivateKey) keyEntry.getPrivateKey();
-            publicKey = (RSAPublicKey) keyEntry.getCertificate().getPublicKey();
+    @Autowired
+    private SigningKeyService signingKeyService;
 
-        } catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException
-                | UnrecoverableEntryException ex) {
-            throw new InitializationException("Could not initialize OAuth Service", ex);
-        }
+    @Autowired
+    public OAuthResponseService(GlobalConfiguration globalConfiguration) {
+        this.globalConfiguration = globalConfiguration;
     }
 
-
     public ResponseData generateSuccessResponse(RequestParsingInfo requestParsingInfo, UserSession userSession) throws OAuthException {
 
         return generateSuccessResponse(requestParsingInfo, userSession, requestParsingInfo.getRequestedScopes());
@@ -150,16 +116,8 @@ public class OAuthResponseService {
 
         if (requestParsingInfo.getResponseType().equals(OAuthResponseType.CODE)) {
 
-            // Generate code
-            String codeValue = SecurityUtils.generateSecureIdentifier(TOKEN_LENGTH);
-
-            responseBuilder.append("?code=").append(codeValue);
-
-            responseBuilder.append("&state=").append(requestParsingInfo.getRelayState());
-
             // Generate authorization code
             AuthorizationCode code = new AuthorizationCode()
-                    .setCode(codeValue)
                     .setClientId(requestParsingInfo.getSourceApplication())
                     .setRedirectUrl(requestParsingInfo.getResponseUrl())
                     .setExpirationTime(System.currentTimeMillis() / 1000 + CODE_DEFAULT_EXPIRATION_TIME)
@@ -168,12 +126,23 @@ public class OAuthResponseService {
                     .setCodeChallenge(requestParsingInfo.getChallenge())
                     .setCodeChallengeMethod(requestParsingInfo.getChallengeMethod());
 
-            // Store code
-            try {
-                authorizationCodeRepository.save(code);
-            } catch (AuthorizationCodeCreationException e) {
-                throw new OAuthException(e.getMessage(), e);
+            if (oAuthConfiguration.isStatelessAuthorizationCode()) {
+                code.setCode(authorizationCodeSealer.seal(code));
+            } else {
+                code.setCode(SecureIdentifiers.generate(TOKEN_BYTES));
+
+                // Store code
+                try {
+                    authorizationCodeRepository.save(code);
+                } catch (AuthorizationCodeCreationException e) {
+                    throw new OAuthException(e.getMessage(), e);
+                }
             }
+
+            responseBuilder.append("?code=").append(code.getCode());
+
+            responseBuilder.append("&state=").append(requestParsingInfo.getRelayState());
+
             responseData.setUrl(responseBuilder.toString());
         }
 
@@ -235,7 +204,7 @@ public class OAuthResponseService {
 
         OAuthToken refresh = new OAuthToken()
                 .setType(OAuthToken.REFRESH_TOKEN_TYPE)
-                .setValue(SecurityUtils.generateSecureIdentifier(TOKEN_LENGTH))
+                .setValue(SecureIdentifiers.generate(TOKEN_BYTES))
                 .setClientId(at.getClientId())
                 .setScope(at.getScope())
                 .setUsername(at.getUsername())
@@ -243,7 +212,8 @@ public class OAuthResponseService {
                 .setNotBefore(at.getNotBefore())
                 .setAudience(at.getAudience())
                 .setIssuer(at.getIssuer())
-                .setSubject(at.getSubject());
+                .setSubject(at.getSubject())
+                .setActive(true);
 
         try {
             tokenRepository.save(refresh);
@@ -275,21 +245,20 @@ public class OAuthResponseService {
                 .setIssuedAt(epoch)
                 .setNotBefore(epoch)
                 .setJwtId(jwtId)
-                .setSubject(userId);
+                .setSubject(userId)
+                .setActive(true);
 
         if (oAuthConfiguration.isJwtToken()) {
-            accessToken.setValue(JWT.create()
-                    .withIssuer(globalConfiguration.getBasePublicUrl())
-                    .withExpiresAt(Date.from(now.plusSeconds(expirationTime)))
-                    .withIssuedAt(Date.from(now))
-                    .withSubject(userId)
-                    .withNotBefore(Date.from(now))
-                    .withJWTId(jwtId)
-                    .withClaim("scope", serializedScopes)
-                    .withClaim("client_id", sourceApplication)
-                    .sign(Algorithm.RSA256(publicKey, signingKey)));
+            AccessTokenMinter minter = signingKeyService.getActiveKey().getAccessTokenMinter();
+
+            accessToken.setValue(minter.mint(userId, sourceApplication, serializedScopes, jwtId,
+                    epoch, epoch + expirationTime));
         } else {
-            accessToken.setValue(SecurityUtils.generateSecureIdentifier(TOKEN_LENGTH));
+            accessToken.setValue(SecureIdentifiers.generate(TOKEN_BYTES));
+        }
+
+        if (oAuthConfiguration.isStatelessAccessToken()) {
+            return Result.success(accessToken);
         }
 
         try {
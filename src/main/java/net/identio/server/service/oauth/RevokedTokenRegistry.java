@@ -0,0 +1,326 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import net.identio.server.service.oauth.infrastructure.TokenRepository;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenCreationException;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenDeleteException;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenFetchException;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+// Ids of the revoked self-contained tokens that are not expired yet.
+// Ids are grouped in buckets by token expiration: a whole bucket is dropped once all its tokens are expired.
+// Each bucket has a bloom filter answering most lookups, backed by an exact set to rule out false positives.
+// When too many ids are revoked, the exact sets are released and a false positive means a rejected token.
+// Bulk revocations of a user or a client are kept as a cutoff: every token issued up to the cutoff second is revoked.
+// In shared mode, each revoked id and each cutoff is also written to the token store as a revocation marker, and the
+// markers written by the other nodes are read in the background. Lookups only read the local state: a revocation made
+// on another node is applied once the markers are read, within the sync interval.
+@Service
+public class RevokedTokenRegistry implements DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RevokedTokenRegistry.class);
+
+    // Clock difference allowed between the nodes, in seconds: the markers are read again over this duration
+    private static final long MAX_CLOCK_SKEW = 60;
+
+    private static final String MARKER_PREFIX = "revocation:";
+    private static final String USER_CUTOFF_PREFIX = "revocation-user:";
+    private static final String CLIENT_CUTOFF_PREFIX = "revocation-client:";
+
+    private OAuthConfiguration.RevocationConfiguration config;
+
+    private boolean shared;
+
+    private TokenRepository tokenRepository;
+
+    private ConcurrentSkipListMap<Long, Bucket> buckets = new ConcurrentSkipListMap<>();
+
+    // Guarded by the registry lock, with the exact sets of the buckets
+    private int exactEntries;
+
+    private ConcurrentHashMap<String, Long> usernameCutoffs = new ConcurrentHashMap<>();
+
+    private ConcurrentHashMap<String, Long> clientIdCutoffs = new ConcurrentHashMap<>();
+
+    // Issue time from which the markers are read at the next sync. 0 reads every marker
+    private long syncedSince;
+
+    private ScheduledExecutorService syncExecutor;
+
+    private static class Bucket {
+
+        private final BloomFilter<CharSequence> filter;
+        private volatile Set<String> exactIds = ConcurrentHashMap.newKeySet();
+
+        private Bucket(int expectedInsertions, double falsePositiveRate) {
+            filter = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions, falsePositiveRate);
+        }
+    }
+
+    @Autowired
+    public RevokedTokenRegistry(OAuthConfiguration config, TokenRepository tokenRepository) {
+        this.config = config.getRevocation();
+        this.tokenRepository = tokenRepository;
+        this.shared = Boolean.TRUE.equals(this.config.getShared());
+
+        if (!shared) return;
+
+        // The revocations made before the startup are known before the first lookup
+        try {
+            sync();
+        } catch (TokenFetchException e) {
+            LOG.error("Could not read the revocations of the other nodes: {}", e.getMessage());
+        }
+
+        if (this.config.getSyncInterval() > 0) {
+
+            syncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "oauth-revocation-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            syncExecutor.scheduleWithFixedDelay(() -> {
+                try {
+                    sync();
+                } catch (TokenFetchException e) {
+                    LOG.error("Could not read the revocations of the other nodes: {}", e.getMessage());
+                }
+            }, this.config.getSyncInterval(), this.config.getSyncInterval(), TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+
+        if (syncExecutor != null) syncExecutor.shutdownNow();
+    }
+
+    public void revoke(OAuthToken token) throws TokenCreationException {
+
+        if (token.getJwtId() == null || token.getExpiration() < System.currentTimeMillis() / 1000) return;
+
+        if (shared) {
+            // The marker expires with the token, so that the id is kept in the same bucket on every node
+            tokenRepository.save(new OAuthToken()
+                    .setType(OAuthToken.REVOCATION_TYPE)
+                    .setValue(MARKER_PREFIX + token.getJwtId())
+                    .setClientId(token.getClientId())
+                    .setScope("")
+                    .setJwtId(token.getJwtId())
+                    .setIssuedAt(System.currentTimeMillis() / 1000)
+                    .setExpiration(token.getExpiration()));
+        }
+
+        revoke(token.getJwtId(), token.getExpiration());
+    }
+
+    public void revoke(String jwtId, long expiration) {
+
+        long now = System.currentTimeMillis() / 1000;
+
+        if (jwtId == null || expiration < now) return;
+
+        synchronized (this) {
+
+            purge(now);
+
+            Bucket bucket = buckets.computeIfAbsent(bucketOf(expiration),
+                    key -> new Bucket(config.getExpectedRevocationsPerBucket(), config.getFalsePositiveRate()));
+
+            bucket.filter.put(jwtId);
+
+            Set<String> exactIds = bucket.exactIds;
+
+            if (exactIds != null && exactIds.add(jwtId) && ++exactEntries > config.getMaxExactEntries()) {
+                releaseExactIds();
+            }
+        }
+    }
+
+    public void revokeAllForUser(String username) throws TokenCreationException, TokenDeleteException {
+        revokeAll(usernameCutoffs, USER_CUTOFF_PREFIX, username, username, "");
+    }
+
+    public void revokeAllForClient(String clientId) throws TokenCreationException, TokenDeleteException {
+        revokeAll(clientIdCutoffs, CLIENT_CUTOFF_PREFIX, clientId, null, clientId);
+    }
+
+    // Token issue times are in seconds, so the tokens issued during the second of the call can't be told apart from the
+    // ones issued right after it: the cutoff is the previous second, and a token issued after the call is never revoked.
+    // Within that one-second window, stored tokens are deleted by the bulk revocation itself, but a self-contained token
+    // issued during the second of the call, before it, stays valid until it expires
+    // The marker of a user cutoff holds the username, the one of a client cutoff holds the client id alone
+    private void revokeAll(ConcurrentHashMap<String, Long> cutoffs, String prefix, String value, String username,
+                           String clientId) throws TokenCreationException, TokenDeleteException {
+
+        if (value == null) return;
+
+        long cutoff = System.currentTimeMillis() / 1000 - 1;
+
+        purgeCutoffs(cutoff);
+
+        if (shared) {
+
+            // The marker of a previous bulk revocation is replaced
+            tokenRepository.delete(prefix + value);
+            tokenRepository.save(new OAuthToken()
+                    .setType(OAuthToken.REVOCATION_TYPE)
+                    .setValue(prefix + value)
+                    .setUsername(username)
+                    .setClientId(clientId)
+                    .setScope("")
+                    .setIssuedAt(cutoff)
+                    .setExpiration(cutoff + config.getCutoffRetention()));
+        }
+
+        cutoffs.merge(value, cutoff, Math::max);
+    }
+
+    public boolean isRevoked(OAuthToken token) {
+
+        return isRevoked(token.getJwtId(), token.getExpiration())
+                || isCutOff(usernameCutoffs, token.getUsername(), token.getIssuedAt())
+                || isCutOff(clientIdCutoffs, token.getClientId(), token.getIssuedAt());
+    }
+
+    public boolean[] areRevoked(List<OAuthToken> tokens) {
+
+        boolean[] revoked = new boolean[tokens.size()];
+
+        for (int i = 0; i < tokens.size(); i++) {
+            revoked[i] = isRevoked(tokens.get(i));
+        }
+
+        return revoked;
+    }
+
+    // Reads the markers written since the previous sync. The reads overlap by the sync interval and the clock skew,
+    // so that a marker written late by a node is not missed: a marker read twice is applied again
+    synchronized void sync() throws TokenFetchException {
+
+        long now = System.currentTimeMillis() / 1000;
+        int[] markers = new int[1];
+
+        tokenRepository.exportRevocations(syncedSince, marker -> {
+            apply(marker);
+            markers[0]++;
+        });
+
+        syncedSince = Math.max(0, now - config.getSyncInterval() - MAX_CLOCK_SKEW);
+
+        LOG.debug("Read {} revocation markers", markers[0]);
+    }
+
+    private void apply(OAuthToken marker) {
+
+        if (marker.getJwtId() != null) {
+            revoke(marker.getJwtId(), marker.getExpiration());
+        } else if (marker.getUsername() != null) {
+            usernameCutoffs.merge(marker.getUsername(), marker.getIssuedAt(), Math::max);
+        } else if (marker.getClientId() != null && !marker.getClientId().isEmpty()) {
+            clientIdCutoffs.merge(marker.getClientId(), marker.getIssuedAt(), Math::max);
+        }
+    }
+
+    private boolean isCutOff(ConcurrentHashMap<String, Long> cutoffs, String value, long issuedAt) {
+
+        if (value == null || cutoffs.isEmpty()) return false;
+
+        Long cutoff = cutoffs.get(value);
+
+        return cutoff != null && issuedAt <= cutoff;
+    }
+
+    public boolean isRevoked(String jwtId, long expiration) {
+
+        if (jwtId == null) return false;
+
+        Bucket bucket = buckets.get(bucketOf(expiration));
+
+        if (bucket == null || !bucket.filter.mightContain(jwtId)) return false;
+
+        Set<String> exactIds = bucket.exactIds;
+
+        return exactIds == null || exactIds.contains(jwtId);
+    }
+
+    private long bucketOf(long expiration) {
+        return expiration - expiration % config.getBucketDuration();
+    }
+
+    // Drops the buckets whose tokens are all expired
+    private void purge(long now) {
+
+        ConcurrentNavigableMap<Long, Bucket> expired = buckets.headMap(bucketOf(now));
+
+        for (Bucket bucket : expired.values()) {
+
+            Set<String> exactIds = bucket.exactIds;
+
+            if (exactIds != null) exactEntries -= exactIds.size();
+        }
+
+        expired.clear();
+    }
+
+    // Once the retention is over, every token issued before a cutoff is expired
+    private void purgeCutoffs(long now) {
+
+        long limit = now - config.getCutoffRetention();
+
+        usernameCutoffs.values().removeIf(cutoff -> cutoff < limit);
+        clientIdCutoffs.values().removeIf(cutoff -> cutoff < limit);
+    }
+
+    // The buckets with the farthest expiration release their exact set first, as they will be kept the longest
+    private void releaseExactIds() {
+
+        for (Bucket bucket : buckets.descendingMap().values()) {
+
+            if (exactEntries <= config.getMaxExactEntries() / 2) return;
+
+            Set<String> exactIds = bucket.exactIds;
+
+            if (exactIds != null) {
+                bucket.exactIds = null;
+                exactEntries -= exactIds.size();
+            }
+        }
+    }
+
+    synchronized int getExactEntries() {
+        return exactEntries;
+    }
+}
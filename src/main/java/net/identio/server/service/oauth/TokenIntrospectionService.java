@@ -29,6 +29,8 @@ import net.identio.server.service.oauth.model.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 @Service
@@ -37,12 +39,23 @@ public class TokenIntrospectionService {
     private static final String ACCESS_TOKEN_TYPE = "access_token";
     private static final String REFRESH_TOKEN_TYPE = "refresh_token";
 
+    private static final int MAX_BATCH_SIZE = 1000;
+
     @Autowired
     private OAuthActorsRepository actorsRepository;
 
     @Autowired
     private TokenRepository tokenRepository;
 
+    @Autowired
+    private AccessTokenVerifier accessTokenVerifier;
+
+    @Autowired
+    private RevokedTokenRegistry revokedTokenRegistry;
+
+    @Autowired
+    private OAuthConfiguration oAuthConfiguration;
+
     public Result<OAuthToken> getTokenInformations(String token, String tokenType, String authorization) {
 
         if (!actorsRepository.getResourceServerFromAuthorization(authorization).isSuccess()) {
@@ -52,11 +65,91 @@ public class TokenIntrospectionService {
         return fetchTokenInformations(token, tokenType);
     }
 
-    private Result<OAuthToken> fetchTokenInformations(String token, String tokenType) {
+    // The resource server is authenticated once for the whole batch. The results are in the order of the tokens
+    public Result<List<OAuthToken>> getTokensInformations(List<String> tokens, String authorization) {
+
+        if (!actorsRepository.getResourceServerFromAuthorization(authorization).isSuccess()) {
+            return Result.unauthorized(OAuthErrors.INVALID_CLIENT);
+        }
+
+        if (tokens == null || tokens.isEmpty() || tokens.size() > MAX_BATCH_SIZE)
+            return Result.fail(OAuthErrors.INVALID_REQUEST);
+
+        List<OAuthToken> results = new ArrayList<>(tokens.size());
+
+        // Self-contained access tokens are verified locally, the others are fetched together from the store
+        List<Integer> verifiedPositions = new ArrayList<>();
+        List<OAuthToken> verifiedTokens = new ArrayList<>();
+        List<Integer> storedPositions = new ArrayList<>();
+        List<String> storedTokens = new ArrayList<>();
+
+        for (int i = 0; i < tokens.size(); i++) {
+
+            String token = tokens.get(i);
+
+            if (oAuthConfiguration.isStatelessAccessToken() && accessTokenVerifier.isSelfContained(token)) {
+
+                Optional<OAuthToken> result = accessTokenVerifier.verify(token);
+
+                results.add(result.isPresent() ? result.get() : new OAuthToken().setActive(false));
+
+                if (result.isPresent()) {
+                    verifiedPositions.add(i);
+                    verifiedTokens.add(result.get());
+                }
+            } else {
+                results.add(null);
+                storedPositions.add(i);
+                storedTokens.add(token);
+            }
+        }
+
+        try {
+            if (!verifiedTokens.isEmpty()) {
+
+                boolean[] revoked = revokedTokenRegistry.areRevoked(verifiedTokens);
 
+                for (int i = 0; i < revoked.length; i++) {
+                    if (revoked[i]) results.set(verifiedPositions.get(i), new OAuthToken().setActive(false));
+                }
+            }
+
+            if (!storedTokens.isEmpty()) {
+
+                List<Optional<OAuthToken>> storedResults = tokenRepository.getTokensByValue(storedTokens);
+
+                for (int i = 0; i < storedResults.size(); i++) {
+                    results.set(storedPositions.get(i), toIntrospectionResult(storedResults.get(i)));
+                }
+            }
+
+        } catch (TokenFetchException e) {
+            return Result.serverError();
+        }
+
+        return Result.success(results);
+    }
+
+    private Result<OAuthToken> fetchTokenInformations(String token, String tokenType) {
 
         if (token == null) return Result.fail(OAuthErrors.INVALID_REQUEST);
 
+        // The hint is validated whatever the kind of token
+        if (tokenType != null && !ACCESS_TOKEN_TYPE.equals(tokenType) && !REFRESH_TOKEN_TYPE.equals(tokenType))
+            return Result.fail(OAuthErrors.INVALID_REQUEST);
+
+        // Self-contained access tokens are not stored and are verified locally
+        if (oAuthConfiguration.isStatelessAccessToken() && !REFRESH_TOKEN_TYPE.equals(tokenType)
+                && accessTokenVerifier.isSelfContained(token)) {
+
+            Optional<OAuthToken> result = accessTokenVerifier.verify(token);
+
+            if (!result.isPresent() || revokedTokenRegistry.isRevoked(result.get()))
+                return Result.success(new OAuthToken().setActive(false));
+
+            return Result.success(result.get());
+        }
+
         Optional<OAuthToken> result;
 
         try {
@@ -83,19 +176,28 @@ public class TokenIntrospectionService {
             return Result.serverError();
         }
 
+        return Result.success(toIntrospectionResult(result));
+    }
+
+    private OAuthToken toIntrospectionResult(Optional<OAuthToken> result) {
+
         if (result.isPresent()) {
 
             OAuthToken fetchedToken = result.get();
 
+            // Revocation markers live in the token store but are not tokens
+            if (OAuthToken.REVOCATION_TYPE.equals(fetchedToken.getType()))
+                return new OAuthToken().setActive(false);
+
             // Ignore check if the token doesn't expire
             if (fetchedToken.getExpiration() != 0 &&
                     fetchedToken.getExpiration() < System.currentTimeMillis() / 1000)
-                return Result.success(new OAuthToken().setActive(false));
+                return new OAuthToken().setActive(false);
 
-            return Result.success(fetchedToken);
+            return fetchedToken;
 
         } else {
-            return Result.success(new OAuthToken().setActive(false));
+            return new OAuthToken().setActive(false);
         }
     }
 }
@@ -0,0 +1,202 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth;
+
+import net.identio.server.model.Result;
+import net.identio.server.service.oauth.infrastructure.OAuthActorsRepository;
+import net.identio.server.service.oauth.infrastructure.TokenRepository;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenCreationException;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenDeleteException;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenFetchException;
+import net.identio.server.service.oauth.model.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.Optional;
+
+// Token revocation as defined by RFC 7009
+@Service
+public class TokenRevocationService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TokenRevocationService.class);
+
+    private static final String ACCESS_TOKEN_TYPE = "access_token";
+    private static final String REFRESH_TOKEN_TYPE = "refresh_token";
+
+    @Autowired
+    private OAuthActorsRepository actorsRepository;
+
+    @Autowired
+    private TokenRepository tokenRepository;
+
+    @Autowired
+    private AccessTokenVerifier accessTokenVerifier;
+
+    @Autowired
+    private RevokedTokenRegistry revokedTokenRegistry;
+
+    @Autowired
+    private OAuthConfiguration oAuthConfiguration;
+
+    @Autowired
+    private ClientTokenReuseCache tokenReuseCache;
+
+    public Result<Void> revoke(String token, String tokenType, String authorization) {
+
+        Result<Client> clientResult = actorsRepository.getClientFromAuthorization(authorization);
+
+        if (!clientResult.isSuccess()) {
+            return Result.unauthorized(OAuthErrors.INVALID_CLIENT);
+        }
+
+        if (token == null) return Result.fail(OAuthErrors.INVALID_REQUEST);
+
+        // Unknown hints are ignored, the token is then searched in every type
+        if (tokenType != null && !ACCESS_TOKEN_TYPE.equals(tokenType) && !REFRESH_TOKEN_TYPE.equals(tokenType)) {
+            tokenType = null;
+        }
+
+        String clientId = clientResult.get().getClientId();
+
+        // Self-contained access tokens can't be deleted: their id is kept until they expire
+        if (oAuthConfiguration.isStatelessAccessToken() && !REFRESH_TOKEN_TYPE.equals(tokenType)
+                && accessTokenVerifier.isSelfContained(token)) {
+
+            Optional<OAuthToken> result = accessTokenVerifier.verify(token);
+
+            if (!result.isPresent()) return Result.success(null);
+
+            if (!isTokenIssuedToClient(result.get(), clientId))
+                return Result.fail(OAuthErrors.UNAUTHORIZED_CLIENT);
+
+            // A revoked token must not be served again by the client credentials grant
+            tokenReuseCache.invalidateToken(token);
+
+            try {
+                revokedTokenRegistry.revoke(result.get());
+            } catch (TokenCreationException e) {
+                return Result.serverError();
+            }
+
+            return Result.success(null);
+        }
+
+        try {
+            Optional<OAuthToken> result = tokenRepository.getTokenByValue(token);
+
+            // Invalid tokens don't cause an error response. Revocation markers are not tokens and stay in place
+            if (!result.isPresent() || OAuthToken.REVOCATION_TYPE.equals(result.get().getType()))
+                return Result.success(null);
+
+            if (!isTokenIssuedToClient(result.get(), clientId))
+                return Result.fail(OAuthErrors.UNAUTHORIZED_CLIENT);
+
+            tokenReuseCache.invalidateToken(token);
+
+            tokenRepository.delete(token);
+
+        } catch (TokenFetchException | TokenDeleteException e) {
+            return Result.serverError();
+        }
+
+        return Result.success(null);
+    }
+
+    // Bulk revocation: a client revokes every token issued to it. Revoking the tokens of a user or of another client
+    // is restricted to the clients allowed to do bulk revocations
+    public Result<Long> revokeAll(String username, String clientId, String authorization) {
+
+        Result<Client> clientResult = actorsRepository.getClientFromAuthorization(authorization);
+
+        if (!clientResult.isSuccess()) {
+            return Result.unauthorized(OAuthErrors.INVALID_CLIENT);
+        }
+
+        if (username != null && clientId != null) return Result.fail(OAuthErrors.INVALID_REQUEST);
+
+        Client client = clientResult.get();
+
+        if (username == null && (clientId == null || clientId.equals(client.getClientId()))) {
+            return revokeAllForClient(client.getClientId());
+        }
+
+        if (!client.isBulkRevocation()) {
+            LOG.error("Client {} is not allowed to revoke the tokens of another user or client", client.getClientId());
+            return Result.fail(OAuthErrors.UNAUTHORIZED_CLIENT);
+        }
+
+        return username != null ? revokeAllForUser(username) : revokeAllForClient(clientId);
+    }
+
+    // Revokes every token of a user: stored tokens are deleted by batches, self-contained ones are cut off
+    public Result<Long> revokeAllForUser(String username) {
+
+        if (username == null) return Result.fail(OAuthErrors.INVALID_REQUEST);
+
+        try {
+            long deleted = tokenRepository.deleteByUsername(username);
+
+            // The cutoff marker is written once the stored tokens are deleted, so that it is kept
+            if (oAuthConfiguration.isStatelessAccessToken()) revokedTokenRegistry.revokeAllForUser(username);
+
+            LOG.info("Revoked {} tokens of user {}", deleted, username);
+
+            return Result.success(deleted);
+
+        } catch (TokenCreationException | TokenDeleteException e) {
+            return Result.serverError();
+        }
+    }
+
+    // Revokes every token issued to a client: stored tokens are deleted by batches, self-contained ones are cut off
+    public Result<Long> revokeAllForClient(String clientId) {
+
+        if (clientId == null) return Result.fail(OAuthErrors.INVALID_REQUEST);
+
+        tokenReuseCache.invalidateClient(clientId);
+
+        try {
+            long deleted = tokenRepository.deleteByClientId(clientId);
+
+            // The cutoff marker is written once the stored tokens are deleted, so that it is kept
+            if (oAuthConfiguration.isStatelessAccessToken()) revokedTokenRegistry.revokeAllForClient(clientId);
+
+            LOG.info("Revoked {} tokens of client {}", deleted, clientId);
+
+            return Result.success(deleted);
+
+        } catch (TokenCreationException | TokenDeleteException e) {
+            return Result.serverError();
+        }
+    }
+
+    private boolean isTokenIssuedToClient(OAuthToken token, String clientId) {
+
+        if (!clientId.equals(token.getClientId())) {
+            LOG.error("Client {} tried to revoke a token issued to client {}", clientId, token.getClientId());
+            return false;
+        }
+
+        return true;
+    }
+}
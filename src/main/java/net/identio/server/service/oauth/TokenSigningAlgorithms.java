@@ -0,0 +1,88 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth;
+
+import com.auth0.jwt.algorithms.Algorithm;
+import net.identio.server.exceptions.InitializationException;
+
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+
+// The signature algorithm of the access tokens is given by the type of the key of the access token keystore:
+// RS256 for RSA keys, ES256 for P-256 keys and EdDSA for Ed25519 keys
+public final class TokenSigningAlgorithms {
+
+    private TokenSigningAlgorithms() {
+    }
+
+    // The private key may be null when the algorithm is only used to verify signatures
+    public static Algorithm forKeys(PublicKey publicKey, PrivateKey privateKey) throws InitializationException {
+
+        switch (publicKey.getAlgorithm()) {
+
+            case "RSA":
+                return Algorithm.RSA256((RSAPublicKey) publicKey, (RSAPrivateKey) privateKey);
+
+            case "EC":
+                if (!isP256(((ECPublicKey) publicKey).getParams())) {
+                    throw new InitializationException("Only P-256 elliptic curve keys are supported to sign tokens");
+                }
+                return Algorithm.ECDSA256((ECPublicKey) publicKey, (ECPrivateKey) privateKey);
+
+            case "EdDSA":
+            case "Ed25519":
+                if (!EdDsaAlgorithm.isSupported()) {
+                    throw new InitializationException("EdDSA keys require a Java runtime supporting Ed25519");
+                }
+                return new EdDsaAlgorithm(publicKey, privateKey);
+
+            default:
+                throw new InitializationException("Unsupported token signature key type: " + publicKey.getAlgorithm());
+        }
+    }
+
+    // Other curves of the same size, such as secp256k1, are not ES256 keys: every domain parameter is compared
+    private static boolean isP256(ECParameterSpec params) throws InitializationException {
+
+        ECParameterSpec p256;
+
+        try {
+            AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+            parameters.init(new ECGenParameterSpec("secp256r1"));
+            p256 = parameters.getParameterSpec(ECParameterSpec.class);
+        } catch (GeneralSecurityException e) {
+            throw new InitializationException("Could not load the P-256 curve parameters", e);
+        }
+
+        return params.getCurve().equals(p256.getCurve())
+                && params.getGenerator().equals(p256.getGenerator())
+                && params.getOrder().equals(p256.getOrder())
+                && params.getCofactor() == p256.getCofactor();
+    }
+}
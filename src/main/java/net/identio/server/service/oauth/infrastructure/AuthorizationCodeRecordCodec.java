@@ -0,0 +1,102 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.oauth.model.AuthorizationCode;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Compact binary layout of an authorization code, without the code itself:
+// expiration time (8 bytes), then client id, redirect url, scope, user id, code challenge and
+// code challenge method as UTF-8 strings prefixed by their length (2 bytes, -1 for null)
+public final class AuthorizationCodeRecordCodec {
+
+    private AuthorizationCodeRecordCodec() {
+    }
+
+    public static byte[] encode(AuthorizationCode code) {
+
+        byte[][] strings = {
+                toBytes(code.getClientId()),
+                toBytes(code.getRedirectUrl()),
+                toBytes(code.getScope()),
+                toBytes(code.getUserId()),
+                toBytes(code.getCodeChallenge()),
+                toBytes(code.getCodeChallengeMethod())
+        };
+
+        int length = 8;
+
+        for (byte[] string : strings) {
+            length += 2 + (string != null ? string.length : 0);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+
+        buffer.putLong(code.getExpirationTime());
+
+        for (byte[] string : strings) {
+            if (string == null) {
+                buffer.putShort((short) -1);
+            } else {
+                buffer.putShort((short) string.length);
+                buffer.put(string);
+            }
+        }
+
+        return buffer.array();
+    }
+
+    public static AuthorizationCode decode(String code, byte[] record) {
+
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+
+        return new AuthorizationCode().setCode(code)
+                .setExpirationTime(buffer.getLong())
+                .setClientId(readString(buffer))
+                .setRedirectUrl(readString(buffer))
+                .setScope(readString(buffer))
+                .setUserId(readString(buffer))
+                .setCodeChallenge(readString(buffer))
+                .setCodeChallengeMethod(readString(buffer));
+    }
+
+    public static long readExpiration(byte[] record) {
+        return ByteBuffer.wrap(record).getLong(0);
+    }
+
+    private static byte[] toBytes(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+
+        short length = buffer.getShort();
+
+        if (length < 0) return null;
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -26,7 +26,9 @@ import net.identio.server.service.oauth.infrastructure.exceptions.AuthorizationC
 import net.identio.server.service.oauth.infrastructure.exceptions.AuthorizationCodeFetchException;
 import net.identio.server.service.oauth.model.AuthorizationCode;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface AuthorizationCodeRepository {
 
@@ -35,4 +37,13 @@ public interface AuthorizationCodeRepository {
     Optional<AuthorizationCode> getAuthorizationCodeByValue(String code) throws AuthorizationCodeFetchException;
 
     void delete(AuthorizationCode code) throws AuthorizationCodeDeleteException;
+
+    // Fetches and deletes the code atomically: only one caller can obtain a given code
+    Optional<AuthorizationCode> consume(String code) throws AuthorizationCodeFetchException;
+
+    // Streams the stored codes to the consumer without loading them all in memory
+    void exportCodes(Consumer<AuthorizationCode> consumer) throws AuthorizationCodeFetchException;
+
+    // Stores codes read from an export
+    void importCodes(List<AuthorizationCode> codes) throws AuthorizationCodeCreationException;
 }
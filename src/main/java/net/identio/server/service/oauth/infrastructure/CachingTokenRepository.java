@@ -0,0 +1,319 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package net.identio.server.service.oauth.infrastructure;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import net.identio.server.service.oauth.OAuthConfiguration;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenCreationException;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenDeleteException;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenFetchException;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Near-cache in front of another token repository.
+// Concurrent lookups of the same token are collapsed into a single backend query by the Guava cache loader.
+// Deletions are only visible to this node: the positive TTL bounds how long another node can serve a deleted token.
+// Entries are keyed by the SHA-256 digest of the token value, and the hit and miss counts are logged periodically.
+public class CachingTokenRepository implements TokenRepository, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CachingTokenRepository.class);
+
+    private TokenRepository delegate;
+
+    private Cache<ByteBuffer, CachedLookup> cache;
+
+    private long ttlMillis;
+    private long negativeTtlMillis;
+
+    private AtomicLong hitCount = new AtomicLong();
+    private AtomicLong negativeHitCount = new AtomicLong();
+    private AtomicLong missCount = new AtomicLong();
+
+    private ScheduledExecutorService statsExecutor;
+
+    private static class CachedLookup {
+
+        private final OAuthToken token;
+        private final long expiresAt;
+
+        private CachedLookup(OAuthToken token, long expiresAt) {
+            this.token = token;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public CachingTokenRepository(TokenRepository delegate, OAuthConfiguration.TokenCacheConfiguration config) {
+
+        LOG.info("Initializing token near-cache");
+
+        this.delegate = delegate;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(config.getTtl());
+        this.negativeTtlMillis = TimeUnit.SECONDS.toMillis(config.getNegativeTtl());
+
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(config.getMaxSize())
+                .expireAfterWrite(Math.max(ttlMillis, negativeTtlMillis), TimeUnit.MILLISECONDS)
+                .build();
+
+        if (config.getStatsInterval() > 0) {
+
+            statsExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "oauth-token-cache-stats");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            statsExecutor.scheduleWithFixedDelay(this::logStats, config.getStatsInterval(), config.getStatsInterval(),
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void save(OAuthToken token) throws TokenCreationException {
+
+        delegate.save(token);
+
+        // Drop a potential negative entry
+        cache.invalidate(keyOf(token.getValue()));
+    }
+
+    @Override
+    public Optional<OAuthToken> getTokenByValue(String tokenValue, String type) throws TokenFetchException {
+
+        Optional<OAuthToken> result = getTokenByValue(tokenValue);
+
+        return result.isPresent() && type.equals(result.get().getType()) ? result : Optional.empty();
+    }
+
+    @Override
+    public Optional<OAuthToken> getTokenByValue(String tokenValue) throws TokenFetchException {
+
+        ByteBuffer key = keyOf(tokenValue);
+
+        CachedLookup lookup = lookup(key, tokenValue);
+
+        // The entry outlived the token or its TTL: reload it
+        if (lookup.expiresAt < System.currentTimeMillis()) {
+            cache.asMap().remove(key, lookup);
+            lookup = lookup(key, tokenValue);
+        }
+
+        return Optional.ofNullable(lookup.token);
+    }
+
+    // Cached entries are served directly, the others are loaded from the delegate in a single batch
+    @Override
+    public List<Optional<OAuthToken>> getTokensByValue(List<String> tokenValues) throws TokenFetchException {
+
+        List<Optional<OAuthToken>> results = new ArrayList<>(tokenValues.size());
+
+        List<Integer> missingPositions = new ArrayList<>();
+        List<String> missingValues = new ArrayList<>();
+        List<ByteBuffer> missingKeys = new ArrayList<>();
+
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < tokenValues.size(); i++) {
+
+            ByteBuffer key = keyOf(tokenValues.get(i));
+
+            CachedLookup lookup = cache.getIfPresent(key);
+
+            if (lookup != null && lookup.expiresAt >= now) {
+
+                hitCount.incrementAndGet();
+                if (lookup.token == null) negativeHitCount.incrementAndGet();
+
+                results.add(Optional.ofNullable(lookup.token));
+            } else {
+
+                missCount.incrementAndGet();
+
+                results.add(Optional.empty());
+                missingPositions.add(i);
+                missingValues.add(tokenValues.get(i));
+                missingKeys.add(key);
+            }
+        }
+
+        if (missingValues.isEmpty()) return results;
+
+        List<Optional<OAuthToken>> loadedResults = delegate.getTokensByValue(missingValues);
+
+        for (int i = 0; i < loadedResults.size(); i++) {
+
+            results.set(missingPositions.get(i), loadedResults.get(i));
+            cache.put(missingKeys.get(i), toLookup(loadedResults.get(i), now));
+        }
+
+        return results;
+    }
+
+    @Override
+    public void delete(String tokenValue) throws TokenDeleteException {
+
+        delegate.delete(tokenValue);
+
+        cache.invalidate(keyOf(tokenValue));
+    }
+
+    @Override
+    public long deleteByUsername(String username) throws TokenDeleteException {
+
+        long deleted = delegate.deleteByUsername(username);
+
+        cache.asMap().values().removeIf(lookup -> lookup.token != null && username.equals(lookup.token.getUsername()));
+
+        return deleted;
+    }
+
+    @Override
+    public long deleteByClientId(String clientId) throws TokenDeleteException {
+
+        long deleted = delegate.deleteByClientId(clientId);
+
+        cache.asMap().values().removeIf(lookup -> lookup.token != null && clientId.equals(lookup.token.getClientId()));
+
+        return deleted;
+    }
+
+    @Override
+    public void exportTokens(Consumer<StoredToken> consumer) throws TokenFetchException {
+
+        delegate.exportTokens(consumer);
+    }
+
+    @Override
+    public void exportRevocations(long issuedSince, Consumer<OAuthToken> consumer) throws TokenFetchException {
+
+        delegate.exportRevocations(issuedSince, consumer);
+    }
+
+    @Override
+    public void importTokens(List<StoredToken> tokens) throws TokenCreationException {
+
+        delegate.importTokens(tokens);
+
+        // Drop the potential negative entries of the imported tokens
+        for (StoredToken token : tokens) {
+            cache.invalidate(ByteBuffer.wrap(token.getDigest()));
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+
+        if (statsExecutor != null) statsExecutor.shutdownNow();
+
+        if (delegate instanceof DisposableBean) ((DisposableBean) delegate).destroy();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getNegativeHitCount() {
+        return negativeHitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getSize() {
+        return cache.size();
+    }
+
+    private void logStats() {
+
+        LOG.info("Token near-cache: {} hits ({} negative), {} misses, {} entries",
+                hitCount.get(), negativeHitCount.get(), missCount.get(), cache.size());
+    }
+
+    private static ByteBuffer keyOf(String tokenValue) {
+        return ByteBuffer.wrap(TokenDigests.sha256(tokenValue));
+    }
+
+    private CachedLookup lookup(ByteBuffer key, String tokenValue) throws TokenFetchException {
+
+        boolean[] loaded = new boolean[1];
+
+        try {
+            CachedLookup lookup = cache.get(key, () -> {
+                loaded[0] = true;
+                return load(tokenValue);
+            });
+
+            if (loaded[0]) {
+                missCount.incrementAndGet();
+            } else {
+                hitCount.incrementAndGet();
+                if (lookup.token == null) negativeHitCount.incrementAndGet();
+            }
+
+            return lookup;
+
+        } catch (ExecutionException e) {
+
+            if (e.getCause() instanceof TokenFetchException) throw (TokenFetchException) e.getCause();
+
+            throw new TokenFetchException(e);
+        }
+    }
+
+    private CachedLookup load(String tokenValue) throws TokenFetchException {
+
+        return toLookup(delegate.getTokenByValue(tokenValue), System.currentTimeMillis());
+    }
+
+    private CachedLookup toLookup(Optional<OAuthToken> result, long now) {
+
+        if (!result.isPresent()) {
+            return new CachedLookup(null, now + negativeTtlMillis);
+        }
+
+        OAuthToken token = result.get();
+
+        // A cached token never outlives its expiration
+        long expiresAt = now + ttlMillis;
+
+        if (token.getExpiration() != 0) {
+            expiresAt = Math.min(expiresAt, TimeUnit.SECONDS.toMillis(token.getExpiration()));
+        }
+
+        return new CachedLookup(token, expiresAt);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.data.cluster.ClusterNode;
+import net.identio.server.service.oauth.infrastructure.exceptions.AuthorizationCodeCreationException;
+import net.identio.server.service.oauth.infrastructure.exceptions.AuthorizationCodeDeleteException;
+import net.identio.server.service.oauth.infrastructure.exceptions.AuthorizationCodeFetchException;
+import net.identio.server.service.oauth.model.AuthorizationCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+public class ClusterAuthorizationCodeRepository implements AuthorizationCodeRepository {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterAuthorizationCodeRepository.class);
+
+    // Tells the authorization codes from the tokens stored in the same cluster store
+    private static final byte KEY_PREFIX = 2;
+
+    private ClusterNode node;
+
+    public ClusterAuthorizationCodeRepository(ClusterNode node) {
+        this.node = node;
+    }
+
+    @Override
+    public void save(AuthorizationCode code) throws AuthorizationCodeCreationException {
+
+        try {
+            node.put(toKey(code.getCode()), AuthorizationCodeRecordCodec.encode(code), code.getExpirationTime());
+        } catch (IOException e) {
+            LOG.error("Error when storing authorization code in cluster: {}", e.getMessage());
+            throw new AuthorizationCodeCreationException(e);
+        }
+    }
+
+    @Override
+    public Optional<AuthorizationCode> getAuthorizationCodeByValue(String code) throws AuthorizationCodeFetchException {
+
+        try {
+            return decode(code, node.get(toKey(code)));
+        } catch (IOException e) {
+            LOG.error("Error when fetching authorization code in cluster: {}", e.getMessage());
+            throw new AuthorizationCodeFetchException(e);
+        }
+    }
+
+    @Override
+    public void delete(AuthorizationCode code) throws AuthorizationCodeDeleteException {
+
+        try {
+            node.remove(toKey(code.getCode()));
+        } catch (IOException e) {
+            LOG.error("Error when deleting authorization code in cluster: {}", e.getMessage());
+            throw new AuthorizationCodeDeleteException(e);
+        }
+    }
+
+    @Override
+    public Optional<AuthorizationCode> consume(String code) throws AuthorizationCodeFetchException {
+
+        try {
+            return decode(code, node.take(toKey(code)));
+        } catch (IOException e) {
+            LOG.error("Error when consuming authorization code in cluster: {}", e.getMessage());
+            throw new AuthorizationCodeFetchException(e);
+        }
+    }
+
+    // The codes of the whole cluster are exported, read from the node owning each partition
+    @Override
+    public void exportCodes(Consumer<AuthorizationCode> consumer) throws AuthorizationCodeFetchException {
+
+        try {
+            node.forEach((key, record) -> {
+                if (key[0] == KEY_PREFIX) {
+                    consumer.accept(AuthorizationCodeRecordCodec.decode(
+                            new String(key, 1, key.length - 1, StandardCharsets.UTF_8), record));
+                }
+            });
+        } catch (IOException e) {
+            LOG.error("Error when exporting authorization codes from cluster: {}", e.getMessage());
+            throw new AuthorizationCodeFetchException(e);
+        }
+    }
+
+    @Override
+    public void importCodes(List<AuthorizationCode> codes) throws AuthorizationCodeCreationException {
+
+        for (AuthorizationCode code : codes) {
+            save(code);
+        }
+    }
+
+    private Optional<AuthorizationCode> decode(String code, byte[] record) {
+        return record != null ? Optional.of(AuthorizationCodeRecordCodec.decode(code, record)) : Optional.empty();
+    }
+
+    private byte[] toKey(String code) {
+
+        byte[] value = code.getBytes(StandardCharsets.UTF_8);
+
+        byte[] key = new byte[1 + value.length];
+        key[0] = KEY_PREFIX;
+        System.arraycopy(value, 0, key, 1, value.length);
+
+        return key;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.data.cluster.ClusterNode;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenCreationException;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenDeleteException;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenFetchException;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Tokens are stored in the cluster store under the SHA-256 digest of their value, encoded with TokenRecordCodec
+public class ClusterTokenRepository implements TokenRepository {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterTokenRepository.class);
+
+    // Tells the tokens from the authorization codes stored in the same cluster store
+    private static final byte KEY_PREFIX = 1;
+
+    private ClusterNode node;
+
+    public ClusterTokenRepository(ClusterNode node) {
+        this.node = node;
+    }
+
+    @Override
+    public void save(OAuthToken token) throws TokenCreationException {
+
+        save(TokenDigests.sha256(token.getValue()), token);
+    }
+
+    @Override
+    public Optional<OAuthToken> getTokenByValue(String tokenValue, String type) throws TokenFetchException {
+
+        Optional<OAuthToken> result = getTokenByValue(tokenValue);
+
+        return result.isPresent() && type.equals(result.get().getType()) ? result : Optional.empty();
+    }
+
+    @Override
+    public Optional<OAuthToken> getTokenByValue(String tokenValue) throws TokenFetchException {
+
+        byte[] record;
+
+        try {
+            record = node.get(toKey(TokenDigests.sha256(tokenValue)));
+        } catch (IOException e) {
+            LOG.error("Error when fetching token in cluster: {}", e.getMessage());
+            throw new TokenFetchException(e);
+        }
+
+        return record != null ? Optional.of(TokenRecordCodec.decode(ByteBuffer.wrap(record), tokenValue)) : Optional.empty();
+    }
+
+    @Override
+    public List<Optional<OAuthToken>> getTokensByValue(List<String> tokenValues) throws TokenFetchException {
+
+        List<Optional<OAuthToken>> results = new ArrayList<>(tokenValues.size());
+
+        for (String tokenValue : tokenValues) {
+            results.add(getTokenByValue(tokenValue));
+        }
+
+        return results;
+    }
+
+    @Override
+    public void delete(String tokenValue) throws TokenDeleteException {
+
+        try {
+            node.remove(toKey(TokenDigests.sha256(tokenValue)));
+        } catch (IOException e) {
+            LOG.error("Error when deleting token in cluster: {}", e.getMessage());
+            throw new TokenDeleteException(e);
+        }
+    }
+
+    @Override
+    public long deleteByUsername(String username) throws TokenDeleteException {
+        return deleteMatching(token -> username != null && username.equals(token.getUsername()));
+    }
+
+    @Override
+    public long deleteByClientId(String clientId) throws TokenDeleteException {
+        return deleteMatching(token -> clientId != null && clientId.equals(token.getClientId()));
+    }
+
+    // The cluster has no secondary index: every partition is scanned, on the node owning it, then the matching
+    // tokens are deleted one by one
+    private long deleteMatching(Predicate<OAuthToken> predicate) throws TokenDeleteException {
+
+        List<byte[]> keys = new ArrayList<>();
+
+        try {
+            node.forEach((key, record) -> {
+                if (key[0] == KEY_PREFIX && predicate.test(TokenRecordCodec.decode(ByteBuffer.wrap(record), null))) {
+                    keys.add(key);
+                }
+            });
+
+            for (byte[] key : keys) {
+                node.remove(key);
+            }
+        } catch (IOException e) {
+            LOG.error("Error when deleting tokens in cluster: {}", e.getMessage());
+            throw new TokenDeleteException(e);
+        }
+
+        return keys.size();
+    }
+
+    // The tokens of the whole cluster are exported, read from the node owning each partition
+    @Override
+    public void exportTokens(Consumer<StoredToken> consumer) throws TokenFetchException {
+
+        try {
+            node.forEach((key, record) -> {
+                if (key[0] == KEY_PREFIX) {
+                    consumer.accept(new StoredToken(Arrays.copyOfRange(key, 1, key.length),
+                            TokenRecordCodec.decode(ByteBuffer.wrap(record), null)));
+                }
+            });
+        } catch (IOException e) {
+            LOG.error("Error when exporting tokens from cluster: {}", e.getMessage());
+            throw new TokenFetchException(e);
+        }
+    }
+
+    @Override
+    public void exportRevocations(long issuedSince, Consumer<OAuthToken> consumer) throws TokenFetchException {
+
+        exportTokens(token -> {
+            if (OAuthToken.REVOCATION_TYPE.equals(token.getToken().getType())
+                    && token.getToken().getIssuedAt() >= issuedSince) {
+                consumer.accept(token.getToken());
+            }
+        });
+    }
+
+    @Override
+    public void importTokens(List<StoredToken> tokens) throws TokenCreationException {
+
+        for (StoredToken token : tokens) {
+            save(token.getDigest(), token.getToken());
+        }
+    }
+
+    private void save(byte[] digest, OAuthToken token) throws TokenCreationException {
+
+        try {
+            node.put(toKey(digest), TokenRecordCodec.encode(token), token.getExpiration());
+        } catch (IOException e) {
+            LOG.error("Error when storing token {} in cluster: {}", token.getJwtId(), e.getMessage());
+            throw new TokenCreationException(e);
+        }
+    }
+
+    private byte[] toKey(byte[] digest) {
+
+        byte[] key = new byte[1 + digest.length];
+        key[0] = KEY_PREFIX;
+        System.arraycopy(digest, 0, key, 1, digest.length);
+
+        return key;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.data.EmbeddedDataService;
+import net.identio.server.service.oauth.OAuthConfiguration;
+import net.identio.server.service.oauth.model.AuthorizationCode;
+import org.h2.mvstore.MVMap;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+public class EmbeddedAuthorizationCodeRepository implements AuthorizationCodeRepository {
+
+    public static final String MAP_NAME = "authorization_codes";
+
+    private MVMap<String, byte[]> codes;
+
+    @Autowired
+    public EmbeddedAuthorizationCodeRepository(OAuthConfiguration config, EmbeddedDataService dataService) {
+        this(config, dataService, config.getDataSource());
+    }
+
+    public EmbeddedAuthorizationCodeRepository(OAuthConfiguration config, EmbeddedDataService dataService, String dataSource) {
+        this.codes = dataService.getStore(dataSource).openMap(MAP_NAME);
+    }
+
+    @Override
+    public void save(AuthorizationCode code) {
+
+        codes.put(code.getCode(), AuthorizationCodeRecordCodec.encode(code));
+    }
+
+    @Override
+    public Optional<AuthorizationCode> getAuthorizationCodeByValue(String code) {
+
+        byte[] record = codes.get(code);
+
+        return record != null ? Optional.of(AuthorizationCodeRecordCodec.decode(code, record)) : Optional.empty();
+    }
+
+    @Override
+    public void delete(AuthorizationCode code) {
+
+        codes.remove(code.getCode());
+    }
+
+    @Override
+    public Optional<AuthorizationCode> consume(String code) {
+
+        byte[] record = codes.remove(code);
+
+        return record != null ? Optional.of(AuthorizationCodeRecordCodec.decode(code, record)) : Optional.empty();
+    }
+
+    @Override
+    public void exportCodes(Consumer<AuthorizationCode> consumer) {
+
+        for (Map.Entry<String, byte[]> entry : codes.entrySet()) {
+            consumer.accept(AuthorizationCodeRecordCodec.decode(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    @Override
+    public void importCodes(List<AuthorizationCode> codes) {
+
+        for (AuthorizationCode code : codes) {
+            save(code);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.oauth.OAuthConfiguration;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+// Purges expired tokens and authorization codes from the embedded store, with the same throttling as the JDBC reaper
+public class EmbeddedExpiredDataReaper implements DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EmbeddedExpiredDataReaper.class);
+
+    private MVMap<byte[], byte[]> tokens;
+    private MVMap<String, byte[]> codes;
+
+    private OAuthConfiguration.ReaperConfiguration config;
+
+    private ScheduledExecutorService executor;
+
+    private volatile boolean running = true;
+
+    public EmbeddedExpiredDataReaper(OAuthConfiguration.ReaperConfiguration config, MVStore store) {
+
+        this.config = config;
+        this.tokens = store.openMap(EmbeddedTokenRepository.MAP_NAME);
+        this.codes = store.openMap(EmbeddedAuthorizationCodeRepository.MAP_NAME);
+
+        LOG.info("Scheduling expired tokens and authorization codes purge every {}s", config.getInterval());
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "oauth-expired-data-reaper");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+
+        executor.scheduleWithFixedDelay(this::reap, config.getInterval(), config.getInterval(), TimeUnit.SECONDS);
+    }
+
+    public void reap() {
+
+        long start = System.currentTimeMillis();
+        long now = start / 1000;
+
+        try {
+            int purgedTokens = purge(tokens, TokenRecordCodec::readExpiration, now);
+            int purgedCodes = purge(codes, AuthorizationCodeRecordCodec::readExpiration, now);
+
+            LOG.info("Purged {} expired tokens and {} expired authorization codes in {}ms",
+                    purgedTokens, purgedCodes, System.currentTimeMillis() - start);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void destroy() {
+
+        running = false;
+        executor.shutdownNow();
+    }
+
+    // Iterators of the store work on a snapshot, entries can be removed while iterating
+    private <K> int purge(MVMap<K, byte[]> map, ToLongFunction<byte[]> expiration, long now) throws InterruptedException {
+
+        int purged = 0;
+        int batch = 0;
+
+        for (Map.Entry<K, byte[]> entry : map.entrySet()) {
+
+            if (!running) break;
+
+            long entryExpiration = expiration.applyAsLong(entry.getValue());
+
+            if (entryExpiration != 0 && entryExpiration < now) {
+
+                map.remove(entry.getKey(), entry.getValue());
+                purged++;
+
+                // Leave room for the request traffic between two batches
+                if (++batch == config.getBatchSize()) {
+                    batch = 0;
+                    Thread.sleep(config.getBatchPause());
+                }
+            }
+        }
+
+        return purged;
+    }
+}
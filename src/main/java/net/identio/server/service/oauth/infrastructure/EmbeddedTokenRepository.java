@@ -0,0 +1,150 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.data.EmbeddedDataService;
+import net.identio.server.service.oauth.OAuthConfiguration;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenCreationException;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenDeleteException;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenFetchException;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.h2.mvstore.MVMap;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Tokens are stored in the embedded store under the SHA-256 digest of their value, encoded with TokenRecordCodec
+public class EmbeddedTokenRepository implements TokenRepository {
+
+    public static final String MAP_NAME = "tokens";
+
+    private MVMap<byte[], byte[]> tokens;
+
+    @Autowired
+    public EmbeddedTokenRepository(OAuthConfiguration config, EmbeddedDataService dataService) {
+        this(config, dataService, config.getDataSource());
+    }
+
+    public EmbeddedTokenRepository(OAuthConfiguration config, EmbeddedDataService dataService, String dataSource) {
+        this.tokens = dataService.getStore(dataSource).openMap(MAP_NAME);
+    }
+
+    @Override
+    public void save(OAuthToken token) throws TokenCreationException {
+
+        tokens.put(TokenDigests.sha256(token.getValue()), TokenRecordCodec.encode(token));
+    }
+
+    @Override
+    public Optional<OAuthToken> getTokenByValue(String tokenValue, String type) throws TokenFetchException {
+
+        Optional<OAuthToken> result = getTokenByValue(tokenValue);
+
+        return result.isPresent() && type.equals(result.get().getType()) ? result : Optional.empty();
+    }
+
+    @Override
+    public Optional<OAuthToken> getTokenByValue(String tokenValue) throws TokenFetchException {
+
+        byte[] record = tokens.get(TokenDigests.sha256(tokenValue));
+
+        return record != null ? Optional.of(TokenRecordCodec.decode(ByteBuffer.wrap(record), tokenValue)) : Optional.empty();
+    }
+
+    @Override
+    public List<Optional<OAuthToken>> getTokensByValue(List<String> tokenValues) throws TokenFetchException {
+
+        List<Optional<OAuthToken>> results = new ArrayList<>(tokenValues.size());
+
+        for (String tokenValue : tokenValues) {
+            results.add(getTokenByValue(tokenValue));
+        }
+
+        return results;
+    }
+
+    @Override
+    public void delete(String tokenValue) throws TokenDeleteException {
+
+        tokens.remove(TokenDigests.sha256(tokenValue));
+    }
+
+    @Override
+    public long deleteByUsername(String username) {
+        return deleteMatching(token -> username != null && username.equals(token.getUsername()));
+    }
+
+    @Override
+    public long deleteByClientId(String clientId) {
+        return deleteMatching(token -> clientId != null && clientId.equals(token.getClientId()));
+    }
+
+    // The embedded store has no secondary index: the matching tokens are found by a scan of a snapshot of the map
+    private long deleteMatching(Predicate<OAuthToken> predicate) {
+
+        long deleted = 0;
+
+        for (Map.Entry<byte[], byte[]> entry : tokens.entrySet()) {
+
+            if (predicate.test(TokenRecordCodec.decode(ByteBuffer.wrap(entry.getValue()), null))) {
+                tokens.remove(entry.getKey());
+                deleted++;
+            }
+        }
+
+        return deleted;
+    }
+
+    @Override
+    public void exportTokens(Consumer<StoredToken> consumer) {
+
+        // MVMap iterators read a snapshot of the map page by page
+        for (Map.Entry<byte[], byte[]> entry : tokens.entrySet()) {
+            consumer.accept(new StoredToken(entry.getKey(),
+                    TokenRecordCodec.decode(ByteBuffer.wrap(entry.getValue()), null)));
+        }
+    }
+
+    @Override
+    public void exportRevocations(long issuedSince, Consumer<OAuthToken> consumer) {
+
+        exportTokens(token -> {
+            if (OAuthToken.REVOCATION_TYPE.equals(token.getToken().getType())
+                    && token.getToken().getIssuedAt() >= issuedSince) {
+                consumer.accept(token.getToken());
+            }
+        });
+    }
+
+    @Override
+    public void importTokens(List<StoredToken> tokens) {
+
+        for (StoredToken token : tokens) {
+            this.tokens.put(token.getDigest(), TokenRecordCodec.encode(token.getToken()));
+        }
+    }
+}
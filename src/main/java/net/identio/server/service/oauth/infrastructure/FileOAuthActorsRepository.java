@@ -21,6 +21,8 @@
 
 package net.identio.server.service.oauth.infrastructure;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import net.identio.server.exceptions.InitializationException;
 import net.identio.server.model.Result;
 import net.identio.server.service.authentication.model.UserPasswordAuthentication;
@@ -28,18 +30,29 @@ import net.identio.server.service.oauth.OAuthConfiguration;
 import net.identio.server.service.oauth.model.Client;
 import net.identio.server.service.oauth.model.ResourceServer;
 import net.identio.server.utils.DecodeUtils;
+import net.identio.server.utils.FileUtils;
+import net.identio.server.utils.SecureIdentifiers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.crypto.bcrypt.BCrypt;
 import org.springframework.stereotype.Service;
 import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.constructor.CustomClassLoaderConstructor;
+import org.yaml.snakeyaml.error.YAMLException;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.DataFormatException;
 
 @Service
@@ -47,20 +60,93 @@ public class FileOAuthActorsRepository implements OAuthActorsRepository {
 
     private static final Logger LOG = LoggerFactory.getLogger(FileOAuthActorsRepository.class);
 
-    private HashMap<String, Client> clients = new HashMap<>();
+    private static final String CREDENTIAL_HMAC_ALGORITHM = "HmacSHA256";
+    private static final int CREDENTIAL_HMAC_KEY_BYTES = 32;
 
-    private HashMap<String, ResourceServer> resourceServers = new HashMap<>();
+    private String actorsFilePath;
+    private String actorsFileHash;
+
+    // Replaced as a whole when the actors file is reloaded
+    private volatile HashMap<String, Client> clients = new HashMap<>();
+
+    private volatile HashMap<String, ResourceServer> resourceServers = new HashMap<>();
+
+    // Reference secret that each recently verified credential was checked against, by HMAC of the credential
+    private Cache<String, String> verifiedCredentials;
+    private ThreadLocal<Mac> credentialMacs;
 
     @Autowired
     public FileOAuthActorsRepository(OAuthConfiguration config) throws InitializationException {
 
-        String actorsFilePath = config.getActorsFile();
+        OAuthConfiguration.CredentialCacheConfiguration cacheConfig = config.getCredentialCache();
+
+        if (cacheConfig.getTtl() > 0) {
+
+            verifiedCredentials = CacheBuilder.newBuilder()
+                    .maximumSize(cacheConfig.getMaxSize())
+                    .expireAfterWrite(cacheConfig.getTtl(), TimeUnit.SECONDS)
+                    .build();
+
+            // The HMAC key is drawn at startup and never leaves the process: a cache entry can't be used
+            // to check a secret offline
+            byte[] hmacKey = new byte[CREDENTIAL_HMAC_KEY_BYTES];
+            SecureIdentifiers.nextBytes(hmacKey);
+
+            SecretKeySpec keySpec = new SecretKeySpec(hmacKey, CREDENTIAL_HMAC_ALGORITHM);
+
+            createMac(keySpec);
+            credentialMacs = ThreadLocal.withInitial(() -> createMac(keySpec));
+        }
+
+        actorsFilePath = config.getActorsFile();
 
         if (actorsFilePath == null)
             return;
 
         LOG.info("Initializing File OAUth Client Repository");
 
+        try {
+            actorsFileHash = FileUtils.getFileHash(actorsFilePath);
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new InitializationException("Could not read OAuth actors file", e);
+        }
+
+        load();
+
+        LOG.info("* File OAuth Client Repository initialized");
+    }
+
+    // The actors file is checked for changes every minute. The cached checks are dropped along with the previous
+    // actors
+    @Scheduled(fixedDelayString = "60000")
+    public void refreshActors() {
+
+        if (actorsFilePath == null)
+            return;
+
+        try {
+            String hash = FileUtils.getFileHash(actorsFilePath);
+
+            if (hash.equals(actorsFileHash)) return;
+
+            LOG.info("Reloading OAuth actors file {}", actorsFilePath);
+
+            load();
+            actorsFileHash = hash;
+
+            if (verifiedCredentials != null) verifiedCredentials.invalidateAll();
+
+        } catch (NoSuchAlgorithmException | IOException | InitializationException e) {
+            // The current actors are kept until the file is fixed
+            LOG.error("Could not reload OAuth actors file: {}", e.getMessage());
+        }
+    }
+
+    private void load() throws InitializationException {
+
+        HashMap<String, Client> loadedClients = new HashMap<>();
+        HashMap<String, ResourceServer> loadedResourceServers = new HashMap<>();
+
         try (FileInputStream is = new FileInputStream(actorsFilePath)) {
 
             Yaml yaml = new Yaml(new CustomClassLoaderConstructor(OAuthActorsFile.class,
@@ -69,20 +155,21 @@ public class FileOAuthActorsRepository implements OAuthActorsRepository {
             OAuthActorsFile actorsFile = (OAuthActorsFile) yaml.load(is);
 
             for (Client client : actorsFile.getClients()) {
-                clients.put(client.getClientId(), client);
+                loadedClients.put(client.getClientId(), client);
             }
 
             for (ResourceServer rs : actorsFile.getResourceServers()) {
-                resourceServers.put(rs.getClientId(), rs);
+                loadedResourceServers.put(rs.getClientId(), rs);
             }
 
         } catch (FileNotFoundException ex) {
             throw new InitializationException("OAUth Client Repository file not found", ex);
-        } catch (IOException ex) {
+        } catch (IOException | YAMLException ex) {
             throw new InitializationException("Impossible to parse OAUth Client Repository file", ex);
         }
 
-        LOG.info("* File OAuth Client Repository initialized");
+        clients = loadedClients;
+        resourceServers = loadedResourceServers;
     }
 
     @Override
@@ -106,11 +193,7 @@ public class FileOAuthActorsRepository implements OAuthActorsRepository {
 
             if (client == null) return Result.fail();
 
-            String refPassword = client.getClientSecret();
-            String password = credentials.getPassword();
-
-            if (refPassword.startsWith("{plain}") && refPassword.substring(7).equals(password)
-                    || refPassword.startsWith("{bcrypt}") && BCrypt.checkpw(password, refPassword.substring(8))) {
+            if (isSecretValid("client", credentials, client.getClientSecret())) {
                 return Result.success(client);
             }
         }
@@ -122,22 +205,18 @@ public class FileOAuthActorsRepository implements OAuthActorsRepository {
 
         if (authorization != null && authorization.startsWith("Basic ")) {
 
-            UserPasswordAuthentication credentials = null;
+            UserPasswordAuthentication credentials;
             try {
                 credentials = getCredentialsFromAuthorization(authorization);
             } catch (IOException | DataFormatException e) {
-                Result.fail();
+                return Result.fail();
             }
 
             ResourceServer rs = resourceServers.get(credentials.getUserId());
 
             if (rs == null) return Result.fail();
 
-            String refPassword = rs.getClientSecret();
-            String password = credentials.getPassword();
-
-            if (refPassword.startsWith("{plain}") && refPassword.substring(7).equals(password)
-                    || refPassword.startsWith("{bcrypt}") && BCrypt.checkpw(password, refPassword.substring(8))) {
+            if (isSecretValid("resource-server", credentials, rs.getClientSecret())) {
                 return Result.success(rs);
             }
         }
@@ -145,6 +224,54 @@ public class FileOAuthActorsRepository implements OAuthActorsRepository {
         return Result.fail();
     }
 
+    // A successful BCrypt check is cached for the credential and the reference secret it was checked against,
+    // so that a change of the reference secret invalidates it
+    private boolean isSecretValid(String actorType, UserPasswordAuthentication credentials, String refPassword) {
+
+        String password = credentials.getPassword();
+
+        if (refPassword.startsWith("{plain}")) return refPassword.substring(7).equals(password);
+
+        if (!refPassword.startsWith("{bcrypt}")) return false;
+
+        if (verifiedCredentials == null) return BCrypt.checkpw(password, refPassword.substring(8));
+
+        String credentialKey = credentialKey(actorType, credentials.getUserId(), password);
+
+        if (refPassword.equals(verifiedCredentials.getIfPresent(credentialKey))) return true;
+
+        if (!BCrypt.checkpw(password, refPassword.substring(8))) return false;
+
+        verifiedCredentials.put(credentialKey, refPassword);
+
+        return true;
+    }
+
+    private String credentialKey(String actorType, String id, String password) {
+
+        Mac mac = credentialMacs.get();
+
+        // Null separated: neither part of a Basic credential can contain a null character
+        mac.update(actorType.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        mac.update(id.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        mac.update(password.getBytes(StandardCharsets.UTF_8));
+
+        return Base64.getEncoder().encodeToString(mac.doFinal());
+    }
+
+    private static Mac createMac(SecretKeySpec keySpec) {
+
+        try {
+            Mac mac = Mac.getInstance(CREDENTIAL_HMAC_ALGORITHM);
+            mac.init(keySpec);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not initialize " + CREDENTIAL_HMAC_ALGORITHM, e);
+        }
+    }
+
     private UserPasswordAuthentication getCredentialsFromAuthorization(String authorization) throws IOException, DataFormatException {
 
         String filteredAuthorization = new String(DecodeUtils.decode(authorization.substring(6), false));
@@ -18,23 +18,36 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *
  */
-
 package net.identio.server.service.oauth.infrastructure;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import net.identio.server.service.data.journal.Journal;
+import net.identio.server.service.oauth.OAuthConfiguration;
+import net.identio.server.service.oauth.infrastructure.exceptions.AuthorizationCodeCreationException;
 import net.identio.server.service.oauth.infrastructure.exceptions.AuthorizationCodeDeleteException;
+import net.identio.server.service.oauth.infrastructure.exceptions.AuthorizationCodeFetchException;
 import net.identio.server.service.oauth.model.AuthorizationCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class InMemoryAuthorizationCodeRepository implements AuthorizationCodeRepository {
 
+    private static final Logger LOG = LoggerFactory.getLogger(InMemoryAuthorizationCodeRepository.class);
+
     private LoadingCache<String, AuthorizationCode> authorizationCodeCache;
 
+    private Journal journal;
+
     public InMemoryAuthorizationCodeRepository() {
 
         authorizationCodeCache = CacheBuilder.newBuilder().maximumSize(100000).expireAfterAccess(1, TimeUnit.MINUTES)
@@ -45,10 +58,50 @@ public class InMemoryAuthorizationCodeRepository implements AuthorizationCodeRep
                 });
     }
 
+    public InMemoryAuthorizationCodeRepository(Journal journal, OAuthConfiguration.JournalConfiguration config)
+            throws IOException {
+
+        this();
+
+        this.journal = journal;
+
+        journal.recover(new Journal.Replayer() {
+            @Override
+            public void put(byte[] key, byte[] value) {
+
+                if (AuthorizationCodeRecordCodec.readExpiration(value) >= System.currentTimeMillis() / 1000) {
+                    String code = new String(key, StandardCharsets.UTF_8);
+                    authorizationCodeCache.put(code, AuthorizationCodeRecordCodec.decode(code, value));
+                }
+            }
+
+            @Override
+            public void remove(byte[] key) {
+                authorizationCodeCache.invalidate(new String(key, StandardCharsets.UTF_8));
+            }
+        }, config.getReplayThreads());
+
+        journal.schedule(consumer -> authorizationCodeCache.asMap().forEach((code, authorizationCode) ->
+                        consumer.accept(code.getBytes(StandardCharsets.UTF_8), AuthorizationCodeRecordCodec.encode(authorizationCode))),
+                TimeUnit.SECONDS.toMillis(config.getSnapshotInterval()), config.getSyncInterval());
+    }
+
     @Override
-    public void save(AuthorizationCode code) {
+    public void save(AuthorizationCode code) throws AuthorizationCodeCreationException {
+
+        if (journal == null) {
+            authorizationCodeCache.put(code.getCode(), code);
+            return;
+        }
 
-        authorizationCodeCache.put(code.getCode(), code);
+        // The cache is updated along with the record so that a snapshot can't miss it
+        try {
+            journal.put(code.getCode().getBytes(StandardCharsets.UTF_8), AuthorizationCodeRecordCodec.encode(code),
+                    () -> authorizationCodeCache.put(code.getCode(), code));
+        } catch (IOException e) {
+            LOG.error("Error when writing authorization code in journal: {}", e.getMessage());
+            throw new AuthorizationCodeCreationException(e);
+        }
     }
 
     @Override
@@ -62,6 +115,57 @@ public class InMemoryAuthorizationCodeRepository implements AuthorizationCodeRep
     @Override
     public void delete(AuthorizationCode code) throws AuthorizationCodeDeleteException {
 
-        authorizationCodeCache.invalidate(code);
+        try {
+            journalRemoval(code.getCode(), () -> authorizationCodeCache.invalidate(code.getCode()));
+        } catch (IOException e) {
+            throw new AuthorizationCodeDeleteException(e);
+        }
+    }
+
+    @Override
+    public Optional<AuthorizationCode> consume(String code) throws AuthorizationCodeFetchException {
+
+        // The code is removed from the cache first so that it is consumed once. A snapshot taken before the removal
+        // is recorded doesn't hold the code anymore
+        AuthorizationCode result = authorizationCodeCache.asMap().remove(code);
+
+        if (result != null) {
+            try {
+                journalRemoval(code, () -> {});
+            } catch (IOException e) {
+                throw new AuthorizationCodeFetchException(e);
+            }
+        }
+
+        return Optional.ofNullable(result);
+    }
+
+    @Override
+    public void exportCodes(Consumer<AuthorizationCode> consumer) {
+
+        authorizationCodeCache.asMap().values().forEach(consumer);
+    }
+
+    @Override
+    public void importCodes(List<AuthorizationCode> codes) throws AuthorizationCodeCreationException {
+
+        for (AuthorizationCode code : codes) {
+            save(code);
+        }
+    }
+
+    private void journalRemoval(String code, Runnable apply) throws IOException {
+
+        if (journal == null) {
+            apply.run();
+            return;
+        }
+
+        try {
+            journal.remove(code.getBytes(StandardCharsets.UTF_8), apply);
+        } catch (IOException e) {
+            LOG.error("Error when writing authorization code removal in journal: {}", e.getMessage());
+            throw e;
+        }
     }
 }
@@ -18,28 +18,59 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *
  */
-
 package net.identio.server.service.oauth.infrastructure;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
+import net.identio.server.service.data.journal.Journal;
+import net.identio.server.service.oauth.OAuthConfiguration;
 import net.identio.server.service.oauth.infrastructure.exceptions.TokenCreationException;
 import net.identio.server.service.oauth.infrastructure.exceptions.TokenDeleteException;
 import net.identio.server.service.oauth.infrastructure.exceptions.TokenFetchException;
 import net.identio.server.service.oauth.model.OAuthToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
+// Tokens are kept under the SHA-256 digest of their value.
+// With a journal, every mutation is appended to it before returning and the cache is rebuilt from it at startup.
+// Keys are also indexed by username and client id, and unindexed when evicted, to support bulk revocation.
+// Revocation markers are kept apart from the cache, which evicts: they live until they expire.
 public class InMemoryTokenRepository implements TokenRepository {
 
+    private static final Logger LOG = LoggerFactory.getLogger(InMemoryTokenRepository.class);
+
     private LoadingCache<String, OAuthToken> tokenCache;
 
+    private Journal journal;
+
+    private ConcurrentHashMap<String, Set<String>> keysByUsername = new ConcurrentHashMap<>();
+
+    private ConcurrentHashMap<String, Set<String>> keysByClientId = new ConcurrentHashMap<>();
+
+    private ConcurrentHashMap<String, OAuthToken> revocations = new ConcurrentHashMap<>();
+
     public InMemoryTokenRepository() {
 
         tokenCache = CacheBuilder.newBuilder().maximumSize(100000).expireAfterAccess(1, TimeUnit.HOURS)
+                .<String, OAuthToken>removalListener(notification -> {
+                    // A replaced token keeps its key, which is already indexed
+                    if (notification.getCause() != RemovalCause.REPLACED) unindex(notification.getKey(), notification.getValue());
+                })
                 .build(new CacheLoader<String, OAuthToken>() {
                     public OAuthToken load(@Nonnull String o) {
                         return new OAuthToken();
@@ -47,10 +78,38 @@ public class InMemoryTokenRepository implements TokenRepository {
                 });
     }
 
+    public InMemoryTokenRepository(Journal journal, OAuthConfiguration.JournalConfiguration config) throws IOException {
+
+        this();
+
+        this.journal = journal;
+
+        journal.recover(new Journal.Replayer() {
+            @Override
+            public void put(byte[] key, byte[] value) {
+
+                long expiration = TokenRecordCodec.readExpiration(value);
+
+                if (expiration == 0 || expiration >= System.currentTimeMillis() / 1000) {
+                    cache(toKey(key), TokenRecordCodec.decode(ByteBuffer.wrap(value), null));
+                }
+            }
+
+            @Override
+            public void remove(byte[] key) {
+                uncache(toKey(key));
+            }
+        }, config.getReplayThreads());
+
+        journal.schedule(consumer -> forEachToken((key, token) ->
+                        consumer.accept(Base64.getDecoder().decode(key), TokenRecordCodec.encode(token))),
+                TimeUnit.SECONDS.toMillis(config.getSnapshotInterval()), config.getSyncInterval());
+    }
+
     @Override
     public void save(OAuthToken rt) throws TokenCreationException {
 
-        tokenCache.put(rt.getValue(), rt);
+        saveKey(TokenDigests.sha256(rt.getValue()), rt);
     }
 
     @Override
@@ -68,14 +127,180 @@ public class InMemoryTokenRepository implements TokenRepository {
     @Override
     public Optional<OAuthToken> getTokenByValue(String refreshTokenValue) throws TokenFetchException {
 
-        OAuthToken result = tokenCache.getIfPresent(refreshTokenValue);
+        String key = toKey(TokenDigests.sha256(refreshTokenValue));
+
+        OAuthToken result = tokenCache.getIfPresent(key);
+
+        if (result == null) result = revocations.get(key);
+
+        if (result == null) return Optional.empty();
+
+        // Tokens replayed from the journal don't know their value
+        if (result.getValue() == null) result.setValue(refreshTokenValue);
+
+        return Optional.of(result);
+    }
+
+    // Lookups in memory are cheaper than dispatching them to other threads
+    @Override
+    public List<Optional<OAuthToken>> getTokensByValue(List<String> tokenValues) throws TokenFetchException {
+
+        List<Optional<OAuthToken>> results = new ArrayList<>(tokenValues.size());
 
-        return result != null ? Optional.of(result) : Optional.empty();
+        for (String tokenValue : tokenValues) {
+            results.add(getTokenByValue(tokenValue));
+        }
+
+        return results;
     }
 
     @Override
     public void delete(String refreshTokenValue) throws TokenDeleteException {
 
-        tokenCache.invalidate(refreshTokenValue);
+        deleteKey(toKey(TokenDigests.sha256(refreshTokenValue)));
+    }
+
+    @Override
+    public long deleteByUsername(String username) throws TokenDeleteException {
+        return deleteKeys(username == null ? null : keysByUsername.remove(username));
+    }
+
+    @Override
+    public long deleteByClientId(String clientId) throws TokenDeleteException {
+        return deleteKeys(clientId == null ? null : keysByClientId.remove(clientId));
+    }
+
+    private long deleteKeys(Set<String> keys) throws TokenDeleteException {
+
+        if (keys == null) return 0;
+
+        long deleted = 0;
+
+        for (String key : keys) {
+
+            if (tokenCache.getIfPresent(key) == null) continue;
+
+            deleteKey(key);
+            deleted++;
+        }
+
+        return deleted;
+    }
+
+    // With a journal, the cache is updated along with the record so that a snapshot can't miss it
+    private void saveKey(byte[] digest, OAuthToken token) throws TokenCreationException {
+
+        if (journal == null) {
+            cache(toKey(digest), token);
+            return;
+        }
+
+        try {
+            journal.put(digest, TokenRecordCodec.encode(token), () -> cache(toKey(digest), token));
+        } catch (IOException e) {
+            LOG.error("Error when writing token in journal: {}", e.getMessage());
+            throw new TokenCreationException(e);
+        }
+    }
+
+    private void deleteKey(String key) throws TokenDeleteException {
+
+        if (journal == null) {
+            uncache(key);
+            return;
+        }
+
+        try {
+            journal.remove(Base64.getDecoder().decode(key), () -> uncache(key));
+        } catch (IOException e) {
+            LOG.error("Error when writing token deletion in journal: {}", e.getMessage());
+            throw new TokenDeleteException(e);
+        }
+    }
+
+    private void cache(String key, OAuthToken token) {
+
+        if (OAuthToken.REVOCATION_TYPE.equals(token.getType())) {
+            revocations.put(key, token);
+            return;
+        }
+
+        index(keysByUsername, token.getUsername(), key);
+        index(keysByClientId, token.getClientId(), key);
+
+        tokenCache.put(key, token);
+    }
+
+    private void uncache(String key) {
+
+        tokenCache.invalidate(key);
+        revocations.remove(key);
+    }
+
+    private void forEachToken(BiConsumer<String, OAuthToken> consumer) {
+
+        tokenCache.asMap().forEach(consumer);
+        revocations.forEach(consumer);
+    }
+
+    private void unindex(String key, OAuthToken token) {
+
+        if (token == null) return;
+
+        unindex(keysByUsername, token.getUsername(), key);
+        unindex(keysByClientId, token.getClientId(), key);
+    }
+
+    private static void index(ConcurrentHashMap<String, Set<String>> index, String value, String key) {
+
+        if (value == null) return;
+
+        index.compute(value, (v, keys) -> {
+            if (keys == null) keys = ConcurrentHashMap.newKeySet();
+            keys.add(key);
+            return keys;
+        });
+    }
+
+    // The set is dropped atomically with its last key so that the index doesn't grow with stale entries
+    private static void unindex(ConcurrentHashMap<String, Set<String>> index, String value, String key) {
+
+        if (value == null) return;
+
+        index.computeIfPresent(value, (v, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    @Override
+    public void exportTokens(Consumer<StoredToken> consumer) {
+
+        forEachToken((key, token) -> consumer.accept(new StoredToken(Base64.getDecoder().decode(key), token)));
+    }
+
+    // The revocations are read periodically by every node: the expired markers are dropped meanwhile
+    @Override
+    public void exportRevocations(long issuedSince, Consumer<OAuthToken> consumer) {
+
+        long now = System.currentTimeMillis() / 1000;
+
+        revocations.values().removeIf(marker -> marker.getExpiration() != 0 && marker.getExpiration() < now);
+
+        for (OAuthToken marker : revocations.values()) {
+            if (marker.getIssuedAt() >= issuedSince) consumer.accept(marker);
+        }
+    }
+
+    @Override
+    public void importTokens(List<StoredToken> tokens) throws TokenCreationException {
+
+        for (StoredToken token : tokens) {
+            saveKey(token.getDigest(), token.getToken());
+        }
+    }
+
+    private static String toKey(byte[] digest) {
+        return Base64.getEncoder().encodeToString(digest);
     }
 }
@@ -33,17 +33,32 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public class JdbcAuthorizationCodeRepository implements AuthorizationCodeRepository {
 
     private static final Logger LOG = LoggerFactory.getLogger(JdbcAuthorizationCodeRepository.class);
 
+    private static final String INSERT_CODE_QUERY = "INSERT INTO authorization_code " +
+            "(code, client_id, redirect_uri, expiration_time, scope, user_id, code_challenge, code_challenge_method) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?);";
+
+    private static final String SCAN_CODES_QUERY = "SELECT * FROM authorization_code WHERE id > ? ORDER BY id;";
+
+    private static final int EXPORT_BATCH_SIZE = 1000;
+
     private HikariDataSource ds;
 
     @Autowired
     public JdbcAuthorizationCodeRepository(OAuthConfiguration config, JdbcDataService dataService) {
-        this.ds = dataService.getDataSource(config.getDataSource());
+        this(config, dataService, config.getDataSource());
+    }
+
+    public JdbcAuthorizationCodeRepository(OAuthConfiguration config, JdbcDataService dataService, String dataSource) {
+        this.ds = dataService.getDataSource(dataSource);
     }
 
     @Override
@@ -51,18 +66,9 @@ public class JdbcAuthorizationCodeRepository implements AuthorizationCodeReposit
 
         try (Connection connection = this.ds.getConnection()) {
 
-            PreparedStatement creationStatement = connection.prepareStatement("INSERT INTO authorization_code " +
-                    "(code, client_id, redirect_uri, expiration_time, scope, user_id, code_challenge, code_challenge_method) " +
-                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?);");
+            PreparedStatement creationStatement = connection.prepareStatement(INSERT_CODE_QUERY);
 
-            creationStatement.setString(1, code.getCode());
-            creationStatement.setString(2, code.getClientId());
-            creationStatement.setString(3, code.getRedirectUrl());
-            creationStatement.setLong(4, code.getExpirationTime());
-            creationStatement.setString(5, code.getScope());
-            creationStatement.setString(6, code.getUserId());
-            creationStatement.setString(7, code.getCodeChallenge());
-            creationStatement.setString(8, code.getCodeChallengeMethod());
+            bindCode(creationStatement, code);
 
             creationStatement.executeUpdate();
 
@@ -77,27 +83,7 @@ public class JdbcAuthorizationCodeRepository implements AuthorizationCodeReposit
 
         try (Connection connection = this.ds.getConnection()) {
 
-            PreparedStatement creationStatement = connection.prepareStatement("SELECT * FROM authorization_code WHERE code = ?;");
-
-            creationStatement.setString(1, code);
-
-            ResultSet rs = creationStatement.executeQuery();
-
-            // Fetch
-            if (!rs.first()) {
-                return Optional.empty();
-            } else {
-                return Optional.of(
-                        new AuthorizationCode().setCode(code)
-                        .setRedirectUrl(rs.getString("redirect_uri"))
-                        .setClientId(rs.getString("client_id"))
-                        .setExpirationTime(rs.getLong("expiration_time"))
-                        .setScope(rs.getString("scope"))
-                        .setUserId(rs.getString("user_id"))
-                        .setCodeChallenge(rs.getString("code_challenge"))
-                        .setCodeChallengeMethod(rs.getString("code_challenge_method"))
-                );
-            }
+            return fetch(connection, code);
 
         } catch (SQLException e) {
             LOG.error("Error when fetching authorization code {} in database: {}", code, e.getMessage());
@@ -121,4 +107,146 @@ public class JdbcAuthorizationCodeRepository implements AuthorizationCodeReposit
             throw new AuthorizationCodeDeleteException(e);
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public Optional<AuthorizationCode> consume(String code) throws AuthorizationCodeFetchException {
+
+        try (Connection connection = this.ds.getConnection()) {
+
+            connection.setAutoCommit(false);
+
+            try {
+                Optional<AuthorizationCode> result = fetch(connection, code);
+
+                if (result.isPresent()) {
+
+                    PreparedStatement deleteStatement = connection.prepareStatement("DELETE FROM authorization_code WHERE code = ?;");
+
+                    deleteStatement.setString(1, code);
+
+                    // A concurrent redemption already removed the code
+                    if (deleteStatement.executeUpdate() != 1) {
+                        result = Optional.empty();
+                    }
+                }
+
+                connection.commit();
+
+                return result;
+
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+
+        } catch (SQLException e) {
+            LOG.error("Error when consuming authorization code {} in database: {}", code, e.getMessage());
+            throw new AuthorizationCodeFetchException(e);
+        }
+    }
+
+    private Optional<AuthorizationCode> fetch(Connection connection, String code) throws SQLException {
+
+        PreparedStatement creationStatement = connection.prepareStatement("SELECT * FROM authorization_code WHERE code = ?;");
+
+        creationStatement.setString(1, code);
+
+        ResultSet rs = creationStatement.executeQuery();
+
+        // Fetch
+        if (!rs.first()) {
+            return Optional.empty();
+        } else {
+            return Optional.of(mapCode(rs, code));
+        }
+    }
+
+    @Override
+    public void exportCodes(Consumer<AuthorizationCode> consumer) throws AuthorizationCodeFetchException {
+
+        List<AuthorizationCode> codes = new ArrayList<>(EXPORT_BATCH_SIZE);
+        long lastId = 0;
+
+        do {
+            codes.clear();
+
+            try (Connection connection = this.ds.getConnection()) {
+
+                PreparedStatement scanStatement = connection.prepareStatement(SCAN_CODES_QUERY);
+                scanStatement.setMaxRows(EXPORT_BATCH_SIZE);
+                scanStatement.setLong(1, lastId);
+
+                try (ResultSet rs = scanStatement.executeQuery()) {
+                    while (rs.next()) {
+                        codes.add(mapCode(rs, rs.getString("code")));
+                        lastId = rs.getLong("id");
+                    }
+                }
+
+            } catch (SQLException e) {
+                LOG.error("Error when scanning authorization codes in database: {}", e.getMessage());
+                throw new AuthorizationCodeFetchException(e);
+            }
+
+            codes.forEach(consumer);
+
+        } while (codes.size() == EXPORT_BATCH_SIZE);
+    }
+
+    @Override
+    public void importCodes(List<AuthorizationCode> codes) throws AuthorizationCodeCreationException {
+
+        try (Connection connection = this.ds.getConnection()) {
+
+            connection.setAutoCommit(false);
+
+            try {
+                PreparedStatement creationStatement = connection.prepareStatement(INSERT_CODE_QUERY);
+
+                for (AuthorizationCode code : codes) {
+                    bindCode(creationStatement, code);
+                    creationStatement.addBatch();
+                }
+
+                creationStatement.executeBatch();
+                connection.commit();
+
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+
+        } catch (SQLException e) {
+            LOG.error("Error when importing {} authorization codes in database: {}", codes.size(), e.getMessage());
+            throw new AuthorizationCodeCreationException(e);
+        }
+    }
+
+    private void bindCode(PreparedStatement statement, AuthorizationCode code) throws SQLException {
+
+        statement.setString(1, code.getCode());
+        statement.setString(2, code.getClientId());
+        statement.setString(3, code.getRedirectUrl());
+        statement.setLong(4, code.getExpirationTime());
+        statement.setString(5, code.getScope());
+        statement.setString(6, code.getUserId());
+        statement.setString(7, code.getCodeChallenge());
+        statement.setString(8, code.getCodeChallengeMethod());
+    }
+
+    private AuthorizationCode mapCode(ResultSet rs, String code) throws SQLException {
+
+        return new AuthorizationCode().setCode(code)
+                .setRedirectUrl(rs.getString("redirect_uri"))
+                .setClientId(rs.getString("client_id"))
+                .setExpirationTime(rs.getLong("expiration_time"))
+                .setScope(rs.getString("scope"))
+                .setUserId(rs.getString("user_id"))
+                .setCodeChallenge(rs.getString("code_challenge"))
+                .setCodeChallengeMethod(rs.getString("code_challenge_method"));
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package net.identio.server.service.oauth.infrastructure;
+
+import com.zaxxer.hikari.HikariDataSource;
+import net.identio.server.service.oauth.OAuthConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Purges expired tokens, authorization codes and used-code marks from the JDBC store.
+// Rows are deleted in small batches separated by a pause, on a dedicated low-priority thread,
+// so that a large backlog never holds locks or connections for long.
+public class JdbcExpiredDataReaper implements DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcExpiredDataReaper.class);
+
+    private static final String SELECT_EXPIRED_TOKENS_QUERY =
+            "SELECT id FROM tokens WHERE expiration > 0 AND expiration < ?;";
+    private static final String DELETE_TOKEN_QUERY = "DELETE FROM tokens WHERE id = ?;";
+
+    private static final String SELECT_EXPIRED_CODES_QUERY =
+            "SELECT id FROM authorization_code WHERE expiration_time < ?;";
+    private static final String DELETE_CODE_QUERY = "DELETE FROM authorization_code WHERE id = ?;";
+
+    private static final String SELECT_EXPIRED_USED_CODES_QUERY =
+            "SELECT id FROM used_authorization_code WHERE expiration_time < ?;";
+    private static final String DELETE_USED_CODE_QUERY = "DELETE FROM used_authorization_code WHERE id = ?;";
+
+    private HikariDataSource ds;
+
+    private OAuthConfiguration.ReaperConfiguration config;
+
+    private ScheduledExecutorService executor;
+
+    private volatile boolean running = true;
+
+    public JdbcExpiredDataReaper(OAuthConfiguration.ReaperConfiguration config, HikariDataSource ds) {
+
+        this.ds = ds;
+        this.config = config;
+
+        LOG.info("Scheduling expired tokens and authorization codes purge every {}s", this.config.getInterval());
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "oauth-expired-data-reaper");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+
+        executor.scheduleWithFixedDelay(this::reap, this.config.getInterval(), this.config.getInterval(), TimeUnit.SECONDS);
+    }
+
+    public void reap() {
+
+        long start = System.currentTimeMillis();
+        long now = start / 1000;
+
+        try {
+            int tokens = purge(SELECT_EXPIRED_TOKENS_QUERY, DELETE_TOKEN_QUERY, now);
+            int codes = purge(SELECT_EXPIRED_CODES_QUERY, DELETE_CODE_QUERY, now);
+            int usedCodes = purge(SELECT_EXPIRED_USED_CODES_QUERY, DELETE_USED_CODE_QUERY, now);
+
+            LOG.info("Purged {} expired tokens, {} expired authorization codes and {} used-code marks in {}ms",
+                    tokens, codes, usedCodes, System.currentTimeMillis() - start);
+
+        } catch (SQLException e) {
+            LOG.error("Error when purging expired data from database: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void destroy() {
+
+        running = false;
+        executor.shutdownNow();
+    }
+
+    private int purge(String selectQuery, String deleteQuery, long now) throws SQLException, InterruptedException {
+
+        int purged = 0;
+
+        while (running) {
+
+            int deleted = purgeBatch(selectQuery, deleteQuery, now);
+
+            purged += deleted;
+
+            if (deleted < config.getBatchSize()) break;
+
+            // Leave room for the request traffic between two batches
+            Thread.sleep(config.getBatchPause());
+        }
+
+        return purged;
+    }
+
+    private int purgeBatch(String selectQuery, String deleteQuery, long now) throws SQLException {
+
+        try (Connection connection = this.ds.getConnection()) {
+
+            // The ids are selected first as DELETE ... LIMIT is not portable across databases
+            PreparedStatement selectStatement = connection.prepareStatement(selectQuery);
+            selectStatement.setMaxRows(config.getBatchSize());
+            selectStatement.setLong(1, now);
+
+            List<Integer> ids = new ArrayList<>(config.getBatchSize());
+
+            try (ResultSet rs = selectStatement.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getInt(1));
+                }
+            }
+
+            if (ids.isEmpty()) return 0;
+
+            PreparedStatement deleteStatement = connection.prepareStatement(deleteQuery);
+
+            for (int id : ids) {
+                deleteStatement.setInt(1, id);
+                deleteStatement.addBatch();
+            }
+
+            deleteStatement.executeBatch();
+
+            return ids.size();
+        }
+    }
+}
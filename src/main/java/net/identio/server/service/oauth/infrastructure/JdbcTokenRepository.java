@@ -23,66 +23,239 @@ package net.identio.server.service.oauth.infrastructure;
 
 import com.zaxxer.hikari.HikariDataSource;
 import net.identio.server.service.data.JdbcDataService;
+import net.identio.server.service.data.MicroBatcher;
 import net.identio.server.service.oauth.OAuthConfiguration;
 import net.identio.server.service.oauth.infrastructure.exceptions.*;
 import net.identio.server.service.oauth.model.OAuthToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.security.crypto.codec.Hex;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
-public class JdbcTokenRepository implements TokenRepository {
+// Tokens are stored under the SHA-256 digest of their value: the value itself is never written to the database
+public class JdbcTokenRepository implements TokenRepository, DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(JdbcTokenRepository.class);
 
+    private static final String TOKEN_COLUMNS =
+            "active, type, client_id, expiration, issued_at, not_before, scope, username, subject, audience, issuer, jwt_id";
+
+    private static final String INSERT_TOKEN_QUERY = "INSERT INTO tokens (token_hash, " + TOKEN_COLUMNS + ") " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);";
+
+    private static final String SELECT_TOKEN_QUERY = "SELECT " + TOKEN_COLUMNS + " FROM tokens WHERE token_hash = ?;";
+
+    private static final String SELECT_TOKEN_BY_TYPE_QUERY = "SELECT " + TOKEN_COLUMNS +
+            " FROM tokens WHERE token_hash = ? AND type = ?;";
+
+    private static final String SELECT_TOKENS_QUERY = "SELECT token_hash, " + TOKEN_COLUMNS +
+            " FROM tokens WHERE token_hash IN (%s);";
+
+    private static final String SCAN_TOKENS_QUERY = "SELECT id, token_hash, " + TOKEN_COLUMNS +
+            " FROM tokens WHERE id > ? ORDER BY id;";
+
+    private static final String SELECT_REVOCATIONS_QUERY = "SELECT " + TOKEN_COLUMNS +
+            " FROM tokens WHERE type = ? AND issued_at >= ?;";
+
+    private static final String DELETE_TOKEN_QUERY = "DELETE FROM tokens WHERE token_hash = ?;";
+
+    private static final String SELECT_IDS_BY_USERNAME_QUERY = "SELECT id FROM tokens WHERE username = ?;";
+
+    private static final String SELECT_IDS_BY_CLIENT_ID_QUERY = "SELECT id FROM tokens WHERE client_id = ?;";
+
+    private static final String DELETE_TOKEN_BY_ID_QUERY = "DELETE FROM tokens WHERE id = ?;";
+
+    private static final int EXPORT_BATCH_SIZE = 1000;
+
+    private static final int DELETE_BATCH_SIZE = 1000;
+
+    // Bounds the number of parameters of a single IN query
+    private static final int SELECT_BATCH_SIZE = 100;
+
     private HikariDataSource ds;
 
+    private MicroBatcher<OAuthToken, Void> groupCommitBatcher;
+
+    private MicroBatcher<String, Optional<OAuthToken>> readBatcher;
+
+    @Autowired
     public JdbcTokenRepository(OAuthConfiguration config, JdbcDataService dataService) {
-        this.ds = dataService.getDataSource(config.getDataSource());
+        this(config, dataService, config.getDataSource());
+    }
+
+    public JdbcTokenRepository(OAuthConfiguration config, JdbcDataService dataService, String dataSource) {
+
+        this.ds = dataService.getDataSource(dataSource);
+
+        OAuthConfiguration.GroupCommitConfiguration groupCommit = config.getGroupCommit();
+
+        if (groupCommit.getWindow() > 0) {
+
+            LOG.info("Enabling group commit of tokens with a window of {}ms", groupCommit.getWindow());
+
+            groupCommitBatcher = new MicroBatcher<>("token-group-commit", groupCommit.getWindow(), TimeUnit.MILLISECONDS,
+                    groupCommit.getMaxBatchSize(), 1, groupCommit.getSubmitTimeout(), this::insertBatch);
+        }
+
+        OAuthConfiguration.ReadCoalescingConfiguration readCoalescing = config.getReadCoalescing();
+
+        if (readCoalescing.getWindow() > 0) {
+
+            // Several workers keep the lookups from being serialized on a single connection, without taking
+            // the connections needed by the writes and the other requests
+            int workers = readCoalescing.getWorkers() > 0 ? readCoalescing.getWorkers() :
+                    Math.max(1, ds.getMaximumPoolSize() / 4);
+
+            LOG.info("Enabling read coalescing of tokens with a window of {}us and {} workers",
+                    readCoalescing.getWindow(), workers);
+
+            readBatcher = new MicroBatcher<>("token-read-coalescing", readCoalescing.getWindow(), TimeUnit.MICROSECONDS,
+                    readCoalescing.getMaxBatchSize(), workers, this::getTokensByValue);
+        }
     }
 
     @Override
     public void save(OAuthToken token) throws TokenCreationException {
 
+        if (groupCommitBatcher != null) {
+            saveInGroupCommit(token);
+            return;
+        }
+
+        save(TokenDigests.sha256(token.getValue()), token);
+    }
+
+    // Stores a token whose value is only known by its digest
+    public void save(byte[] digest, OAuthToken token) throws TokenCreationException {
+
         try (Connection connection = this.ds.getConnection()) {
 
-            PreparedStatement creationStatement = connection.prepareStatement("INSERT INTO tokens" +
-                    " (hash, active, value, type, client_id, expiration, issued_at, not_before, scope, username, subject, audience, issuer, jwt_id) " +
-                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);");
-
-            creationStatement.setString(1, hash(token.getValue()));
-            creationStatement.setBoolean(2, true);
-            creationStatement.setString(3, token.getValue());
-            creationStatement.setString(4, token.getType());
-            creationStatement.setString(5, token.getClientId());
-            creationStatement.setLong(6, token.getExpiration());
-            creationStatement.setLong(7, token.getIssuedAt());
-            creationStatement.setLong(8, token.getNotBefore());
-            creationStatement.setString(9, token.getScope());
-            creationStatement.setString(10, token.getUsername());
-            creationStatement.setString(11, token.getSubject());
-            creationStatement.setString(12, token.getAudience());
-            creationStatement.setString(13, token.getIssuer());
-            creationStatement.setString(14, token.getJwtId());
+            PreparedStatement creationStatement = connection.prepareStatement(INSERT_TOKEN_QUERY);
+
+            bindToken(creationStatement, digest, token);
 
             creationStatement.executeUpdate();
 
         } catch (SQLException e) {
-            LOG.error("Error when inserting token {} in database: {}", token.getValue(), e.getMessage());
+            LOG.error("Error when inserting token {} in database: {}", token.getJwtId(), e.getMessage());
             throw new TokenCreationException(e);
-        } catch (NoSuchAlgorithmException e) {
-            LOG.error("Error when inserting token {} in database: SHA-256 algorithm is not supported", token.getValue());
+        }
+    }
+
+    private void saveInGroupCommit(OAuthToken token) throws TokenCreationException {
+
+        try {
+            groupCommitBatcher.submit(token);
+        } catch (ExecutionException e) {
+            LOG.error("Error when inserting token {} in database: {}", token.getJwtId(), e.getCause().getMessage());
+            throw new TokenCreationException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TokenCreationException(e);
+        } catch (RejectedExecutionException e) {
+            LOG.error("Error when inserting token {} in database: repository is shutting down", token.getJwtId());
+            throw new TokenCreationException(e);
+        } catch (TimeoutException e) {
+            // The batch may still be committed: the token is then stored but never handed out
+            LOG.error("Error when inserting token {} in database: group commit timed out", token.getJwtId());
             throw new TokenCreationException(e);
         }
     }
 
+    // Concurrent lookups are resolved together by a single IN query
+    private Optional<OAuthToken> getTokenInReadBatch(String tokenValue) throws TokenFetchException {
+
+        try {
+            return readBatcher.submit(tokenValue);
+        } catch (ExecutionException e) {
+            LOG.error("Error when fetching token in database: {}", e.getCause().getMessage());
+            throw new TokenFetchException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TokenFetchException(e);
+        } catch (RejectedExecutionException e) {
+            LOG.error("Error when fetching token in database: repository is shutting down");
+            throw new TokenFetchException(e);
+        } catch (TimeoutException e) {
+            LOG.error("Error when fetching token in database: batched lookup timed out");
+            throw new TokenFetchException(e);
+        }
+    }
+
+    private List<Void> insertBatch(List<OAuthToken> tokens) throws SQLException {
+
+        List<StoredToken> storedTokens = new ArrayList<>(tokens.size());
+
+        for (OAuthToken token : tokens) {
+            storedTokens.add(new StoredToken(TokenDigests.sha256(token.getValue()), token));
+        }
+
+        insert(storedTokens);
+
+        return Collections.nCopies(tokens.size(), null);
+    }
+
+    // Inserts all the tokens with a single JDBC batch and a single commit
+    private void insert(List<StoredToken> tokens) throws SQLException {
+
+        try (Connection connection = this.ds.getConnection()) {
+
+            connection.setAutoCommit(false);
+
+            try {
+                PreparedStatement creationStatement = connection.prepareStatement(INSERT_TOKEN_QUERY);
+
+                for (StoredToken token : tokens) {
+                    bindToken(creationStatement, token.getDigest(), token.getToken());
+                    creationStatement.addBatch();
+                }
+
+                creationStatement.executeBatch();
+                connection.commit();
+
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    private void bindToken(PreparedStatement statement, byte[] digest, OAuthToken token) throws SQLException {
+
+        statement.setBytes(1, digest);
+        statement.setBoolean(2, true);
+        statement.setString(3, token.getType());
+        statement.setString(4, token.getClientId());
+        statement.setLong(5, token.getExpiration());
+        statement.setLong(6, token.getIssuedAt());
+        statement.setLong(7, token.getNotBefore());
+        statement.setString(8, token.getScope());
+        statement.setString(9, token.getUsername());
+        statement.setString(10, token.getSubject());
+        statement.setString(11, token.getAudience());
+        statement.setString(12, token.getIssuer());
+        statement.setString(13, token.getJwtId());
+    }
+
     @Override
     public Optional<OAuthToken> getTokenByValue(String tokenValue) throws TokenFetchException {
         return getTokenByValue(tokenValue, null);
@@ -91,78 +264,289 @@ public class JdbcTokenRepository implements TokenRepository {
     @Override
     public Optional<OAuthToken> getTokenByValue(String tokenValue, String type) throws TokenFetchException {
 
+        if (readBatcher != null) {
+
+            Optional<OAuthToken> result = getTokenInReadBatch(tokenValue);
+
+            return type == null || result.isPresent() && type.equals(result.get().getType()) ? result : Optional.empty();
+        }
+
         try (Connection connection = this.ds.getConnection()) {
 
             PreparedStatement creationStatement;
             if (type == null) {
-                creationStatement = connection.prepareStatement("SELECT * FROM tokens WHERE hash = ?");
+                creationStatement = connection.prepareStatement(SELECT_TOKEN_QUERY);
             }
             else {
-                creationStatement = connection.prepareStatement("SELECT * FROM tokens WHERE hash = ? AND type = ?;");
+                creationStatement = connection.prepareStatement(SELECT_TOKEN_BY_TYPE_QUERY);
                 creationStatement.setString(2, type);
             }
 
-            creationStatement.setString(1, hash(tokenValue));
+            creationStatement.setBytes(1, TokenDigests.sha256(tokenValue));
 
             ResultSet rs = creationStatement.executeQuery();
 
             // Fetch
-            if (!rs.first()) {
+            if (!rs.next()) {
                 return Optional.empty();
             } else {
-
-                return Optional.of(
-                        new OAuthToken().setValue(tokenValue)
-                                .setType(type)
-                                .setActive(rs.getBoolean("active"))
-                                .setClientId(rs.getString("client_id"))
-                                .setExpiration(rs.getLong("expiration"))
-                                .setIssuedAt(rs.getLong("issued_at"))
-                                .setNotBefore(rs.getLong("not_before"))
-                                .setScope(rs.getString("scope"))
-                                .setUsername(rs.getString("username"))
-                                .setSubject(rs.getString("subject"))
-                                .setAudience(rs.getString("audience"))
-                                .setIssuer(rs.getString("issuer"))
-                                .setJwtId(rs.getString("jwt_id"))
-
-                );
+                return Optional.of(mapToken(rs, tokenValue));
             }
         } catch (SQLException e) {
-            LOG.error("Error when fetching token {} in database: {}", tokenValue, e.getMessage());
+            LOG.error("Error when fetching token in database: {}", e.getMessage());
             throw new TokenFetchException(e);
-        } catch (NoSuchAlgorithmException e) {
-            LOG.error("Error when fetching token {} in database: SHA-256 algorithm is not supported", tokenValue);
+        }
+    }
+
+    @Override
+    public List<Optional<OAuthToken>> getTokensByValue(List<String> tokenValues) throws TokenFetchException {
+
+        List<Optional<OAuthToken>> results = new ArrayList<>(Collections.nCopies(tokenValues.size(), Optional.empty()));
+
+        try (Connection connection = this.ds.getConnection()) {
+
+            for (int start = 0; start < tokenValues.size(); start += SELECT_BATCH_SIZE) {
+                selectTokens(connection, tokenValues, start, Math.min(start + SELECT_BATCH_SIZE, tokenValues.size()), results);
+            }
+
+        } catch (SQLException e) {
+            LOG.error("Error when fetching {} tokens in database: {}", tokenValues.size(), e.getMessage());
             throw new TokenFetchException(e);
         }
+
+        return results;
+    }
+
+    // Fetches the tokens between start and end with a single query. The same token may be requested several times
+    private void selectTokens(Connection connection, List<String> tokenValues, int start, int end,
+                              List<Optional<OAuthToken>> results) throws SQLException {
+
+        Map<String, List<Integer>> positionsByDigest = new HashMap<>();
+        List<byte[]> digests = new ArrayList<>(end - start);
+
+        for (int i = start; i < end; i++) {
+
+            byte[] digest = TokenDigests.sha256(tokenValues.get(i));
+
+            List<Integer> positions = positionsByDigest.get(toKey(digest));
+
+            if (positions == null) {
+                positions = new ArrayList<>(1);
+                positionsByDigest.put(toKey(digest), positions);
+                digests.add(digest);
+            }
+
+            positions.add(i);
+        }
+
+        PreparedStatement selectStatement = connection.prepareStatement(
+                String.format(SELECT_TOKENS_QUERY, String.join(", ", Collections.nCopies(digests.size(), "?"))));
+
+        for (int i = 0; i < digests.size(); i++) {
+            selectStatement.setBytes(i + 1, digests.get(i));
+        }
+
+        try (ResultSet rs = selectStatement.executeQuery()) {
+            while (rs.next()) {
+
+                List<Integer> positions = positionsByDigest.get(toKey(rs.getBytes("token_hash")));
+
+                if (positions == null) continue;
+
+                for (int position : positions) {
+                    results.set(position, Optional.of(mapToken(rs, tokenValues.get(position))));
+                }
+            }
+        }
+    }
+
+    private static String toKey(byte[] digest) {
+        return Base64.getEncoder().encodeToString(digest);
     }
 
     @Override
     public void delete(String tokenValue) throws TokenDeleteException {
 
+        delete(TokenDigests.sha256(tokenValue));
+    }
+
+    // Returns true when the token was stored and is now deleted
+    public boolean delete(byte[] digest) throws TokenDeleteException {
+
         try (Connection connection = this.ds.getConnection()) {
 
-            PreparedStatement creationStatement = connection.prepareStatement("DELETE FROM refresh_token WHERE hash = ?;");
+            PreparedStatement creationStatement = connection.prepareStatement(DELETE_TOKEN_QUERY);
 
-            creationStatement.setString(1, hash(tokenValue));
+            creationStatement.setBytes(1, digest);
 
-            creationStatement.executeUpdate();
+            return creationStatement.executeUpdate() == 1;
 
         } catch (SQLException e) {
-            LOG.error("Error when deleting token {} in database: {}", tokenValue, e.getMessage());
+            LOG.error("Error when deleting token in database: {}", e.getMessage());
             throw new TokenDeleteException(e);
-        } catch (NoSuchAlgorithmException e) {
-            LOG.error("Error when deleting token {} in database: SHA-256 algorithm is not supported", tokenValue);
+        }
+    }
+
+    @Override
+    public long deleteByUsername(String username) throws TokenDeleteException {
+        return deleteBy(SELECT_IDS_BY_USERNAME_QUERY, username);
+    }
+
+    @Override
+    public long deleteByClientId(String clientId) throws TokenDeleteException {
+        return deleteBy(SELECT_IDS_BY_CLIENT_ID_QUERY, clientId);
+    }
+
+    // The matching rows are found through the username and client_id indexes and deleted by batches,
+    // each in its own transaction, so that a large revocation never holds locks on the whole table
+    private long deleteBy(String selectQuery, String value) throws TokenDeleteException {
+
+        long deleted = 0;
+
+        try (Connection connection = this.ds.getConnection()) {
+
+            PreparedStatement selectStatement = connection.prepareStatement(selectQuery);
+            selectStatement.setMaxRows(DELETE_BATCH_SIZE);
+            selectStatement.setString(1, value);
+
+            PreparedStatement deleteStatement = connection.prepareStatement(DELETE_TOKEN_BY_ID_QUERY);
+
+            int batchSize;
+
+            do {
+                batchSize = 0;
+
+                try (ResultSet rs = selectStatement.executeQuery()) {
+                    while (rs.next()) {
+                        deleteStatement.setLong(1, rs.getLong("id"));
+                        deleteStatement.addBatch();
+                        batchSize++;
+                    }
+                }
+
+                if (batchSize > 0) {
+
+                    connection.setAutoCommit(false);
+
+                    try {
+                        deleteStatement.executeBatch();
+                        connection.commit();
+                    } catch (SQLException e) {
+                        connection.rollback();
+                        throw e;
+                    } finally {
+                        connection.setAutoCommit(true);
+                    }
+
+                    deleted += batchSize;
+                }
+
+            } while (batchSize == DELETE_BATCH_SIZE);
+
+        } catch (SQLException e) {
+            LOG.error("Error when deleting tokens of {} in database: {}", value, e.getMessage());
             throw new TokenDeleteException(e);
         }
+
+        return deleted;
+    }
+
+    // Reads up to limit tokens stored after the given row id, in id order. Returns the id of the last token read.
+    // The values of the scanned tokens are unknown
+    public long scanTokens(long afterId, int limit, List<StoredToken> tokens) throws TokenFetchException {
+
+        long lastId = afterId;
+
+        try (Connection connection = this.ds.getConnection()) {
+
+            PreparedStatement scanStatement = connection.prepareStatement(SCAN_TOKENS_QUERY);
+            scanStatement.setMaxRows(limit);
+            scanStatement.setLong(1, afterId);
+
+            try (ResultSet rs = scanStatement.executeQuery()) {
+                while (rs.next()) {
+                    tokens.add(new StoredToken(rs.getBytes("token_hash"), mapToken(rs, null)));
+                    lastId = rs.getLong("id");
+                }
+            }
+
+        } catch (SQLException e) {
+            LOG.error("Error when scanning tokens in database: {}", e.getMessage());
+            throw new TokenFetchException(e);
+        }
+
+        return lastId;
+    }
+
+    @Override
+    public void exportTokens(Consumer<StoredToken> consumer) throws TokenFetchException {
+
+        List<StoredToken> tokens = new ArrayList<>(EXPORT_BATCH_SIZE);
+        long lastId = 0;
+
+        do {
+            tokens.clear();
+            lastId = scanTokens(lastId, EXPORT_BATCH_SIZE, tokens);
+
+            tokens.forEach(consumer);
+
+        } while (tokens.size() == EXPORT_BATCH_SIZE);
+    }
+
+    // Read through the type and issue time index
+    @Override
+    public void exportRevocations(long issuedSince, Consumer<OAuthToken> consumer) throws TokenFetchException {
+
+        try (Connection connection = this.ds.getConnection()) {
+
+            PreparedStatement statement = connection.prepareStatement(SELECT_REVOCATIONS_QUERY);
+            statement.setString(1, OAuthToken.REVOCATION_TYPE);
+            statement.setLong(2, issuedSince);
+
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(mapToken(rs, null));
+                }
+            }
+
+        } catch (SQLException e) {
+            LOG.error("Error when reading revocations in database: {}", e.getMessage());
+            throw new TokenFetchException(e);
+        }
     }
 
-    private String hash(String tokenValue) throws NoSuchAlgorithmException {
+    @Override
+    public void importTokens(List<StoredToken> tokens) throws TokenCreationException {
 
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        try {
+            insert(tokens);
+        } catch (SQLException e) {
+            LOG.error("Error when importing {} tokens in database: {}", tokens.size(), e.getMessage());
+            throw new TokenCreationException(e);
+        }
+    }
 
-        md.update(tokenValue.getBytes());
+    @Override
+    public void destroy() {
+
+        if (groupCommitBatcher != null) groupCommitBatcher.close();
+        if (readBatcher != null) readBatcher.close();
+    }
 
-        return new String(Hex.encode(md.digest()));
+    private OAuthToken mapToken(ResultSet rs, String tokenValue) throws SQLException {
+
+        return new OAuthToken().setValue(tokenValue)
+                .setType(rs.getString("type"))
+                .setActive(rs.getBoolean("active"))
+                .setClientId(rs.getString("client_id"))
+                .setExpiration(rs.getLong("expiration"))
+                .setIssuedAt(rs.getLong("issued_at"))
+                .setNotBefore(rs.getLong("not_before"))
+                .setScope(rs.getString("scope"))
+                .setUsername(rs.getString("username"))
+                .setSubject(rs.getString("subject"))
+                .setAudience(rs.getString("audience"))
+                .setIssuer(rs.getString("issuer"))
+                .setJwtId(rs.getString("jwt_id"));
     }
 }
@@ -0,0 +1,76 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package net.identio.server.service.oauth.infrastructure;
+
+import com.zaxxer.hikari.HikariDataSource;
+import net.identio.server.service.data.JdbcDataService;
+import net.identio.server.service.oauth.infrastructure.exceptions.AuthorizationCodeCreationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+// Used-code marks shared by every node using the same database. The unique index on the code id makes the
+// insertion of a mark atomic, the expired marks are purged with the expired codes
+public class JdbcUsedAuthorizationCodeStore implements UsedAuthorizationCodeStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcUsedAuthorizationCodeStore.class);
+
+    private static final String INSERT_USED_CODE_QUERY = "INSERT INTO used_authorization_code " +
+            "(code_id, expiration_time) VALUES (?, ?);";
+
+    // SQL state class of the integrity constraint violations
+    private static final String INTEGRITY_CONSTRAINT_VIOLATION = "23";
+
+    private HikariDataSource ds;
+
+    public JdbcUsedAuthorizationCodeStore(JdbcDataService dataService, String dataSource) {
+        this.ds = dataService.getDataSource(dataSource);
+    }
+
+    @Override
+    public boolean markUsed(String codeId, long expiration) throws AuthorizationCodeCreationException {
+
+        try (Connection connection = this.ds.getConnection()) {
+
+            PreparedStatement insertStatement = connection.prepareStatement(INSERT_USED_CODE_QUERY);
+
+            insertStatement.setString(1, codeId);
+            insertStatement.setLong(2, expiration);
+
+            insertStatement.executeUpdate();
+
+            return true;
+
+        } catch (SQLException e) {
+
+            if (e.getSQLState() != null && e.getSQLState().startsWith(INTEGRITY_CONSTRAINT_VIOLATION)) {
+                return false;
+            }
+
+            LOG.error("Error when marking authorization code {} as used in database: {}", codeId, e.getMessage());
+            throw new AuthorizationCodeCreationException(e);
+        }
+    }
+}
@@ -30,30 +30,50 @@ import liquibase.database.jvm.JdbcConnection;
 import liquibase.exception.LiquibaseException;
 import liquibase.resource.ClassLoaderResourceAccessor;
 import net.identio.server.exceptions.InitializationException;
+import net.identio.server.service.data.ClusterDataService;
+import net.identio.server.service.data.DataConfiguration;
 import net.identio.server.service.data.DataService;
+import net.identio.server.service.data.EmbeddedDataService;
 import net.identio.server.service.data.JdbcDataService;
+import net.identio.server.service.data.journal.Journal;
+import net.identio.server.service.oauth.AuthorizationCodeSealer;
 import net.identio.server.service.oauth.OAuthConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
-import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.*;
 
 @Configuration
-public class OAuthInfrastructureConfiguration implements InitializingBean {
+public class OAuthInfrastructureConfiguration implements InitializingBean, DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(OAuthInfrastructureConfiguration.class);
 
     private static final String IN_MEMORY = "in-memory";
     private static final String JDBC = "jdbc";
+    private static final String OFF_HEAP = "off-heap";
+    private static final String EMBEDDED = "embedded";
+    private static final String CLUSTER = "cluster";
 
-    private String dsType;
+    // Reapers and repositories to stop on shutdown
+    private List<DisposableBean> disposables = new ArrayList<>();
+
+    private List<Journal> journals = new ArrayList<>();
+
+    // Token repositories by data source, shared by the artifacts stored in the same data source
+    private Map<String, TokenRepository> tokenRepositories = new HashMap<>();
+    private Map<String, TokenRepository> tieredTokenRepositories = new HashMap<>();
+
+    // The token shards, shared by every JDBC data source holding tokens
+    private ShardedTokenRepository shardedTokenRepository;
 
     @Autowired
     private OAuthConfiguration config;
@@ -62,63 +82,325 @@ public class OAuthInfrastructureConfiguration implements InitializingBean {
     private DataService dataService;
 
     @Autowired
-    private ApplicationContext context;
+    private JdbcDataService jdbcDataService;
+
+    @Autowired
+    private EmbeddedDataService embeddedDataService;
 
     @Autowired
-    private JdbcDataService jdbcDataService;
+    private ClusterDataService clusterDataService;
+
+    @Autowired
+    private AuthorizationCodeSealer authorizationCodeSealer;
 
     @Override
     public void afterPropertiesSet() throws InitializationException {
 
-        this.dsType = config.getDataSource() != null ?
-                dataService.getDataSourceConfiguration(config.getDataSource()).getType()
-                : IN_MEMORY;
+        OAuthConfiguration.StorageConfiguration storage = config.getStorage();
 
-        switch (this.dsType) {
+        // The token cache already sits in front of every token storage
+        if (config.getTokenCache().isEnabled() &&
+                (storage.getAccessTokens().isTiered() || storage.getRefreshTokens().isTiered())) {
+            LOG.error("Tiered token storage can't be combined with the token cache: disable one of them");
+            throw new InitializationException("Tiered token storage can't be combined with the token cache");
+        }
 
-            case JDBC:
-                initDataBaseSchema();
-                break;
+        resolveSharedRevocations();
 
-            case IN_MEMORY:
-                break;
+        Set<String> dataSources = new LinkedHashSet<>();
 
-            default:
-                LOG.error("Unsupported datasource type: {}", this.dsType);
-                throw new InitializationException("Unsupported datasource type");
+        dataSources.add(getAccessTokenDataSource());
+        dataSources.add(getRefreshTokenDataSource());
+        if (!config.isStatelessAuthorizationCode()) dataSources.add(getAuthorizationCodeDataSource());
+        else if (config.getStatelessCode().getDataSource() != null) dataSources.add(config.getStatelessCode().getDataSource());
+
+        // The token shards are common to every JDBC data source: each database is initialized once
+        Set<String> jdbcDataSources = new LinkedHashSet<>();
+
+        for (String dataSource : dataSources) {
+
+            String dsType = getType(dataSource);
+
+            switch (dsType) {
+
+                case JDBC:
+                    jdbcDataSources.addAll(getJdbcDataSources(dataSource));
+                    break;
+
+                case EMBEDDED:
+                    if (config.getReaper().isEnabled()) {
+                        disposables.add(new EmbeddedExpiredDataReaper(config.getReaper(),
+                                embeddedDataService.getStore(dataSource)));
+                    }
+                    break;
+
+                case IN_MEMORY:
+                case OFF_HEAP:
+                case CLUSTER:
+                    break;
+
+                default:
+                    LOG.error("Unsupported datasource type: {}", dsType);
+                    throw new InitializationException("Unsupported datasource type");
+            }
+        }
+
+        for (String jdbcDataSource : jdbcDataSources) {
+
+            initDataBaseSchema(jdbcDataSource);
+
+            if (config.getReaper().isEnabled()) {
+                disposables.add(new JdbcExpiredDataReaper(config.getReaper(),
+                        jdbcDataService.getDataSource(jdbcDataSource)));
+            }
+        }
+    }
+
+    // Revocation markers are stored with the access tokens: when other nodes can read them, revocations are shared
+    private void resolveSharedRevocations() {
+
+        OAuthConfiguration.RevocationConfiguration revocation = config.getRevocation();
+
+        String dsType = getType(getAccessTokenDataSource());
+        boolean sharedStore = JDBC.equals(dsType) || CLUSTER.equals(dsType);
+
+        if (revocation.getShared() == null) {
+            revocation.setShared(sharedStore);
+        } else if (sharedStore && !revocation.getShared()) {
+            LOG.warn("Revocations are not shared although the access tokens are stored in a {} data source: " +
+                    "a token revoked on a node stays active on the others", dsType);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+
+        for (DisposableBean disposable : disposables) {
+            disposable.destroy();
+        }
+
+        for (Journal journal : journals) {
+            journal.close();
         }
     }
 
     @Bean
-    public AuthorizationCodeRepository getAuthorizationCodeRepository() {
+    public AuthorizationCodeRepository getAuthorizationCodeRepository() throws InitializationException {
+
+        if (config.isStatelessAuthorizationCode()) {
+            return new SealedAuthorizationCodeRepository(authorizationCodeSealer, getUsedAuthorizationCodeStore());
+        }
 
-        AutowireCapableBeanFactory factory = context.getAutowireCapableBeanFactory();
+        String dataSource = getAuthorizationCodeDataSource();
 
-        switch (this.dsType) {
+        switch (getType(dataSource)) {
 
             case JDBC:
-                return factory.createBean(JdbcAuthorizationCodeRepository.class);
+                return new JdbcAuthorizationCodeRepository(config, jdbcDataService, dataSource);
+            case EMBEDDED:
+                return new EmbeddedAuthorizationCodeRepository(config, embeddedDataService, dataSource);
+            case CLUSTER:
+                return new ClusterAuthorizationCodeRepository(clusterDataService.getNode(dataSource));
             default:
-                return factory.createBean(InMemoryAuthorizationCodeRepository.class);
+                if (isJournalEnabled()) {
+                    try {
+                        return new InMemoryAuthorizationCodeRepository(openJournal("codes"), config.getJournal());
+                    } catch (IOException e) {
+                        throw new InitializationException("Error replaying authorization code journal", e);
+                    }
+                }
+                return new InMemoryAuthorizationCodeRepository();
+        }
+    }
+
+    // A sealed code can be redeemed on any node: with several nodes, the redeemed codes must be shared
+    private UsedAuthorizationCodeStore getUsedAuthorizationCodeStore() throws InitializationException {
+
+        String dataSource = config.getStatelessCode().getDataSource();
+
+        if (dataSource == null) {
+
+            if (isMultiNode()) {
+                LOG.error("Sealed authorization codes on several nodes need a shared used-code store: " +
+                        "set oAuthServer.statelessCode.dataSource to a JDBC data source");
+                throw new InitializationException("No shared store for the used authorization codes");
+            }
+
+            return new UsedAuthorizationCodeCache(config.getStatelessCode());
+        }
+
+        if (!JDBC.equals(getType(dataSource))) {
+            LOG.error("Unsupported datasource type for the used authorization codes: {}", getType(dataSource));
+            throw new InitializationException("Unsupported datasource type");
+        }
+
+        return new JdbcUsedAuthorizationCodeStore(jdbcDataService, dataSource);
+    }
+
+    private boolean isMultiNode() {
+
+        for (DataConfiguration.DataSourcesConfiguration dataSource : dataService.getDataSourceConfigurations()) {
+            if (CLUSTER.equals(dataSource.getType()) && dataSource.getMembers().size() > 1) return true;
         }
+
+        return false;
     }
 
     @Bean
-    public TokenRepository getRefreshTokenRepository() {
-        AutowireCapableBeanFactory factory = context.getAutowireCapableBeanFactory();
+    public TokenRepository getRefreshTokenRepository() throws InitializationException {
 
-        switch (this.dsType) {
+        OAuthConfiguration.StorageConfiguration storage = config.getStorage();
+
+        TokenRepository accessTokenRepository = getTokenRepository(getAccessTokenDataSource(),
+                storage.getAccessTokens().isTiered());
+        TokenRepository refreshTokenRepository = getTokenRepository(getRefreshTokenDataSource(),
+                storage.getRefreshTokens().isTiered());
+
+        TokenRepository tokenRepository = accessTokenRepository == refreshTokenRepository ? accessTokenRepository
+                : new RoutingTokenRepository(accessTokenRepository, refreshTokenRepository);
+
+        if (config.getTokenCache().isEnabled()) {
+            return new CachingTokenRepository(tokenRepository, config.getTokenCache());
+        }
+
+        return tokenRepository;
+    }
+
+    private TokenRepository getTokenRepository(String dataSource, boolean tiered) throws InitializationException {
+
+        TokenRepository tokenRepository = tokenRepositories.get(dataSource);
+
+        if (tokenRepository == null) {
+            tokenRepository = createTokenRepository(dataSource);
+            tokenRepositories.put(dataSource, tokenRepository);
+        }
+
+        if (!tiered) return tokenRepository;
+
+        TokenRepository tieredTokenRepository = tieredTokenRepositories.get(dataSource);
+
+        if (tieredTokenRepository == null) {
+            tieredTokenRepository = new CachingTokenRepository(tokenRepository, config.getTokenCache());
+            tieredTokenRepositories.put(dataSource, tieredTokenRepository);
+        }
+
+        return tieredTokenRepository;
+    }
+
+    private TokenRepository createTokenRepository(String dataSource) throws InitializationException {
+
+        switch (getType(dataSource)) {
 
             case JDBC:
-                return factory.createBean(JdbcTokenRepository.class);
+                if (!config.getSharding().getDataSources().isEmpty()) {
+                    return getShardedTokenRepository();
+                }
+
+                JdbcTokenRepository jdbcTokenRepository = new JdbcTokenRepository(config, jdbcDataService, dataSource);
+                disposables.add(jdbcTokenRepository);
+
+                return jdbcTokenRepository;
+            case EMBEDDED:
+                return new EmbeddedTokenRepository(config, embeddedDataService, dataSource);
+            case OFF_HEAP:
+                return new OffHeapTokenRepository(dataService.getDataSourceConfiguration(dataSource).getCapacity());
+            case CLUSTER:
+                return new ClusterTokenRepository(clusterDataService.getNode(dataSource));
             default:
-                return factory.createBean(InMemoryTokenRepository.class);
+                if (isJournalEnabled()) {
+                    try {
+                        // Each in-memory data source replays its own journal
+                        return new InMemoryTokenRepository(openJournal("tokens-" + dataSource), config.getJournal());
+                    } catch (IOException e) {
+                        throw new InitializationException("Error replaying token journal", e);
+                    }
+                }
+                return new InMemoryTokenRepository();
+        }
+    }
+
+    private String getAccessTokenDataSource() {
+        return getDataSource(config.getStorage().getAccessTokens().getDataSource());
+    }
+
+    private String getRefreshTokenDataSource() {
+        return getDataSource(config.getStorage().getRefreshTokens().getDataSource());
+    }
+
+    private String getAuthorizationCodeDataSource() {
+        return getDataSource(config.getStorage().getAuthorizationCodes());
+    }
+
+    // Artifacts without a data source of their own are stored in the main data source
+    private String getDataSource(String artifactDataSource) {
+
+        String dataSource = artifactDataSource != null ? artifactDataSource : config.getDataSource();
+
+        return dataSource != null ? dataSource : IN_MEMORY;
+    }
+
+    private String getType(String dataSource) {
+        return IN_MEMORY.equals(dataSource) ? IN_MEMORY : dataService.getDataSourceConfiguration(dataSource).getType();
+    }
+
+    private boolean isJournalEnabled() {
+        return config.getJournal().getDirectory() != null;
+    }
+
+    private Journal openJournal(String name) throws IOException {
+
+        Journal journal = new Journal(Paths.get(config.getJournal().getDirectory(), name),
+                config.getJournal().getSegmentSize());
+
+        journals.add(journal);
+
+        return journal;
+    }
+
+    private ShardedTokenRepository getShardedTokenRepository() {
+
+        if (shardedTokenRepository == null) shardedTokenRepository = createShardedTokenRepository();
+
+        return shardedTokenRepository;
+    }
+
+    private ShardedTokenRepository createShardedTokenRepository() {
+
+        LinkedHashMap<String, JdbcTokenRepository> shards = new LinkedHashMap<>();
+
+        for (String dataSource : config.getSharding().getDataSources()) {
+
+            JdbcTokenRepository shard = new JdbcTokenRepository(config, jdbcDataService, dataSource);
+            disposables.add(shard);
+
+            shards.put(dataSource, shard);
+        }
+
+        ShardedTokenRepository repository = new ShardedTokenRepository(shards, config.getSharding().getVirtualNodes());
+
+        if (config.getSharding().isRebalanceOnStartup()) {
+            Thread rebalancer = new Thread(repository::rebalance, "oauth-token-rebalancer");
+            rebalancer.setDaemon(true);
+            rebalancer.start();
         }
+
+        return repository;
+    }
+
+    // A JDBC data source holding tokens and the token shards
+    private Set<String> getJdbcDataSources(String dataSource) {
+
+        Set<String> dataSources = new LinkedHashSet<>();
+
+        dataSources.add(dataSource);
+        dataSources.addAll(config.getSharding().getDataSources());
+
+        return dataSources;
     }
 
-    private void initDataBaseSchema() throws InitializationException {
+    private void initDataBaseSchema(String dataSource) throws InitializationException {
 
-        try (Connection connection = jdbcDataService.getDataSource(config.getDataSource()).getConnection()) {
+        try (Connection connection = jdbcDataService.getDataSource(dataSource).getConnection()) {
 
             // Find database and specify changelog tables in order to avoid destroying existing
             // liquibase configuration
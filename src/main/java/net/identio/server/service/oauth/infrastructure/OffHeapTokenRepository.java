@@ -0,0 +1,601 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenCreationException;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenDeleteException;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenFetchException;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// In-memory token store living outside of the Java heap.
+// Tokens are keyed by the SHA-256 digest of their value and stored with TokenRecordCodec in direct buffers.
+// The store is split in segments, each one being a ring log of records with an open-addressing index.
+// When a segment is full, the space of deleted, replaced and expired records is reclaimed by compacting the log.
+// Only when there is not enough space to reclaim are the oldest live records evicted, and each eviction is counted.
+// Expired records met during an eviction are reclaimed silently.
+public class OffHeapTokenRepository implements TokenRepository {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OffHeapTokenRepository.class);
+
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+    private static final long MAX_SEGMENT_SIZE = 1024 * 1024 * 1024;
+
+    private static final int EXPORT_BATCH_SLOTS = 1024;
+
+    private static final long EVICTION_WARNING_INTERVAL = 60000;
+
+    private final Segment[] segments;
+
+    // Live tokens evicted by the segments, reported at most once per interval
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong lastEvictionWarning = new AtomicLong();
+
+    public OffHeapTokenRepository(long capacity) {
+
+        int segmentCount = 1;
+
+        while (segmentCount < Runtime.getRuntime().availableProcessors() * 4
+                && capacity / (segmentCount * 2) >= MIN_SEGMENT_SIZE) {
+            segmentCount *= 2;
+        }
+
+        while (capacity / segmentCount > MAX_SEGMENT_SIZE) {
+            segmentCount *= 2;
+        }
+
+        LOG.info("Initializing off-heap token repository of {} bytes in {} segments", capacity, segmentCount);
+
+        segments = new Segment[segmentCount];
+
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment((int) (capacity / segmentCount), this::countEviction);
+        }
+    }
+
+    @Override
+    public void save(OAuthToken token) throws TokenCreationException {
+
+        byte[] digest = TokenDigests.sha256(token.getValue());
+
+        try {
+            segmentFor(digest).put(digest, TokenRecordCodec.encode(token));
+        } catch (IllegalArgumentException e) {
+            LOG.error("Error when storing token: {}", e.getMessage());
+            throw new TokenCreationException(e);
+        }
+    }
+
+    @Override
+    public Optional<OAuthToken> getTokenByValue(String tokenValue, String type) throws TokenFetchException {
+
+        Optional<OAuthToken> result = getTokenByValue(tokenValue);
+
+        return result.isPresent() && type.equals(result.get().getType()) ? result : Optional.empty();
+    }
+
+    @Override
+    public Optional<OAuthToken> getTokenByValue(String tokenValue) throws TokenFetchException {
+
+        byte[] digest = TokenDigests.sha256(tokenValue);
+        Segment segment = segmentFor(digest);
+
+        OAuthToken token = segment.get(digest, tokenValue);
+
+        if (token == null) return Optional.empty();
+
+        // Expired tokens are dropped lazily
+        if (token.getExpiration() != 0 && token.getExpiration() < System.currentTimeMillis() / 1000) {
+            segment.remove(digest);
+            return Optional.empty();
+        }
+
+        return Optional.of(token);
+    }
+
+    @Override
+    public List<Optional<OAuthToken>> getTokensByValue(List<String> tokenValues) throws TokenFetchException {
+
+        List<Optional<OAuthToken>> results = new ArrayList<>(tokenValues.size());
+
+        for (String tokenValue : tokenValues) {
+            results.add(getTokenByValue(tokenValue));
+        }
+
+        return results;
+    }
+
+    @Override
+    public void delete(String tokenValue) throws TokenDeleteException {
+
+        byte[] digest = TokenDigests.sha256(tokenValue);
+
+        segmentFor(digest).remove(digest);
+    }
+
+    @Override
+    public long deleteByUsername(String username) {
+        return deleteMatching(token -> username != null && username.equals(token.getUsername()));
+    }
+
+    @Override
+    public long deleteByClientId(String clientId) {
+        return deleteMatching(token -> clientId != null && clientId.equals(token.getClientId()));
+    }
+
+    // The off-heap segments have no secondary index: the matching tokens are found by a scan of the slots,
+    // a few slots at a time, and removed between two reads so that no segment is held during the whole scan
+    private long deleteMatching(Predicate<OAuthToken> predicate) {
+
+        List<StoredToken> tokens = new ArrayList<>(EXPORT_BATCH_SLOTS);
+        long deleted = 0;
+
+        for (Segment segment : segments) {
+            for (int slot = 0; slot < segment.getSlotCount(); slot += EXPORT_BATCH_SLOTS) {
+
+                tokens.clear();
+                segment.read(slot, EXPORT_BATCH_SLOTS, tokens);
+
+                for (StoredToken token : tokens) {
+                    if (predicate.test(token.getToken())) {
+                        segment.remove(token.getDigest());
+                        deleted++;
+                    }
+                }
+            }
+        }
+
+        return deleted;
+    }
+
+    // Segments are read a few index slots at a time: tokens written during the export may be missed
+    @Override
+    public void exportTokens(Consumer<StoredToken> consumer) {
+
+        List<StoredToken> tokens = new ArrayList<>(EXPORT_BATCH_SLOTS);
+
+        for (Segment segment : segments) {
+            for (int slot = 0; slot < segment.getSlotCount(); slot += EXPORT_BATCH_SLOTS) {
+
+                tokens.clear();
+                segment.read(slot, EXPORT_BATCH_SLOTS, tokens);
+
+                tokens.forEach(consumer);
+            }
+        }
+    }
+
+    @Override
+    public void exportRevocations(long issuedSince, Consumer<OAuthToken> consumer) {
+
+        exportTokens(token -> {
+            if (OAuthToken.REVOCATION_TYPE.equals(token.getToken().getType())
+                    && token.getToken().getIssuedAt() >= issuedSince) {
+                consumer.accept(token.getToken());
+            }
+        });
+    }
+
+    @Override
+    public void importTokens(List<StoredToken> tokens) throws TokenCreationException {
+
+        for (StoredToken token : tokens) {
+            try {
+                segmentFor(token.getDigest()).put(token.getDigest(), TokenRecordCodec.encode(token.getToken()));
+            } catch (IllegalArgumentException e) {
+                LOG.error("Error when storing token: {}", e.getMessage());
+                throw new TokenCreationException(e);
+            }
+        }
+    }
+
+    public long getSize() {
+
+        long size = 0;
+
+        for (Segment segment : segments) {
+            size += segment.getEntryCount();
+        }
+
+        return size;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    private Segment segmentFor(byte[] digest) {
+
+        // The index uses the first 8 bytes of the digest, the segment is chosen with the next ones
+        int hash = ((digest[8] & 0xff) << 24) | ((digest[9] & 0xff) << 16) | ((digest[10] & 0xff) << 8) | (digest[11] & 0xff);
+
+        return segments[hash & (segments.length - 1)];
+    }
+
+    private void countEviction() {
+
+        long evictions = evictionCount.incrementAndGet();
+
+        long now = System.currentTimeMillis();
+        long last = lastEvictionWarning.get();
+
+        if (now - last >= EVICTION_WARNING_INTERVAL && lastEvictionWarning.compareAndSet(last, now)) {
+            LOG.warn("Off-heap token store is full: evicting live tokens ({} evictions so far)", evictions);
+        }
+    }
+
+    private static final class Segment {
+
+        // Record: length (4 bytes), digest (32 bytes), encoded token
+        private static final int RECORD_HEADER_LENGTH = 4 + TokenDigests.DIGEST_LENGTH;
+        private static final int WRAP_MARKER = -1;
+
+        // Index slot: digest prefix (8 bytes, 0 when empty), record offset (4 bytes)
+        private static final int SLOT_LENGTH = 12;
+        private static final int BYTES_PER_SLOT = 64;
+
+        private final ByteBuffer data;
+        private final int size;
+
+        private final ByteBuffer index;
+        private final int mask;
+        private final int maxEntries;
+
+        // Logical positions in the ring: records live between tail and head
+        private long head;
+        private long tail;
+        private int entryCount;
+
+        // Bytes of the records that are no longer referenced by the index
+        private long garbage;
+
+        // Called for each live record evicted
+        private final Runnable evictionListener;
+
+        // The index is carved out of the segment so that the configured capacity is never exceeded
+        private Segment(int capacity, Runnable evictionListener) {
+
+            this.evictionListener = evictionListener;
+
+            int slots = Integer.highestOneBit(Math.max(16, capacity / BYTES_PER_SLOT));
+
+            this.index = ByteBuffer.allocateDirect(slots * SLOT_LENGTH);
+            this.size = capacity - slots * SLOT_LENGTH;
+            this.data = ByteBuffer.allocateDirect(size);
+
+            this.mask = slots - 1;
+            this.maxEntries = slots / 10 * 9;
+        }
+
+        private synchronized void put(byte[] digest, byte[] record) {
+
+            int length = RECORD_HEADER_LENGTH + record.length;
+
+            if (length > size / 2) throw new IllegalArgumentException("Token record is too large");
+
+            // Replace a previous version of the token
+            removeEntry(digest);
+
+            long now = System.currentTimeMillis() / 1000;
+
+            while (entryCount >= maxEntries) {
+                evictOldest(now);
+            }
+
+            int physical = reserve(length, now);
+
+            data.putInt(physical, length);
+            for (int i = 0; i < TokenDigests.DIGEST_LENGTH; i++) {
+                data.put(physical + 4 + i, digest[i]);
+            }
+            data.position(physical + RECORD_HEADER_LENGTH);
+            data.put(record);
+
+            head += length;
+
+            insertEntry(keyOf(digest), physical);
+        }
+
+        private synchronized OAuthToken get(byte[] digest, String tokenValue) {
+
+            int slot = findSlot(digest);
+
+            if (slot < 0) return null;
+
+            data.position(index.getInt(slot * SLOT_LENGTH + 8) + RECORD_HEADER_LENGTH);
+
+            return TokenRecordCodec.decode(data, tokenValue);
+        }
+
+        private synchronized void remove(byte[] digest) {
+
+            removeEntry(digest);
+        }
+
+        private synchronized int getEntryCount() {
+            return entryCount;
+        }
+
+        private int getSlotCount() {
+            return mask + 1;
+        }
+
+        // Reads the tokens referenced by a range of index slots
+        private synchronized void read(int firstSlot, int slotCount, List<StoredToken> tokens) {
+
+            for (int slot = firstSlot; slot < Math.min(firstSlot + slotCount, mask + 1); slot++) {
+
+                if (index.getLong(slot * SLOT_LENGTH) == 0) continue;
+
+                int offset = index.getInt(slot * SLOT_LENGTH + 8);
+
+                byte[] digest = new byte[TokenDigests.DIGEST_LENGTH];
+                for (int i = 0; i < TokenDigests.DIGEST_LENGTH; i++) {
+                    digest[i] = data.get(offset + 4 + i);
+                }
+
+                data.position(offset + RECORD_HEADER_LENGTH);
+
+                tokens.add(new StoredToken(digest, TokenRecordCodec.decode(data, null)));
+            }
+        }
+
+        // Makes room for a record at the head of the log and returns its offset
+        private int reserve(int length, long now) {
+
+            // Compacting is a full pass over the log: only do it when it reclaims a significant amount of space
+            if (head + padding(length) + length - tail > size && garbage >= Math.max(length, size / 16)) {
+                compact(now);
+            }
+
+            int padding = padding(length);
+
+            while (head + padding + length - tail > size) {
+                evictOldest(now);
+            }
+
+            int physical = (int) (head % size);
+
+            // The record doesn't fit before the end of the buffer: skip to its beginning
+            if (padding > 0) {
+
+                if (padding >= 4) data.putInt(physical, WRAP_MARKER);
+
+                head += padding;
+                physical = 0;
+            }
+
+            return physical;
+        }
+
+        private int padding(int length) {
+
+            int physical = (int) (head % size);
+
+            return physical + length > size ? size - physical : 0;
+        }
+
+        private void evictOldest(long now) {
+
+            int physical = (int) (tail % size);
+
+            if (isWrapped(physical)) {
+                tail += size - physical;
+                return;
+            }
+
+            int length = data.getInt(physical);
+            int slot = findRecordSlot(physical);
+
+            if (slot >= 0) {
+                deleteSlot(slot);
+
+                if (!isExpired(physical, now)) evictionListener.run();
+            } else {
+                garbage -= length;
+            }
+
+            tail += length;
+        }
+
+        // Moves the live records towards the tail, in order, so that the space of the dead ones is freed.
+        // A record is never moved past its current position, so it can't overwrite a record not yet moved.
+        // Expired records are dropped along with the dead ones.
+        private void compact(long now) {
+
+            long target = tail;
+
+            for (long position = tail; position < head; ) {
+
+                int physical = (int) (position % size);
+
+                if (isWrapped(physical)) {
+                    position += size - physical;
+                    continue;
+                }
+
+                int length = data.getInt(physical);
+                int slot = findRecordSlot(physical);
+
+                if (slot >= 0 && isExpired(physical, now)) {
+                    deleteSlot(slot);
+                    slot = -1;
+                }
+
+                if (slot >= 0) {
+
+                    int targetPhysical = (int) (target % size);
+
+                    if (targetPhysical + length > size) {
+                        if (size - targetPhysical >= 4) data.putInt(targetPhysical, WRAP_MARKER);
+                        target += size - targetPhysical;
+                        targetPhysical = 0;
+                    }
+
+                    if (targetPhysical != physical) {
+                        byte[] record = new byte[length];
+                        data.position(physical);
+                        data.get(record);
+                        data.position(targetPhysical);
+                        data.put(record);
+
+                        index.putInt(slot * SLOT_LENGTH + 8, targetPhysical);
+                    }
+
+                    target += length;
+                }
+
+                position += length;
+            }
+
+            LOG.debug("Compacted off-heap token segment: {} bytes reclaimed", head - target);
+
+            head = target;
+            garbage = 0;
+        }
+
+        private boolean isExpired(int physical, long now) {
+
+            long expiration = TokenRecordCodec.readExpiration(data, physical + RECORD_HEADER_LENGTH);
+
+            return expiration != 0 && expiration < now;
+        }
+
+        private boolean isWrapped(int physical) {
+            return size - physical < 4 || data.getInt(physical) == WRAP_MARKER;
+        }
+
+        // Finds the index slot pointing to a record, -1 if the record is no longer referenced
+        private int findRecordSlot(int physical) {
+
+            long key = normalize(data.getLong(physical + 4));
+
+            for (int slot = slotOf(key); index.getLong(slot * SLOT_LENGTH) != 0; slot = (slot + 1) & mask) {
+
+                if (index.getInt(slot * SLOT_LENGTH + 8) == physical) return slot;
+            }
+
+            return -1;
+        }
+
+        private int findSlot(byte[] digest) {
+
+            long key = keyOf(digest);
+
+            for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+
+                long slotKey = index.getLong(slot * SLOT_LENGTH);
+
+                if (slotKey == 0) return -1;
+
+                if (slotKey == key && digestMatches(index.getInt(slot * SLOT_LENGTH + 8), digest)) return slot;
+            }
+        }
+
+        private void insertEntry(long key, int offset) {
+
+            int slot = slotOf(key);
+
+            while (index.getLong(slot * SLOT_LENGTH) != 0) {
+                slot = (slot + 1) & mask;
+            }
+
+            index.putLong(slot * SLOT_LENGTH, key);
+            index.putInt(slot * SLOT_LENGTH + 8, offset);
+
+            entryCount++;
+        }
+
+        private void removeEntry(byte[] digest) {
+
+            int slot = findSlot(digest);
+
+            if (slot >= 0) {
+                garbage += data.getInt(index.getInt(slot * SLOT_LENGTH + 8));
+                deleteSlot(slot);
+            }
+        }
+
+        // Backward shift deletion keeps the probe sequences intact without tombstones
+        private void deleteSlot(int slot) {
+
+            int hole = slot;
+
+            for (int next = (hole + 1) & mask; ; next = (next + 1) & mask) {
+
+                long key = index.getLong(next * SLOT_LENGTH);
+
+                if (key == 0) break;
+
+                int home = slotOf(key);
+
+                boolean movable = hole <= next ? (home <= hole || home > next) : (home <= hole && home > next);
+
+                if (movable) {
+                    index.putLong(hole * SLOT_LENGTH, key);
+                    index.putInt(hole * SLOT_LENGTH + 8, index.getInt(next * SLOT_LENGTH + 8));
+                    hole = next;
+                }
+            }
+
+            index.putLong(hole * SLOT_LENGTH, 0);
+            entryCount--;
+        }
+
+        private boolean digestMatches(int offset, byte[] digest) {
+
+            for (int i = 0; i < TokenDigests.DIGEST_LENGTH; i++) {
+                if (data.get(offset + 4 + i) != digest[i]) return false;
+            }
+
+            return true;
+        }
+
+        private int slotOf(long key) {
+            return (int) (key ^ (key >>> 32)) & mask;
+        }
+
+        private static long keyOf(byte[] digest) {
+
+            long key = 0;
+
+            for (int i = 0; i < 8; i++) {
+                key = (key << 8) | (digest[i] & 0xff);
+            }
+
+            return normalize(key);
+        }
+
+        // 0 marks an empty slot
+        private static long normalize(long key) {
+            return key != 0 ? key : 1;
+        }
+    }
+}
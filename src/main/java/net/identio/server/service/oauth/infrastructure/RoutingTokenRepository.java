@@ -0,0 +1,169 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenCreationException;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenDeleteException;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenFetchException;
+import net.identio.server.service.oauth.model.OAuthToken;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// Stores access tokens and refresh tokens in different repositories
+public class RoutingTokenRepository implements TokenRepository {
+
+    private TokenRepository accessTokenRepository;
+    private TokenRepository refreshTokenRepository;
+
+    private Set<TokenRepository> repositories = new LinkedHashSet<>();
+
+    public RoutingTokenRepository(TokenRepository accessTokenRepository, TokenRepository refreshTokenRepository) {
+
+        this.accessTokenRepository = accessTokenRepository;
+        this.refreshTokenRepository = refreshTokenRepository;
+
+        repositories.add(accessTokenRepository);
+        repositories.add(refreshTokenRepository);
+    }
+
+    @Override
+    public void save(OAuthToken token) throws TokenCreationException {
+        route(token.getType()).save(token);
+    }
+
+    @Override
+    public Optional<OAuthToken> getTokenByValue(String tokenValue, String type) throws TokenFetchException {
+        return route(type).getTokenByValue(tokenValue, type);
+    }
+
+    @Override
+    public Optional<OAuthToken> getTokenByValue(String tokenValue) throws TokenFetchException {
+
+        // The type of the token is unknown: look in every repository
+        for (TokenRepository repository : repositories) {
+
+            Optional<OAuthToken> result = repository.getTokenByValue(tokenValue);
+
+            if (result.isPresent()) return result;
+        }
+
+        return Optional.empty();
+    }
+
+    @Override
+    public List<Optional<OAuthToken>> getTokensByValue(List<String> tokenValues) throws TokenFetchException {
+
+        List<Optional<OAuthToken>> results = accessTokenRepository.getTokensByValue(tokenValues);
+
+        if (refreshTokenRepository == accessTokenRepository) return results;
+
+        // The tokens not found are looked up in the refresh token repository
+        List<Integer> missingPositions = new ArrayList<>();
+        List<String> missingValues = new ArrayList<>();
+
+        for (int i = 0; i < results.size(); i++) {
+            if (!results.get(i).isPresent()) {
+                missingPositions.add(i);
+                missingValues.add(tokenValues.get(i));
+            }
+        }
+
+        if (missingValues.isEmpty()) return results;
+
+        List<Optional<OAuthToken>> refreshResults = refreshTokenRepository.getTokensByValue(missingValues);
+
+        for (int i = 0; i < refreshResults.size(); i++) {
+            results.set(missingPositions.get(i), refreshResults.get(i));
+        }
+
+        return results;
+    }
+
+    @Override
+    public void delete(String tokenValue) throws TokenDeleteException {
+
+        for (TokenRepository repository : repositories) {
+            repository.delete(tokenValue);
+        }
+    }
+
+    @Override
+    public long deleteByUsername(String username) throws TokenDeleteException {
+
+        long deleted = 0;
+
+        for (TokenRepository repository : repositories) {
+            deleted += repository.deleteByUsername(username);
+        }
+
+        return deleted;
+    }
+
+    @Override
+    public long deleteByClientId(String clientId) throws TokenDeleteException {
+
+        long deleted = 0;
+
+        for (TokenRepository repository : repositories) {
+            deleted += repository.deleteByClientId(clientId);
+        }
+
+        return deleted;
+    }
+
+    @Override
+    public void exportTokens(Consumer<StoredToken> consumer) throws TokenFetchException {
+
+        for (TokenRepository repository : repositories) {
+            repository.exportTokens(consumer);
+        }
+    }
+
+    // Revocation markers are not refresh tokens: they are stored with the access tokens
+    @Override
+    public void exportRevocations(long issuedSince, Consumer<OAuthToken> consumer) throws TokenFetchException {
+
+        accessTokenRepository.exportRevocations(issuedSince, consumer);
+    }
+
+    @Override
+    public void importTokens(List<StoredToken> tokens) throws TokenCreationException {
+
+        List<StoredToken> accessTokens = new ArrayList<>();
+        List<StoredToken> refreshTokens = new ArrayList<>();
+
+        for (StoredToken token : tokens) {
+            (route(token.getToken().getType()) == refreshTokenRepository ? refreshTokens : accessTokens).add(token);
+        }
+
+        if (!accessTokens.isEmpty()) accessTokenRepository.importTokens(accessTokens);
+        if (!refreshTokens.isEmpty()) refreshTokenRepository.importTokens(refreshTokens);
+    }
+
+    private TokenRepository route(String type) {
+        return OAuthToken.REFRESH_TOKEN_TYPE.equals(type) ? refreshTokenRepository : accessTokenRepository;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.oauth.AuthorizationCodeSealer;
+import net.identio.server.service.oauth.infrastructure.exceptions.AuthorizationCodeCreationException;
+import net.identio.server.service.oauth.infrastructure.exceptions.AuthorizationCodeDeleteException;
+import net.identio.server.service.oauth.infrastructure.exceptions.AuthorizationCodeFetchException;
+import net.identio.server.service.oauth.model.AuthorizationCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+// Repository of the sealed authorization codes: the codes carry their own data, only the ids of the redeemed
+// codes are kept until they expire
+public class SealedAuthorizationCodeRepository implements AuthorizationCodeRepository {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SealedAuthorizationCodeRepository.class);
+
+    private AuthorizationCodeSealer sealer;
+
+    private UsedAuthorizationCodeStore usedCodes;
+
+    public SealedAuthorizationCodeRepository(AuthorizationCodeSealer sealer, UsedAuthorizationCodeStore usedCodes) {
+        this.sealer = sealer;
+        this.usedCodes = usedCodes;
+    }
+
+    @Override
+    public void save(AuthorizationCode code) {
+        // Nothing to store
+    }
+
+    @Override
+    public Optional<AuthorizationCode> getAuthorizationCodeByValue(String code) {
+        return sealer.open(code);
+    }
+
+    @Override
+    public void delete(AuthorizationCode code) throws AuthorizationCodeDeleteException {
+
+        Optional<AuthorizationCode> result = sealer.open(code.getCode());
+
+        if (!result.isPresent()) return;
+
+        try {
+            usedCodes.markUsed(AuthorizationCodeSealer.getCodeId(code.getCode()), result.get().getExpirationTime());
+        } catch (AuthorizationCodeCreationException e) {
+            throw new AuthorizationCodeDeleteException(e);
+        }
+    }
+
+    @Override
+    public Optional<AuthorizationCode> consume(String code) throws AuthorizationCodeFetchException {
+
+        Optional<AuthorizationCode> result = sealer.open(code);
+
+        if (!result.isPresent()) return result;
+
+        // Expired codes are rejected by the caller and don't need to be remembered
+        if (result.get().getExpirationTime() < System.currentTimeMillis() / 1000) return result;
+
+        try {
+            if (!usedCodes.markUsed(AuthorizationCodeSealer.getCodeId(code), result.get().getExpirationTime())) {
+                LOG.error("Authorization code already redeemed");
+                return Optional.empty();
+            }
+        } catch (AuthorizationCodeCreationException e) {
+            throw new AuthorizationCodeFetchException(e);
+        }
+
+        return result;
+    }
+
+    @Override
+    public void exportCodes(Consumer<AuthorizationCode> consumer) {
+        // Codes are held by the clients
+    }
+
+    @Override
+    public void importCodes(List<AuthorizationCode> codes) {
+        // Stored codes can't be turned into sealed codes
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenCreationException;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenDeleteException;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenFetchException;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+// Spreads the tokens over several JDBC data sources with a consistent hash ring built on the token digest.
+// Each shard owns several points of the ring so that adding a shard only moves a fraction of the tokens.
+public class ShardedTokenRepository implements TokenRepository, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShardedTokenRepository.class);
+
+    private static final int REBALANCE_BATCH_SIZE = 500;
+
+    private LinkedHashMap<String, JdbcTokenRepository> shards;
+
+    private TreeMap<Long, JdbcTokenRepository> ring = new TreeMap<>();
+
+    // While tokens are moved, a token may still be stored on its previous shard.
+    // This flag only exists in this process: see rebalance()
+    private volatile boolean rebalancing;
+
+    public ShardedTokenRepository(LinkedHashMap<String, JdbcTokenRepository> shards, int virtualNodes) {
+
+        LOG.info("Initializing sharded token repository on {}", shards.keySet());
+
+        this.shards = shards;
+
+        for (Map.Entry<String, JdbcTokenRepository> shard : shards.entrySet()) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(position(TokenDigests.sha256(shard.getKey() + "#" + i)), shard.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void save(OAuthToken token) throws TokenCreationException {
+
+        shardFor(token.getValue()).save(token);
+    }
+
+    @Override
+    public Optional<OAuthToken> getTokenByValue(String tokenValue, String type) throws TokenFetchException {
+
+        JdbcTokenRepository owner = shardFor(tokenValue);
+
+        Optional<OAuthToken> result = owner.getTokenByValue(tokenValue, type);
+
+        if (result.isPresent() || !rebalancing) return result;
+
+        for (JdbcTokenRepository shard : shards.values()) {
+
+            if (shard == owner) continue;
+
+            result = shard.getTokenByValue(tokenValue, type);
+
+            if (result.isPresent()) return result;
+        }
+
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<OAuthToken> getTokenByValue(String tokenValue) throws TokenFetchException {
+
+        return getTokenByValue(tokenValue, null);
+    }
+
+    // Each shard resolves its tokens with a single query
+    @Override
+    public List<Optional<OAuthToken>> getTokensByValue(List<String> tokenValues) throws TokenFetchException {
+
+        Map<JdbcTokenRepository, List<Integer>> positionsByShard = new HashMap<>();
+
+        for (int i = 0; i < tokenValues.size(); i++) {
+            positionsByShard.computeIfAbsent(shardFor(tokenValues.get(i)), shard -> new ArrayList<>()).add(i);
+        }
+
+        List<Optional<OAuthToken>> results = new ArrayList<>(Collections.nCopies(tokenValues.size(), Optional.empty()));
+
+        for (Map.Entry<JdbcTokenRepository, List<Integer>> shardPositions : positionsByShard.entrySet()) {
+
+            List<String> shardValues = new ArrayList<>(shardPositions.getValue().size());
+
+            for (int position : shardPositions.getValue()) {
+                shardValues.add(tokenValues.get(position));
+            }
+
+            List<Optional<OAuthToken>> shardResults = shardPositions.getKey().getTokensByValue(shardValues);
+
+            for (int i = 0; i < shardResults.size(); i++) {
+                results.set(shardPositions.getValue().get(i), shardResults.get(i));
+            }
+        }
+
+        if (rebalancing) {
+            for (int i = 0; i < results.size(); i++) {
+                if (!results.get(i).isPresent()) results.set(i, getTokenByValue(tokenValues.get(i)));
+            }
+        }
+
+        return results;
+    }
+
+    @Override
+    public void delete(String tokenValue) throws TokenDeleteException {
+
+        if (!rebalancing) {
+            shardFor(tokenValue).delete(tokenValue);
+            return;
+        }
+
+        for (JdbcTokenRepository shard : shards.values()) {
+            shard.delete(tokenValue);
+        }
+    }
+
+    // Each shard deletes its own tokens by batches, through its indexes
+    @Override
+    public long deleteByUsername(String username) throws TokenDeleteException {
+
+        long deleted = 0;
+
+        for (JdbcTokenRepository shard : shards.values()) {
+            deleted += shard.deleteByUsername(username);
+        }
+
+        return deleted;
+    }
+
+    @Override
+    public long deleteByClientId(String clientId) throws TokenDeleteException {
+
+        long deleted = 0;
+
+        for (JdbcTokenRepository shard : shards.values()) {
+            deleted += shard.deleteByClientId(clientId);
+        }
+
+        return deleted;
+    }
+
+    @Override
+    public void exportTokens(Consumer<StoredToken> consumer) throws TokenFetchException {
+
+        for (JdbcTokenRepository shard : shards.values()) {
+            shard.exportTokens(consumer);
+        }
+    }
+
+    @Override
+    public void exportRevocations(long issuedSince, Consumer<OAuthToken> consumer) throws TokenFetchException {
+
+        for (JdbcTokenRepository shard : shards.values()) {
+            shard.exportRevocations(issuedSince, consumer);
+        }
+    }
+
+    @Override
+    public void importTokens(List<StoredToken> tokens) throws TokenCreationException {
+
+        Map<JdbcTokenRepository, List<StoredToken>> tokensByShard = new HashMap<>();
+
+        for (StoredToken token : tokens) {
+            tokensByShard.computeIfAbsent(shardFor(token.getDigest()), shard -> new ArrayList<>()).add(token);
+        }
+
+        for (Map.Entry<JdbcTokenRepository, List<StoredToken>> shardTokens : tokensByShard.entrySet()) {
+            shardTokens.getKey().importTokens(shardTokens.getValue());
+        }
+    }
+
+    // Moves every token that is not stored on its owning shard, for instance after a shard was added.
+    // The repository stays available: lookups fall back to the other shards until the end of the procedure.
+    // A token is deleted from its previous shard before being written on its owner, and only written if it was still
+    // there: a token revoked during the move is never written again. It is missing for the duration of the move.
+    // Rebalancing is single-node only: the other nodes don't know a rebalance is running, so they neither search
+    // the previous shards nor delete from them. Run it while this node is the only one serving the sharded store.
+    public long rebalance() {
+
+        LOG.info("Rebalancing tokens between shards");
+
+        long start = System.currentTimeMillis();
+        long moved = 0;
+
+        rebalancing = true;
+
+        try {
+            for (Map.Entry<String, JdbcTokenRepository> shard : shards.entrySet()) {
+
+                List<StoredToken> tokens = new ArrayList<>(REBALANCE_BATCH_SIZE);
+                long lastId = 0;
+
+                do {
+                    tokens.clear();
+                    lastId = shard.getValue().scanTokens(lastId, REBALANCE_BATCH_SIZE, tokens);
+
+                    for (StoredToken token : tokens) {
+
+                        JdbcTokenRepository owner = shardFor(token.getDigest());
+
+                        if (owner != shard.getValue() && shard.getValue().delete(token.getDigest())) {
+                            owner.save(token.getDigest(), token.getToken());
+                            moved++;
+                        }
+                    }
+
+                } while (tokens.size() == REBALANCE_BATCH_SIZE);
+            }
+
+            LOG.info("Moved {} tokens between shards in {}ms", moved, System.currentTimeMillis() - start);
+
+        } catch (TokenFetchException | TokenCreationException | TokenDeleteException e) {
+            LOG.error("Error when rebalancing tokens after {} moves: {}", moved, e.getMessage());
+        } finally {
+            rebalancing = false;
+        }
+
+        return moved;
+    }
+
+    @Override
+    public void destroy() {
+
+        for (JdbcTokenRepository shard : shards.values()) {
+            shard.destroy();
+        }
+    }
+
+    private JdbcTokenRepository shardFor(String tokenValue) {
+
+        return shardFor(TokenDigests.sha256(tokenValue));
+    }
+
+    private JdbcTokenRepository shardFor(byte[] digest) {
+
+        Map.Entry<Long, JdbcTokenRepository> entry = ring.ceilingEntry(position(digest));
+
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    private static long position(byte[] digest) {
+
+        long position = 0;
+
+        for (int i = 0; i < 8; i++) {
+            position = (position << 8) | (digest[i] & 0xff);
+        }
+
+        return position;
+    }
+}
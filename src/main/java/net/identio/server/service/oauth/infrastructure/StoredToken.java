@@ -0,0 +1,43 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.oauth.model.OAuthToken;
+
+// A token as stored in a repository, identified by the digest of its value. The value itself is unknown
+public class StoredToken {
+
+    private final byte[] digest;
+    private final OAuthToken token;
+
+    public StoredToken(byte[] digest, OAuthToken token) {
+        this.digest = digest;
+        this.token = token;
+    }
+
+    public byte[] getDigest() {
+        return digest;
+    }
+
+    public OAuthToken getToken() {
+        return token;
+    }
+}
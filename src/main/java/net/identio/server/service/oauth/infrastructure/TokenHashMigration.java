@@ -0,0 +1,118 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import liquibase.change.custom.CustomTaskChange;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.CustomChangeException;
+import liquibase.exception.ValidationErrors;
+import liquibase.resource.ResourceAccessor;
+import org.springframework.security.crypto.codec.Hex;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// Liquibase migration filling the binary token_hash column from the former hexadecimal hash column
+public class TokenHashMigration implements CustomTaskChange {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private int migratedRows;
+
+    @Override
+    public void execute(Database database) throws CustomChangeException {
+
+        Connection connection = ((JdbcConnection) database.getConnection()).getUnderlyingConnection();
+
+        try {
+            PreparedStatement selectStatement = connection.prepareStatement(
+                    "SELECT id, hash FROM tokens WHERE token_hash IS NULL;");
+            selectStatement.setMaxRows(BATCH_SIZE);
+
+            PreparedStatement updateStatement = connection.prepareStatement(
+                    "UPDATE tokens SET token_hash = ? WHERE id = ?;");
+
+            int batchRows;
+
+            do {
+                batchRows = 0;
+
+                try (ResultSet rs = selectStatement.executeQuery()) {
+                    while (rs.next()) {
+                        long id = rs.getLong("id");
+                        updateStatement.setBytes(1, decodeHash(id, rs.getString("hash")));
+                        updateStatement.setLong(2, id);
+                        updateStatement.addBatch();
+                        batchRows++;
+                    }
+                }
+
+                if (batchRows > 0) updateStatement.executeBatch();
+
+                migratedRows += batchRows;
+
+            } while (batchRows == BATCH_SIZE);
+
+        } catch (SQLException e) {
+            throw new CustomChangeException("Error when migrating token hashes", e);
+        }
+    }
+
+    // Hex.decode doesn't reject every malformed value: the hash is checked beforehand
+    private byte[] decodeHash(long id, String hash) throws CustomChangeException {
+
+        if (hash == null || hash.length() != 2 * TokenDigests.DIGEST_LENGTH)
+            throw new CustomChangeException("Malformed hash of token row " + id + ": expected "
+                    + 2 * TokenDigests.DIGEST_LENGTH + " hexadecimal characters");
+
+        for (int i = 0; i < hash.length(); i++) {
+            if (Character.digit(hash.charAt(i), 16) < 0)
+                throw new CustomChangeException("Malformed hash of token row " + id + ": invalid character at position " + i);
+        }
+
+        try {
+            return Hex.decode(hash);
+        } catch (IllegalArgumentException e) {
+            throw new CustomChangeException("Malformed hash of token row " + id, e);
+        }
+    }
+
+    @Override
+    public String getConfirmationMessage() {
+        return "Migrated the hash of " + migratedRows + " tokens";
+    }
+
+    @Override
+    public void setUp() {
+    }
+
+    @Override
+    public void setFileOpener(ResourceAccessor resourceAccessor) {
+    }
+
+    @Override
+    public ValidationErrors validate(Database database) {
+        return new ValidationErrors();
+    }
+}
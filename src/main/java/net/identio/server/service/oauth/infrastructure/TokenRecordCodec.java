@@ -0,0 +1,155 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.oauth.model.OAuthToken;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Compact binary layout of a token, without its value:
+// active (1 byte), expiration, issuedAt, notBefore (8 bytes each), then type, clientId, scope, username,
+// subject, audience, issuer and jwtId as UTF-8 strings prefixed by their length (2 bytes, -1 for null).
+// The two standard token types are stored as a one byte code.
+public final class TokenRecordCodec {
+
+    private static final byte TYPE_OTHER = 0;
+    private static final byte TYPE_BEARER = 1;
+    private static final byte TYPE_REFRESH = 2;
+
+    private static final int FIXED_LENGTH = 1 + 3 * 8 + 1;
+
+    private TokenRecordCodec() {
+    }
+
+    public static byte[] encode(OAuthToken token) {
+
+        byte typeCode = typeCode(token.getType());
+
+        byte[][] strings = {
+                typeCode == TYPE_OTHER ? toBytes(token.getType()) : null,
+                toBytes(token.getClientId()),
+                toBytes(token.getScope()),
+                toBytes(token.getUsername()),
+                toBytes(token.getSubject()),
+                toBytes(token.getAudience()),
+                toBytes(token.getIssuer()),
+                toBytes(token.getJwtId())
+        };
+
+        int length = FIXED_LENGTH;
+
+        for (byte[] string : strings) {
+            length += 2 + (string != null ? string.length : 0);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+
+        buffer.put((byte) (token.isActive() ? 1 : 0));
+        buffer.putLong(token.getExpiration());
+        buffer.putLong(token.getIssuedAt());
+        buffer.putLong(token.getNotBefore());
+        buffer.put(typeCode);
+
+        for (byte[] string : strings) {
+            if (string == null) {
+                buffer.putShort((short) -1);
+            } else {
+                buffer.putShort((short) string.length);
+                buffer.put(string);
+            }
+        }
+
+        return buffer.array();
+    }
+
+    // Reads a record from the current position of the buffer
+    public static OAuthToken decode(ByteBuffer buffer, String tokenValue) {
+
+        OAuthToken token = new OAuthToken()
+                .setValue(tokenValue)
+                .setActive(buffer.get() == 1)
+                .setExpiration(buffer.getLong())
+                .setIssuedAt(buffer.getLong())
+                .setNotBefore(buffer.getLong());
+
+        byte typeCode = buffer.get();
+        String type = readString(buffer);
+
+        switch (typeCode) {
+            case TYPE_BEARER:
+                type = OAuthToken.BEARER_TOKEN_TYPE;
+                break;
+            case TYPE_REFRESH:
+                type = OAuthToken.REFRESH_TOKEN_TYPE;
+                break;
+        }
+
+        return token.setType(type)
+                .setClientId(readString(buffer))
+                .setScope(readString(buffer))
+                .setUsername(readString(buffer))
+                .setSubject(readString(buffer))
+                .setAudience(readString(buffer))
+                .setIssuer(readString(buffer))
+                .setJwtId(readString(buffer));
+    }
+
+    public static long readExpiration(byte[] record) {
+        return readExpiration(ByteBuffer.wrap(record), 0);
+    }
+
+    // Reads the expiration of a record starting at the given offset, without decoding it
+    public static long readExpiration(ByteBuffer buffer, int offset) {
+        return buffer.getLong(offset + 1);
+    }
+
+    private static byte typeCode(String type) {
+
+        if (OAuthToken.BEARER_TOKEN_TYPE.equals(type)) return TYPE_BEARER;
+        if (OAuthToken.REFRESH_TOKEN_TYPE.equals(type)) return TYPE_REFRESH;
+
+        return TYPE_OTHER;
+    }
+
+    private static byte[] toBytes(String value) {
+
+        if (value == null) return null;
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        if (bytes.length > Short.MAX_VALUE) throw new IllegalArgumentException("Token field is too long");
+
+        return bytes;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+
+        short length = buffer.getShort();
+
+        if (length < 0) return null;
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
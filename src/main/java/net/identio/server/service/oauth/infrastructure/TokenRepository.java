@@ -24,7 +24,9 @@ package net.identio.server.service.oauth.infrastructure;
 import net.identio.server.service.oauth.infrastructure.exceptions.*;
 import net.identio.server.service.oauth.model.OAuthToken;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface TokenRepository {
 
@@ -33,5 +35,27 @@ public interface TokenRepository {
     Optional<OAuthToken> getTokenByValue(String tokenValue, String type) throws TokenFetchException;
     Optional<OAuthToken> getTokenByValue(String tokenValue) throws TokenFetchException;
 
+    // Looks up several tokens at once. The results are in the order of the values
+    List<Optional<OAuthToken>> getTokensByValue(List<String> tokenValues) throws TokenFetchException;
+
     void delete(String tokenValue) throws TokenDeleteException;
+
+    // Bulk deletions go through an index in the JDBC and in-memory stores. The off-heap, embedded and cluster stores
+    // have no index by user or client: they scan every stored token, which lasts as long as an export.
+
+    // Deletes every token of a user, by batches. Returns the number of deleted tokens
+    long deleteByUsername(String username) throws TokenDeleteException;
+
+    // Deletes every token issued to a client, by batches. Returns the number of deleted tokens
+    long deleteByClientId(String clientId) throws TokenDeleteException;
+
+    // Streams the stored tokens to the consumer without loading them all in memory
+    void exportTokens(Consumer<StoredToken> consumer) throws TokenFetchException;
+
+    // Streams the revocation markers issued at or after the given time, in seconds. The JDBC stores read them
+    // through an index, the other stores scan every token
+    void exportRevocations(long issuedSince, Consumer<OAuthToken> consumer) throws TokenFetchException;
+
+    // Stores tokens read from an export
+    void importTokens(List<StoredToken> tokens) throws TokenCreationException;
 }
@@ -0,0 +1,93 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.oauth.OAuthConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Ids of the redeemed authorization codes that are not expired yet, grouped in buckets by code expiration.
+// A whole bucket is dropped once all its codes are expired. When the cache is full, redemptions are refused
+// rather than forgetting a used code. The cache is local to the node: it only fits a single node deployment.
+public class UsedAuthorizationCodeCache implements UsedAuthorizationCodeStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UsedAuthorizationCodeCache.class);
+
+    private final int bucketDuration;
+    private final int maxEntries;
+
+    private ConcurrentSkipListMap<Long, Set<String>> buckets = new ConcurrentSkipListMap<>();
+
+    private AtomicInteger entries = new AtomicInteger();
+
+    public UsedAuthorizationCodeCache(OAuthConfiguration.StatelessCodeConfiguration config) {
+        this.bucketDuration = config.getBucketDuration();
+        this.maxEntries = config.getMaxUsedCodes();
+    }
+
+    @Override
+    public boolean markUsed(String codeId, long expiration) {
+
+        purge(System.currentTimeMillis() / 1000);
+
+        if (entries.incrementAndGet() > maxEntries) {
+            entries.decrementAndGet();
+            LOG.error("Too many authorization codes redeemed in the last period: refusing redemption");
+            return false;
+        }
+
+        Set<String> bucket = buckets.computeIfAbsent(bucketOf(expiration), key -> ConcurrentHashMap.newKeySet());
+
+        if (!bucket.add(codeId)) {
+            entries.decrementAndGet();
+            return false;
+        }
+
+        return true;
+    }
+
+    public int size() {
+        return entries.get();
+    }
+
+    private long bucketOf(long expiration) {
+        return expiration - expiration % bucketDuration;
+    }
+
+    // Drops the buckets whose codes are all expired
+    private void purge(long now) {
+
+        ConcurrentNavigableMap<Long, Set<String>> expired = buckets.headMap(bucketOf(now));
+
+        for (Long bucket : expired.keySet()) {
+
+            Set<String> codeIds = buckets.remove(bucket);
+
+            if (codeIds != null) entries.addAndGet(-codeIds.size());
+        }
+    }
+}
@@ -33,6 +33,8 @@ public class Client {
     private boolean consentNeeded;
     private String resourceOwnerAuthMethod;
     private boolean forcePkce;
+    private boolean reuseAccessToken;
+    private boolean bulkRevocation;
 
     public String getName() {
         return name;
@@ -105,4 +107,20 @@ public class Client {
     public void setForcePkce(boolean forcePkce) {
         this.forcePkce = forcePkce;
     }
+
+    public boolean isReuseAccessToken() {
+        return reuseAccessToken;
+    }
+
+    public void setReuseAccessToken(boolean reuseAccessToken) {
+        this.reuseAccessToken = reuseAccessToken;
+    }
+
+    public boolean isBulkRevocation() {
+        return bulkRevocation;
+    }
+
+    public void setBulkRevocation(boolean bulkRevocation) {
+        this.bulkRevocation = bulkRevocation;
+    }
 }
@@ -30,6 +30,9 @@ public class OAuthToken {
     public static final String BEARER_TOKEN_TYPE = "Bearer";
     public static final String REFRESH_TOKEN_TYPE = "refresh_token";
 
+    // Marks a revoked self-contained token in the token store
+    public static final String REVOCATION_TYPE = "revocation";
+
     private String value;
     private String type;
 
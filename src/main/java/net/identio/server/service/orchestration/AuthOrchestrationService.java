@@ -37,6 +37,7 @@ import net.identio.server.service.orchestration.exceptions.WebSecurityException;
 import net.identio.server.service.saml.SamlService;
 import net.identio.server.service.transaction.model.TransactionData;
 import net.identio.server.service.transaction.TransactionService;
+import net.identio.server.service.usersession.UserSessionService;
 import net.identio.server.service.transaction.model.TransactionState;
 import net.identio.server.service.orchestration.model.*;
 import org.slf4j.Logger;
@@ -68,6 +69,9 @@ public class AuthOrchestrationService {
     @Autowired
     private AuthenticationService authenticationService;
 
+    @Autowired
+    private UserSessionService userSessionService;
+
     public AuthenticationValidationResult handleTransparentAuthentication(Authentication authentication, String sessionId,
                                                                           String transactionId)
             throws WebSecurityException, ServerException {
@@ -161,6 +165,9 @@ public class AuthOrchestrationService {
 
                 if (decision.getStatus() == AuthPolicyDecisionStatus.OK) {
 
+                    // The session now holds the new authentication
+                    userSessionService.updateUserSession(transactionData.getUserSession());
+
                     if (transactionData.getRequestParsingInfo().isConsentNeeded()) {
                         validationResult.setValidationStatus(ValidationStatus.CONSENT);
                         transactionData.setState(TransactionState.CONSENT);
@@ -41,9 +41,15 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.util.UriUtils;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
 import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.SignatureException;
 import java.util.ArrayList;
 import java.util.zip.DataFormatException;
 
@@ -54,6 +60,9 @@ public class SamlService {
 
     private Signer signer;
 
+    // Detached signatures of the redirect binding reuse a Signature per thread, already initialized
+    private ThreadLocal<Signature> redirectSignatures;
+
     private MetadataService metadataService;
 
     private AuthPolicyService authPolicyService;
@@ -75,13 +84,15 @@ public class SamlService {
         try {
 
             initSigner();
-        } catch (TechnicalException ex) {
+        } catch (TechnicalException | GeneralSecurityException | IOException ex) {
             IdentioServerApplication.quitOnStartupError(LOG,
                     "Could not initialize SAML service: " + ex.getMessage());
         }
     }
 
-    private void initSigner() throws TechnicalException {
+    // The SAML key is the first entry of the signature keystore, read at startup. Only the access token keys are
+    // rotated by the signing key service
+    private void initSigner() throws TechnicalException, GeneralSecurityException, IOException {
 
         String keystoreFile = globalConfig.getSignatureKeystorePath();
         String keystorePassword = globalConfig.getSignatureKeystorePassword();
@@ -91,6 +102,40 @@ public class SamlService {
 
         signer = new Signer(keystoreFile, keystorePassword, isCertificateCheckEnabled,
                 SamlConstants.SIGNATURE_ALG_RSA_SHA256);
+
+        PrivateKey privateKey;
+
+        try (FileInputStream fis = new FileInputStream(keystoreFile)) {
+
+            KeyStore ks = KeyStore.getInstance("PKCS12");
+            ks.load(fis, keystorePassword.toCharArray());
+
+            privateKey = (PrivateKey) ks.getKey(ks.aliases().nextElement(), keystorePassword.toCharArray());
+        }
+
+        // A key unusable for RSA-SHA256 is reported at startup rather than on the first request
+        createRedirectSignature(privateKey);
+        redirectSignatures = ThreadLocal.withInitial(() -> createRedirectSignature(privateKey));
+    }
+
+    private static Signature createRedirectSignature(PrivateKey privateKey) {
+
+        try {
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initSign(privateKey);
+            return signature;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not initialize SHA256withRSA signature", e);
+        }
+    }
+
+    private byte[] signExternal(String signedInfo) throws SignatureException {
+
+        Signature signature = redirectSignatures.get();
+
+        signature.update(signedInfo.getBytes(StandardCharsets.UTF_8));
+
+        return signature.sign();
     }
 
     public RequestParsingInfo validateAuthentRequest(SamlInboundRequest request) {
@@ -467,7 +512,7 @@ public class SamlService {
 
                 String signedInfo = "SAMLRequest=" + encodedSamlRequest + "&RelayState=" + encodedRelayState
                         + "&SigAlg=" + encodedSigAlg;
-                String encodedSignature = UriUtils.encode(DecodeUtils.encode(signer.signExternal(signedInfo), false),
+                String encodedSignature = UriUtils.encode(DecodeUtils.encode(signExternal(signedInfo), false),
                         StandardCharsets.UTF_8.name());
 
                 result.setSignature(encodedSignature).setSerializedRequest(encodedSamlRequest)
@@ -479,7 +524,7 @@ public class SamlService {
 
             return result;
 
-        } catch (TechnicalException | IOException ex) {
+        } catch (TechnicalException | IOException | SignatureException ex) {
             String message = "Technical error when building SAML request";
             LOG.error("{}: {}", message, ex.getMessage());
             throw new SamlException(message, ex);
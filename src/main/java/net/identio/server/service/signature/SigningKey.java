@@ -0,0 +1,93 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.signature;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.algorithms.Algorithm;
+import net.identio.server.exceptions.InitializationException;
+import net.identio.server.service.oauth.AccessTokenMinter;
+import net.identio.server.service.oauth.JsonWebKeys;
+import net.identio.server.service.oauth.TokenSigningAlgorithms;
+
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+
+// A key pair of the signature keystore, along with the objects signing and verifying access tokens with it.
+// They are built once per key and reused by every request until the key is dropped.
+public class SigningKey {
+
+    private final String keyId;
+    private final String alias;
+    private final PublicKey publicKey;
+    private final X509Certificate certificate;
+    private final Algorithm algorithm;
+    private final AccessTokenMinter accessTokenMinter;
+    private final JWTVerifier accessTokenVerifier;
+
+    public SigningKey(String alias, PrivateKey privateKey, X509Certificate certificate, String issuer)
+            throws InitializationException {
+
+        this.alias = alias;
+        this.certificate = certificate;
+        this.publicKey = certificate.getPublicKey();
+
+        keyId = JsonWebKeys.thumbprint(publicKey);
+
+        algorithm = TokenSigningAlgorithms.forKeys(publicKey, privateKey);
+
+        accessTokenMinter = new AccessTokenMinter(privateKey, algorithm.getName(), keyId, issuer);
+
+        // The verifier checks the signature, the issuer and the exp / nbf / iat claims
+        accessTokenVerifier = JWT.require(algorithm)
+                .withIssuer(issuer)
+                .build();
+    }
+
+    public String getKeyId() {
+        return keyId;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public PublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    public X509Certificate getCertificate() {
+        return certificate;
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public AccessTokenMinter getAccessTokenMinter() {
+        return accessTokenMinter;
+    }
+
+    public JWTVerifier getAccessTokenVerifier() {
+        return accessTokenVerifier;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.signature;
+
+import net.identio.server.boot.GlobalConfiguration;
+import net.identio.server.exceptions.InitializationException;
+import net.identio.server.utils.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableEntryException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.*;
+
+// Access token signature keys, loaded once from the access token keystore, or from the signature keystore when
+// none is configured. The signature keystore is shared with SAML, which only signs with RSA keys: other key types
+// are refused there, and need a keystore of their own.
+// The keystore is checked for changes every minute, so that keys are rotated without a restart:
+// - a key added to the keystore is published at once, and used once the activation delay is over
+// - the active key is the most recent one, by certificate start date, among the keys old enough
+// - the replaced key is still published during the retention, even if removed from the keystore
+@Service
+public class SigningKeyService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SigningKeyService.class);
+
+    private GlobalConfiguration globalConfiguration;
+
+    private String keystorePath;
+    private String keystorePassword;
+    private boolean sharedWithSaml;
+
+    private volatile KeySet keySet;
+
+    private String keystoreHash;
+    private Map<String, SigningKey> keystoreKeys = new LinkedHashMap<>();
+    private HashMap<String, Long> activationTimes = new HashMap<>();
+    private LinkedHashMap<String, SigningKey> retiredKeys = new LinkedHashMap<>();
+    private HashMap<String, Long> retirementTimes = new HashMap<>();
+
+    // Immutable view of the keys, replaced on each rotation
+    public static class KeySet {
+
+        private final SigningKey activeKey;
+        private final List<SigningKey> publishedKeys;
+        private final Map<String, SigningKey> keysById = new HashMap<>();
+
+        private KeySet(SigningKey activeKey, List<SigningKey> publishedKeys) {
+
+            this.activeKey = activeKey;
+            this.publishedKeys = Collections.unmodifiableList(publishedKeys);
+
+            for (SigningKey key : publishedKeys) {
+                keysById.put(key.getKeyId(), key);
+            }
+        }
+
+        public SigningKey getActiveKey() {
+            return activeKey;
+        }
+
+        // The active key comes first
+        public List<SigningKey> getPublishedKeys() {
+            return publishedKeys;
+        }
+
+        public SigningKey getKey(String keyId) {
+            return keysById.get(keyId);
+        }
+    }
+
+    @Autowired
+    public SigningKeyService(GlobalConfiguration globalConfiguration) throws InitializationException {
+
+        this.globalConfiguration = globalConfiguration;
+
+        sharedWithSaml = globalConfiguration.getAccessTokenKeystorePath() == null;
+
+        if (sharedWithSaml) {
+            keystorePath = globalConfiguration.getSignatureKeystorePath();
+            keystorePassword = globalConfiguration.getSignatureKeystorePassword();
+        } else {
+            keystorePath = globalConfiguration.getAccessTokenKeystorePath();
+            keystorePassword = globalConfiguration.getAccessTokenKeystorePassword();
+        }
+
+        long now = System.currentTimeMillis() / 1000;
+
+        // The keys found at startup are all usable at once
+        try {
+            keystoreHash = FileUtils.getFileHash(keystorePath);
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new InitializationException("Could not read signature keystore", e);
+        }
+
+        loadKeystore(now);
+
+        updateKeySet(now);
+    }
+
+    public SigningKey getActiveKey() {
+        return keySet.activeKey;
+    }
+
+    public KeySet getKeySet() {
+        return keySet;
+    }
+
+    @Scheduled(fixedDelayString = "60000")
+    public void rotateKeys() {
+        rotateKeys(System.currentTimeMillis() / 1000);
+    }
+
+    synchronized void rotateKeys(long now) {
+
+        try {
+            String hash = FileUtils.getFileHash(keystorePath);
+
+            if (!hash.equals(keystoreHash)) {
+
+                LOG.info("Reloading signature keystore {}", keystorePath);
+
+                loadKeystore(now + globalConfiguration.getSignatureKeyRotation().getActivationDelay());
+                keystoreHash = hash;
+            }
+
+        } catch (NoSuchAlgorithmException | IOException | InitializationException e) {
+            // The current keys are kept until the keystore is fixed
+            LOG.error("Could not reload signature keystore: {}", e.getMessage());
+        }
+
+        updateKeySet(now);
+    }
+
+    // New keys are given the activation time, known keys keep theirs
+    private void loadKeystore(long activationTime) throws InitializationException {
+
+        Map<String, SigningKey> keys = new LinkedHashMap<>();
+
+        try (FileInputStream fis = new FileInputStream(keystorePath)) {
+
+            char[] password = keystorePassword.toCharArray();
+
+            KeyStore ks = KeyStore.getInstance("PKCS12");
+            ks.load(fis, password);
+
+            for (String alias : Collections.list(ks.aliases())) {
+
+                if (!ks.isKeyEntry(alias)) continue;
+
+                KeyStore.PrivateKeyEntry keyEntry = (KeyStore.PrivateKeyEntry) ks.getEntry(alias,
+                        new KeyStore.PasswordProtection(password));
+
+                if (sharedWithSaml && !"RSA".equals(keyEntry.getPrivateKey().getAlgorithm())) {
+                    throw new InitializationException("Key " + alias + " of the signature keystore is not an RSA key: " +
+                            "set accessTokenKeystorePath to sign access tokens with ES256 or EdDSA keys");
+                }
+
+                SigningKey key = new SigningKey(alias, keyEntry.getPrivateKey(),
+                        (X509Certificate) keyEntry.getCertificate(), globalConfiguration.getBasePublicUrl());
+
+                // Reuse the objects already built for the known keys
+                SigningKey knownKey = keystoreKeys.get(key.getKeyId());
+
+                keys.put(key.getKeyId(), knownKey != null ? knownKey : key);
+            }
+
+        } catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException
+                | UnrecoverableEntryException | ClassCastException ex) {
+            throw new InitializationException("Could not load signature keystore", ex);
+        }
+
+        if (keys.isEmpty()) {
+            throw new InitializationException("Keystore doesn't contain a certificate");
+        }
+
+        for (String keyId : keys.keySet()) {
+            activationTimes.putIfAbsent(keyId, activationTime);
+        }
+
+        activationTimes.keySet().retainAll(keys.keySet());
+
+        keystoreKeys = keys;
+    }
+
+    private void updateKeySet(long now) {
+
+        SigningKey activeKey = keySet != null ? keySet.activeKey : null;
+
+        // If no key of the keystore is active yet, the current key is kept even if it was removed
+        SigningKey candidate = null;
+
+        for (SigningKey key : keystoreKeys.values()) {
+
+            if (activationTimes.get(key.getKeyId()) <= now && (candidate == null ||
+                    key.getCertificate().getNotBefore().after(candidate.getCertificate().getNotBefore()))) {
+                candidate = key;
+            }
+        }
+
+        if (candidate == null) candidate = activeKey;
+
+        boolean changed = candidate != activeKey;
+
+        if (activeKey != null && changed) {
+
+            LOG.info("Signature key {} replaced by key {}", activeKey.getKeyId(), candidate.getKeyId());
+
+            retiredKeys.put(activeKey.getKeyId(), activeKey);
+            retirementTimes.put(activeKey.getKeyId(), now + globalConfiguration.getSignatureKeyRotation().getRetention());
+        }
+
+        retiredKeys.remove(candidate.getKeyId());
+        retirementTimes.remove(candidate.getKeyId());
+
+        for (Iterator<Map.Entry<String, Long>> it = retirementTimes.entrySet().iterator(); it.hasNext(); ) {
+
+            Map.Entry<String, Long> entry = it.next();
+
+            if (entry.getValue() < now) {
+                LOG.info("Signature key {} is no longer published", entry.getKey());
+                retiredKeys.remove(entry.getKey());
+                it.remove();
+            }
+        }
+
+        LinkedHashMap<String, SigningKey> publishedKeys = new LinkedHashMap<>();
+
+        publishedKeys.put(candidate.getKeyId(), candidate);
+
+        for (SigningKey key : keystoreKeys.values()) {
+            publishedKeys.putIfAbsent(key.getKeyId(), key);
+        }
+
+        for (SigningKey key : retiredKeys.values()) {
+            publishedKeys.putIfAbsent(key.getKeyId(), key);
+        }
+
+        if (changed || !publishedKeys.keySet().equals(keySetIds())) {
+
+            keySet = new KeySet(candidate, new ArrayList<>(publishedKeys.values()));
+
+            LOG.info("Signature keys: {} active, {} published", candidate.getKeyId(), publishedKeys.keySet());
+        }
+    }
+
+    private Set<String> keySetIds() {
+        return keySet != null ? keySet.keysById.keySet() : Collections.emptySet();
+    }
+}
@@ -25,7 +25,7 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import net.identio.server.service.orchestration.exceptions.WebSecurityException;
 import net.identio.server.service.transaction.model.TransactionData;
-import net.identio.server.utils.SecurityUtils;
+import net.identio.server.utils.SecureIdentifiers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Scope;
@@ -40,7 +40,9 @@ import java.util.concurrent.TimeUnit;
 public class TransactionService {
 
     private static final Logger LOG = LoggerFactory.getLogger(TransactionService.class);
-    private static final int TRANSACTION_IDENTIFIER_LENGTH = 100;
+
+    // 128-bit transaction identifiers, only valid for the duration of an authentication
+    private static final int TRANSACTION_IDENTIFIER_BYTES = 16;
 
     private LoadingCache<String, TransactionData> transactionCache;
 
@@ -58,7 +60,7 @@ public class TransactionService {
 
         LOG.debug("Generating new transaction datas");
 
-        String transactionId = SecurityUtils.generateSecureIdentifier(TRANSACTION_IDENTIFIER_LENGTH);
+        String transactionId = SecureIdentifiers.generate(TRANSACTION_IDENTIFIER_BYTES);
 
         TransactionData data = new TransactionData();
         data.setTransactionId(transactionId);
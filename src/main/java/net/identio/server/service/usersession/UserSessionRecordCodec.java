@@ -0,0 +1,129 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.usersession;
+
+import net.identio.server.exceptions.UnknownAuthLevelException;
+import net.identio.server.exceptions.UnknownAuthMethodException;
+import net.identio.server.model.AuthSession;
+import net.identio.server.model.UserSession;
+import net.identio.server.service.authentication.AuthenticationService;
+import net.identio.server.service.authpolicy.AuthPolicyService;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Compact binary layout of a user session, without its id: write time in milliseconds (8 bytes), user id, then
+// the number of authentications (2 bytes) and, for each, its instant in milliseconds (8 bytes), the name of its
+// method and the name of its level. Strings are UTF-8 prefixed by their length (2 bytes, -1 for null).
+// Methods and levels are stored by name and resolved again against the configuration on replay.
+public final class UserSessionRecordCodec {
+
+    private UserSessionRecordCodec() {
+    }
+
+    public static byte[] encode(UserSession session, long writeTime) {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+
+            out.writeLong(writeTime);
+            writeString(out, session.getUserId());
+
+            out.writeShort(session.getAuthSessions().size());
+
+            for (AuthSession authSession : session.getAuthSessions()) {
+                out.writeLong(authSession.getAuthInstant().getMillis());
+                writeString(out, authSession.getAuthMethod().getName());
+                writeString(out, authSession.getAuthLevel().getName());
+            }
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    public static long readWriteTime(byte[] record) {
+        return ByteBuffer.wrap(record).getLong(0);
+    }
+
+    // Fails if a method or a level of the session is no longer configured
+    public static UserSession decode(String id, byte[] record, AuthenticationService authenticationService,
+                                     AuthPolicyService authPolicyService)
+            throws UnknownAuthMethodException, UnknownAuthLevelException {
+
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+
+        buffer.getLong();
+
+        UserSession session = new UserSession();
+        session.setId(id);
+        session.setUserId(readString(buffer));
+
+        int authSessions = buffer.getShort();
+
+        for (int i = 0; i < authSessions; i++) {
+
+            DateTime authInstant = new DateTime(buffer.getLong(), DateTimeZone.UTC);
+
+            AuthSession authSession = session.addAuthSession(session.getUserId(),
+                    authenticationService.getAuthMethodByName(readString(buffer)),
+                    authPolicyService.getAuthLevelByName(readString(buffer)));
+
+            authSession.setAuthInstant(authInstant);
+        }
+
+        return session;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+
+        if (value == null) {
+            out.writeShort(-1);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+
+        short length = buffer.getShort();
+
+        if (length < 0) return null;
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -23,32 +23,62 @@ package net.identio.server.service.usersession;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import net.identio.server.exceptions.UnknownAuthLevelException;
+import net.identio.server.exceptions.UnknownAuthMethodException;
 import net.identio.server.model.UserSession;
-import net.identio.server.utils.SecurityUtils;
+import net.identio.server.service.authentication.AuthenticationService;
+import net.identio.server.service.authpolicy.AuthPolicyService;
+import net.identio.server.service.data.journal.Journal;
+import net.identio.server.service.oauth.OAuthConfiguration;
+import net.identio.server.utils.SecureIdentifiers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
+// Sessions are kept in memory. When the journal is enabled (oAuthServer.journal.directory), every creation, update
+// and removal is recorded, and the sessions are replayed at startup once the authentication methods are registered.
+// UserSession objects are mutated in place: a change is only durable once written back with updateUserSession.
 @Service
 @Scope("singleton")
-public class UserSessionService {
+public class UserSessionService implements SmartInitializingSingleton, DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(UserSessionService.class);
-    private static final int SESSION_IDENTIFIER_LENGTH = 100;
+    // 256-bit session identifiers
+    private static final int SESSION_IDENTIFIER_BYTES = 32;
 
     private LoadingCache<String, UserSession> sessionCache;
 
+    private UserSessionConfiguration config;
+    private OAuthConfiguration.JournalConfiguration journalConfig;
+
+    private AuthenticationService authenticationService;
+    private AuthPolicyService authPolicyService;
+
+    private Journal journal;
+
     @Autowired
-    public UserSessionService(UserSessionConfiguration config) {
+    public UserSessionService(UserSessionConfiguration config, OAuthConfiguration oAuthConfiguration,
+                              AuthenticationService authenticationService, AuthPolicyService authPolicyService) {
 
         LOG.debug("Initializing in-memory session service");
 
+        this.config = config;
+        this.journalConfig = oAuthConfiguration.getJournal();
+        this.authenticationService = authenticationService;
+        this.authPolicyService = authPolicyService;
+
         sessionCache = CacheBuilder.newBuilder().maximumSize(100000)
                 .expireAfterAccess(config.getDuration(),
                         TimeUnit.MINUTES)
@@ -61,20 +91,100 @@ public class UserSessionService {
         LOG.debug("* Successfully created session cache");
     }
 
+    // The recorded authentications refer to methods registered by the authentication providers: the journal is
+    // replayed once every bean is created
+    @Override
+    public void afterSingletonsInstantiated() {
+
+        if (journalConfig.getDirectory() == null) return;
+
+        try {
+            journal = new Journal(Paths.get(journalConfig.getDirectory(), "sessions"), journalConfig.getSegmentSize());
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error replaying session journal", e);
+        }
+    }
+
+    private void recover() throws IOException {
+
+        journal.recover(new Journal.Replayer() {
+            @Override
+            public void put(byte[] key, byte[] value) {
+
+                // Accesses are not recorded: a session is only known to be alive until the duration after its
+                // last change
+                if (UserSessionRecordCodec.readWriteTime(value) + TimeUnit.MINUTES.toMillis(config.getDuration())
+                        < System.currentTimeMillis()) {
+                    return;
+                }
+
+                String id = new String(key, StandardCharsets.UTF_8);
+
+                try {
+                    sessionCache.put(id, UserSessionRecordCodec.decode(id, value, authenticationService,
+                            authPolicyService));
+                } catch (UnknownAuthMethodException | UnknownAuthLevelException e) {
+                    // The user authenticates again rather than keeping a session that doesn't match the configuration
+                    LOG.warn("Dropping session {} from the journal: {}", id, e.getMessage());
+                    sessionCache.invalidate(id);
+                }
+            }
+
+            @Override
+            public void remove(byte[] key) {
+                sessionCache.invalidate(new String(key, StandardCharsets.UTF_8));
+            }
+        }, journalConfig.getReplayThreads());
+
+        // The sessions created by the cache loader for unknown ids have no id and are not recorded
+        journal.schedule(consumer -> {
+                    long now = System.currentTimeMillis();
+
+                    sessionCache.asMap().forEach((id, session) -> {
+                        if (session.getId() != null) {
+                            consumer.accept(id.getBytes(StandardCharsets.UTF_8),
+                                    UserSessionRecordCodec.encode(session, now));
+                        }
+                    });
+                },
+                TimeUnit.SECONDS.toMillis(journalConfig.getSnapshotInterval()), journalConfig.getSyncInterval());
+    }
+
     public UserSession createUserSession() {
         LOG.debug("Creating new session");
 
-        String sessionId = SecurityUtils.generateSecureIdentifier(SESSION_IDENTIFIER_LENGTH);
+        String sessionId = SecureIdentifiers.generate(SESSION_IDENTIFIER_BYTES);
 
         UserSession session = new UserSession();
         session.setId(sessionId);
-        sessionCache.put(sessionId, session);
+        updateUserSession(session);
 
         LOG.debug("New session generated {}", sessionId);
 
         return session;
     }
 
+    // Records the current state of a session modified in place
+    public void updateUserSession(UserSession session) {
+
+        if (journal == null) {
+            sessionCache.put(session.getId(), session);
+            return;
+        }
+
+        // The cache is updated along with the record so that a snapshot can't miss it
+        try {
+            journal.put(session.getId().getBytes(StandardCharsets.UTF_8),
+                    UserSessionRecordCodec.encode(session, System.currentTimeMillis()),
+                    () -> sessionCache.put(session.getId(), session));
+        } catch (IOException e) {
+            // The session stays usable, but doesn't survive a restart
+            LOG.error("Error when writing session {} in journal: {}", session.getId(), e.getMessage());
+            sessionCache.put(session.getId(), session);
+        }
+    }
+
     public UserSession getUserSession(String sessionId) {
 
         UserSession userSession = null;
@@ -106,7 +216,22 @@ public class UserSessionService {
 
         LOG.debug("Remove session {} from cache", userSessionId);
 
-        sessionCache.invalidate(userSessionId);
+        if (journal == null) {
+            sessionCache.invalidate(userSessionId);
+            return;
+        }
+
+        try {
+            journal.remove(userSessionId.getBytes(StandardCharsets.UTF_8), () -> sessionCache.invalidate(userSessionId));
+        } catch (IOException e) {
+            LOG.error("Error when writing session removal in journal: {}", e.getMessage());
+            sessionCache.invalidate(userSessionId);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
 
+        if (journal != null) journal.close();
     }
 }
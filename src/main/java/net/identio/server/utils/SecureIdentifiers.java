@@ -0,0 +1,111 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.utils;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+// Random identifiers of tokens, codes, sessions and transactions, encoded in base64url.
+// Each thread has its own generator, seeded from the system source, so that no lock is shared between threads.
+// Random bytes are drawn from the generator by blocks and handed out from a per-thread buffer.
+public final class SecureIdentifiers {
+
+    private static final int BUFFER_SIZE = 512;
+    private static final int SEED_SIZE = 32;
+
+    // Only used to seed the per-thread generators
+    private static final SecureRandom SEED_SOURCE = new SecureRandom();
+
+    private static final ThreadLocal<Generator> GENERATORS = ThreadLocal.withInitial(Generator::new);
+
+    private static class Generator {
+
+        private final SecureRandom random = createRandom();
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position = BUFFER_SIZE;
+
+        private void nextBytes(byte[] bytes) {
+
+            int written = 0;
+
+            while (written < bytes.length) {
+
+                if (position == BUFFER_SIZE) {
+                    random.nextBytes(buffer);
+                    position = 0;
+                }
+
+                int length = Math.min(bytes.length - written, BUFFER_SIZE - position);
+
+                System.arraycopy(buffer, position, bytes, written, length);
+
+                // Bytes handed out are not kept in memory
+                Arrays.fill(buffer, position, position + length, (byte) 0);
+
+                position += length;
+                written += length;
+            }
+        }
+    }
+
+    private SecureIdentifiers() {
+    }
+
+    // Identifier of byteLength random bytes: 16 bytes give 128 bits in 22 characters, 32 bytes 256 bits in 43 characters
+    public static String generate(int byteLength) {
+
+        byte[] bytes = new byte[byteLength];
+
+        GENERATORS.get().nextBytes(bytes);
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    public static void nextBytes(byte[] bytes) {
+        GENERATORS.get().nextBytes(bytes);
+    }
+
+    // The NIST DRBG of Java 9 and above, or the SHA1PRNG of older runtimes
+    private static SecureRandom createRandom() {
+
+        byte[] seed = new byte[SEED_SIZE];
+        SEED_SOURCE.nextBytes(seed);
+
+        SecureRandom random;
+
+        try {
+            random = SecureRandom.getInstance("DRBG");
+        } catch (NoSuchAlgorithmException e) {
+            try {
+                random = SecureRandom.getInstance("SHA1PRNG");
+            } catch (NoSuchAlgorithmException ex) {
+                random = new SecureRandom();
+            }
+        }
+
+        // Seeding a SHA1PRNG before its first use replaces its self-seeding, a DRBG mixes the seed in
+        random.setSeed(seed);
+
+        return random;
+    }
+}
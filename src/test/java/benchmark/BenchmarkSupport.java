@@ -0,0 +1,206 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benchmark;
+
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import net.identio.server.service.data.DataConfiguration;
+import net.identio.server.service.data.EmbeddedDataService;
+import net.identio.server.service.data.JdbcDataService;
+import net.identio.server.service.oauth.OAuthConfiguration;
+import net.identio.server.service.oauth.model.OAuthToken;
+import net.identio.server.utils.SecurityUtils;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Helpers shared by the benchmarks. Run them with "gradle benchmark"
+public class BenchmarkSupport {
+
+    @FunctionalInterface
+    public interface Operation {
+        void run(int threadIndex, int iteration) throws Exception;
+    }
+
+    public static JdbcDataService createH2DataService(String dataSourceName, String url) throws Exception {
+
+        DataConfiguration.DataSourcesConfiguration dataSource = new DataConfiguration.DataSourcesConfiguration();
+        dataSource.setName(dataSourceName);
+        dataSource.setType("jdbc");
+        dataSource.setDriver("org.h2.Driver");
+        dataSource.setUrl(url);
+        dataSource.setUsername("sa");
+        dataSource.setPassword("sa");
+
+        DataConfiguration dataConfiguration = new DataConfiguration();
+        dataConfiguration.setDataSources(Collections.singletonList(dataSource));
+        dataConfiguration.afterPropertiesSet();
+
+        JdbcDataService dataService = new JdbcDataService(dataConfiguration);
+
+        try (Connection connection = dataService.getDataSource(dataSourceName).getConnection()) {
+
+            Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(connection));
+
+            database.setDatabaseChangeLogTableName("oauth_cl");
+            database.setDatabaseChangeLogLockTableName("oauth_cl_lock");
+
+            new Liquibase("db-schemas/oauth.yaml", new ClassLoaderResourceAccessor(), database)
+                    .update(new Contexts(), new LabelExpression());
+        }
+
+        return dataService;
+    }
+
+    public static EmbeddedDataService createEmbeddedDataService(String dataSourceName, String path) throws Exception {
+
+        DataConfiguration.DataSourcesConfiguration dataSource = new DataConfiguration.DataSourcesConfiguration();
+        dataSource.setName(dataSourceName);
+        dataSource.setType("embedded");
+        dataSource.setUrl(path);
+
+        DataConfiguration dataConfiguration = new DataConfiguration();
+        dataConfiguration.setDataSources(Collections.singletonList(dataSource));
+        dataConfiguration.afterPropertiesSet();
+
+        return new EmbeddedDataService(dataConfiguration);
+    }
+
+    public static OAuthConfiguration createOAuthConfiguration(String dataSourceName) {
+
+        OAuthConfiguration config = new OAuthConfiguration();
+        config.setDataSource(dataSourceName);
+
+        return config;
+    }
+
+    public static OAuthToken createToken(String type) {
+
+        long now = System.currentTimeMillis() / 1000;
+
+        return new OAuthToken()
+                .setType(type)
+                .setValue(SecurityUtils.generateSecureIdentifier(100))
+                .setClientId("benchmark-client")
+                .setScope("scope.test.1 scope.test.2")
+                .setUsername("johndoe")
+                .setSubject("johndoe")
+                .setIssuer("https://localhost")
+                .setIssuedAt(now)
+                .setNotBefore(now)
+                .setExpiration(now + 3600)
+                .setJwtId(SecurityUtils.generateSecureIdentifier(36));
+    }
+
+    // Runs the operation concurrently and returns the number of operations per second
+    public static double measureThroughput(int threads, int operationsPerThread, Operation operation) throws Exception {
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int i = 0; i < threads; i++) {
+
+            int threadIndex = i;
+
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int iteration = 0; iteration < operationsPerThread; iteration++) {
+                    operation.run(threadIndex, iteration);
+                }
+                return null;
+            }));
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        long elapsed = System.nanoTime() - begin;
+
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        return (double) threads * operationsPerThread / (elapsed / 1e9);
+    }
+
+    // Runs the operation concurrently and returns the latencies of all the operations in nanoseconds, sorted
+    public static long[] measureLatencies(int threads, int operationsPerThread, Operation operation) throws Exception {
+
+        long[] latencies = new long[threads * operationsPerThread];
+
+        measureThroughput(threads, operationsPerThread, (threadIndex, iteration) -> {
+
+            long begin = System.nanoTime();
+            operation.run(threadIndex, iteration);
+
+            latencies[threadIndex * operationsPerThread + iteration] = System.nanoTime() - begin;
+        });
+
+        Arrays.sort(latencies);
+
+        return latencies;
+    }
+
+    // Runs the operation on the calling thread and returns the number of bytes it allocated per operation
+    public static double measureAllocatedBytes(int operations, Operation operation) throws Exception {
+
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+
+        for (int iteration = 0; iteration < operations; iteration++) {
+            operation.run(0, iteration);
+        }
+
+        return (double) (threadBean.getThreadAllocatedBytes(threadId) - before) / operations;
+    }
+
+    public static long percentile(long[] sortedLatencies, double percentile) {
+
+        return sortedLatencies[(int) Math.min(sortedLatencies.length - 1, Math.ceil(percentile / 100 * sortedLatencies.length) - 1)];
+    }
+
+    public static void report(String benchmark, String variant, double value, String unit) {
+
+        System.out.println(String.format("%-40s %-30s %,15.1f %s", benchmark, variant, value, unit));
+    }
+}
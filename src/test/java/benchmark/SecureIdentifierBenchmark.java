@@ -0,0 +1,49 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package benchmark;
+
+import net.identio.server.utils.SecureIdentifiers;
+import net.identio.server.utils.SecurityUtils;
+import org.junit.Test;
+
+public class SecureIdentifierBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+    private static final int IDENTIFIERS = 200000;
+
+    @Test
+    public void generationThroughputByThreadCount() throws Exception {
+
+        for (int threads : THREADS) {
+
+            int identifiersPerThread = IDENTIFIERS / threads;
+
+            double alphanumThroughput = BenchmarkSupport.measureThroughput(threads, identifiersPerThread,
+                    (thread, iteration) -> SecurityUtils.generateSecureIdentifier(100));
+
+            double base64Throughput = BenchmarkSupport.measureThroughput(threads, identifiersPerThread,
+                    (thread, iteration) -> SecureIdentifiers.generate(32));
+
+            BenchmarkSupport.report("SecurityUtils 100 chars", "threads=" + threads, alphanumThroughput, "ids/s");
+            BenchmarkSupport.report("SecureIdentifiers 256 bits", "threads=" + threads, base64Throughput, "ids/s");
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package benchmark.oauth;
+
+import benchmark.BenchmarkSupport;
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.algorithms.Algorithm;
+import net.identio.server.service.oauth.AccessTokenMinter;
+import net.identio.server.service.oauth.TokenSigningAlgorithms;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Instant;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+public class AccessTokenMintingBenchmark {
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int TOKENS_PER_THREAD = 2000;
+    private static final int ALLOCATION_SAMPLES = 5000;
+
+    private static final String ISSUER = "https://localhost";
+    private static final String SCOPE = "scope.test.1 scope.test.2";
+
+    @FunctionalInterface
+    private interface TokenFactory {
+        String create();
+    }
+
+    @Test
+    public void mintingThroughputAndAllocations() throws Exception {
+
+        for (Map.Entry<String, KeyPair> keyPair : createKeyPairs().entrySet()) {
+
+            Algorithm algorithm = TokenSigningAlgorithms.forKeys(keyPair.getValue().getPublic(),
+                    keyPair.getValue().getPrivate());
+
+            AccessTokenMinter minter = new AccessTokenMinter(keyPair.getValue().getPrivate(), algorithm.getName(),
+                    "benchmark-key", ISSUER);
+
+            Map<String, TokenFactory> factories = new LinkedHashMap<>();
+
+            factories.put("JWT builder", () -> {
+                Instant now = Instant.now();
+                return JWT.create()
+                        .withKeyId("benchmark-key")
+                        .withIssuer(ISSUER)
+                        .withExpiresAt(Date.from(now.plusSeconds(3600)))
+                        .withIssuedAt(Date.from(now))
+                        .withSubject("johndoe")
+                        .withNotBefore(Date.from(now))
+                        .withJWTId(UUID.randomUUID().toString())
+                        .withClaim("scope", SCOPE)
+                        .withClaim("client_id", "benchmark-client")
+                        .sign(algorithm);
+            });
+
+            factories.put("AccessTokenMinter", () -> {
+                long now = System.currentTimeMillis() / 1000;
+                return minter.mint("johndoe", "benchmark-client", SCOPE, UUID.randomUUID().toString(), now, now + 3600);
+            });
+
+            JWTVerifier verifier = JWT.require(algorithm).withIssuer(ISSUER).build();
+
+            for (Map.Entry<String, TokenFactory> factory : factories.entrySet()) {
+
+                // Warm up and check that the tokens can be verified
+                for (int i = 0; i < 500; i++) {
+                    verifier.verify(factory.getValue().create());
+                }
+
+                double throughput = BenchmarkSupport.measureThroughput(THREADS, TOKENS_PER_THREAD,
+                        (thread, iteration) -> factory.getValue().create());
+
+                double allocatedBytes = BenchmarkSupport.measureAllocatedBytes(ALLOCATION_SAMPLES,
+                        (thread, iteration) -> factory.getValue().create());
+
+                String variant = keyPair.getKey() + " " + factory.getKey();
+
+                BenchmarkSupport.report("Access token minting", variant, throughput / THREADS, "tokens/core/s");
+                BenchmarkSupport.report("Access token minting", variant, allocatedBytes, "bytes/token");
+            }
+        }
+    }
+
+    private static Map<String, KeyPair> createKeyPairs() throws Exception {
+
+        Map<String, KeyPair> keyPairs = new LinkedHashMap<>();
+
+        KeyPairGenerator rsaGenerator = KeyPairGenerator.getInstance("RSA");
+        rsaGenerator.initialize(2048);
+        keyPairs.put("RS256", rsaGenerator.generateKeyPair());
+
+        KeyPairGenerator ecGenerator = KeyPairGenerator.getInstance("EC");
+        ecGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+        keyPairs.put("ES256", ecGenerator.generateKeyPair());
+
+        return keyPairs;
+    }
+}
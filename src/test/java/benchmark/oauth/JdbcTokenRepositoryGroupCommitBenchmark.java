@@ -0,0 +1,72 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benchmark.oauth;
+
+import benchmark.BenchmarkSupport;
+import net.identio.server.service.data.JdbcDataService;
+import net.identio.server.service.oauth.OAuthConfiguration;
+import net.identio.server.service.oauth.infrastructure.JdbcTokenRepository;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+public class JdbcTokenRepositoryGroupCommitBenchmark {
+
+    private static final int THREADS = 32;
+    private static final int INSERTS_PER_THREAD = 500;
+
+    private static final int[] WINDOWS = {0, 1, 2, 5, 10};
+
+    @Test
+    public void insertThroughputByBatchWindow() throws Exception {
+
+        for (int window : WINDOWS) {
+
+            String dataSourceName = "group-commit-" + window;
+
+            // A file database is used so that each commit actually reaches the disk
+            JdbcDataService dataService = BenchmarkSupport.createH2DataService(dataSourceName,
+                    "jdbc:h2:./build/benchmark/" + dataSourceName + ";DB_CLOSE_ON_EXIT=FALSE");
+
+            OAuthConfiguration config = BenchmarkSupport.createOAuthConfiguration(dataSourceName);
+            config.getGroupCommit().setWindow(window);
+            config.getGroupCommit().setMaxBatchSize(THREADS * 2);
+
+            JdbcTokenRepository repository = new JdbcTokenRepository(config, dataService);
+
+            OAuthToken lastToken = BenchmarkSupport.createToken(OAuthToken.BEARER_TOKEN_TYPE);
+            repository.save(lastToken);
+
+            double throughput = BenchmarkSupport.measureThroughput(THREADS, INSERTS_PER_THREAD,
+                    (thread, iteration) -> repository.save(BenchmarkSupport.createToken(OAuthToken.BEARER_TOKEN_TYPE)));
+
+            BenchmarkSupport.report("JdbcTokenRepository.save", "window=" + window + "ms", throughput, "inserts/s");
+
+            // Every acknowledged save must be readable
+            assertTrue(repository.getTokenByValue(lastToken.getValue()).isPresent());
+
+            repository.destroy();
+            dataService.getDataSource(dataSourceName).close();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package benchmark.oauth;
+
+import benchmark.BenchmarkSupport;
+import net.identio.server.service.data.JdbcDataService;
+import net.identio.server.service.oauth.OAuthConfiguration;
+import net.identio.server.service.oauth.infrastructure.JdbcTokenRepository;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+public class JdbcTokenRepositoryReadCoalescingBenchmark {
+
+    private static final int THREADS = 64;
+    private static final int LOOKUPS_PER_THREAD = 2000;
+    private static final int TOKENS = 10000;
+
+    // Read coalescing windows in microseconds, 0 being the per-call path
+    private static final int[] WINDOWS = {0, 100, 250, 500};
+
+    @Test
+    public void lookupLatencyByBatchWindow() throws Exception {
+
+        for (int window : WINDOWS) {
+
+            String dataSourceName = "read-coalescing-" + window;
+
+            JdbcDataService dataService = BenchmarkSupport.createH2DataService(dataSourceName,
+                    "jdbc:h2:./build/benchmark/" + dataSourceName + ";DB_CLOSE_ON_EXIT=FALSE");
+
+            OAuthConfiguration config = BenchmarkSupport.createOAuthConfiguration(dataSourceName);
+            config.getReadCoalescing().setWindow(window);
+            config.getReadCoalescing().setMaxBatchSize(THREADS);
+
+            JdbcTokenRepository repository = new JdbcTokenRepository(config, dataService);
+
+            List<String> tokenValues = new ArrayList<>(TOKENS);
+
+            for (int i = 0; i < TOKENS; i++) {
+                OAuthToken token = BenchmarkSupport.createToken(OAuthToken.BEARER_TOKEN_TYPE);
+                repository.save(token);
+                tokenValues.add(token.getValue());
+            }
+
+            long begin = System.nanoTime();
+
+            long[] latencies = BenchmarkSupport.measureLatencies(THREADS, LOOKUPS_PER_THREAD, (thread, iteration) ->
+                    assertTrue(repository.getTokenByValue(
+                            tokenValues.get((thread * LOOKUPS_PER_THREAD + iteration) % TOKENS)).isPresent()));
+
+            double throughput = latencies.length / ((System.nanoTime() - begin) / 1e9);
+
+            String variant = "window=" + window + "us";
+
+            BenchmarkSupport.report("JdbcTokenRepository.getTokenByValue", variant, throughput, "lookups/s");
+            BenchmarkSupport.report("JdbcTokenRepository.getTokenByValue", variant + " p50",
+                    BenchmarkSupport.percentile(latencies, 50) / 1000.0, "us");
+            BenchmarkSupport.report("JdbcTokenRepository.getTokenByValue", variant + " p99",
+                    BenchmarkSupport.percentile(latencies, 99) / 1000.0, "us");
+            BenchmarkSupport.report("JdbcTokenRepository.getTokenByValue", variant + " p99.9",
+                    BenchmarkSupport.percentile(latencies, 99.9) / 1000.0, "us");
+
+            repository.destroy();
+            dataService.getDataSource(dataSourceName).close();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package benchmark.oauth;
+
+import benchmark.BenchmarkSupport;
+import net.identio.server.service.data.journal.Journal;
+import net.identio.server.service.oauth.OAuthConfiguration;
+import net.identio.server.service.oauth.infrastructure.InMemoryTokenRepository;
+import net.identio.server.service.oauth.infrastructure.TokenRepository;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+// Cost of journaling the in-memory store and time needed to replay it at startup
+public class JournalBenchmark {
+
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 20000;
+
+    private static final int REPLAYED_ENTRIES = 1000000;
+
+    @Test
+    public void saveLatency() throws Exception {
+
+        measureSave("no journal", new InMemoryTokenRepository());
+
+        for (int syncInterval : new int[]{1000, 0}) {
+
+            Path directory = clean(Paths.get("build/benchmark/journal-save-" + syncInterval));
+
+            OAuthConfiguration.JournalConfiguration config = new OAuthConfiguration.JournalConfiguration();
+            config.setSyncInterval(syncInterval);
+
+            try (Journal journal = new Journal(directory, SEGMENT_SIZE)) {
+                measureSave("journal sync=" + syncInterval + "ms", new InMemoryTokenRepository(journal, config));
+            }
+        }
+    }
+
+    @Test
+    public void replayTime() throws Exception {
+
+        Path directory = clean(Paths.get("build/benchmark/journal-replay"));
+
+        try (Journal journal = new Journal(directory, SEGMENT_SIZE)) {
+
+            journal.recover(new MapReplayer(new ConcurrentHashMap<>()), 1);
+
+            byte[] value = new byte[200];
+
+            for (int i = 0; i < REPLAYED_ENTRIES; i++) {
+                journal.put(ByteBuffer.allocate(32).putInt(i).putInt(28, i).array(), value);
+            }
+        }
+
+        for (int threads : new int[]{1, Runtime.getRuntime().availableProcessors()}) {
+
+            Map<ByteBuffer, byte[]> store = new ConcurrentHashMap<>(REPLAYED_ENTRIES * 2);
+
+            long start = System.nanoTime();
+
+            try (Journal journal = new Journal(directory, SEGMENT_SIZE)) {
+                journal.recover(new MapReplayer(store), threads);
+            }
+
+            BenchmarkSupport.report("Journal.recover", threads + " threads",
+                    (System.nanoTime() - start) / 1e6 * 1000000 / REPLAYED_ENTRIES, "ms/million");
+        }
+    }
+
+    private void measureSave(String variant, TokenRepository repository) throws Exception {
+
+        double throughput = BenchmarkSupport.measureThroughput(THREADS, OPERATIONS_PER_THREAD,
+                (thread, iteration) -> repository.save(BenchmarkSupport.createToken(OAuthToken.BEARER_TOKEN_TYPE)));
+
+        BenchmarkSupport.report("InMemoryTokenRepository.save", variant, THREADS * 1e9 / throughput, "ns/op");
+    }
+
+    private Path clean(Path directory) throws IOException {
+
+        if (Files.exists(directory)) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+
+        return directory;
+    }
+
+    private static class MapReplayer implements Journal.Replayer {
+
+        private final Map<ByteBuffer, byte[]> store;
+
+        private MapReplayer(Map<ByteBuffer, byte[]> store) {
+            this.store = store;
+        }
+
+        @Override
+        public void put(byte[] key, byte[] value) {
+            store.put(ByteBuffer.wrap(key), value);
+        }
+
+        @Override
+        public void remove(byte[] key) {
+            store.remove(ByteBuffer.wrap(key));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package benchmark.oauth;
+
+import benchmark.BenchmarkSupport;
+import net.identio.server.service.data.JdbcDataService;
+import net.identio.server.service.oauth.OAuthConfiguration;
+import net.identio.server.service.oauth.OAuthDumpService;
+import net.identio.server.service.oauth.infrastructure.InMemoryAuthorizationCodeRepository;
+import net.identio.server.service.oauth.infrastructure.InMemoryTokenRepository;
+import net.identio.server.service.oauth.infrastructure.JdbcAuthorizationCodeRepository;
+import net.identio.server.service.oauth.infrastructure.JdbcTokenRepository;
+import net.identio.server.service.oauth.infrastructure.TokenRepository;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Migration of the tokens from the in-memory data source to a jdbc data source through a dump
+public class OAuthDumpBenchmark {
+
+    private static final int TOKENS = 500000;
+
+    @Test
+    public void exportAndImportThroughput() throws Exception {
+
+        Path dump = Paths.get("build/benchmark/oauth.dump");
+        Files.createDirectories(dump.getParent());
+
+        InMemoryTokenRepository source = new InMemoryTokenRepository();
+
+        for (int i = 0; i < TOKENS; i++) {
+            source.save(BenchmarkSupport.createToken(OAuthToken.BEARER_TOKEN_TYPE));
+        }
+
+        OAuthDumpService exporter = createDumpService(new OAuthConfiguration(), source);
+
+        long start = System.nanoTime();
+        exporter.exportDump(dump);
+        long elapsed = System.nanoTime() - start;
+
+        BenchmarkSupport.report("OAuthDumpService.exportDump", "in-memory", TOKENS / (elapsed / 1e9), "tokens/s");
+        BenchmarkSupport.report("OAuthDumpService.exportDump", "dump size", (double) Files.size(dump) / TOKENS, "bytes/token");
+
+        for (int threads : new int[]{1, Runtime.getRuntime().availableProcessors()}) {
+
+            String dataSource = "dump-" + threads;
+            new File("build/benchmark/" + dataSource + ".mv.db").delete();
+
+            JdbcDataService dataService = BenchmarkSupport.createH2DataService(dataSource,
+                    "jdbc:h2:./build/benchmark/" + dataSource + ";DB_CLOSE_ON_EXIT=FALSE");
+
+            OAuthConfiguration config = BenchmarkSupport.createOAuthConfiguration(dataSource);
+            config.getDump().setImportThreads(threads);
+
+            JdbcTokenRepository target = new JdbcTokenRepository(config, dataService);
+
+            OAuthDumpService importer = createDumpService(config, target);
+            ReflectionTestUtils.setField(importer, "authorizationCodeRepository",
+                    new JdbcAuthorizationCodeRepository(config, dataService));
+
+            start = System.nanoTime();
+            importer.importDump(dump);
+            elapsed = System.nanoTime() - start;
+
+            BenchmarkSupport.report("OAuthDumpService.importDump", "jdbc " + threads + " threads",
+                    TOKENS / (elapsed / 1e9), "tokens/s");
+
+            dataService.getDataSource(dataSource).close();
+        }
+    }
+
+    private OAuthDumpService createDumpService(OAuthConfiguration config, TokenRepository tokenRepository) {
+
+        OAuthDumpService dumpService = new OAuthDumpService();
+
+        ReflectionTestUtils.setField(dumpService, "config", config);
+        ReflectionTestUtils.setField(dumpService, "tokenRepository", tokenRepository);
+        ReflectionTestUtils.setField(dumpService, "authorizationCodeRepository", new InMemoryAuthorizationCodeRepository());
+
+        return dumpService;
+    }
+}
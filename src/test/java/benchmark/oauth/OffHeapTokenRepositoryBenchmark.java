@@ -0,0 +1,100 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package benchmark.oauth;
+
+import benchmark.BenchmarkSupport;
+import net.identio.server.service.oauth.infrastructure.InMemoryTokenRepository;
+import net.identio.server.service.oauth.infrastructure.OffHeapTokenRepository;
+import net.identio.server.service.oauth.infrastructure.TokenRepository;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapTokenRepositoryBenchmark {
+
+    // The Guava based repository is capped at 100,000 entries
+    private static final int TOKENS = 100000;
+
+    private static final int THREADS = 8;
+    private static final int LOOKUPS_PER_THREAD = 200000;
+
+    @Test
+    public void footprintAndLookupLatency() throws Exception {
+
+        OAuthToken[] tokens = new OAuthToken[TOKENS];
+
+        for (int i = 0; i < TOKENS; i++) {
+            tokens[i] = BenchmarkSupport.createToken(OAuthToken.BEARER_TOKEN_TYPE);
+        }
+
+        String[] values = new String[TOKENS];
+
+        for (int i = 0; i < TOKENS; i++) {
+            values[i] = tokens[i].getValue();
+        }
+
+        run("InMemoryTokenRepository", InMemoryTokenRepository::new, tokens, values);
+        run("OffHeapTokenRepository", () -> new OffHeapTokenRepository(64L * 1024 * 1024), tokens, values);
+    }
+
+    private void run(String name, RepositoryFactory factory, OAuthToken[] tokens, String[] values) throws Exception {
+
+        long heapBefore = usedHeap();
+
+        TokenRepository repository = factory.create();
+
+        for (OAuthToken token : tokens) {
+            repository.save(token);
+        }
+
+        long heapAfter = usedHeap();
+
+        BenchmarkSupport.report(name, "heap per token", (double) (heapAfter - heapBefore) / tokens.length, "bytes");
+
+        double throughput = BenchmarkSupport.measureThroughput(THREADS, LOOKUPS_PER_THREAD, (thread, iteration) ->
+                repository.getTokenByValue(values[ThreadLocalRandom.current().nextInt(values.length)]));
+
+        BenchmarkSupport.report(name, "lookup latency", THREADS * 1e9 / throughput, "ns/op");
+
+        assertTrue(repository.getTokenByValue(values[values.length - 1]).isPresent());
+    }
+
+    private long usedHeap() throws InterruptedException {
+
+        // Token objects are referenced by the benchmark itself: only the repository structures are measured
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @FunctionalInterface
+    private interface RepositoryFactory {
+        TokenRepository create();
+    }
+}
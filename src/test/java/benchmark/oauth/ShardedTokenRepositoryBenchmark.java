@@ -0,0 +1,118 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package benchmark.oauth;
+
+import benchmark.BenchmarkSupport;
+import net.identio.server.service.data.JdbcDataService;
+import net.identio.server.service.oauth.infrastructure.JdbcTokenRepository;
+import net.identio.server.service.oauth.infrastructure.ShardedTokenRepository;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ShardedTokenRepositoryBenchmark {
+
+    private static final int THREADS = 32;
+    private static final int INSERTS_PER_THREAD = 500;
+
+    private static final int[] SHARD_COUNTS = {1, 2, 4};
+
+    private static final int VIRTUAL_NODES = 160;
+
+    private LinkedHashMap<String, JdbcDataService> dataServices = new LinkedHashMap<>();
+
+    @Test
+    public void insertThroughputByShardCount() throws Exception {
+
+        for (int shardCount : SHARD_COUNTS) {
+
+            ShardedTokenRepository repository = new ShardedTokenRepository(
+                    createShards("sharding-" + shardCount + "-", shardCount, "jdbc:h2:./build/benchmark/%s;DB_CLOSE_ON_EXIT=FALSE"), VIRTUAL_NODES);
+
+            double throughput = BenchmarkSupport.measureThroughput(THREADS, INSERTS_PER_THREAD,
+                    (thread, iteration) -> repository.save(BenchmarkSupport.createToken(OAuthToken.BEARER_TOKEN_TYPE)));
+
+            BenchmarkSupport.report("ShardedTokenRepository.save", "shards=" + shardCount, throughput, "inserts/s");
+
+            repository.destroy();
+        }
+
+        closeDataServices();
+    }
+
+    @Test
+    public void rebalanceAfterAddingAShard() throws Exception {
+
+        LinkedHashMap<String, JdbcTokenRepository> shards = createShards("rebalance-", 3, "jdbc:h2:mem:%s;DB_CLOSE_DELAY=-1");
+
+        LinkedHashMap<String, JdbcTokenRepository> initialShards = new LinkedHashMap<>(shards);
+        initialShards.remove("rebalance-2");
+
+        ShardedTokenRepository initialRepository = new ShardedTokenRepository(initialShards, VIRTUAL_NODES);
+
+        for (int i = 0; i < 3000; i++) {
+            initialRepository.save(BenchmarkSupport.createToken(OAuthToken.BEARER_TOKEN_TYPE));
+        }
+
+        ShardedTokenRepository repository = new ShardedTokenRepository(shards, VIRTUAL_NODES);
+
+        long start = System.nanoTime();
+        long moved = repository.rebalance();
+
+        BenchmarkSupport.report("ShardedTokenRepository.rebalance", "2 -> 3 shards", moved, "tokens moved");
+        BenchmarkSupport.report("ShardedTokenRepository.rebalance", "2 -> 3 shards", (System.nanoTime() - start) / 1e6, "ms");
+
+        repository.destroy();
+        closeDataServices();
+    }
+
+    // A file database is used for throughput measurements so that each commit actually reaches the disk
+    private LinkedHashMap<String, JdbcTokenRepository> createShards(String prefix, int shardCount, String urlPattern)
+            throws Exception {
+
+        LinkedHashMap<String, JdbcTokenRepository> shards = new LinkedHashMap<>();
+
+        for (int i = 0; i < shardCount; i++) {
+
+            String dataSourceName = prefix + i;
+
+            JdbcDataService dataService = BenchmarkSupport.createH2DataService(dataSourceName,
+                    String.format(urlPattern, dataSourceName));
+            dataServices.put(dataSourceName, dataService);
+
+            shards.put(dataSourceName, new JdbcTokenRepository(BenchmarkSupport.createOAuthConfiguration(dataSourceName),
+                    dataService, dataSourceName));
+        }
+
+        return shards;
+    }
+
+    private void closeDataServices() {
+
+        for (Map.Entry<String, JdbcDataService> dataService : dataServices.entrySet()) {
+            dataService.getValue().getDataSource(dataService.getKey()).close();
+        }
+
+        dataServices.clear();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package benchmark.oauth;
+
+import benchmark.BenchmarkSupport;
+import net.identio.server.service.data.EmbeddedDataService;
+import net.identio.server.service.data.JdbcDataService;
+import net.identio.server.service.oauth.infrastructure.EmbeddedTokenRepository;
+import net.identio.server.service.oauth.infrastructure.InMemoryTokenRepository;
+import net.identio.server.service.oauth.infrastructure.JdbcTokenRepository;
+import net.identio.server.service.oauth.infrastructure.TokenRepository;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Compares the in-memory, jdbc and embedded data source types
+public class TokenRepositoryTypesBenchmark {
+
+    private static final int TOKENS = 50000;
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 5000;
+
+    @Test
+    public void saveAndLookupLatency() throws Exception {
+
+        String[] values = new String[TOKENS];
+
+        run("in-memory", new InMemoryTokenRepository(), values);
+
+        JdbcDataService jdbcDataService = BenchmarkSupport.createH2DataService("types-jdbc",
+                "jdbc:h2:./build/benchmark/types-jdbc;DB_CLOSE_ON_EXIT=FALSE");
+        run("jdbc", new JdbcTokenRepository(BenchmarkSupport.createOAuthConfiguration("types-jdbc"), jdbcDataService), values);
+        jdbcDataService.getDataSource("types-jdbc").close();
+
+        new File("build/benchmark/types-embedded.mv.db").delete();
+        EmbeddedDataService embeddedDataService = BenchmarkSupport.createEmbeddedDataService("types-embedded",
+                "build/benchmark/types-embedded.mv.db");
+        run("embedded", new EmbeddedTokenRepository(BenchmarkSupport.createOAuthConfiguration("types-embedded"),
+                embeddedDataService), values);
+        embeddedDataService.destroy();
+    }
+
+    private void run(String type, TokenRepository repository, String[] values) throws Exception {
+
+        for (int i = 0; i < TOKENS; i++) {
+            OAuthToken token = BenchmarkSupport.createToken(OAuthToken.BEARER_TOKEN_TYPE);
+            repository.save(token);
+            values[i] = token.getValue();
+        }
+
+        double saveThroughput = BenchmarkSupport.measureThroughput(THREADS, OPERATIONS_PER_THREAD,
+                (thread, iteration) -> repository.save(BenchmarkSupport.createToken(OAuthToken.BEARER_TOKEN_TYPE)));
+
+        BenchmarkSupport.report("TokenRepository.save", type, THREADS * 1e9 / saveThroughput, "ns/op");
+
+        double lookupThroughput = BenchmarkSupport.measureThroughput(THREADS, OPERATIONS_PER_THREAD, (thread, iteration) ->
+                repository.getTokenByValue(values[ThreadLocalRandom.current().nextInt(values.length)]));
+
+        BenchmarkSupport.report("TokenRepository.getTokenByValue", type, THREADS * 1e9 / lookupThroughput, "ns/op");
+    }
+}
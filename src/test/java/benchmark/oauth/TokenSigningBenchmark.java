@@ -0,0 +1,105 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package benchmark.oauth;
+
+import benchmark.BenchmarkSupport;
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.algorithms.Algorithm;
+import net.identio.server.service.oauth.EdDsaAlgorithm;
+import net.identio.server.service.oauth.TokenSigningAlgorithms;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Instant;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+public class TokenSigningBenchmark {
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int TOKENS_PER_THREAD = 2000;
+
+    @Test
+    public void signingThroughputByAlgorithm() throws Exception {
+
+        for (Map.Entry<String, KeyPair> keyPair : createKeyPairs().entrySet()) {
+
+            Algorithm algorithm = TokenSigningAlgorithms.forKeys(keyPair.getValue().getPublic(),
+                    keyPair.getValue().getPrivate());
+
+            JWTVerifier verifier = JWT.require(algorithm).build();
+
+            // Warm up and check that the tokens can be verified
+            verifier.verify(createToken(algorithm));
+
+            double signThroughput = BenchmarkSupport.measureThroughput(THREADS, TOKENS_PER_THREAD,
+                    (thread, iteration) -> createToken(algorithm));
+
+            String token = createToken(algorithm);
+
+            double verifyThroughput = BenchmarkSupport.measureThroughput(THREADS, TOKENS_PER_THREAD,
+                    (thread, iteration) -> verifier.verify(token));
+
+            BenchmarkSupport.report("Access token signature", keyPair.getKey(), signThroughput / THREADS, "tokens/core/s");
+            BenchmarkSupport.report("Access token verification", keyPair.getKey(), verifyThroughput / THREADS, "tokens/core/s");
+        }
+    }
+
+    private static Map<String, KeyPair> createKeyPairs() throws Exception {
+
+        Map<String, KeyPair> keyPairs = new LinkedHashMap<>();
+
+        KeyPairGenerator rsaGenerator = KeyPairGenerator.getInstance("RSA");
+        rsaGenerator.initialize(2048);
+        keyPairs.put("RS256 (RSA-2048)", rsaGenerator.generateKeyPair());
+
+        KeyPairGenerator ecGenerator = KeyPairGenerator.getInstance("EC");
+        ecGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+        keyPairs.put("ES256 (P-256)", ecGenerator.generateKeyPair());
+
+        if (EdDsaAlgorithm.isSupported()) {
+            keyPairs.put("EdDSA (Ed25519)", KeyPairGenerator.getInstance("Ed25519").generateKeyPair());
+        }
+
+        return keyPairs;
+    }
+
+    private static String createToken(Algorithm algorithm) {
+
+        Instant now = Instant.now();
+
+        return JWT.create()
+                .withIssuer("https://localhost")
+                .withExpiresAt(Date.from(now.plusSeconds(3600)))
+                .withIssuedAt(Date.from(now))
+                .withSubject("johndoe")
+                .withNotBefore(Date.from(now))
+                .withJWTId(UUID.randomUUID().toString())
+                .withClaim("scope", "scope.test.1 scope.test.2")
+                .withClaim("client_id", "benchmark-client")
+                .sign(algorithm);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package integration.oauth;
+
+import net.identio.server.boot.IdentioServerApplication;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.embedded.LocalServerPort;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.*;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        classes = IdentioServerApplication.class)
+@TestPropertySource(properties = {"spring.cloud.config.server.bootstrap: true", "spring.application.name: identio",
+        "spring.cloud.config.server.native.searchLocations: file:src/test/resources/oauth-server-config",
+        "identio.work.directory: config/work",
+        "logging.config: src/test/resources/oauth-server-config/logback.xml", "spring.cloud.vault.enabled: false"})
+@ActiveProfiles(profiles = {"native"})
+public class RevocationTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    private OAuthRequests requests;
+
+    @Before
+    public void setUp() {
+
+        requests = new OAuthRequests(port, restTemplate, "code", "test4", "test4", true);
+
+        requests.authorizeRequest();
+
+        requests.getAuthMethods();
+
+        requests.authenticateLocal();
+
+        requests.getConsentContext();
+
+        requests.consent();
+
+        requests.accessTokenRequest();
+    }
+
+    @Test
+    public void revokeRefreshToken() {
+
+        ResponseEntity<String> revokeResponseEntity = sendRevokeRequest(requests.refreshToken, "refresh_token",
+                "Basic dGVzdDQ6dGVzdDQ="); // test4:test4 in base64
+
+        assertEquals(HttpStatus.OK, revokeResponseEntity.getStatusCode());
+
+        assertFalse(sendIntrospectRequest(requests.refreshToken).getBody().isActive());
+    }
+
+    @Test
+    public void revokeAccessToken() {
+
+        ResponseEntity<String> revokeResponseEntity = sendRevokeRequest(requests.accessToken, null,
+                "Basic dGVzdDQ6dGVzdDQ="); // test4:test4 in base64
+
+        assertEquals(HttpStatus.OK, revokeResponseEntity.getStatusCode());
+
+        assertFalse(sendIntrospectRequest(requests.accessToken).getBody().isActive());
+    }
+
+    @Test
+    public void revokeUnknownToken() {
+
+        ResponseEntity<String> revokeResponseEntity = sendRevokeRequest("unknown", null,
+                "Basic dGVzdDQ6dGVzdDQ="); // test4:test4 in base64
+
+        assertEquals(HttpStatus.OK, revokeResponseEntity.getStatusCode());
+    }
+
+    @Test
+    public void revokeTokenOfAnotherClient() {
+
+        ResponseEntity<String> revokeResponseEntity = sendRevokeRequest(requests.refreshToken, null,
+                "Basic dGVzdDp0ZXN0"); // test:test in base64
+
+        assertEquals(HttpStatus.BAD_REQUEST, revokeResponseEntity.getStatusCode());
+
+        assertEquals(true, sendIntrospectRequest(requests.refreshToken).getBody().isActive());
+    }
+
+    @Test
+    public void revokeWithInvalidClient() {
+
+        ResponseEntity<String> revokeResponseEntity = sendRevokeRequest(requests.refreshToken, null,
+                "Basic aW52YWxpZDppbnZhbGlk"); // invalid:invalid in base64
+
+        assertEquals(HttpStatus.UNAUTHORIZED, revokeResponseEntity.getStatusCode());
+    }
+
+    @Test
+    public void revokeAllTokensOfClient() {
+
+        ResponseEntity<String> revokeResponseEntity = sendRevokeAllRequest(null, null,
+                "Basic dGVzdDQ6dGVzdDQ="); // test4:test4 in base64
+
+        assertEquals(HttpStatus.OK, revokeResponseEntity.getStatusCode());
+        assertTrue(revokeResponseEntity.getBody().contains("\"revoked_tokens\""));
+
+        assertFalse(sendIntrospectRequest(requests.accessToken).getBody().isActive());
+        assertFalse(sendIntrospectRequest(requests.refreshToken).getBody().isActive());
+    }
+
+    @Test
+    public void revokeAllTokensOfUser() {
+
+        ResponseEntity<String> revokeResponseEntity = sendRevokeAllRequest("johndoe", null,
+                "Basic dGVzdDI6dGVzdDI="); // test2:test2 in base64
+
+        assertEquals(HttpStatus.OK, revokeResponseEntity.getStatusCode());
+
+        assertFalse(sendIntrospectRequest(requests.accessToken).getBody().isActive());
+        assertFalse(sendIntrospectRequest(requests.refreshToken).getBody().isActive());
+    }
+
+    @Test
+    public void revokeAllTokensWithoutBulkRevocation() {
+
+        ResponseEntity<String> revokeResponseEntity = sendRevokeAllRequest("johndoe", null,
+                "Basic dGVzdDp0ZXN0"); // test:test in base64
+
+        assertEquals(HttpStatus.BAD_REQUEST, revokeResponseEntity.getStatusCode());
+
+        revokeResponseEntity = sendRevokeAllRequest(null, "test4", "Basic dGVzdDp0ZXN0");
+
+        assertEquals(HttpStatus.BAD_REQUEST, revokeResponseEntity.getStatusCode());
+
+        assertTrue(sendIntrospectRequest(requests.refreshToken).getBody().isActive());
+    }
+
+    @Test
+    public void revokeAllTokensWithInvalidClient() {
+
+        ResponseEntity<String> revokeResponseEntity = sendRevokeAllRequest("johndoe", null,
+                "Basic aW52YWxpZDppbnZhbGlk"); // invalid:invalid in base64
+
+        assertEquals(HttpStatus.UNAUTHORIZED, revokeResponseEntity.getStatusCode());
+
+        assertTrue(sendIntrospectRequest(requests.refreshToken).getBody().isActive());
+    }
+
+    private ResponseEntity<String> sendRevokeAllRequest(String username, String clientId, String authorization) {
+
+        MultiValueMap<String, String> payload = new LinkedMultiValueMap<>();
+        if (username != null) payload.add("username", username);
+        if (clientId != null) payload.add("client_id", clientId);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", authorization);
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+
+        return restTemplate.exchange(
+                "/oauth/revoke/all",
+                HttpMethod.POST,
+                new HttpEntity<>(payload, headers),
+                String.class);
+    }
+
+    private ResponseEntity<String> sendRevokeRequest(String token, String tokenType, String authorization) {
+
+        MultiValueMap<String, String> payload = new LinkedMultiValueMap<>();
+        payload.add("token", token);
+        if (tokenType != null) payload.add("token_type_hint", tokenType);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", authorization);
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+
+        return restTemplate.exchange(
+                "/oauth/revoke",
+                HttpMethod.POST,
+                new HttpEntity<>(payload, headers),
+                String.class);
+    }
+
+    private ResponseEntity<OAuthToken> sendIntrospectRequest(String token) {
+
+        MultiValueMap<String, String> payload = new LinkedMultiValueMap<>();
+        payload.add("token", token);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", "Basic cnMxOnJzMQ=="); // rs1:rs1 in base64
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+
+        return restTemplate.exchange(
+                "/oauth/introspect",
+                HttpMethod.POST,
+                new HttpEntity<>(payload, headers),
+                OAuthToken.class);
+    }
+}
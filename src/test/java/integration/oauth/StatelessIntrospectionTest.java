@@ -0,0 +1,302 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package integration.oauth;
+
+import net.identio.server.boot.IdentioServerApplication;
+import net.identio.server.mvc.oauth.model.OAuthApiErrorResponse;
+import net.identio.server.service.oauth.AccessTokenMinter;
+import net.identio.server.service.oauth.JsonWebKeys;
+import net.identio.server.service.oauth.infrastructure.TokenRepository;
+import net.identio.server.service.oauth.model.OAuthErrors;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.embedded.LocalServerPort;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.*;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.io.FileInputStream;
+import java.security.KeyStore;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        classes = IdentioServerApplication.class)
+@TestPropertySource(properties = {"spring.cloud.config.server.bootstrap: true", "spring.application.name: identio",
+        "spring.cloud.config.server.native.searchLocations: file:src/test/resources/oauth-server-config",
+        "identio.work.directory: config/work",
+        "logging.config: src/test/resources/oauth-server-config/logback.xml", "spring.cloud.vault.enabled: false"})
+@ActiveProfiles(profiles = {"native", "stateless"})
+public class StatelessIntrospectionTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private TokenRepository tokenRepository;
+
+    private OAuthRequests requests;
+
+    private MultiValueMap<String, String> payload;
+    private HttpHeaders headers;
+
+    @Before
+    public void setUp() {
+
+        requests = new OAuthRequests(port, restTemplate, "code", "test4", "test4", true);
+
+        requests.authorizeRequest();
+
+        requests.getAuthMethods();
+
+        requests.authenticateLocal();
+
+        requests.getConsentContext();
+
+        requests.consent();
+
+        requests.accessTokenRequest();
+    }
+
+    @Test
+    public void validateUnstoredAccessToken() throws Exception {
+
+        assertFalse(tokenRepository.getTokenByValue(requests.accessToken).isPresent());
+
+        initPayLoadAndHeaders();
+
+        payload.add("token", requests.accessToken);
+        payload.add("token_type_hint", "access_token");
+
+        ResponseEntity<OAuthToken> introspectResponseEntity = sendValidIntrospectRequest();
+
+        OAuthToken token = introspectResponseEntity.getBody();
+
+        assertEquals(HttpStatus.OK, introspectResponseEntity.getStatusCode());
+        assertEquals("test4", token.getClientId());
+        assertEquals("scope.test.1", token.getScope());
+        assertEquals("johndoe", token.getUsername());
+        assertEquals("johndoe", token.getSubject());
+        assertEquals("https://localhost", token.getIssuer());
+        assertEquals(true, token.isActive());
+    }
+
+    @Test
+    public void validateStoredRefreshToken() {
+
+        initPayLoadAndHeaders();
+
+        payload.add("token", requests.refreshToken);
+
+        ResponseEntity<OAuthToken> introspectResponseEntity = sendValidIntrospectRequest();
+
+        assertEquals(HttpStatus.OK, introspectResponseEntity.getStatusCode());
+        assertEquals(true, introspectResponseEntity.getBody().isActive());
+    }
+
+    @Test
+    public void expiredAccessToken() throws Exception {
+
+        long now = System.currentTimeMillis() / 1000;
+
+        initPayLoadAndHeaders();
+
+        payload.add("token", mintAccessToken("https://localhost", now - 7200, now - 3600));
+
+        ResponseEntity<OAuthToken> introspectResponseEntity = sendValidIntrospectRequest();
+
+        assertEquals(HttpStatus.OK, introspectResponseEntity.getStatusCode());
+        assertEquals(false, introspectResponseEntity.getBody().isActive());
+    }
+
+    @Test
+    public void wrongIssuer() throws Exception {
+
+        long now = System.currentTimeMillis() / 1000;
+
+        initPayLoadAndHeaders();
+
+        payload.add("token", mintAccessToken("https://attacker", now, now + 3600));
+
+        ResponseEntity<OAuthToken> introspectResponseEntity = sendValidIntrospectRequest();
+
+        assertEquals(HttpStatus.OK, introspectResponseEntity.getStatusCode());
+        assertEquals(false, introspectResponseEntity.getBody().isActive());
+    }
+
+    @Test
+    public void invalidTokenTypeHint() {
+
+        initPayLoadAndHeaders();
+
+        payload.add("token", requests.accessToken);
+        payload.add("token_type_hint", "invalid");
+
+        ResponseEntity<OAuthApiErrorResponse> introspectResponseEntity = sendIntrospectRequest();
+
+        assertEquals(HttpStatus.BAD_REQUEST, introspectResponseEntity.getStatusCode());
+        assertEquals(OAuthErrors.INVALID_REQUEST, introspectResponseEntity.getBody().getError());
+    }
+
+    @Test
+    public void bulkRevokedAccessToken() throws Exception {
+
+        // Only the tokens issued before the second of the bulk revocation are cut off
+        Thread.sleep(1000 - System.currentTimeMillis() % 1000);
+
+        HttpHeaders revokeHeaders = new HttpHeaders();
+        revokeHeaders.set("Authorization", "Basic dGVzdDI6dGVzdDI="); // test2:test2 in base64
+        revokeHeaders.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+
+        MultiValueMap<String, String> revokePayload = new LinkedMultiValueMap<>();
+        revokePayload.add("username", "johndoe");
+
+        ResponseEntity<String> revokeResponseEntity = restTemplate.exchange(
+                "/oauth/revoke/all",
+                HttpMethod.POST,
+                new HttpEntity<>(revokePayload, revokeHeaders),
+                String.class);
+
+        assertEquals(HttpStatus.OK, revokeResponseEntity.getStatusCode());
+
+        initPayLoadAndHeaders();
+
+        payload.add("token", requests.accessToken);
+
+        assertEquals(false, sendValidIntrospectRequest().getBody().isActive());
+
+        // A token issued right after the bulk revocation is not revoked
+        long now = System.currentTimeMillis() / 1000;
+
+        initPayLoadAndHeaders();
+
+        payload.add("token", mintAccessToken("https://localhost", now, now + 3600));
+
+        assertEquals(true, sendValidIntrospectRequest().getBody().isActive());
+    }
+
+    @Test
+    public void mixedBatch() throws Exception {
+
+        long now = System.currentTimeMillis() / 1000;
+
+        String revokedToken = mintAccessToken("https://localhost", now, now + 3600);
+
+        HttpHeaders revokeHeaders = new HttpHeaders();
+        revokeHeaders.set("Authorization", "Basic dGVzdDQ6dGVzdDQ="); // test4:test4 in base64
+        revokeHeaders.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+
+        MultiValueMap<String, String> revokePayload = new LinkedMultiValueMap<>();
+        revokePayload.add("token", revokedToken);
+
+        assertEquals(HttpStatus.OK, restTemplate.exchange("/oauth/revoke", HttpMethod.POST,
+                new HttpEntity<>(revokePayload, revokeHeaders), String.class).getStatusCode());
+
+        initPayLoadAndHeaders();
+
+        payload.add("token", requests.accessToken);
+        payload.add("token", mintAccessToken("https://localhost", now - 7200, now - 3600));
+        payload.add("token", revokedToken);
+        payload.add("token", "unknown");
+        payload.add("token", requests.refreshToken);
+
+        ResponseEntity<OAuthToken[]> introspectResponseEntity = restTemplate.exchange(
+                "/oauth/introspect/batch",
+                HttpMethod.POST,
+                new HttpEntity<>(payload, headers),
+                OAuthToken[].class);
+
+        assertEquals(HttpStatus.OK, introspectResponseEntity.getStatusCode());
+
+        OAuthToken[] tokens = introspectResponseEntity.getBody();
+
+        assertEquals(5, tokens.length);
+        assertEquals(true, tokens[0].isActive());
+        assertEquals("johndoe", tokens[0].getUsername());
+        assertEquals(false, tokens[1].isActive());
+        assertEquals(false, tokens[2].isActive());
+        assertEquals(false, tokens[3].isActive());
+        assertEquals(true, tokens[4].isActive());
+    }
+
+    // Signed with the server key, so that only the claims make the token invalid
+    private String mintAccessToken(String issuer, long issuedAt, long expiration) throws Exception {
+
+        KeyStore ks = KeyStore.getInstance("PKCS12");
+
+        try (FileInputStream fis = new FileInputStream(
+                "src/test/resources/oauth-server-config/default-sign-certificate.p12")) {
+            ks.load(fis, "password".toCharArray());
+        }
+
+        String alias = ks.aliases().nextElement();
+
+        KeyStore.PrivateKeyEntry keyEntry = (KeyStore.PrivateKeyEntry) ks.getEntry(alias,
+                new KeyStore.PasswordProtection("password".toCharArray()));
+
+        AccessTokenMinter minter = new AccessTokenMinter(keyEntry.getPrivateKey(), "RS256",
+                JsonWebKeys.thumbprint(keyEntry.getCertificate().getPublicKey()), issuer);
+
+        return minter.mint("johndoe", "test4", "scope.test.1", UUID.randomUUID().toString(), issuedAt, expiration);
+    }
+
+    private ResponseEntity<OAuthToken> sendValidIntrospectRequest() {
+
+        return restTemplate.exchange(
+                "/oauth/introspect",
+                HttpMethod.POST,
+                new HttpEntity<>(payload, headers),
+                OAuthToken.class);
+    }
+
+    private ResponseEntity<OAuthApiErrorResponse> sendIntrospectRequest() {
+
+        return restTemplate.exchange(
+                "/oauth/introspect",
+                HttpMethod.POST,
+                new HttpEntity<>(payload, headers),
+                OAuthApiErrorResponse.class);
+    }
+
+    private void initPayLoadAndHeaders() {
+
+        // Set up default payload and headers
+        payload = new LinkedMultiValueMap<>();
+
+        headers = new HttpHeaders();
+        headers.set("Authorization", "Basic cnMxOnJzMQ=="); // rs1:rs1 in base64
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+    }
+}
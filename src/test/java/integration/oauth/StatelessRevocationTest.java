@@ -0,0 +1,159 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package integration.oauth;
+
+import com.auth0.jwt.JWT;
+import net.identio.server.boot.IdentioServerApplication;
+import net.identio.server.service.oauth.RevokedTokenRegistry;
+import net.identio.server.service.oauth.infrastructure.TokenRepository;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.embedded.LocalServerPort;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.*;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import static org.junit.Assert.*;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        classes = IdentioServerApplication.class)
+@TestPropertySource(properties = {"spring.cloud.config.server.bootstrap: true", "spring.application.name: identio",
+        "spring.cloud.config.server.native.searchLocations: file:src/test/resources/oauth-server-config",
+        "identio.work.directory: config/work",
+        "logging.config: src/test/resources/oauth-server-config/logback.xml", "spring.cloud.vault.enabled: false"})
+@ActiveProfiles(profiles = {"native", "stateless"})
+public class StatelessRevocationTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private TokenRepository tokenRepository;
+
+    @Autowired
+    private RevokedTokenRegistry revokedTokenRegistry;
+
+    private OAuthRequests requests;
+
+    @Before
+    public void setUp() {
+
+        requests = new OAuthRequests(port, restTemplate, "code", "test4", "test4", true);
+
+        requests.authorizeRequest();
+
+        requests.getAuthMethods();
+
+        requests.authenticateLocal();
+
+        requests.getConsentContext();
+
+        requests.consent();
+
+        requests.accessTokenRequest();
+    }
+
+    @Test
+    public void revokeSelfContainedAccessToken() {
+
+        assertTrue(sendIntrospectRequest(requests.accessToken).getBody().isActive());
+
+        ResponseEntity<String> revokeResponseEntity = sendRevokeRequest(requests.accessToken,
+                "Basic dGVzdDQ6dGVzdDQ="); // test4:test4 in base64
+
+        assertEquals(HttpStatus.OK, revokeResponseEntity.getStatusCode());
+
+        assertFalse(sendIntrospectRequest(requests.accessToken).getBody().isActive());
+    }
+
+    @Test
+    public void revocationFromAnotherNode() throws Exception {
+
+        String jwtId = JWT.decode(requests.accessToken).getId();
+
+        assertTrue(sendIntrospectRequest(requests.accessToken).getBody().isActive());
+
+        // Another node sharing the token store revoked the token
+        tokenRepository.save(new OAuthToken()
+                .setType(OAuthToken.REVOCATION_TYPE)
+                .setValue("revocation:" + jwtId)
+                .setClientId("test4")
+                .setScope("")
+                .setJwtId(jwtId)
+                .setIssuedAt(System.currentTimeMillis() / 1000)
+                .setExpiration(JWT.decode(requests.accessToken).getExpiresAt().getTime() / 1000));
+
+        // Seen once the markers are read
+        assertTrue(sendIntrospectRequest(requests.accessToken).getBody().isActive());
+
+        ReflectionTestUtils.invokeMethod(revokedTokenRegistry, "sync");
+
+        assertFalse(sendIntrospectRequest(requests.accessToken).getBody().isActive());
+
+        // The marker itself is not a token
+        assertFalse(sendIntrospectRequest("revocation:" + jwtId).getBody().isActive());
+    }
+
+    private ResponseEntity<String> sendRevokeRequest(String token, String authorization) {
+
+        MultiValueMap<String, String> payload = new LinkedMultiValueMap<>();
+        payload.add("token", token);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", authorization);
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+
+        return restTemplate.exchange(
+                "/oauth/revoke",
+                HttpMethod.POST,
+                new HttpEntity<>(payload, headers),
+                String.class);
+    }
+
+    private ResponseEntity<OAuthToken> sendIntrospectRequest(String token) {
+
+        MultiValueMap<String, String> payload = new LinkedMultiValueMap<>();
+        payload.add("token", token);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", "Basic cnMxOnJzMQ=="); // rs1:rs1 in base64
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+
+        return restTemplate.exchange(
+                "/oauth/introspect",
+                HttpMethod.POST,
+                new HttpEntity<>(payload, headers),
+                OAuthToken.class);
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.data;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class MicroBatcherTest {
+
+    private MicroBatcher<Integer, Integer> batcher;
+
+    private List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+    @After
+    public void tearDown() {
+        if (batcher != null) batcher.close();
+    }
+
+    @Test
+    public void concurrentItemsAreProcessedInOneBatch() throws Exception {
+
+        batcher = new MicroBatcher<>("test-batcher", 200, TimeUnit.MILLISECONDS, 100, this::doubleAll);
+
+        List<Future<Integer>> results = submitConcurrently(10);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.valueOf(2 * i), results.get(i).get());
+        }
+
+        assertTrue(batchSizes.size() < 10);
+        assertEquals(10, batchSizes.stream().mapToInt(Integer::intValue).sum());
+    }
+
+    @Test
+    public void batchesAreLimitedToMaxBatchSize() throws Exception {
+
+        batcher = new MicroBatcher<>("test-batcher", 200, TimeUnit.MILLISECONDS, 3, this::doubleAll);
+
+        List<Future<Integer>> results = submitConcurrently(10);
+
+        for (Future<Integer> result : results) {
+            result.get();
+        }
+
+        for (int size : batchSizes) {
+            assertTrue(size <= 3);
+        }
+    }
+
+    @Test
+    public void failingItemOnlyFailsItsCaller() throws Exception {
+
+        batcher = new MicroBatcher<>("test-batcher", 200, TimeUnit.MILLISECONDS, 100, items -> {
+
+            if (items.contains(3)) throw new IllegalArgumentException("Invalid item");
+
+            return doubleAll(items);
+        });
+
+        List<Future<Integer>> results = submitConcurrently(5);
+
+        for (int i = 0; i < 5; i++) {
+            if (i == 3) {
+                try {
+                    results.get(i).get();
+                    fail("The invalid item must fail");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause().getCause() instanceof IllegalArgumentException);
+                }
+            } else {
+                assertEquals(Integer.valueOf(2 * i), results.get(i).get());
+            }
+        }
+    }
+
+    @Test
+    public void workersProcessBatchesConcurrently() throws Exception {
+
+        CountDownLatch inProgress = new CountDownLatch(4);
+
+        // Each batch only completes once the four batches are in progress at the same time
+        batcher = new MicroBatcher<>("test-batcher", 1, TimeUnit.MILLISECONDS, 1, 4, items -> {
+
+            inProgress.countDown();
+
+            if (!inProgress.await(5, TimeUnit.SECONDS)) throw new IllegalStateException("Batches are serialized");
+
+            return doubleAll(items);
+        });
+
+        List<Future<Integer>> results = submitConcurrently(4);
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Integer.valueOf(2 * i), results.get(i).get());
+        }
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void submitAfterCloseIsRejected() throws Exception {
+
+        batcher = new MicroBatcher<>("test-batcher", 1, TimeUnit.MILLISECONDS, 100, this::doubleAll);
+
+        batcher.close();
+
+        batcher.submit(1);
+    }
+
+    @Test
+    public void closeReleasesPendingCallers() throws Exception {
+
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        batcher = new MicroBatcher<>("test-batcher", 1, TimeUnit.MILLISECONDS, 1, items -> {
+            blocked.countDown();
+            release.await();
+            return doubleAll(items);
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            // The first item holds the worker, the second one stays in the queue
+            Future<Integer> first = executor.submit(() -> batcher.submit(1));
+            blocked.await();
+            Future<Integer> second = executor.submit(() -> batcher.submit(2));
+
+            Thread.sleep(50);
+
+            release.countDown();
+            batcher.close();
+
+            assertEquals(Integer.valueOf(2), first.get(5, TimeUnit.SECONDS));
+
+            try {
+                assertEquals(Integer.valueOf(4), second.get(5, TimeUnit.SECONDS));
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException
+                        || e.getCause().getCause() instanceof RejectedExecutionException);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void timedOutItemIsNotProcessed() throws Exception {
+
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> processed = new CopyOnWriteArrayList<>();
+
+        batcher = new MicroBatcher<>("test-batcher", 1, TimeUnit.MILLISECONDS, 1, items -> {
+            blocked.countDown();
+            release.await();
+            processed.addAll(items);
+            return doubleAll(items);
+        });
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            // The first item holds the worker while the second one times out in the queue
+            executor.submit(() -> batcher.submit(1));
+            blocked.await();
+
+            try {
+                batcher.submit(2, 100, TimeUnit.MILLISECONDS);
+                fail("The item must time out");
+            } catch (TimeoutException e) {
+                // Expected
+            }
+
+            release.countDown();
+
+            assertEquals(Integer.valueOf(6), batcher.submit(3));
+            assertEquals(Arrays.asList(1, 3), processed);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void workerSurvivesErrors() throws Exception {
+
+        batcher = new MicroBatcher<>("test-batcher", 1, TimeUnit.MILLISECONDS, 1, items -> {
+
+            if (items.contains(1)) throw new StackOverflowError();
+
+            return doubleAll(items);
+        });
+
+        try {
+            batcher.submit(1);
+            fail("The item must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof StackOverflowError);
+        }
+
+        assertEquals(Integer.valueOf(4), batcher.submit(2));
+    }
+
+    private List<Integer> doubleAll(List<Integer> items) {
+
+        batchSizes.add(items.size());
+
+        return items.stream().map(item -> 2 * item).collect(Collectors.toList());
+    }
+
+    private List<Future<Integer>> submitConcurrently(int count) {
+
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+
+        List<Future<Integer>> results = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            int item = i;
+            results.add(executor.submit(() -> batcher.submit(item)));
+        }
+
+        executor.shutdown();
+
+        return results;
+    }
+}
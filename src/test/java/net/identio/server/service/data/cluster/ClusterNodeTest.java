@@ -0,0 +1,331 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.data.cluster;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ClusterNodeTest {
+
+    private static final int NODES = 3;
+
+    private static final byte[] SECRET = "secret".getBytes(StandardCharsets.UTF_8);
+
+    private List<String> members = new ArrayList<>();
+
+    private List<ClusterNode> nodes = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+
+        for (int i = 0; i < NODES; i++) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                members.add("127.0.0.1:" + socket.getLocalPort());
+            }
+        }
+
+        for (String member : members) {
+            ClusterNode node = new ClusterNode(member, members, 31, SECRET);
+            node.start();
+            nodes.add(node);
+        }
+
+        for (ClusterNode node : nodes) {
+            awaitMembers(node, NODES);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+
+        for (ClusterNode node : nodes) {
+            node.close();
+        }
+    }
+
+    @Test
+    public void entriesAreVisibleFromEveryNode() throws Exception {
+
+        for (int i = 0; i < 100; i++) {
+            nodes.get(i % NODES).put(key(i), key(i), 0);
+        }
+
+        for (ClusterNode node : nodes) {
+            for (int i = 0; i < 100; i++) {
+                assertArrayEquals(key(i), node.get(key(i)));
+            }
+        }
+
+        nodes.get(0).remove(key(0));
+
+        for (ClusterNode node : nodes) {
+            assertNull(node.get(key(0)));
+        }
+    }
+
+    @Test
+    public void entryIsTakenOnce() throws Exception {
+
+        nodes.get(0).put(key(1), key(1), 0);
+
+        assertArrayEquals(key(1), nodes.get(1).take(key(1)));
+        assertNull(nodes.get(2).take(key(1)));
+    }
+
+    @Test
+    public void entriesSurviveTheLossOfANode() throws Exception {
+
+        for (int i = 0; i < 100; i++) {
+            nodes.get(0).put(key(i), key(i), 0);
+        }
+
+        nodes.remove(NODES - 1).close();
+
+        for (ClusterNode node : nodes) {
+            awaitMembers(node, NODES - 1);
+        }
+
+        for (ClusterNode node : nodes) {
+            for (int i = 0; i < 100; i++) {
+                assertArrayEquals(key(i), node.get(key(i)));
+            }
+        }
+    }
+
+    @Test
+    public void takeIsNotRetriedOnTheBackup() throws Exception {
+
+        for (int i = 0; i < 100; i++) {
+            nodes.get(0).put(key(i), key(i), 0);
+        }
+
+        nodes.remove(NODES - 1).close();
+
+        // Until the loss is detected, the entries owned by the lost node can't be taken
+        List<Integer> failedTakes = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+            try {
+                assertArrayEquals(key(i), nodes.get(0).take(key(i)));
+            } catch (IOException e) {
+                failedTakes.add(i);
+            }
+        }
+
+        assertFalse(failedTakes.isEmpty());
+
+        for (ClusterNode node : nodes) {
+            awaitMembers(node, NODES - 1);
+        }
+
+        // The backup took over: each entry is still taken once
+        for (int i = 0; i < 100; i++) {
+            assertArrayEquals(failedTakes.contains(i) ? key(i) : null, nodes.get(1).take(key(i)));
+        }
+    }
+
+    @Test
+    public void scanReadsEveryPartition() throws Exception {
+
+        for (int i = 0; i < 100; i++) {
+            nodes.get(i % NODES).put(key(i), key(i), 0);
+        }
+
+        nodes.get(0).remove(key(0));
+
+        for (ClusterNode node : nodes) {
+
+            Set<String> keys = new HashSet<>();
+
+            node.forEach((key, value) -> keys.add(new String(key, StandardCharsets.UTF_8)));
+
+            assertEquals(99, keys.size());
+            assertFalse(keys.contains("key-0"));
+        }
+    }
+
+    @Test
+    public void entriesMoveToANodeThatJoins() throws Exception {
+
+        nodes.remove(NODES - 1).close();
+
+        for (ClusterNode node : nodes) {
+            awaitMembers(node, NODES - 1);
+        }
+
+        for (int i = 0; i < 200; i++) {
+            nodes.get(0).put(key(i), key(i), 0);
+        }
+
+        for (int i = 0; i < 200; i += 10) {
+            nodes.get(1).remove(key(i));
+        }
+
+        ClusterNode joining = new ClusterNode(members.get(NODES - 1), members, 31, SECRET);
+        joining.start();
+        nodes.add(joining);
+
+        for (ClusterNode node : nodes) {
+            awaitMembers(node, NODES);
+        }
+
+        // The reads are answered by the new owners once the partitions are moved
+        long deadline = System.currentTimeMillis() + 20000;
+
+        for (int i = 0; i < 200; i++) {
+            while (!Arrays.equals(expectedValue(i), joining.get(key(i)))) {
+
+                assertTrue("Entries weren't moved", System.currentTimeMillis() < deadline);
+
+                Thread.sleep(100);
+            }
+        }
+
+        for (ClusterNode node : nodes) {
+            for (int i = 0; i < 200; i++) {
+                assertArrayEquals(expectedValue(i), node.get(key(i)));
+            }
+        }
+    }
+
+    @Test
+    public void memberWithAnotherSecretIsRejected() throws Exception {
+
+        try (Socket socket = connect(members.get(0));
+             ClusterChannel channel = ClusterChannel.connect(socket, "other".getBytes(StandardCharsets.UTF_8))) {
+
+            channel.write(putRequest(key(1), key(1)));
+
+            assertConnectionClosed(channel);
+        }
+
+        for (ClusterNode node : nodes) {
+            assertNull(node.get(key(1)));
+        }
+    }
+
+    @Test
+    public void invalidFrameLengthClosesTheConnection() throws Exception {
+
+        for (int length : new int[]{-1, ClusterChannel.MAX_FRAME_SIZE + 1}) {
+
+            try (Socket socket = connect(members.get(0));
+                 ClusterChannel channel = ClusterChannel.connect(socket, SECRET)) {
+
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeInt(length);
+                out.flush();
+
+                assertConnectionClosed(channel);
+            }
+        }
+    }
+
+    @Test
+    public void authenticatedRequestIsAnswered() throws Exception {
+
+        try (Socket socket = connect(members.get(0));
+             ClusterChannel channel = ClusterChannel.connect(socket, SECRET)) {
+
+            channel.write(putRequest(key(1), key(1)));
+
+            // Status and request id
+            assertEquals(0, ByteBuffer.wrap(channel.read()).get());
+        }
+
+        assertArrayEquals(key(1), nodes.get(1).get(key(1)));
+    }
+
+    private Socket connect(String member) throws IOException {
+
+        int separator = member.lastIndexOf(':');
+
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress(member.substring(0, separator), Integer.parseInt(member.substring(separator + 1))));
+        socket.setSoTimeout(5000);
+
+        return socket;
+    }
+
+    private void assertConnectionClosed(ClusterChannel channel) {
+
+        try {
+            channel.read();
+            fail("The connection must be closed");
+        } catch (SocketTimeoutException e) {
+            fail("The connection must be closed");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private byte[] putRequest(byte[] key, byte[] value) {
+
+        ByteBuffer request = ByteBuffer.allocate(1 + 8 + 4 + key.length + 8 + value.length);
+
+        // PUT operation
+        request.put((byte) 2);
+        request.putLong(1);
+        request.putInt(key.length);
+        request.put(key);
+        request.putLong(0);
+        request.put(value);
+
+        return request.array();
+    }
+
+    private void awaitMembers(ClusterNode node, int count) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 20000;
+
+        while (node.getLiveMembers().size() != count) {
+
+            assertTrue("Cluster didn't converge", System.currentTimeMillis() < deadline);
+
+            Thread.sleep(100);
+        }
+    }
+
+    private byte[] expectedValue(int i) {
+        return i % 10 != 0 ? key(i) : null;
+    }
+
+    private byte[] key(int i) {
+        return ("key-" + i).getBytes(StandardCharsets.UTF_8);
+    }
+}
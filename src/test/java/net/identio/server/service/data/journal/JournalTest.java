@@ -0,0 +1,237 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.data.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class JournalTest {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void mutationsAreReplayedInOrder() throws Exception {
+
+        Path directory = folder.getRoot().toPath();
+        Map<String, String> expected = new HashMap<>();
+
+        try (Journal journal = new Journal(directory, SEGMENT_SIZE)) {
+
+            journal.recover(new MapReplayer(new ConcurrentHashMap<>()), 1);
+
+            // Enough records to roll several segments
+            for (int i = 0; i < 5000; i++) {
+                put(journal, expected, "key-" + i % 1000, "value-" + i);
+
+                if (i % 7 == 0) remove(journal, expected, "key-" + (i * 31) % 1000);
+            }
+        }
+
+        assertTrue(countFiles(directory, ".log") > 2);
+
+        assertEquals(expected, recover(directory, 4));
+    }
+
+    @Test
+    public void snapshotReplacesOlderSegments() throws Exception {
+
+        Path directory = folder.getRoot().toPath();
+        Map<String, String> expected = new HashMap<>();
+
+        try (Journal journal = new Journal(directory, SEGMENT_SIZE)) {
+
+            journal.recover(new MapReplayer(new ConcurrentHashMap<>()), 1);
+
+            for (int i = 0; i < 3000; i++) {
+                put(journal, expected, "key-" + i, "value-" + i);
+            }
+
+            journal.snapshot(consumer -> expected.forEach((key, value) ->
+                    consumer.accept(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8))));
+
+            // Mutations after the snapshot are replayed on top of it
+            for (int i = 0; i < 100; i++) {
+                remove(journal, expected, "key-" + i);
+                put(journal, expected, "key-" + (i + 100), "updated-" + i);
+            }
+        }
+
+        assertEquals(1, countFiles(directory, ".snap"));
+        assertEquals(1, countFiles(directory, ".log"));
+
+        assertEquals(expected, recover(directory, 2));
+    }
+
+    @Test
+    public void snapshotWaitsForRecordedMutations() throws Exception {
+
+        Path directory = folder.getRoot().toPath();
+        Map<String, String> store = new ConcurrentHashMap<>();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        List<Future<?>> snapshots = new ArrayList<>();
+
+        try (Journal journal = new Journal(directory, SEGMENT_SIZE)) {
+
+            journal.recover(new MapReplayer(new ConcurrentHashMap<>()), 1);
+
+            journal.put(bytes("key"), bytes("value"), () -> {
+
+                // A snapshot starts between the record and the update of the store
+                snapshots.add(executor.submit(() -> {
+                    journal.snapshot(consumer -> store.forEach((key, value) ->
+                            consumer.accept(bytes(key), bytes(value))));
+                    return null;
+                }));
+
+                try {
+                    snapshots.get(0).get(200, TimeUnit.MILLISECONDS);
+                    fail("The snapshot didn't wait for the update of the store");
+                } catch (TimeoutException e) {
+                    // Expected
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new IllegalStateException(e);
+                }
+
+                store.put("key", "value");
+            });
+
+            snapshots.get(0).get(1, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, countFiles(directory, ".snap"));
+
+        assertEquals(new HashMap<>(store), recover(directory, 1));
+    }
+
+    @Test
+    public void tornRecordEndsTheReplay() throws Exception {
+
+        Path directory = folder.getRoot().toPath();
+
+        try (Journal journal = new Journal(directory, SEGMENT_SIZE)) {
+
+            journal.recover(new MapReplayer(new ConcurrentHashMap<>()), 1);
+
+            journal.put(bytes("key-1"), bytes("value-1"));
+            journal.put(bytes("key-2"), bytes("value-2"));
+            journal.put(bytes("key-3"), bytes("value-3"));
+        }
+
+        // Records are 13 bytes of header, a 5 bytes key and a 7 bytes value: damage the value of the last one
+        try (FileChannel channel = FileChannel.open(directory.resolve(String.format("journal-%016d.log", 0)), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes("X")), 2 * 25 + 20);
+        }
+
+        Map<String, String> expected = new HashMap<>();
+        expected.put("key-1", "value-1");
+        expected.put("key-2", "value-2");
+
+        Map<String, String> replayed = recover(directory, 1);
+
+        assertEquals(expected, replayed);
+
+        // The journal goes on in a new segment after the recovery
+        try (Journal journal = new Journal(directory, SEGMENT_SIZE)) {
+            journal.recover(new MapReplayer(new ConcurrentHashMap<>()), 1);
+            journal.put(bytes("key-4"), bytes("value-4"));
+        }
+
+        expected.put("key-4", "value-4");
+
+        assertEquals(expected, recover(directory, 1));
+    }
+
+    private Map<String, String> recover(Path directory, int threads) throws IOException {
+
+        Map<String, String> store = new ConcurrentHashMap<>();
+
+        try (Journal journal = new Journal(directory, SEGMENT_SIZE)) {
+            journal.recover(new MapReplayer(store), threads);
+        }
+
+        return new HashMap<>(store);
+    }
+
+    private void put(Journal journal, Map<String, String> expected, String key, String value) throws IOException {
+
+        journal.put(bytes(key), bytes(value));
+        expected.put(key, value);
+    }
+
+    private void remove(Journal journal, Map<String, String> expected, String key) throws IOException {
+
+        journal.remove(bytes(key));
+        expected.remove(key);
+    }
+
+    private long countFiles(Path directory, String extension) throws IOException {
+
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(extension)).count();
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class MapReplayer implements Journal.Replayer {
+
+        private final Map<String, String> store;
+
+        private MapReplayer(Map<String, String> store) {
+            this.store = store;
+        }
+
+        @Override
+        public void put(byte[] key, byte[] value) {
+            store.put(new String(key, StandardCharsets.UTF_8), new String(value, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void remove(byte[] key) {
+            store.remove(new String(key, StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import net.identio.server.exceptions.InitializationException;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Date;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class AccessTokenMinterTest {
+
+    private static final String ISSUER = "https://localhost";
+
+    @Test
+    public void rs256TokenIsVerified() throws Exception {
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+
+        assertMintedTokenIsVerified(generator.generateKeyPair(), "RS256");
+    }
+
+    @Test
+    public void es256TokenIsVerified() throws Exception {
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+
+        KeyPair keyPair = generator.generateKeyPair();
+
+        // The DER signatures of the JDK have variable lengths: several signatures go through each case
+        for (int i = 0; i < 100; i++) {
+            assertMintedTokenIsVerified(keyPair, "ES256");
+        }
+    }
+
+    @Test
+    public void edDsaTokenIsVerified() throws Exception {
+
+        assumeTrue(EdDsaAlgorithm.isSupported());
+
+        assertMintedTokenIsVerified(KeyPairGenerator.getInstance("Ed25519").generateKeyPair(), "EdDSA");
+    }
+
+    @Test
+    public void claimsAreEscaped() throws Exception {
+
+        KeyPair keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+
+        AccessTokenMinter minter = new AccessTokenMinter(keyPair.getPrivate(), "RS256", "kid", ISSUER);
+
+        String subject = "john \"doe\"\\\n\té€😀";
+        String scope = "scope.\"test\" scope\\2 \u0001";
+
+        long now = System.currentTimeMillis() / 1000;
+
+        String token = minter.mint(subject, "test\"client", scope, "jti", now, now + 3600);
+
+        DecodedJWT jwt = JWT.require(TokenSigningAlgorithms.forKeys(keyPair.getPublic(), null))
+                .withIssuer(ISSUER)
+                .build()
+                .verify(token);
+
+        assertEquals(subject, jwt.getSubject());
+        assertEquals(scope, jwt.getClaim("scope").asString());
+        assertEquals("test\"client", jwt.getClaim("client_id").asString());
+    }
+
+    @Test
+    public void largeClaimsGrowTheBuffers() throws Exception {
+
+        KeyPair keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+
+        AccessTokenMinter minter = new AccessTokenMinter(keyPair.getPrivate(), "RS256", null, ISSUER);
+
+        StringBuilder scope = new StringBuilder();
+
+        for (int i = 0; i < 500; i++) {
+            scope.append(" scope.test.").append(i);
+        }
+
+        long now = System.currentTimeMillis() / 1000;
+
+        // A short token first, so that the buffers of the thread are reused
+        minter.mint("johndoe", "test", "scope.test.1", "jti", now, now + 3600);
+
+        DecodedJWT jwt = JWT.require(TokenSigningAlgorithms.forKeys(keyPair.getPublic(), null)).build()
+                .verify(minter.mint("johndoe", "test", scope.toString().trim(), "jti", now, now + 3600));
+
+        assertEquals(scope.toString().trim(), jwt.getClaim("scope").asString());
+        assertNull(jwt.getKeyId());
+    }
+
+    @Test
+    public void nullSubjectIsOmitted() throws Exception {
+
+        KeyPair keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+
+        AccessTokenMinter minter = new AccessTokenMinter(keyPair.getPrivate(), "RS256", "kid", ISSUER);
+
+        long now = System.currentTimeMillis() / 1000;
+
+        DecodedJWT jwt = JWT.decode(minter.mint(null, "test", null, "jti", now, now + 3600));
+
+        assertNull(jwt.getSubject());
+        assertTrue(jwt.getClaim("scope").isNull());
+        assertEquals("test", jwt.getClaim("client_id").asString());
+    }
+
+    @Test
+    public void unsupportedAlgorithmIsRejected() throws Exception {
+
+        KeyPair keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+
+        try {
+            new AccessTokenMinter(keyPair.getPrivate(), "HS256", "kid", ISSUER);
+            fail("HS256 must be rejected");
+        } catch (InitializationException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void keyNotMatchingTheAlgorithmIsRejected() throws Exception {
+
+        KeyPair keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+
+        try {
+            new AccessTokenMinter(keyPair.getPrivate(), "ES256", "kid", ISSUER);
+            fail("An RSA key must not sign ES256 tokens");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    private void assertMintedTokenIsVerified(KeyPair keyPair, String algorithm) throws Exception {
+
+        String keyId = JsonWebKeys.thumbprint(keyPair.getPublic());
+
+        AccessTokenMinter minter = new AccessTokenMinter(keyPair.getPrivate(), algorithm, keyId, ISSUER);
+
+        long now = System.currentTimeMillis() / 1000;
+        String jwtId = UUID.randomUUID().toString();
+
+        String token = minter.mint("johndoe", "test", "scope.test.1 scope.test.2", jwtId, now, now + 3600);
+
+        DecodedJWT jwt = JWT.require(TokenSigningAlgorithms.forKeys(keyPair.getPublic(), null))
+                .withIssuer(ISSUER)
+                .build()
+                .verify(token);
+
+        assertEquals(algorithm, jwt.getAlgorithm());
+        assertEquals("JWT", jwt.getType());
+        assertEquals(keyId, jwt.getKeyId());
+        assertEquals("johndoe", jwt.getSubject());
+        assertEquals("test", jwt.getClaim("client_id").asString());
+        assertEquals("scope.test.1 scope.test.2", jwt.getClaim("scope").asString());
+        assertEquals(jwtId, jwt.getId());
+        assertEquals(new Date(now * 1000), jwt.getIssuedAt());
+        assertEquals(new Date(now * 1000), jwt.getNotBefore());
+        assertEquals(new Date((now + 3600) * 1000), jwt.getExpiresAt());
+    }
+}
@@ -72,7 +72,7 @@ public class AuthorizationCodeServiceTest {
     }
 
     @Test
-    public void authorizationCodeRepository_getAuthorizationCodeByValue_throws() throws AuthorizationCodeFetchException {
+    public void authorizationCodeRepository_consume_throws() throws AuthorizationCodeFetchException {
 
         AuthorizationCodeRequest request = new AuthorizationCodeRequest()
                 .setCode("1234").setRedirectUri("http://example.com/cb");
@@ -84,7 +84,7 @@ public class AuthorizationCodeServiceTest {
 
         // Mockito expectations
         when(clientRepository.getClientFromAuthorization(anyString())).thenReturn(Result.success(client));
-        doThrow(AuthorizationCodeFetchException.class).when(authorizationCodeRepository).getAuthorizationCodeByValue(anyString());
+        doThrow(AuthorizationCodeFetchException.class).when(authorizationCodeRepository).consume(anyString());
 
         Result<AccessTokenResponse> result = authorizationCodeService.validateTokenRequest(request, "Basic dGVzdDp0ZXN0"); // test: test
 
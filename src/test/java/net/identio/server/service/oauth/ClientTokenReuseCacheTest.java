@@ -0,0 +1,143 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth;
+
+import net.identio.server.service.oauth.infrastructure.InMemoryTokenRepository;
+import net.identio.server.service.oauth.infrastructure.TokenRepository;
+import net.identio.server.service.oauth.model.AccessTokenResponse;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ClientTokenReuseCacheTest {
+
+    private OAuthConfiguration config;
+
+    private TokenRepository tokenRepository;
+
+    private ClientTokenReuseCache cache;
+
+    @Before
+    public void setUp() {
+
+        config = new OAuthConfiguration();
+        tokenRepository = new InMemoryTokenRepository();
+
+        cache = createCache();
+    }
+
+    @Test
+    public void tokenIsReusedForTheSameClientAndScopes() throws Exception {
+
+        cache.put("client", Arrays.asList("scope.test.1", "scope.test.2"), issueToken("token", "client"));
+
+        AccessTokenResponse reused = cache.get("client", Arrays.asList("scope.test.1", "scope.test.2"));
+
+        assertNotNull(reused);
+        assertEquals("token", reused.getAccessToken());
+        assertTrue(reused.getExpiresIn() > 3500 && reused.getExpiresIn() <= 3600);
+
+        assertNull(cache.get("client", Arrays.asList("scope.test.1")));
+        assertNull(cache.get("other", Arrays.asList("scope.test.1", "scope.test.2")));
+    }
+
+    @Test
+    public void orderOfTheScopesDoesNotMatter() throws Exception {
+
+        cache.put("client", Arrays.asList("scope.test.2", "scope.test.1"), issueToken("token", "client"));
+
+        AccessTokenResponse reused = cache.get("client", Arrays.asList("scope.test.1", "scope.test.2"));
+
+        assertNotNull(reused);
+        assertEquals("token", reused.getAccessToken());
+    }
+
+    @Test
+    public void tokenIsNotReusedPastTheReuseLimit() throws Exception {
+
+        config.getTokenReuse().setMaxElapsedRatio(0);
+        cache = createCache();
+
+        cache.put("client", Arrays.asList("scope.test.1"), issueToken("token", "client"));
+
+        assertNull(cache.get("client", Arrays.asList("scope.test.1")));
+    }
+
+    @Test
+    public void revokedTokenIsNotReused() throws Exception {
+
+        cache.put("client", Arrays.asList("scope.test.1"), issueToken("token", "client"));
+        cache.put("client", Arrays.asList("scope.test.2"), issueToken("other-token", "client"));
+
+        cache.invalidateToken("token");
+
+        assertNull(cache.get("client", Arrays.asList("scope.test.1")));
+        assertNotNull(cache.get("client", Arrays.asList("scope.test.2")));
+    }
+
+    @Test
+    public void tokenRevokedOnAnotherNodeIsNotReused() throws Exception {
+
+        ClientTokenReuseCache otherNode = createCache();
+
+        cache.put("client", Arrays.asList("scope.test.1"), issueToken("token", "client"));
+
+        // The other node deletes the token from the shared store: the local cache is not told
+        otherNode.invalidateToken("token");
+        tokenRepository.delete("token");
+
+        assertNull(cache.get("client", Arrays.asList("scope.test.1")));
+    }
+
+    @Test
+    public void revokedClientTokensAreNotReused() throws Exception {
+
+        cache.put("client", Arrays.asList("scope.test.1"), issueToken("token", "client"));
+        cache.put("other", Arrays.asList("scope.test.1"), issueToken("other-token", "other"));
+
+        cache.invalidateClient("client");
+
+        assertNull(cache.get("client", Arrays.asList("scope.test.1")));
+        assertNotNull(cache.get("other", Arrays.asList("scope.test.1")));
+    }
+
+    private ClientTokenReuseCache createCache() {
+        return new ClientTokenReuseCache(config, tokenRepository, new RevokedTokenRegistry(config, tokenRepository),
+                new AccessTokenVerifier());
+    }
+
+    private AccessTokenResponse issueToken(String value, String clientId) throws Exception {
+
+        tokenRepository.save(new OAuthToken()
+                .setType(OAuthToken.BEARER_TOKEN_TYPE)
+                .setValue(value)
+                .setClientId(clientId)
+                .setScope("scope.test.1")
+                .setExpiration(System.currentTimeMillis() / 1000 + 3600));
+
+        return new AccessTokenResponse().setAccessToken(value).setTokenType("Bearer").setExpiresIn(3600)
+                .setScope("scope.test.1");
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.identio.server.boot.GlobalConfiguration;
+import net.identio.server.mvc.oauth.JwksController;
+import net.identio.server.service.signature.SigningKeyService;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class JwksServiceTest {
+
+    private static final String PASSWORD = "password";
+
+    private static final int ACTIVATION_DELAY = 600;
+    private static final int RETENTION = 3600;
+
+    @ClassRule
+    public static TemporaryFolder keysFolder = new TemporaryFolder();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // The certificate of the new key starts after the one of the old key
+    private static KeyStore.PrivateKeyEntry oldKey;
+    private static KeyStore.PrivateKeyEntry newKey;
+
+    private static String oldKeyId;
+    private static String newKeyId;
+
+    private GlobalConfiguration config;
+
+    private File keystore;
+
+    @BeforeClass
+    public static void generateKeys() throws Exception {
+
+        File keys = new File(keysFolder.getRoot(), "keys.p12");
+
+        generateKey(keys, "old", "-2d");
+        generateKey(keys, "new", "-1d");
+
+        KeyStore ks = KeyStore.getInstance("PKCS12");
+
+        try (FileInputStream fis = new FileInputStream(keys)) {
+            ks.load(fis, PASSWORD.toCharArray());
+        }
+
+        oldKey = (KeyStore.PrivateKeyEntry) ks.getEntry("old", new KeyStore.PasswordProtection(PASSWORD.toCharArray()));
+        newKey = (KeyStore.PrivateKeyEntry) ks.getEntry("new", new KeyStore.PasswordProtection(PASSWORD.toCharArray()));
+
+        oldKeyId = JsonWebKeys.thumbprint(oldKey.getCertificate().getPublicKey());
+        newKeyId = JsonWebKeys.thumbprint(newKey.getCertificate().getPublicKey());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+
+        keystore = folder.newFile("sign.p12");
+
+        config = new GlobalConfiguration();
+        config.setBasePublicUrl("https://localhost");
+        config.setSignatureKeystorePath(keystore.getPath());
+        config.setSignatureKeystorePassword(PASSWORD);
+        config.getSignatureKeyRotation().setActivationDelay(ACTIVATION_DELAY);
+        config.getSignatureKeyRotation().setRetention(RETENTION);
+    }
+
+    @Test
+    public void activeAndRetainedKeysArePublished() throws Exception {
+
+        writeKeystore(oldKey, newKey);
+
+        JwksController controller = createController(new SigningKeyService(config));
+
+        ResponseEntity<byte[]> response = controller.getJwks(null);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertNotNull(response.getHeaders().getETag());
+
+        List<Map<String, String>> keys = readKeys(response);
+
+        // The active key comes first
+        assertEquals(Arrays.asList(newKeyId, oldKeyId), keyIds(keys));
+
+        for (Map<String, String> key : keys) {
+            assertEquals("RSA", key.get("kty"));
+            assertEquals("sig", key.get("use"));
+            assertEquals("RS256", key.get("alg"));
+        }
+    }
+
+    @Test
+    public void rotationChangesThePublishedKeys() throws Exception {
+
+        writeKeystore(oldKey);
+
+        SigningKeyService signingKeyService = new SigningKeyService(config);
+        JwksController controller = createController(signingKeyService);
+
+        ResponseEntity<byte[]> initial = controller.getJwks(null);
+
+        assertEquals(Arrays.asList(oldKeyId), keyIds(readKeys(initial)));
+
+        // The old key is removed from the keystore along with the addition of the new one
+        writeKeystore(newKey);
+
+        long now = System.currentTimeMillis() / 1000;
+
+        rotateKeys(signingKeyService, now);
+
+        ResponseEntity<byte[]> added = controller.getJwks(initial.getHeaders().getETag());
+
+        // The new key is published before it is used, and the document changes along with its ETag
+        assertEquals(HttpStatus.OK, added.getStatusCode());
+        assertNotEquals(initial.getHeaders().getETag(), added.getHeaders().getETag());
+        assertEquals(Arrays.asList(oldKeyId, newKeyId), keyIds(readKeys(added)));
+
+        rotateKeys(signingKeyService, now + ACTIVATION_DELAY);
+
+        // The replaced key is retained for the tokens it signed
+        assertEquals(Arrays.asList(newKeyId, oldKeyId), keyIds(readKeys(controller.getJwks(null))));
+
+        rotateKeys(signingKeyService, now + ACTIVATION_DELAY + RETENTION + 1);
+
+        ResponseEntity<byte[]> retired = controller.getJwks(null);
+
+        assertEquals(Arrays.asList(newKeyId), keyIds(readKeys(retired)));
+
+        // An unchanged document is revalidated
+        assertEquals(HttpStatus.NOT_MODIFIED, controller.getJwks(retired.getHeaders().getETag()).getStatusCode());
+    }
+
+    private JwksController createController(SigningKeyService signingKeyService) throws Exception {
+
+        JwksController controller = new JwksController();
+
+        ReflectionTestUtils.setField(controller, "jwksService", new JwksService(signingKeyService));
+        ReflectionTestUtils.setField(controller, "oAuthConfiguration", new OAuthConfiguration());
+
+        return controller;
+    }
+
+    private static void rotateKeys(SigningKeyService signingKeyService, long now) {
+
+        ReflectionTestUtils.invokeMethod(signingKeyService, "rotateKeys", now);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, String>> readKeys(ResponseEntity<byte[]> response) throws Exception {
+
+        Map<String, List<Map<String, String>>> document = new ObjectMapper().readValue(response.getBody(), Map.class);
+
+        return document.get("keys");
+    }
+
+    private static List<String> keyIds(List<Map<String, String>> keys) {
+
+        List<String> keyIds = new ArrayList<>();
+
+        for (Map<String, String> key : keys) {
+            keyIds.add(key.get("kid"));
+        }
+
+        return keyIds;
+    }
+
+    private static void generateKey(File keystore, String alias, String startDate) throws Exception {
+
+        String keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-keyalg", "RSA", "-keysize", "2048",
+                "-alias", alias, "-dname", "CN=" + alias, "-startdate", startDate, "-validity", "30",
+                "-storetype", "PKCS12", "-keystore", keystore.getPath(),
+                "-storepass", PASSWORD, "-keypass", PASSWORD)
+                .redirectErrorStream(true)
+                .start();
+
+        assertEquals(0, process.waitFor());
+    }
+
+    private void writeKeystore(KeyStore.PrivateKeyEntry... entries) throws Exception {
+
+        KeyStore ks = KeyStore.getInstance("PKCS12");
+        ks.load(null, PASSWORD.toCharArray());
+
+        for (int i = 0; i < entries.length; i++) {
+            ks.setEntry("key-" + i, entries[i], new KeyStore.PasswordProtection(PASSWORD.toCharArray()));
+        }
+
+        try (FileOutputStream fos = new FileOutputStream(keystore)) {
+            ks.store(fos, PASSWORD.toCharArray());
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth;
+
+import net.identio.server.model.Result;
+import net.identio.server.service.data.JdbcDataService;
+import net.identio.server.service.oauth.infrastructure.*;
+import net.identio.server.service.oauth.model.AuthorizationCode;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class OAuthDumpServiceTest {
+
+    private static final int TOKENS = 35;
+
+    private Path dump;
+
+    private long now;
+
+    @Before
+    public void setUp() throws Exception {
+
+        dump = Files.createTempDirectory("oauth-dump").resolve("oauth.dump");
+        now = System.currentTimeMillis() / 1000;
+    }
+
+    @Test
+    public void dumpIsImportedInAnotherDataSource() throws Exception {
+
+        InMemoryTokenRepository sourceTokens = new InMemoryTokenRepository();
+        InMemoryAuthorizationCodeRepository sourceCodes = new InMemoryAuthorizationCodeRepository();
+
+        for (int i = 0; i < TOKENS; i++) {
+            sourceTokens.save(createToken("access-" + i, OAuthToken.BEARER_TOKEN_TYPE, now + 3600));
+        }
+        sourceTokens.save(createToken("refresh", OAuthToken.REFRESH_TOKEN_TYPE, 0));
+        sourceTokens.save(createToken("expired", OAuthToken.BEARER_TOKEN_TYPE, now - 10));
+
+        sourceCodes.save(createCode("code", now + 60));
+        sourceCodes.save(createCode("expired-code", now - 10));
+
+        Result<Long> exported = createDumpService(new OAuthConfiguration(), sourceTokens, sourceCodes).exportDump(dump);
+
+        // The expired token and code are left out
+        assertTrue(exported.isSuccess());
+        assertEquals(TOKENS + 2, (long) exported.get());
+
+        JdbcDataService dataService = TestDataServices.createH2DataService("dump");
+
+        OAuthConfiguration config = TestDataServices.createOAuthConfiguration("dump");
+        config.getDump().setImportThreads(2);
+        config.getDump().setBatchSize(10);
+
+        JdbcTokenRepository targetTokens = new JdbcTokenRepository(config, dataService);
+        JdbcAuthorizationCodeRepository targetCodes = new JdbcAuthorizationCodeRepository(config, dataService);
+
+        Result<Long> imported = createDumpService(config, targetTokens, targetCodes).importDump(dump);
+
+        assertTrue(imported.isSuccess());
+        assertEquals(TOKENS + 2, (long) imported.get());
+
+        for (int i = 0; i < TOKENS; i++) {
+
+            Optional<OAuthToken> token = targetTokens.getTokenByValue("access-" + i, OAuthToken.BEARER_TOKEN_TYPE);
+
+            assertTrue(token.isPresent());
+            assertEquals("test", token.get().getClientId());
+            assertEquals("scope.test.1", token.get().getScope());
+            assertEquals("johndoe", token.get().getUsername());
+            assertEquals(now + 3600, token.get().getExpiration());
+        }
+
+        assertTrue(targetTokens.getTokenByValue("refresh", OAuthToken.REFRESH_TOKEN_TYPE).isPresent());
+        assertFalse(targetTokens.getTokenByValue("expired").isPresent());
+
+        Optional<AuthorizationCode> code = targetCodes.getAuthorizationCodeByValue("code");
+
+        assertTrue(code.isPresent());
+        assertEquals("http://example.com/cb", code.get().getRedirectUrl());
+        assertEquals("challenge", code.get().getCodeChallenge());
+        assertFalse(targetCodes.getAuthorizationCodeByValue("expired-code").isPresent());
+
+        targetTokens.destroy();
+    }
+
+    @Test
+    public void invalidDumpIsRejected() throws Exception {
+
+        Files.write(dump, new byte[]{1, 2, 3, 4, 5});
+
+        Result<Long> imported = createDumpService(new OAuthConfiguration(), new InMemoryTokenRepository(),
+                new InMemoryAuthorizationCodeRepository()).importDump(dump);
+
+        assertFalse(imported.isSuccess());
+    }
+
+    @Test
+    public void corruptedRecordIsRejected() throws Exception {
+
+        // A token record shorter than its encoding
+        writeDump(out -> {
+            out.writeByte(1);
+            out.write(new byte[TokenDigests.DIGEST_LENGTH]);
+            out.writeInt(3);
+            out.write(new byte[]{1, 2, 3});
+            out.writeByte(0);
+        });
+
+        Result<Long> imported = createDumpService(new OAuthConfiguration(), new InMemoryTokenRepository(),
+                new InMemoryAuthorizationCodeRepository()).importDump(dump);
+
+        assertFalse(imported.isSuccess());
+    }
+
+    @Test
+    public void invalidRecordLengthIsRejected() throws Exception {
+
+        for (int length : new int[]{-1, Integer.MAX_VALUE}) {
+
+            writeDump(out -> {
+                out.writeByte(2);
+                out.writeInt(length);
+                out.writeByte(0);
+            });
+
+            Result<Long> imported = createDumpService(new OAuthConfiguration(), new InMemoryTokenRepository(),
+                    new InMemoryAuthorizationCodeRepository()).importDump(dump);
+
+            assertFalse(imported.isSuccess());
+        }
+    }
+
+    @Test
+    public void failedImportIsReported() throws Exception {
+
+        InMemoryTokenRepository sourceTokens = new InMemoryTokenRepository();
+        sourceTokens.save(createToken("access", OAuthToken.BEARER_TOKEN_TYPE, now + 3600));
+
+        assertTrue(createDumpService(new OAuthConfiguration(), sourceTokens, new InMemoryAuthorizationCodeRepository())
+                .exportDump(dump).isSuccess());
+
+        InMemoryTokenRepository failingTokens = new InMemoryTokenRepository() {
+            @Override
+            public void importTokens(List<StoredToken> tokens) {
+                throw new IllegalStateException("Unavailable");
+            }
+        };
+
+        Result<Long> imported = createDumpService(new OAuthConfiguration(), failingTokens,
+                new InMemoryAuthorizationCodeRepository()).importDump(dump);
+
+        assertFalse(imported.isSuccess());
+    }
+
+    private void writeDump(DumpWriter writer) throws IOException {
+
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(dump))) {
+            out.writeInt(0x49444401);
+            writer.write(out);
+        }
+    }
+
+    private interface DumpWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private OAuthDumpService createDumpService(OAuthConfiguration config, TokenRepository tokenRepository,
+                                               AuthorizationCodeRepository authorizationCodeRepository) {
+
+        OAuthDumpService dumpService = new OAuthDumpService();
+
+        ReflectionTestUtils.setField(dumpService, "config", config);
+        ReflectionTestUtils.setField(dumpService, "tokenRepository", tokenRepository);
+        ReflectionTestUtils.setField(dumpService, "authorizationCodeRepository", authorizationCodeRepository);
+
+        return dumpService;
+    }
+
+    private OAuthToken createToken(String value, String type, long expiration) {
+
+        return new OAuthToken()
+                .setValue(value)
+                .setType(type)
+                .setClientId("test")
+                .setScope("scope.test.1")
+                .setUsername("johndoe")
+                .setIssuedAt(now)
+                .setExpiration(expiration);
+    }
+
+    private AuthorizationCode createCode(String value, long expiration) {
+
+        return new AuthorizationCode()
+                .setCode(value)
+                .setClientId("test")
+                .setRedirectUrl("http://example.com/cb")
+                .setExpirationTime(expiration)
+                .setScope("scope.test.1")
+                .setUserId("johndoe")
+                .setCodeChallenge("challenge");
+    }
+}
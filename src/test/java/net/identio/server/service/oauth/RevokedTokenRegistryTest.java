@@ -0,0 +1,261 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth;
+
+import net.identio.server.service.oauth.infrastructure.InMemoryTokenRepository;
+import net.identio.server.service.oauth.infrastructure.TokenRepository;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RevokedTokenRegistryTest {
+
+    private OAuthConfiguration config;
+
+    private TokenRepository tokenRepository;
+
+    @Before
+    public void setUp() {
+
+        config = new OAuthConfiguration();
+        tokenRepository = new InMemoryTokenRepository();
+
+        // The markers are read by the tests
+        config.getRevocation().setShared(true);
+        config.getRevocation().setSyncInterval(0);
+    }
+
+    @Test
+    public void revokedTokenIsSeenByTheNodesSharingTheStore() throws Exception {
+
+        RevokedTokenRegistry registry = new RevokedTokenRegistry(config, tokenRepository);
+        RevokedTokenRegistry otherNode = new RevokedTokenRegistry(config, tokenRepository);
+
+        OAuthToken revoked = createToken("revoked");
+        OAuthToken active = createToken("active");
+
+        registry.revoke(revoked);
+
+        assertTrue(registry.isRevoked(revoked));
+        assertFalse(otherNode.isRevoked(revoked));
+
+        otherNode.sync();
+
+        assertTrue(otherNode.isRevoked(revoked));
+        assertFalse(otherNode.isRevoked(active));
+
+        assertArrayEquals(new boolean[]{false, true}, otherNode.areRevoked(Arrays.asList(active, revoked)));
+    }
+
+    @Test
+    public void markerOfAnotherNodeIsFound() throws Exception {
+
+        RevokedTokenRegistry registry = new RevokedTokenRegistry(config, tokenRepository);
+
+        OAuthToken revoked = createToken("revoked");
+
+        tokenRepository.save(new OAuthToken()
+                .setType(OAuthToken.REVOCATION_TYPE)
+                .setValue("revocation:revoked")
+                .setClientId("client")
+                .setScope("")
+                .setJwtId("revoked")
+                .setIssuedAt(System.currentTimeMillis() / 1000)
+                .setExpiration(revoked.getExpiration()));
+
+        // Lookups don't read the store
+        assertFalse(registry.isRevoked(revoked));
+
+        registry.sync();
+
+        assertTrue(registry.isRevoked(revoked));
+
+        tokenRepository.delete("revocation:revoked");
+        registry.sync();
+
+        // Kept locally once read
+        assertTrue(registry.isRevoked(revoked));
+    }
+
+    @Test
+    public void revocationsStayLocalWhenNotShared() throws Exception {
+
+        config.getRevocation().setShared(false);
+
+        RevokedTokenRegistry registry = new RevokedTokenRegistry(config, tokenRepository);
+        RevokedTokenRegistry otherNode = new RevokedTokenRegistry(config, tokenRepository);
+
+        OAuthToken revoked = createToken("revoked");
+
+        registry.revoke(revoked);
+
+        assertTrue(registry.isRevoked(revoked));
+        assertFalse(otherNode.isRevoked(revoked));
+    }
+
+    @Test
+    public void tokensIssuedBeforeBulkRevocationAreRevoked() throws Exception {
+
+        config.getRevocation().setShared(false);
+
+        RevokedTokenRegistry registry = new RevokedTokenRegistry(config, tokenRepository);
+
+        OAuthToken before = createToken("before");
+
+        long start = System.currentTimeMillis();
+
+        registry.revokeAllForUser("johndoe");
+
+        // The call doesn't wait for the cutoff second
+        assertTrue(System.currentTimeMillis() - start < 500);
+
+        // A token issued once the call returns is not revoked, even within the same second
+        OAuthToken sameSecond = createToken("same-second").setIssuedAt(System.currentTimeMillis() / 1000);
+        OAuthToken nextSecond = createToken("next-second").setIssuedAt(System.currentTimeMillis() / 1000 + 1);
+        OAuthToken otherUser = createToken("other").setUsername("janedoe").setClientId("other");
+
+        assertTrue(registry.isRevoked(before));
+        assertFalse(registry.isRevoked(sameSecond));
+        assertFalse(registry.isRevoked(nextSecond));
+        assertFalse(registry.isRevoked(otherUser));
+
+        registry.revokeAllForClient("other");
+
+        assertTrue(registry.isRevoked(otherUser));
+        assertFalse(registry.isRevoked(createToken("next").setUsername("janedoe").setClientId("other")
+                .setIssuedAt(System.currentTimeMillis() / 1000 + 1)));
+    }
+
+    @Test
+    public void markersAreNotEvictedByTheTokenCache() throws Exception {
+
+        RevokedTokenRegistry registry = new RevokedTokenRegistry(config, tokenRepository);
+
+        OAuthToken revoked = createToken("revoked");
+        OAuthToken cutOff = createToken("other").setClientId("other");
+
+        registry.revoke(revoked);
+        registry.revokeAllForClient("other");
+
+        // More tokens than the in-memory cache holds
+        for (int i = 0; i < 150000; i++) {
+            tokenRepository.save(createToken("token-" + i).setValue("token-" + i));
+        }
+
+        RevokedTokenRegistry otherNode = new RevokedTokenRegistry(config, tokenRepository);
+
+        assertTrue(otherNode.isRevoked(revoked));
+        assertTrue(otherNode.isRevoked(cutOff));
+    }
+
+    @Test
+    public void bulkRevocationIsSeenByTheNodesSharingTheStore() throws Exception {
+
+        RevokedTokenRegistry registry = new RevokedTokenRegistry(config, tokenRepository);
+        RevokedTokenRegistry otherNode = new RevokedTokenRegistry(config, tokenRepository);
+
+        OAuthToken userToken = createToken("user");
+        OAuthToken clientToken = createToken("client").setUsername("janedoe");
+        OAuthToken otherToken = createToken("other").setUsername("janedoe").setClientId("other");
+
+        registry.revokeAllForUser("johndoe");
+        registry.revokeAllForClient("client");
+        otherNode.sync();
+
+        assertArrayEquals(new boolean[]{true, true, false},
+                otherNode.areRevoked(Arrays.asList(userToken, clientToken, otherToken)));
+
+        // A new bulk revocation replaces the previous marker
+        registry.revokeAllForUser("johndoe");
+        otherNode.sync();
+
+        OAuthToken after = createToken("after").setClientId("other").setIssuedAt(System.currentTimeMillis() / 1000 + 1);
+
+        assertFalse(otherNode.isRevoked(after));
+        assertTrue(new RevokedTokenRegistry(config, tokenRepository).isRevoked(userToken));
+    }
+
+    @Test
+    public void exactEntriesFollowConcurrentRevocations() throws Exception {
+
+        config.getRevocation().setShared(false);
+        config.getRevocation().setMaxExactEntries(1000);
+        config.getRevocation().setBucketDuration(1);
+
+        RevokedTokenRegistry registry = new RevokedTokenRegistry(config, tokenRepository);
+
+        long expiration = System.currentTimeMillis() / 1000 + 3600;
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int thread = 0; thread < 8; thread++) {
+
+            int offset = thread;
+
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    registry.revoke("id-" + offset + "-" + i, expiration + i % 100);
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get(1, TimeUnit.MINUTES);
+        }
+
+        executor.shutdown();
+
+        int exactEntries = registry.getExactEntries();
+
+        assertTrue(exactEntries >= 0 && exactEntries <= 1000);
+
+        for (int thread = 0; thread < 8; thread++) {
+            for (int i = 0; i < 5000; i++) {
+                assertTrue(registry.isRevoked("id-" + thread + "-" + i, expiration + i % 100));
+            }
+        }
+    }
+
+    // Issued during the previous second: a bulk revocation made by the test cuts it off
+    private OAuthToken createToken(String jwtId) {
+
+        long now = System.currentTimeMillis() / 1000;
+
+        return new OAuthToken()
+                .setType(OAuthToken.BEARER_TOKEN_TYPE)
+                .setClientId("client")
+                .setUsername("johndoe")
+                .setJwtId(jwtId)
+                .setIssuedAt(now - 1)
+                .setExpiration(now + 3600);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth;
+
+import net.identio.server.model.Result;
+import net.identio.server.service.oauth.infrastructure.OAuthActorsRepository;
+import net.identio.server.service.oauth.infrastructure.TokenRepository;
+import net.identio.server.service.oauth.model.Client;
+import net.identio.server.service.oauth.model.OAuthErrors;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+public class TokenRevocationServiceTest {
+
+    @Mock
+    private OAuthActorsRepository actorsRepository;
+
+    @Mock
+    private TokenRepository tokenRepository;
+
+    @Mock
+    private OAuthConfiguration oAuthConfiguration;
+
+    @Mock
+    private ClientTokenReuseCache tokenReuseCache;
+
+    @InjectMocks
+    private TokenRevocationService tokenRevocationService = new TokenRevocationService();
+
+    @Before
+    public void setUp() {
+
+        Client client = new Client();
+        client.setClientId("test");
+
+        when(actorsRepository.getClientFromAuthorization(anyString())).thenReturn(Result.success(client));
+    }
+
+    @Test
+    public void tokenOfAnotherClientStaysInTheReuseCache() throws Exception {
+
+        when(tokenRepository.getTokenByValue("other-token")).thenReturn(Optional.of(new OAuthToken()
+                .setValue("other-token").setType(OAuthToken.BEARER_TOKEN_TYPE).setClientId("other")));
+
+        Result<Void> result = tokenRevocationService.revoke("other-token", null, "Basic dGVzdDp0ZXN0"); // test: test
+
+        assertEquals(OAuthErrors.UNAUTHORIZED_CLIENT, result.getErrorStatus());
+        verify(tokenReuseCache, never()).invalidateToken(anyString());
+        verify(tokenRepository, never()).delete(anyString());
+    }
+
+    @Test
+    public void revokedTokenIsDroppedFromTheReuseCache() throws Exception {
+
+        when(tokenRepository.getTokenByValue("own-token")).thenReturn(Optional.of(new OAuthToken()
+                .setValue("own-token").setType(OAuthToken.BEARER_TOKEN_TYPE).setClientId("test")));
+
+        Result<Void> result = tokenRevocationService.revoke("own-token", null, "Basic dGVzdDp0ZXN0"); // test: test
+
+        assertTrue(result.isSuccess());
+        verify(tokenReuseCache).invalidateToken("own-token");
+        verify(tokenRepository).delete("own-token");
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import net.identio.server.exceptions.InitializationException;
+import org.junit.Test;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNoException;
+import static org.junit.Assume.assumeTrue;
+
+public class TokenSigningAlgorithmsTest {
+
+    @Test
+    public void rsaKeysSignWithRs256() throws Exception {
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+
+        assertSignsAndVerifies(generator.generateKeyPair(), "RS256");
+    }
+
+    @Test
+    public void p256KeysSignWithEs256() throws Exception {
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+
+        assertSignsAndVerifies(generator.generateKeyPair(), "ES256");
+    }
+
+    @Test
+    public void p384KeysAreRejected() throws Exception {
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp384r1"));
+
+        KeyPair keyPair = generator.generateKeyPair();
+
+        try {
+            TokenSigningAlgorithms.forKeys(keyPair.getPublic(), keyPair.getPrivate());
+            fail("P-384 keys must be rejected");
+        } catch (InitializationException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void otherCurvesOfTheSameSizeAreRejected() throws Exception {
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+
+        try {
+            generator.initialize(new ECGenParameterSpec("secp256k1"));
+        } catch (InvalidAlgorithmParameterException e) {
+            assumeNoException("The runtime doesn't support secp256k1", e);
+        }
+
+        KeyPair keyPair = generator.generateKeyPair();
+
+        try {
+            TokenSigningAlgorithms.forKeys(keyPair.getPublic(), keyPair.getPrivate());
+            fail("secp256k1 keys must be rejected");
+        } catch (InitializationException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void ed25519KeysSignWithEdDsa() throws Exception {
+
+        assumeTrue(EdDsaAlgorithm.isSupported());
+
+        assertSignsAndVerifies(KeyPairGenerator.getInstance("Ed25519").generateKeyPair(), "EdDSA");
+    }
+
+    @Test
+    public void unsupportedKeysAreRejected() throws Exception {
+
+        KeyPair keyPair = KeyPairGenerator.getInstance("DSA").generateKeyPair();
+
+        try {
+            TokenSigningAlgorithms.forKeys(keyPair.getPublic(), keyPair.getPrivate());
+            fail("DSA keys must be rejected");
+        } catch (InitializationException e) {
+            // Expected
+        }
+    }
+
+    private void assertSignsAndVerifies(KeyPair keyPair, String name) throws Exception {
+
+        Algorithm algorithm = TokenSigningAlgorithms.forKeys(keyPair.getPublic(), keyPair.getPrivate());
+
+        assertEquals(name, algorithm.getName());
+
+        String token = JWT.create().withSubject("johndoe").sign(algorithm);
+
+        assertEquals(name, JWT.decode(token).getAlgorithm());
+
+        // A verifier built from the public key alone accepts the signature
+        JWT.require(TokenSigningAlgorithms.forKeys(keyPair.getPublic(), null)).build().verify(token);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.data.EmbeddedDataService;
+import net.identio.server.service.oauth.model.AuthorizationCode;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AuthorizationCodeConsumeTest {
+
+    private static final int CODES = 20;
+    private static final int REDEMPTIONS = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void inMemoryCodeIsRedeemedOnce() throws Exception {
+
+        assertRedeemedOnce(new InMemoryAuthorizationCodeRepository());
+    }
+
+    @Test
+    public void jdbcCodeIsRedeemedOnce() throws Exception {
+
+        assertRedeemedOnce(new JdbcAuthorizationCodeRepository(TestDataServices.createOAuthConfiguration("consume"),
+                TestDataServices.createH2DataService("consume")));
+    }
+
+    @Test
+    public void embeddedCodeIsRedeemedOnce() throws Exception {
+
+        EmbeddedDataService dataService = TestDataServices.createEmbeddedDataService("consume",
+                folder.getRoot().getAbsolutePath() + "/store.mv.db");
+
+        try {
+            assertRedeemedOnce(new EmbeddedAuthorizationCodeRepository(
+                    TestDataServices.createOAuthConfiguration("consume"), dataService));
+        } finally {
+            dataService.destroy();
+        }
+    }
+
+    // Concurrent redemptions of one code: exactly one of them gets the code
+    private void assertRedeemedOnce(AuthorizationCodeRepository repository) throws Exception {
+
+        ExecutorService executor = Executors.newFixedThreadPool(REDEMPTIONS);
+
+        try {
+            for (int i = 0; i < CODES; i++) {
+
+                String code = "code-" + i;
+
+                repository.save(new AuthorizationCode().setCode(code).setClientId("test")
+                        .setRedirectUrl("http://example.com/cb").setScope("scope.test.1").setUserId("johndoe")
+                        .setExpirationTime(System.currentTimeMillis() / 1000 + 60));
+
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<Boolean>> redemptions = new ArrayList<>();
+
+                for (int j = 0; j < REDEMPTIONS; j++) {
+                    redemptions.add(executor.submit(() -> {
+                        start.await();
+                        return repository.consume(code).isPresent();
+                    }));
+                }
+
+                start.countDown();
+
+                int successes = 0;
+
+                for (Future<Boolean> redemption : redemptions) {
+                    if (redemption.get(10, TimeUnit.SECONDS)) successes++;
+                }
+
+                assertEquals(1, successes);
+                assertFalse(repository.getAuthorizationCodeByValue(code).isPresent());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
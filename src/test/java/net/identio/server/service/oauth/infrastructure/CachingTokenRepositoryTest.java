@@ -0,0 +1,163 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.oauth.OAuthConfiguration;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class CachingTokenRepositoryTest {
+
+    private TokenRepository backend;
+
+    private CachingTokenRepository repository;
+
+    @Before
+    public void setUp() {
+
+        backend = mock(TokenRepository.class);
+
+        OAuthConfiguration.TokenCacheConfiguration config = new OAuthConfiguration.TokenCacheConfiguration();
+        config.setEnabled(true);
+
+        repository = new CachingTokenRepository(backend, config);
+    }
+
+    @Test
+    public void hotTokenIsFetchedOnce() throws Exception {
+
+        OAuthToken token = new OAuthToken().setValue("hot").setType(OAuthToken.BEARER_TOKEN_TYPE)
+                .setExpiration(System.currentTimeMillis() / 1000 + 3600);
+
+        when(backend.getTokenByValue("hot")).thenReturn(Optional.of(token));
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(repository.getTokenByValue("hot").isPresent());
+        }
+
+        assertTrue(repository.getTokenByValue("hot", OAuthToken.BEARER_TOKEN_TYPE).isPresent());
+        assertFalse(repository.getTokenByValue("hot", OAuthToken.REFRESH_TOKEN_TYPE).isPresent());
+
+        verify(backend, times(1)).getTokenByValue("hot");
+        assertEquals(1, repository.getMissCount());
+        assertEquals(11, repository.getHitCount());
+    }
+
+    @Test
+    public void unknownTokenIsCachedNegatively() throws Exception {
+
+        when(backend.getTokenByValue("garbage")).thenReturn(Optional.empty());
+
+        assertFalse(repository.getTokenByValue("garbage").isPresent());
+        assertFalse(repository.getTokenByValue("garbage").isPresent());
+
+        verify(backend, times(1)).getTokenByValue("garbage");
+        assertEquals(1, repository.getNegativeHitCount());
+    }
+
+    @Test
+    public void importDropsTheNegativeEntriesOfTheImportedTokens() throws Exception {
+
+        OAuthToken token = new OAuthToken().setValue("imported").setType(OAuthToken.BEARER_TOKEN_TYPE);
+
+        when(backend.getTokenByValue("imported")).thenReturn(Optional.empty()).thenReturn(Optional.of(token));
+        when(backend.getTokenByValue("garbage")).thenReturn(Optional.empty());
+
+        assertFalse(repository.getTokenByValue("imported").isPresent());
+        assertFalse(repository.getTokenByValue("garbage").isPresent());
+
+        repository.importTokens(Collections.singletonList(new StoredToken(TokenDigests.sha256("imported"), token)));
+
+        assertTrue(repository.getTokenByValue("imported").isPresent());
+        assertFalse(repository.getTokenByValue("garbage").isPresent());
+
+        verify(backend, times(2)).getTokenByValue("imported");
+        verify(backend, times(1)).getTokenByValue("garbage");
+    }
+
+    @Test
+    public void expiredTokenIsReloaded() throws Exception {
+
+        OAuthToken token = new OAuthToken().setValue("expired").setType(OAuthToken.BEARER_TOKEN_TYPE)
+                .setExpiration(System.currentTimeMillis() / 1000 - 1);
+
+        when(backend.getTokenByValue("expired")).thenReturn(Optional.of(token));
+
+        repository.getTokenByValue("expired");
+        repository.getTokenByValue("expired");
+
+        verify(backend, times(3)).getTokenByValue("expired");
+    }
+
+    @Test
+    public void deleteInvalidatesEntry() throws Exception {
+
+        OAuthToken token = new OAuthToken().setValue("deleted").setType(OAuthToken.REFRESH_TOKEN_TYPE);
+
+        when(backend.getTokenByValue("deleted")).thenReturn(Optional.of(token)).thenReturn(Optional.empty());
+
+        assertTrue(repository.getTokenByValue("deleted").isPresent());
+
+        repository.delete("deleted");
+
+        assertFalse(repository.getTokenByValue("deleted").isPresent());
+        verify(backend).delete("deleted");
+    }
+
+    @Test
+    public void concurrentLookupsAreCollapsed() throws Exception {
+
+        CountDownLatch backendEntered = new CountDownLatch(1);
+        CountDownLatch releaseBackend = new CountDownLatch(1);
+
+        when(backend.getTokenByValue("slow")).thenAnswer(invocation -> {
+            backendEntered.countDown();
+            releaseBackend.await();
+            return Optional.of(new OAuthToken().setValue("slow").setType(OAuthToken.BEARER_TOKEN_TYPE));
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        for (int i = 0; i < 8; i++) {
+            executor.submit(() -> repository.getTokenByValue("slow"));
+        }
+
+        backendEntered.await();
+        releaseBackend.countDown();
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        verify(backend, times(1)).getTokenByValue("slow");
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.data.cluster.ClusterNode;
+import net.identio.server.service.oauth.model.AuthorizationCode;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ClusterTokenRepositoryTest {
+
+    private static final int NODES = 3;
+
+    private List<ClusterNode> nodes = new ArrayList<>();
+
+    private List<ClusterTokenRepository> repositories = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+
+        List<String> members = new ArrayList<>();
+
+        for (int i = 0; i < NODES; i++) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                members.add("127.0.0.1:" + socket.getLocalPort());
+            }
+        }
+
+        for (String member : members) {
+            ClusterNode node = new ClusterNode(member, members, 31, "secret".getBytes(StandardCharsets.UTF_8));
+            node.start();
+            nodes.add(node);
+            repositories.add(new ClusterTokenRepository(node));
+        }
+
+        long deadline = System.currentTimeMillis() + 20000;
+
+        for (ClusterNode node : nodes) {
+            while (node.getLiveMembers().size() != NODES) {
+
+                assertTrue("Cluster didn't converge", System.currentTimeMillis() < deadline);
+
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+
+        for (ClusterNode node : nodes) {
+            node.close();
+        }
+    }
+
+    @Test
+    public void tokensOfAUserAreDeletedOnEveryNode() throws Exception {
+
+        for (int i = 0; i < 60; i++) {
+            repositories.get(i % NODES).save(createToken("token-" + i, i % 2 == 0 ? "johndoe" : "janedoe", "test"));
+        }
+
+        new ClusterAuthorizationCodeRepository(nodes.get(0)).save(createCode());
+
+        assertEquals(30, repositories.get(1).deleteByUsername("johndoe"));
+
+        for (int i = 0; i < 60; i++) {
+            assertEquals(i % 2 != 0, repositories.get(2).getTokenByValue("token-" + i).isPresent());
+        }
+    }
+
+    @Test
+    public void tokensOfAClientAreDeletedOnEveryNode() throws Exception {
+
+        for (int i = 0; i < 60; i++) {
+            repositories.get(i % NODES).save(createToken("token-" + i, "johndoe", i % 3 == 0 ? "test" : "other"));
+        }
+
+        assertEquals(20, repositories.get(0).deleteByClientId("test"));
+
+        for (int i = 0; i < 60; i++) {
+            assertEquals(i % 3 != 0, repositories.get(1).getTokenByValue("token-" + i).isPresent());
+        }
+    }
+
+    @Test
+    public void everyTokenIsExportedFromAnyNode() throws Exception {
+
+        Set<String> jwtIds = new HashSet<>();
+
+        for (int i = 0; i < 60; i++) {
+            repositories.get(i % NODES).save(createToken("token-" + i, "johndoe", "test"));
+            jwtIds.add("token-" + i);
+        }
+
+        ClusterAuthorizationCodeRepository codes = new ClusterAuthorizationCodeRepository(nodes.get(1));
+        codes.save(createCode());
+
+        // The codes stored in the same nodes are not exported with the tokens
+        Set<String> exported = new HashSet<>();
+        repositories.get(0).exportTokens(token -> exported.add(token.getToken().getJwtId()));
+
+        assertEquals(jwtIds, exported);
+
+        List<AuthorizationCode> exportedCodes = new ArrayList<>();
+        new ClusterAuthorizationCodeRepository(nodes.get(2)).exportCodes(exportedCodes::add);
+
+        assertEquals(1, exportedCodes.size());
+        assertEquals("code", exportedCodes.get(0).getCode());
+    }
+
+    private OAuthToken createToken(String value, String username, String clientId) {
+
+        return new OAuthToken()
+                .setValue(value)
+                .setType(OAuthToken.BEARER_TOKEN_TYPE)
+                .setClientId(clientId)
+                .setScope("scope.test.1")
+                .setUsername(username)
+                .setJwtId(value)
+                .setIssuedAt(System.currentTimeMillis() / 1000)
+                .setExpiration(System.currentTimeMillis() / 1000 + 3600);
+    }
+
+    private AuthorizationCode createCode() {
+
+        return new AuthorizationCode()
+                .setCode("code")
+                .setClientId("test")
+                .setRedirectUrl("http://example.com/cb")
+                .setExpirationTime(System.currentTimeMillis() / 1000 + 60)
+                .setScope("scope.test.1")
+                .setUserId("johndoe");
+    }
+}
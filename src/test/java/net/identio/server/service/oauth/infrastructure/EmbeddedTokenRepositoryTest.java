@@ -0,0 +1,197 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.data.EmbeddedDataService;
+import net.identio.server.service.oauth.OAuthConfiguration;
+import net.identio.server.service.oauth.model.AuthorizationCode;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class EmbeddedTokenRepositoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String path;
+
+    private OAuthConfiguration config = TestDataServices.createOAuthConfiguration("embedded");
+
+    private EmbeddedDataService dataService;
+
+    private EmbeddedTokenRepository repository;
+
+    @Before
+    public void setUp() throws Exception {
+
+        path = folder.getRoot().getAbsolutePath() + "/store.mv.db";
+
+        open();
+    }
+
+    @After
+    public void tearDown() {
+        dataService.destroy();
+    }
+
+    @Test
+    public void savedTokenIsReturned() throws Exception {
+
+        OAuthToken token = createToken("token", "johndoe", System.currentTimeMillis() / 1000 + 3600);
+
+        repository.save(token);
+
+        Optional<OAuthToken> result = repository.getTokenByValue("token", OAuthToken.BEARER_TOKEN_TYPE);
+
+        assertTrue(result.isPresent());
+        assertEquals("token", result.get().getValue());
+        assertEquals("client", result.get().getClientId());
+        assertEquals("scope.test.1 scope.test.2", result.get().getScope());
+        assertEquals("johndoe", result.get().getUsername());
+        assertEquals(token.getExpiration(), result.get().getExpiration());
+
+        assertFalse(repository.getTokenByValue("token", OAuthToken.REFRESH_TOKEN_TYPE).isPresent());
+        assertFalse(repository.getTokenByValue("unknown").isPresent());
+
+        List<Optional<OAuthToken>> results = repository.getTokensByValue(Arrays.asList("unknown", "token"));
+
+        assertFalse(results.get(0).isPresent());
+        assertTrue(results.get(1).isPresent());
+    }
+
+    @Test
+    public void storeIsPersistedAcrossRestarts() throws Exception {
+
+        repository.save(createToken("token", "johndoe", 0));
+
+        EmbeddedAuthorizationCodeRepository codeRepository = new EmbeddedAuthorizationCodeRepository(config, dataService);
+        codeRepository.save(createCode("code", System.currentTimeMillis() / 1000 + 60));
+
+        dataService.destroy();
+        open();
+
+        codeRepository = new EmbeddedAuthorizationCodeRepository(config, dataService);
+
+        assertTrue(repository.getTokenByValue("token").isPresent());
+        assertTrue(codeRepository.consume("code").isPresent());
+        assertFalse(codeRepository.consume("code").isPresent());
+    }
+
+    @Test
+    public void tokensAreDeletedByValueUserAndClient() throws Exception {
+
+        repository.save(createToken("token-1", "johndoe", 0));
+        repository.save(createToken("token-2", "johndoe", 0));
+        repository.save(createToken("token-3", "janedoe", 0));
+
+        repository.delete("token-1");
+        assertFalse(repository.getTokenByValue("token-1").isPresent());
+
+        assertEquals(1, repository.deleteByUsername("johndoe"));
+        assertTrue(repository.getTokenByValue("token-3").isPresent());
+
+        assertEquals(1, repository.deleteByClientId("client"));
+        assertFalse(repository.getTokenByValue("token-3").isPresent());
+    }
+
+    @Test
+    public void exportedTokensAreImported() throws Exception {
+
+        for (int i = 0; i < 100; i++) {
+            repository.save(createToken("token-" + i, "johndoe", 0));
+        }
+
+        List<StoredToken> exported = new ArrayList<>();
+        repository.exportTokens(exported::add);
+
+        assertEquals(100, exported.size());
+
+        InMemoryTokenRepository target = new InMemoryTokenRepository();
+        target.importTokens(exported);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(target.getTokenByValue("token-" + i).isPresent());
+        }
+    }
+
+    @Test
+    public void expiredDataIsReaped() throws Exception {
+
+        long now = System.currentTimeMillis() / 1000;
+
+        repository.save(createToken("expired", "johndoe", now - 1));
+        repository.save(createToken("active", "johndoe", now + 3600));
+        repository.save(createToken("eternal", "johndoe", 0));
+
+        EmbeddedAuthorizationCodeRepository codeRepository = new EmbeddedAuthorizationCodeRepository(config, dataService);
+        codeRepository.save(createCode("expired", now - 1));
+        codeRepository.save(createCode("active", now + 60));
+
+        EmbeddedExpiredDataReaper reaper = new EmbeddedExpiredDataReaper(config.getReaper(), dataService.getStore("embedded"));
+
+        try {
+            reaper.reap();
+        } finally {
+            reaper.destroy();
+        }
+
+        assertFalse(repository.getTokenByValue("expired").isPresent());
+        assertTrue(repository.getTokenByValue("active").isPresent());
+        assertTrue(repository.getTokenByValue("eternal").isPresent());
+        assertFalse(codeRepository.getAuthorizationCodeByValue("expired").isPresent());
+        assertTrue(codeRepository.getAuthorizationCodeByValue("active").isPresent());
+    }
+
+    private void open() throws Exception {
+
+        dataService = TestDataServices.createEmbeddedDataService("embedded", path);
+        repository = new EmbeddedTokenRepository(config, dataService);
+    }
+
+    private OAuthToken createToken(String value, String username, long expiration) {
+
+        return new OAuthToken()
+                .setValue(value)
+                .setType(OAuthToken.BEARER_TOKEN_TYPE)
+                .setClientId("client")
+                .setScope("scope.test.1 scope.test.2")
+                .setUsername(username)
+                .setSubject(username)
+                .setExpiration(expiration);
+    }
+
+    private AuthorizationCode createCode(String code, long expiration) {
+
+        return new AuthorizationCode().setCode(code).setClientId("client").setRedirectUrl("http://example.com/cb")
+                .setScope("scope.test.1").setUserId("johndoe").setExpirationTime(expiration);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import com.google.common.cache.Cache;
+import net.identio.server.service.oauth.OAuthConfiguration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+
+import static org.junit.Assert.*;
+
+public class FileOAuthActorsRepositoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File actorsFile;
+
+    private OAuthConfiguration config;
+
+    @Before
+    public void setUp() throws Exception {
+
+        actorsFile = folder.newFile("oauth-actors.yml");
+        writeActors("secret");
+
+        config = new OAuthConfiguration();
+        config.setActorsFile(actorsFile.getAbsolutePath());
+    }
+
+    @Test
+    public void verifiedCredentialsAreCached() throws Exception {
+
+        FileOAuthActorsRepository repository = new FileOAuthActorsRepository(config);
+
+        assertTrue(repository.getClientFromAuthorization(basic("client", "secret")).isSuccess());
+        assertTrue(repository.getClientFromAuthorization(basic("client", "secret")).isSuccess());
+        assertTrue(repository.getResourceServerFromAuthorization(basic("rs", "secret")).isSuccess());
+        assertTrue(repository.getResourceServerFromAuthorization(basic("rs", "secret")).isSuccess());
+
+        // One entry per actor
+        assertEquals(2, cachedCredentials(repository));
+    }
+
+    @Test
+    public void wrongSecretIsNeverServedFromTheCache() throws Exception {
+
+        FileOAuthActorsRepository repository = new FileOAuthActorsRepository(config);
+
+        assertTrue(repository.getClientFromAuthorization(basic("client", "secret")).isSuccess());
+
+        for (int i = 0; i < 2; i++) {
+            assertFalse(repository.getClientFromAuthorization(basic("client", "wrong")).isSuccess());
+        }
+
+        // The secret of the client doesn't authenticate the resource server with the same id
+        assertFalse(repository.getResourceServerFromAuthorization(basic("client", "secret")).isSuccess());
+
+        // Failed checks are not cached
+        assertEquals(1, cachedCredentials(repository));
+    }
+
+    @Test
+    public void entriesExpireAfterTheTtl() throws Exception {
+
+        config.getCredentialCache().setTtl(1);
+
+        FileOAuthActorsRepository repository = new FileOAuthActorsRepository(config);
+
+        assertTrue(repository.getClientFromAuthorization(basic("client", "secret")).isSuccess());
+
+        Thread.sleep(1100);
+
+        assertEquals(0, cachedCredentials(repository));
+
+        assertTrue(repository.getClientFromAuthorization(basic("client", "secret")).isSuccess());
+    }
+
+    @Test
+    public void changedSecretIsRejectedOnceTheFileIsReloaded() throws Exception {
+
+        FileOAuthActorsRepository repository = new FileOAuthActorsRepository(config);
+
+        assertTrue(repository.getClientFromAuthorization(basic("client", "secret")).isSuccess());
+
+        // An unchanged file keeps the cached checks
+        repository.refreshActors();
+
+        assertEquals(1, cachedCredentials(repository));
+
+        writeActors("rotated");
+        repository.refreshActors();
+
+        assertEquals(0, cachedCredentials(repository));
+
+        assertFalse(repository.getClientFromAuthorization(basic("client", "secret")).isSuccess());
+        assertTrue(repository.getClientFromAuthorization(basic("client", "rotated")).isSuccess());
+    }
+
+    @Test
+    public void unreadableFileKeepsTheCurrentActors() throws Exception {
+
+        FileOAuthActorsRepository repository = new FileOAuthActorsRepository(config);
+
+        Files.write(actorsFile.toPath(), "clients: [".getBytes(StandardCharsets.UTF_8));
+        repository.refreshActors();
+
+        assertTrue(repository.getClientFromAuthorization(basic("client", "secret")).isSuccess());
+    }
+
+    @Test
+    public void disabledCacheChecksEveryTime() throws Exception {
+
+        config.getCredentialCache().setTtl(0);
+
+        FileOAuthActorsRepository repository = new FileOAuthActorsRepository(config);
+
+        assertTrue(repository.getClientFromAuthorization(basic("client", "secret")).isSuccess());
+        assertTrue(repository.getClientFromAuthorization(basic("client", "secret")).isSuccess());
+
+        assertNull(ReflectionTestUtils.getField(repository, "verifiedCredentials"));
+    }
+
+    private static long cachedCredentials(FileOAuthActorsRepository repository) {
+
+        Cache<?, ?> cache = (Cache<?, ?>) ReflectionTestUtils.getField(repository, "verifiedCredentials");
+
+        // Expired entries are only dropped by a cleanup
+        cache.cleanUp();
+
+        return cache.size();
+    }
+
+    private void writeActors(String secret) throws Exception {
+
+        String hash = "{bcrypt}" + BCrypt.hashpw(secret, BCrypt.gensalt(4));
+
+        String actors = "clients:\n" +
+                "  - name: Test Client\n" +
+                "    clientId: client\n" +
+                "    clientSecret: \"" + hash + "\"\n" +
+                "resourceServers:\n" +
+                "  - name: Test API\n" +
+                "    clientId: rs\n" +
+                "    clientSecret: \"" + hash + "\"\n";
+
+        Files.write(actorsFile.toPath(), actors.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String basic(String id, String secret) {
+
+        return "Basic " + Base64.getEncoder().encodeToString((id + ":" + secret).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.data.journal.Journal;
+import net.identio.server.service.oauth.OAuthConfiguration;
+import net.identio.server.service.oauth.model.AuthorizationCode;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class InMemoryJournalReplayTest {
+
+    private static final int SEGMENT_SIZE = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private OAuthConfiguration.JournalConfiguration config = new OAuthConfiguration.JournalConfiguration();
+
+    @Test
+    public void tokensAreRestoredFromTheJournal() throws Exception {
+
+        Path directory = folder.newFolder("tokens").toPath();
+        long now = System.currentTimeMillis() / 1000;
+
+        try (Journal journal = new Journal(directory, SEGMENT_SIZE)) {
+
+            InMemoryTokenRepository repository = new InMemoryTokenRepository(journal, config);
+
+            for (int i = 0; i < 100; i++) {
+                repository.save(createToken("token-" + i, "johndoe", now + 3600));
+            }
+
+            repository.save(createToken("other", "janedoe", now + 3600));
+            repository.save(createToken("expiring", "janedoe", now + 1));
+
+            repository.delete("token-0");
+            repository.deleteByUsername("janedoe");
+            repository.save(createToken("expiring", "janedoe", now - 1));
+        }
+
+        try (Journal journal = new Journal(directory, SEGMENT_SIZE)) {
+
+            InMemoryTokenRepository repository = new InMemoryTokenRepository(journal, config);
+
+            assertFalse(repository.getTokenByValue("token-0").isPresent());
+            assertFalse(repository.getTokenByValue("other").isPresent());
+            assertFalse(repository.getTokenByValue("expiring").isPresent());
+
+            for (int i = 1; i < 100; i++) {
+
+                Optional<OAuthToken> token = repository.getTokenByValue("token-" + i, OAuthToken.BEARER_TOKEN_TYPE);
+
+                assertTrue(token.isPresent());
+                assertEquals("token-" + i, token.get().getValue());
+                assertEquals("johndoe", token.get().getUsername());
+                assertEquals(now + 3600, token.get().getExpiration());
+            }
+
+            // The secondary indexes are rebuilt as well
+            assertEquals(99, repository.deleteByUsername("johndoe"));
+        }
+    }
+
+    @Test
+    public void authorizationCodesAreRestoredFromTheJournal() throws Exception {
+
+        Path directory = folder.newFolder("codes").toPath();
+        long now = System.currentTimeMillis() / 1000;
+
+        try (Journal journal = new Journal(directory, SEGMENT_SIZE)) {
+
+            InMemoryAuthorizationCodeRepository repository = new InMemoryAuthorizationCodeRepository(journal, config);
+
+            repository.save(createCode("redeemed", now + 60));
+            repository.save(createCode("pending", now + 60));
+            repository.save(createCode("expired", now - 1));
+
+            assertTrue(repository.consume("redeemed").isPresent());
+        }
+
+        try (Journal journal = new Journal(directory, SEGMENT_SIZE)) {
+
+            InMemoryAuthorizationCodeRepository repository = new InMemoryAuthorizationCodeRepository(journal, config);
+
+            assertFalse(repository.consume("redeemed").isPresent());
+            assertFalse(repository.consume("expired").isPresent());
+
+            Optional<AuthorizationCode> code = repository.consume("pending");
+
+            assertTrue(code.isPresent());
+            assertEquals("test", code.get().getClientId());
+            assertEquals("http://example.com/cb", code.get().getRedirectUrl());
+            assertEquals("johndoe", code.get().getUserId());
+        }
+    }
+
+    private OAuthToken createToken(String value, String username, long expiration) {
+
+        return new OAuthToken()
+                .setValue(value)
+                .setType(OAuthToken.BEARER_TOKEN_TYPE)
+                .setClientId("client")
+                .setScope("scope.test.1 scope.test.2")
+                .setUsername(username)
+                .setSubject(username)
+                .setExpiration(expiration);
+    }
+
+    private AuthorizationCode createCode(String code, long expiration) {
+
+        return new AuthorizationCode().setCode(code).setClientId("test").setRedirectUrl("http://example.com/cb")
+                .setScope("scope.test.1").setUserId("johndoe").setExpirationTime(expiration);
+    }
+}
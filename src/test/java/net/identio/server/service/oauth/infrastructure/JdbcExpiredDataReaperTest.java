@@ -0,0 +1,141 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.data.JdbcDataService;
+import net.identio.server.service.oauth.OAuthConfiguration;
+import net.identio.server.service.oauth.model.AuthorizationCode;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JdbcExpiredDataReaperTest {
+
+    private static final int BATCH_SIZE = 10;
+
+    // Enough expired rows for several batches, the last one being partial
+    private static final int EXPIRED = 25;
+
+    private JdbcDataService dataService;
+
+    private JdbcTokenRepository tokenRepository;
+
+    private JdbcAuthorizationCodeRepository codeRepository;
+
+    private JdbcExpiredDataReaper reaper;
+
+    private long now;
+
+    @Before
+    public void setUp() throws Exception {
+
+        dataService = TestDataServices.createH2DataService("reaper");
+
+        OAuthConfiguration config = TestDataServices.createOAuthConfiguration("reaper");
+        config.getReaper().setBatchSize(BATCH_SIZE);
+        config.getReaper().setBatchPause(1);
+        // The test triggers the purge itself
+        config.getReaper().setInterval(3600);
+
+        tokenRepository = new JdbcTokenRepository(config, dataService);
+        codeRepository = new JdbcAuthorizationCodeRepository(config, dataService);
+        reaper = new JdbcExpiredDataReaper(config.getReaper(), dataService.getDataSource("reaper"));
+
+        now = System.currentTimeMillis() / 1000;
+    }
+
+    @After
+    public void tearDown() {
+
+        reaper.destroy();
+        tokenRepository.destroy();
+    }
+
+    @Test
+    public void expiredTokensAndCodesAreReapedByBatches() throws Exception {
+
+        for (int i = 0; i < EXPIRED; i++) {
+            tokenRepository.save(createToken("expired-" + i, OAuthToken.BEARER_TOKEN_TYPE, now - 10));
+            codeRepository.save(createCode("expired-" + i, now - 10));
+        }
+
+        tokenRepository.save(createToken("active", OAuthToken.BEARER_TOKEN_TYPE, now + 3600));
+        tokenRepository.save(createToken("eternal", OAuthToken.REFRESH_TOKEN_TYPE, 0));
+        tokenRepository.save(createToken("marker", OAuthToken.REVOCATION_TYPE, now + 3600));
+        codeRepository.save(createCode("active", now + 60));
+
+        reaper.reap();
+
+        for (int i = 0; i < EXPIRED; i++) {
+            assertFalse(tokenRepository.getTokenByValue("expired-" + i).isPresent());
+            assertFalse(codeRepository.getAuthorizationCodeByValue("expired-" + i).isPresent());
+        }
+
+        assertTrue(tokenRepository.getTokenByValue("active", OAuthToken.BEARER_TOKEN_TYPE).isPresent());
+        assertTrue(tokenRepository.getTokenByValue("eternal", OAuthToken.REFRESH_TOKEN_TYPE).isPresent());
+        assertTrue(codeRepository.getAuthorizationCodeByValue("active").isPresent());
+
+        // The revocation markers are still shared with the other nodes
+        List<OAuthToken> revocations = new ArrayList<>();
+        tokenRepository.exportRevocations(0, revocations::add);
+
+        assertEquals(1, revocations.size());
+        assertEquals("marker-jti", revocations.get(0).getJwtId());
+    }
+
+    @Test
+    public void nothingIsReapedWithoutExpiredData() throws Exception {
+
+        tokenRepository.save(createToken("active", OAuthToken.BEARER_TOKEN_TYPE, now + 3600));
+        codeRepository.save(createCode("active", now + 60));
+
+        reaper.reap();
+
+        assertTrue(tokenRepository.getTokenByValue("active").isPresent());
+        assertTrue(codeRepository.getAuthorizationCodeByValue("active").isPresent());
+    }
+
+    private OAuthToken createToken(String value, String type, long expiration) {
+
+        return new OAuthToken()
+                .setValue(value)
+                .setType(type)
+                .setClientId("client")
+                .setScope("scope.test.1")
+                .setUsername("johndoe")
+                .setSubject("johndoe")
+                .setJwtId(value + "-jti")
+                .setIssuedAt(now)
+                .setExpiration(expiration);
+    }
+
+    private AuthorizationCode createCode(String code, long expiration) {
+
+        return new AuthorizationCode().setCode(code).setClientId("client").setRedirectUrl("http://example.com/cb")
+                .setScope("scope.test.1").setUserId("johndoe").setExpirationTime(expiration);
+    }
+}
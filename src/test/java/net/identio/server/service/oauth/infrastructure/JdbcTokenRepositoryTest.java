@@ -0,0 +1,97 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.data.JdbcDataService;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class JdbcTokenRepositoryTest {
+
+    private JdbcTokenRepository repository;
+
+    @Before
+    public void setUp() throws Exception {
+
+        JdbcDataService dataService = TestDataServices.createH2DataService("tokens");
+
+        repository = new JdbcTokenRepository(TestDataServices.createOAuthConfiguration("tokens"), dataService);
+    }
+
+    @After
+    public void tearDown() {
+        repository.destroy();
+    }
+
+    @Test
+    public void savedTokenIsReturned() throws Exception {
+
+        repository.save(createToken("token", "johndoe", "client"));
+
+        Optional<OAuthToken> result = repository.getTokenByValue("token", OAuthToken.BEARER_TOKEN_TYPE);
+
+        assertTrue(result.isPresent());
+        assertEquals("client", result.get().getClientId());
+        assertEquals("johndoe", result.get().getUsername());
+
+        assertFalse(repository.getTokenByValue("token", OAuthToken.REFRESH_TOKEN_TYPE).isPresent());
+    }
+
+    @Test
+    public void tokensAreDeletedByUserAndClient() throws Exception {
+
+        // More tokens than a delete batch
+        for (int i = 0; i < 2500; i++) {
+            repository.save(createToken("user-" + i, "johndoe", "client"));
+        }
+        repository.save(createToken("other-user", "janedoe", "client"));
+        repository.save(createToken("other-client", "janedoe", "other"));
+
+        assertEquals(2500, repository.deleteByUsername("johndoe"));
+        assertEquals(0, repository.deleteByUsername("johndoe"));
+
+        assertFalse(repository.getTokenByValue("user-0").isPresent());
+        assertFalse(repository.getTokenByValue("user-2499").isPresent());
+        assertTrue(repository.getTokenByValue("other-user").isPresent());
+
+        assertEquals(1, repository.deleteByClientId("client"));
+
+        assertFalse(repository.getTokenByValue("other-user").isPresent());
+        assertTrue(repository.getTokenByValue("other-client").isPresent());
+    }
+
+    private OAuthToken createToken(String value, String username, String clientId) {
+
+        return new OAuthToken()
+                .setValue(value)
+                .setType(OAuthToken.BEARER_TOKEN_TYPE)
+                .setClientId(clientId)
+                .setScope("scope.test.1")
+                .setUsername(username)
+                .setExpiration(System.currentTimeMillis() / 1000 + 3600);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.exceptions.InitializationException;
+import net.identio.server.service.data.*;
+import net.identio.server.service.oauth.AuthorizationCodeSealer;
+import net.identio.server.service.oauth.OAuthConfiguration;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OAuthInfrastructureConfigurationTest {
+
+    private List<OAuthInfrastructureConfiguration> configurations = new ArrayList<>();
+
+    @After
+    public void tearDown() throws Exception {
+
+        for (OAuthInfrastructureConfiguration configuration : configurations) {
+            configuration.destroy();
+        }
+    }
+
+    @Test
+    public void tokensAreInMemoryByDefault() throws Exception {
+
+        TokenRepository repository = createConfiguration(new OAuthConfiguration()).getRefreshTokenRepository();
+
+        assertTrue(repository instanceof InMemoryTokenRepository);
+    }
+
+    @Test
+    public void tokensAreRoutedToTheirDataSource() throws Exception {
+
+        OAuthConfiguration config = new OAuthConfiguration();
+        config.getStorage().getAccessTokens().setDataSource("in-memory");
+        config.getStorage().getRefreshTokens().setDataSource("tokens");
+
+        TokenRepository repository = createConfiguration(config, createJdbcDataSource("tokens")).getRefreshTokenRepository();
+
+        assertTrue(repository instanceof RoutingTokenRepository);
+
+        repository.save(createToken("access", OAuthToken.BEARER_TOKEN_TYPE));
+        repository.save(createToken("refresh", OAuthToken.REFRESH_TOKEN_TYPE));
+
+        assertTrue(repository.getTokenByValue("access").isPresent());
+        assertTrue(repository.getTokenByValue("refresh", OAuthToken.REFRESH_TOKEN_TYPE).isPresent());
+        assertFalse(repository.getTokenByValue("access", OAuthToken.REFRESH_TOKEN_TYPE).isPresent());
+    }
+
+    @Test
+    public void tieredTokensOfTheSameDataSourceShareOneCache() throws Exception {
+
+        OAuthConfiguration config = new OAuthConfiguration();
+        config.setDataSource("tokens");
+        config.getStorage().getAccessTokens().setTiered(true);
+        config.getStorage().getRefreshTokens().setTiered(true);
+
+        TokenRepository repository = createConfiguration(config, createJdbcDataSource("tokens")).getRefreshTokenRepository();
+
+        assertTrue(repository instanceof CachingTokenRepository);
+    }
+
+    @Test
+    public void revocationsAreSharedWhenTheTokensAreInAJdbcDataSource() throws Exception {
+
+        OAuthConfiguration config = new OAuthConfiguration();
+
+        createConfiguration(config);
+
+        assertFalse(config.getRevocation().getShared());
+
+        config = new OAuthConfiguration();
+        config.setDataSource("tokens");
+
+        createConfiguration(config, createJdbcDataSource("tokens"));
+
+        assertTrue(config.getRevocation().getShared());
+
+        // An explicit setting is kept
+        config = new OAuthConfiguration();
+        config.setDataSource("tokens");
+        config.getRevocation().setShared(false);
+
+        createConfiguration(config, createJdbcDataSource("tokens"));
+
+        assertFalse(config.getRevocation().getShared());
+    }
+
+    @Test
+    public void tieredStorageIsRejectedWithTheTokenCache() throws Exception {
+
+        OAuthConfiguration config = new OAuthConfiguration();
+        config.getTokenCache().setEnabled(true);
+        config.getStorage().getRefreshTokens().setTiered(true);
+
+        try {
+            createConfiguration(config);
+            fail("Tiered storage and the token cache must not be combined");
+        } catch (InitializationException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void shardsAreSharedByTheJdbcDataSources() throws Exception {
+
+        OAuthConfiguration config = new OAuthConfiguration();
+        config.getStorage().getAccessTokens().setDataSource("access");
+        config.getStorage().getRefreshTokens().setDataSource("refresh");
+        config.getSharding().setDataSources(Arrays.asList("shard-1", "shard-2"));
+
+        TokenRepository repository = createConfiguration(config, createJdbcDataSource("access"),
+                createJdbcDataSource("refresh"), createJdbcDataSource("shard-1"), createJdbcDataSource("shard-2"))
+                .getRefreshTokenRepository();
+
+        assertTrue(repository instanceof ShardedTokenRepository);
+    }
+
+    @Test
+    public void inMemoryDataSourcesHaveTheirOwnJournal() throws Exception {
+
+        File directory = Files.createTempDirectory("oauth-journal").toFile();
+
+        OAuthConfiguration config = new OAuthConfiguration();
+        config.getJournal().setDirectory(directory.getAbsolutePath());
+        config.getStorage().getAccessTokens().setDataSource("in-memory");
+        config.getStorage().getRefreshTokens().setDataSource("memory");
+
+        DataConfiguration.DataSourcesConfiguration memory = new DataConfiguration.DataSourcesConfiguration();
+        memory.setName("memory");
+        memory.setType("in-memory");
+
+        TokenRepository repository = createConfiguration(config, memory).getRefreshTokenRepository();
+
+        repository.save(createToken("access", OAuthToken.BEARER_TOKEN_TYPE));
+        repository.save(createToken("refresh", OAuthToken.REFRESH_TOKEN_TYPE));
+
+        configurations.remove(0).destroy();
+
+        // After a restart, each token is replayed in its own data source only
+        repository = createConfiguration(config, memory).getRefreshTokenRepository();
+
+        assertTrue(repository.getTokenByValue("access", OAuthToken.BEARER_TOKEN_TYPE).isPresent());
+        assertTrue(repository.getTokenByValue("refresh", OAuthToken.REFRESH_TOKEN_TYPE).isPresent());
+        assertFalse(repository.getTokenByValue("refresh", OAuthToken.BEARER_TOKEN_TYPE).isPresent());
+        assertFalse(repository.getTokenByValue("access", OAuthToken.REFRESH_TOKEN_TYPE).isPresent());
+    }
+
+    private DataConfiguration.DataSourcesConfiguration createJdbcDataSource(String name) {
+
+        DataConfiguration.DataSourcesConfiguration dataSource = new DataConfiguration.DataSourcesConfiguration();
+        dataSource.setName(name);
+        dataSource.setType("jdbc");
+        dataSource.setDriver("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:mem:" + name + "-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("sa");
+
+        return dataSource;
+    }
+
+    private OAuthInfrastructureConfiguration createConfiguration(OAuthConfiguration config,
+                                                                 DataConfiguration.DataSourcesConfiguration... dataSources)
+            throws Exception {
+
+        config.getReaper().setEnabled(false);
+
+        DataConfiguration dataConfiguration = new DataConfiguration();
+        dataConfiguration.setDataSources(Arrays.asList(dataSources));
+        dataConfiguration.afterPropertiesSet();
+
+        DataService dataService = new DataService();
+        ReflectionTestUtils.setField(dataService, "config", dataConfiguration);
+
+        OAuthInfrastructureConfiguration configuration = new OAuthInfrastructureConfiguration();
+
+        ReflectionTestUtils.setField(configuration, "config", config);
+        ReflectionTestUtils.setField(configuration, "dataService", dataService);
+        ReflectionTestUtils.setField(configuration, "jdbcDataService", new JdbcDataService(dataConfiguration));
+        ReflectionTestUtils.setField(configuration, "embeddedDataService", new EmbeddedDataService(dataConfiguration));
+        ReflectionTestUtils.setField(configuration, "clusterDataService", new ClusterDataService(dataConfiguration));
+        ReflectionTestUtils.setField(configuration, "authorizationCodeSealer", new AuthorizationCodeSealer(config));
+
+        configuration.afterPropertiesSet();
+
+        configurations.add(configuration);
+
+        return configuration;
+    }
+
+    private OAuthToken createToken(String value, String type) {
+
+        return new OAuthToken()
+                .setValue(value)
+                .setType(type)
+                .setClientId("test")
+                .setScope("scope.test.1")
+                .setUsername("johndoe")
+                .setIssuedAt(System.currentTimeMillis() / 1000)
+                .setExpiration(System.currentTimeMillis() / 1000 + 3600);
+    }
+}
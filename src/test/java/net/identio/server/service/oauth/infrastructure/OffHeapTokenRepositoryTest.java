@@ -0,0 +1,174 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class OffHeapTokenRepositoryTest {
+
+    private OffHeapTokenRepository repository;
+
+    @Before
+    public void setUp() {
+        repository = new OffHeapTokenRepository(1024 * 1024);
+    }
+
+    @Test
+    public void savedTokenIsReturned() throws Exception {
+
+        OAuthToken token = createToken("token", System.currentTimeMillis() / 1000 + 3600);
+
+        repository.save(token);
+
+        Optional<OAuthToken> result = repository.getTokenByValue("token", OAuthToken.BEARER_TOKEN_TYPE);
+
+        assertTrue(result.isPresent());
+        assertEquals("token", result.get().getValue());
+        assertEquals("client", result.get().getClientId());
+        assertEquals("scope.test.1 scope.test.2", result.get().getScope());
+        assertEquals("johndoe", result.get().getSubject());
+        assertNull(result.get().getAudience());
+        assertEquals(token.getExpiration(), result.get().getExpiration());
+        assertTrue(result.get().isActive());
+
+        assertFalse(repository.getTokenByValue("token", OAuthToken.REFRESH_TOKEN_TYPE).isPresent());
+        assertFalse(repository.getTokenByValue("unknown").isPresent());
+    }
+
+    @Test
+    public void deletedTokenIsNotReturned() throws Exception {
+
+        repository.save(createToken("token", 0));
+        repository.delete("token");
+
+        assertFalse(repository.getTokenByValue("token").isPresent());
+        assertEquals(0, repository.getSize());
+    }
+
+    @Test
+    public void expiredTokenIsNotReturned() throws Exception {
+
+        repository.save(createToken("token", System.currentTimeMillis() / 1000 - 1));
+
+        assertFalse(repository.getTokenByValue("token").isPresent());
+    }
+
+    @Test
+    public void oldestTokensAreEvictedWhenFull() throws Exception {
+
+        for (int i = 0; i < 100000; i++) {
+            repository.save(createToken("token-" + i, 0));
+        }
+
+        assertFalse(repository.getTokenByValue("token-0").isPresent());
+        assertTrue(repository.getTokenByValue("token-99999").isPresent());
+        assertTrue(repository.getSize() < 100000);
+        assertEquals(100000 - repository.getSize(), repository.getEvictionCount());
+    }
+
+    @Test
+    public void expiredTokensAreNotCountedAsEvictions() throws Exception {
+
+        long expired = System.currentTimeMillis() / 1000 - 1;
+
+        for (int i = 0; i < 100000; i++) {
+            repository.save(createToken("token-" + i, expired));
+        }
+
+        repository.save(createToken("live", 0));
+
+        assertTrue(repository.getTokenByValue("live").isPresent());
+        assertEquals(0, repository.getEvictionCount());
+    }
+
+    @Test
+    public void deletedTokensSpaceIsReclaimed() throws Exception {
+
+        for (int i = 0; i < 100; i++) {
+            repository.save(createToken("live-" + i, 0));
+        }
+
+        for (int i = 0; i < 100000; i++) {
+            repository.save(createToken("token-" + i, 0));
+            repository.delete("token-" + i);
+        }
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(repository.getTokenByValue("live-" + i).isPresent());
+        }
+        assertEquals(100, repository.getSize());
+        assertEquals(0, repository.getEvictionCount());
+    }
+
+    @Test
+    public void replacedTokensSpaceIsReclaimed() throws Exception {
+
+        long expiration = System.currentTimeMillis() / 1000 + 3600;
+
+        repository.save(createToken("live", 0));
+
+        for (int i = 0; i < 100000; i++) {
+            repository.save(createToken("token", expiration + i));
+        }
+
+        assertTrue(repository.getTokenByValue("live").isPresent());
+        assertEquals(expiration + 99999, repository.getTokenByValue("token").get().getExpiration());
+        assertEquals(2, repository.getSize());
+        assertEquals(0, repository.getEvictionCount());
+    }
+
+    @Test
+    public void tokensAreDeletedByUserAndClient() throws Exception {
+
+        for (int i = 0; i < 1000; i++) {
+            repository.save(createToken("token-" + i, 0));
+        }
+        repository.save(createToken("other", 0).setUsername("janedoe").setClientId("other"));
+
+        assertEquals(1000, repository.deleteByUsername("johndoe"));
+        assertEquals(0, repository.deleteByClientId("client"));
+
+        assertFalse(repository.getTokenByValue("token-0").isPresent());
+        assertEquals(1, repository.getSize());
+
+        assertEquals(1, repository.deleteByClientId("other"));
+        assertEquals(0, repository.getSize());
+    }
+
+    private OAuthToken createToken(String value, long expiration) {
+
+        return new OAuthToken()
+                .setValue(value)
+                .setType(OAuthToken.BEARER_TOKEN_TYPE)
+                .setActive(true)
+                .setClientId("client")
+                .setScope("scope.test.1 scope.test.2")
+                .setUsername("johndoe")
+                .setSubject("johndoe")
+                .setExpiration(expiration);
+    }
+}
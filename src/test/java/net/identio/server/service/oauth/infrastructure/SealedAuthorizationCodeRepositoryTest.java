@@ -0,0 +1,145 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.exceptions.InitializationException;
+import net.identio.server.service.data.JdbcDataService;
+import net.identio.server.service.oauth.AuthorizationCodeSealer;
+import net.identio.server.service.oauth.OAuthConfiguration;
+import net.identio.server.service.oauth.model.AuthorizationCode;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Base64;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class SealedAuthorizationCodeRepositoryTest {
+
+    private AuthorizationCodeSealer sealer;
+
+    private SealedAuthorizationCodeRepository repository;
+
+    @Before
+    public void setUp() throws Exception {
+
+        OAuthConfiguration config = new OAuthConfiguration();
+        config.getStatelessCode().setEnabled(true);
+        config.getStatelessCode().setMaxUsedCodes(2);
+
+        sealer = new AuthorizationCodeSealer(config);
+        repository = new SealedAuthorizationCodeRepository(sealer, new UsedAuthorizationCodeCache(config.getStatelessCode()));
+    }
+
+    @Test
+    public void codeIsRedeemedOnce() throws Exception {
+
+        String code = sealer.seal(createCode());
+
+        Optional<AuthorizationCode> result = repository.consume(code);
+
+        assertTrue(result.isPresent());
+        assertEquals("test", result.get().getClientId());
+        assertEquals("http://example.com/cb", result.get().getRedirectUrl());
+        assertEquals("johndoe", result.get().getUserId());
+        assertEquals("challenge", result.get().getCodeChallenge());
+        assertNull(result.get().getCodeChallengeMethod());
+
+        assertFalse(repository.consume(code).isPresent());
+    }
+
+    @Test
+    public void tamperedCodeIsRejected() throws Exception {
+
+        char[] code = sealer.seal(createCode()).toCharArray();
+        code[code.length / 2] = code[code.length / 2] == 'A' ? 'B' : 'A';
+
+        assertFalse(repository.consume(new String(code)).isPresent());
+        assertFalse(repository.consume("1234").isPresent());
+    }
+
+    @Test
+    public void redemptionIsRefusedWhenCacheIsFull() throws Exception {
+
+        assertTrue(repository.consume(sealer.seal(createCode())).isPresent());
+        assertTrue(repository.consume(sealer.seal(createCode())).isPresent());
+        assertFalse(repository.consume(sealer.seal(createCode())).isPresent());
+    }
+
+    @Test
+    public void codeIsRedeemedOnceAcrossNodes() throws Exception {
+
+        OAuthConfiguration config = new OAuthConfiguration();
+        config.getStatelessCode().setEnabled(true);
+        config.getStatelessCode().setKey(Base64.getEncoder().encodeToString(new byte[32]));
+
+        JdbcDataService dataService = TestDataServices.createH2DataService("used-codes");
+
+        AuthorizationCodeSealer firstSealer = new AuthorizationCodeSealer(config);
+        SealedAuthorizationCodeRepository firstNode = new SealedAuthorizationCodeRepository(firstSealer,
+                new JdbcUsedAuthorizationCodeStore(dataService, "used-codes"));
+        SealedAuthorizationCodeRepository secondNode = new SealedAuthorizationCodeRepository(new AuthorizationCodeSealer(config),
+                new JdbcUsedAuthorizationCodeStore(dataService, "used-codes"));
+
+        String code = firstSealer.seal(createCode());
+
+        assertTrue(secondNode.consume(code).isPresent());
+        assertFalse(firstNode.consume(code).isPresent());
+        assertFalse(secondNode.consume(code).isPresent());
+
+        assertTrue(firstNode.consume(firstSealer.seal(createCode())).isPresent());
+    }
+
+    @Test
+    public void invalidKeyLengthIsRejected() {
+
+        OAuthConfiguration config = new OAuthConfiguration();
+        config.getStatelessCode().setKey(Base64.getEncoder().encodeToString(new byte[20]));
+
+        try {
+            new AuthorizationCodeSealer(config);
+            fail("A 20 bytes key must be rejected");
+        } catch (InitializationException e) {
+            // Expected
+        }
+
+        config.getStatelessCode().setKey("not base64!");
+
+        try {
+            new AuthorizationCodeSealer(config);
+            fail("A key that is not base64 must be rejected");
+        } catch (InitializationException e) {
+            // Expected
+        }
+    }
+
+    private AuthorizationCode createCode() {
+
+        return new AuthorizationCode()
+                .setClientId("test")
+                .setRedirectUrl("http://example.com/cb")
+                .setExpirationTime(System.currentTimeMillis() / 1000 + 60)
+                .setScope("scope.test.1")
+                .setUserId("johndoe")
+                .setCodeChallenge("challenge");
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import net.identio.server.service.data.JdbcDataService;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenDeleteException;
+import net.identio.server.service.oauth.infrastructure.exceptions.TokenFetchException;
+import net.identio.server.service.oauth.model.OAuthToken;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class ShardedTokenRepositoryTest {
+
+    private static final int VIRTUAL_NODES = 160;
+
+    private LinkedHashMap<String, JdbcTokenRepository> shards = new LinkedHashMap<>();
+
+    private Map<String, JdbcDataService> dataServices = new HashMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+
+        for (int i = 0; i < 3; i++) {
+
+            String dataSource = "shard-" + i;
+
+            dataServices.put(dataSource, TestDataServices.createH2DataService(dataSource));
+
+            shards.put(dataSource, new JdbcTokenRepository(TestDataServices.createOAuthConfiguration(dataSource),
+                    dataServices.get(dataSource), dataSource));
+        }
+    }
+
+    @After
+    public void tearDown() {
+
+        for (JdbcTokenRepository shard : shards.values()) {
+            shard.destroy();
+        }
+    }
+
+    @Test
+    public void eachTokenIsStoredOnOneShard() throws Exception {
+
+        ShardedTokenRepository repository = new ShardedTokenRepository(shards, VIRTUAL_NODES);
+
+        List<OAuthToken> tokens = saveTokens(repository, 300);
+
+        for (OAuthToken token : tokens) {
+            assertTrue(repository.getTokenByValue(token.getValue(), OAuthToken.BEARER_TOKEN_TYPE).isPresent());
+            assertEquals(1, countCopies(token));
+        }
+
+        // Every shard gets a share of the tokens
+        for (JdbcTokenRepository shard : shards.values()) {
+            assertTrue(countTokens(shard, tokens) > 300 / 10);
+        }
+
+        // A repository built over the same shards routes the tokens the same way
+        ShardedTokenRepository other = new ShardedTokenRepository(new LinkedHashMap<>(shards), VIRTUAL_NODES);
+
+        for (OAuthToken token : tokens) {
+            assertTrue(other.getTokenByValue(token.getValue()).isPresent());
+        }
+    }
+
+    @Test
+    public void batchLookupKeepsTheOrderOfTheValues() throws Exception {
+
+        ShardedTokenRepository repository = new ShardedTokenRepository(shards, VIRTUAL_NODES);
+
+        List<OAuthToken> tokens = saveTokens(repository, 50);
+
+        List<String> values = new ArrayList<>();
+        for (OAuthToken token : tokens) {
+            values.add(token.getValue());
+            values.add("unknown-" + token.getValue());
+        }
+
+        List<Optional<OAuthToken>> results = repository.getTokensByValue(values);
+
+        assertEquals(values.size(), results.size());
+
+        for (int i = 0; i < tokens.size(); i++) {
+            assertEquals(tokens.get(i).getValue(), results.get(2 * i).get().getValue());
+            assertFalse(results.get(2 * i + 1).isPresent());
+        }
+    }
+
+    @Test
+    public void deletesReachEveryShard() throws Exception {
+
+        ShardedTokenRepository repository = new ShardedTokenRepository(shards, VIRTUAL_NODES);
+
+        List<OAuthToken> tokens = saveTokens(repository, 60);
+
+        repository.delete(tokens.get(0).getValue());
+        assertFalse(repository.getTokenByValue(tokens.get(0).getValue()).isPresent());
+
+        assertEquals(59, repository.deleteByUsername("johndoe"));
+
+        for (OAuthToken token : tokens) {
+            assertEquals(0, countCopies(token));
+        }
+    }
+
+    @Test
+    public void rebalanceAfterAddingAShard() throws Exception {
+
+        LinkedHashMap<String, JdbcTokenRepository> initialShards = new LinkedHashMap<>(shards);
+        initialShards.remove("shard-2");
+
+        List<OAuthToken> tokens = saveTokens(new ShardedTokenRepository(initialShards, VIRTUAL_NODES), 600);
+
+        ShardedTokenRepository repository = new ShardedTokenRepository(shards, VIRTUAL_NODES);
+
+        long moved = repository.rebalance();
+
+        // Roughly a third of the tokens belong to the new shard, and only those are moved
+        assertEquals(countTokens(shards.get("shard-2"), tokens), moved);
+        assertTrue(moved > tokens.size() / 5 && moved < tokens.size() / 2);
+
+        for (OAuthToken token : tokens) {
+            assertTrue(repository.getTokenByValue(token.getValue()).isPresent());
+            assertEquals(1, countCopies(token));
+        }
+    }
+
+    @Test
+    public void tokensRevokedDuringRebalanceAreNotMoved() throws Exception {
+
+        LinkedHashMap<String, JdbcTokenRepository> initialShards = new LinkedHashMap<>(shards);
+        initialShards.remove("shard-2");
+
+        List<OAuthToken> tokens = saveTokens(new ShardedTokenRepository(initialShards, VIRTUAL_NODES), 100);
+
+        // Every scanned token is revoked before it is moved
+        LinkedHashMap<String, JdbcTokenRepository> revokingShards = new LinkedHashMap<>();
+
+        for (String dataSource : shards.keySet()) {
+            revokingShards.put(dataSource, new JdbcTokenRepository(TestDataServices.createOAuthConfiguration(dataSource),
+                    dataServices.get(dataSource), dataSource) {
+
+                @Override
+                public long scanTokens(long afterId, int limit, List<StoredToken> scanned) throws TokenFetchException {
+
+                    long lastId = super.scanTokens(afterId, limit, scanned);
+
+                    for (StoredToken token : scanned) {
+                        try {
+                            delete(token.getDigest());
+                        } catch (TokenDeleteException e) {
+                            throw new TokenFetchException(e);
+                        }
+                    }
+
+                    return lastId;
+                }
+            });
+        }
+
+        assertEquals(0, new ShardedTokenRepository(revokingShards, VIRTUAL_NODES).rebalance());
+
+        for (OAuthToken token : tokens) {
+            assertEquals(0, countCopies(token));
+        }
+    }
+
+    private List<OAuthToken> saveTokens(TokenRepository repository, int count) throws Exception {
+
+        List<OAuthToken> tokens = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+
+            OAuthToken token = new OAuthToken()
+                    .setType(OAuthToken.BEARER_TOKEN_TYPE)
+                    .setValue("token-" + i)
+                    .setClientId("client")
+                    .setScope("scope.test.1")
+                    .setUsername("johndoe")
+                    .setSubject("johndoe")
+                    .setExpiration(System.currentTimeMillis() / 1000 + 3600);
+
+            repository.save(token);
+            tokens.add(token);
+        }
+
+        return tokens;
+    }
+
+    private int countCopies(OAuthToken token) throws Exception {
+
+        int copies = 0;
+
+        for (JdbcTokenRepository shard : shards.values()) {
+            if (shard.getTokenByValue(token.getValue()).isPresent()) copies++;
+        }
+
+        return copies;
+    }
+
+    private int countTokens(JdbcTokenRepository shard, List<OAuthToken> tokens) throws Exception {
+
+        int count = 0;
+
+        for (OAuthToken token : tokens) {
+            if (shard.getTokenByValue(token.getValue()).isPresent()) count++;
+        }
+
+        return count;
+    }
+}
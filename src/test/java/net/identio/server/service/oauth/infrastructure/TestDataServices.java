@@ -0,0 +1,96 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import net.identio.server.service.data.DataConfiguration;
+import net.identio.server.service.data.EmbeddedDataService;
+import net.identio.server.service.data.JdbcDataService;
+import net.identio.server.service.oauth.OAuthConfiguration;
+
+import java.sql.Connection;
+import java.util.Collections;
+
+// Data services backed by a private in-memory H2 database with the OAuth schema, or by an embedded store file
+public class TestDataServices {
+
+    public static JdbcDataService createH2DataService(String dataSourceName) throws Exception {
+
+        DataConfiguration.DataSourcesConfiguration dataSource = new DataConfiguration.DataSourcesConfiguration();
+        dataSource.setName(dataSourceName);
+        dataSource.setType("jdbc");
+        dataSource.setDriver("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:mem:" + dataSourceName + "-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("sa");
+
+        DataConfiguration dataConfiguration = new DataConfiguration();
+        dataConfiguration.setDataSources(Collections.singletonList(dataSource));
+        dataConfiguration.afterPropertiesSet();
+
+        JdbcDataService dataService = new JdbcDataService(dataConfiguration);
+
+        try (Connection connection = dataService.getDataSource(dataSourceName).getConnection()) {
+            updateSchema(connection);
+        }
+
+        return dataService;
+    }
+
+    public static void updateSchema(Connection connection) throws Exception {
+
+        Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(connection));
+
+        database.setDatabaseChangeLogTableName("oauth_cl");
+        database.setDatabaseChangeLogLockTableName("oauth_cl_lock");
+
+        new Liquibase("db-schemas/oauth.yaml", new ClassLoaderResourceAccessor(), database)
+                .update(new Contexts(), new LabelExpression());
+    }
+
+    public static EmbeddedDataService createEmbeddedDataService(String dataSourceName, String path) throws Exception {
+
+        DataConfiguration.DataSourcesConfiguration dataSource = new DataConfiguration.DataSourcesConfiguration();
+        dataSource.setName(dataSourceName);
+        dataSource.setType("embedded");
+        dataSource.setUrl(path);
+
+        DataConfiguration dataConfiguration = new DataConfiguration();
+        dataConfiguration.setDataSources(Collections.singletonList(dataSource));
+        dataConfiguration.afterPropertiesSet();
+
+        return new EmbeddedDataService(dataConfiguration);
+    }
+
+    public static OAuthConfiguration createOAuthConfiguration(String dataSourceName) {
+
+        OAuthConfiguration config = new OAuthConfiguration();
+        config.setDataSource(dataSourceName);
+
+        return config;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.oauth.infrastructure;
+
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.LiquibaseException;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.crypto.codec.Hex;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import static org.junit.Assert.*;
+
+public class TokenHashMigrationTest {
+
+    private Connection connection;
+
+    private Liquibase liquibase;
+
+    @Before
+    public void setUp() throws Exception {
+
+        connection = DriverManager.getConnection("jdbc:h2:mem:migration-" + System.nanoTime(), "sa", "sa");
+
+        Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(connection));
+
+        // Liquibase doesn't find lower case changelog tables on H2 once created: the update runs twice here
+        database.setDatabaseChangeLogTableName("OAUTH_CL");
+        database.setDatabaseChangeLogLockTableName("OAUTH_CL_LOCK");
+
+        liquibase = new Liquibase("db-schemas/oauth.yaml", new ClassLoaderResourceAccessor(), database);
+
+        // Schema of the tokens before the migration
+        liquibase.update(2, new Contexts(), new LabelExpression());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.close();
+    }
+
+    @Test
+    public void existingTokensAreMigrated() throws Exception {
+
+        for (int i = 1; i <= 2500; i++) {
+            insertToken(i, new String(Hex.encode(TokenDigests.sha256("token-" + i))));
+        }
+
+        liquibase.update(new Contexts(), new LabelExpression());
+
+        try (PreparedStatement statement = connection.prepareStatement("SELECT id, token_hash FROM tokens;");
+             ResultSet rs = statement.executeQuery()) {
+
+            int rows = 0;
+
+            while (rs.next()) {
+                assertArrayEquals(TokenDigests.sha256("token-" + rs.getLong("id")), rs.getBytes("token_hash"));
+                rows++;
+            }
+
+            assertEquals(2500, rows);
+        }
+    }
+
+    @Test
+    public void malformedHashFailsWithTheRowId() throws Exception {
+
+        insertToken(1, new String(Hex.encode(TokenDigests.sha256("token-1"))));
+        insertToken(2, new String(Hex.encode(TokenDigests.sha256("token-2"))).replace('a', 'z'));
+
+        try {
+            liquibase.update(new Contexts(), new LabelExpression());
+            fail("The migration must fail");
+        } catch (LiquibaseException e) {
+            assertTrue(causeMessages(e).contains("Malformed hash of token row 2"));
+        }
+    }
+
+    private void insertToken(long id, String hash) throws Exception {
+
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO tokens " +
+                "(id, hash, active, value, type, client_id, expiration, scope, username) " +
+                "VALUES (?, ?, true, ?, 'Bearer', 'client', ?, 'scope.test.1', 'johndoe');")) {
+
+            statement.setLong(1, id);
+            statement.setString(2, hash);
+            statement.setString(3, "token-" + id);
+            statement.setLong(4, System.currentTimeMillis() / 1000 + 3600);
+
+            statement.executeUpdate();
+        }
+
+        // Liquibase turned the auto-commit off
+        connection.commit();
+    }
+
+    private String causeMessages(Throwable e) {
+
+        StringBuilder messages = new StringBuilder();
+
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            messages.append(cause.getMessage()).append('\n');
+        }
+
+        return messages.toString();
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.signature;
+
+import net.identio.server.boot.GlobalConfiguration;
+import net.identio.server.exceptions.InitializationException;
+import net.identio.server.service.oauth.JsonWebKeys;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+
+import static org.junit.Assert.*;
+
+public class SigningKeyServiceTest {
+
+    private static final String PASSWORD = "password";
+
+    private static final int ACTIVATION_DELAY = 600;
+    private static final int RETENTION = 3600;
+
+    @ClassRule
+    public static TemporaryFolder keysFolder = new TemporaryFolder();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // The certificate of the new key starts after the one of the old key
+    private static KeyStore.PrivateKeyEntry oldKey;
+    private static KeyStore.PrivateKeyEntry newKey;
+    private static KeyStore.PrivateKeyEntry ecKey;
+
+    private static String oldKeyId;
+    private static String newKeyId;
+
+    private GlobalConfiguration config;
+
+    private File keystore;
+
+    @BeforeClass
+    public static void generateKeys() throws Exception {
+
+        File keys = new File(keysFolder.getRoot(), "keys.p12");
+
+        generateKey(keys, "old", "-2d");
+        generateKey(keys, "new", "-1d");
+        generateKey(keys, "ec", "EC", "256", "-1d");
+
+        KeyStore ks = KeyStore.getInstance("PKCS12");
+
+        try (FileInputStream fis = new FileInputStream(keys)) {
+            ks.load(fis, PASSWORD.toCharArray());
+        }
+
+        oldKey = (KeyStore.PrivateKeyEntry) ks.getEntry("old", new KeyStore.PasswordProtection(PASSWORD.toCharArray()));
+        newKey = (KeyStore.PrivateKeyEntry) ks.getEntry("new", new KeyStore.PasswordProtection(PASSWORD.toCharArray()));
+        ecKey = (KeyStore.PrivateKeyEntry) ks.getEntry("ec", new KeyStore.PasswordProtection(PASSWORD.toCharArray()));
+
+        oldKeyId = JsonWebKeys.thumbprint(oldKey.getCertificate().getPublicKey());
+        newKeyId = JsonWebKeys.thumbprint(newKey.getCertificate().getPublicKey());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+
+        keystore = folder.newFile("sign.p12");
+
+        config = new GlobalConfiguration();
+        config.setBasePublicUrl("https://localhost");
+        config.setSignatureKeystorePath(keystore.getPath());
+        config.setSignatureKeystorePassword(PASSWORD);
+        config.getSignatureKeyRotation().setActivationDelay(ACTIVATION_DELAY);
+        config.getSignatureKeyRotation().setRetention(RETENTION);
+    }
+
+    @Test
+    public void keysFoundAtStartupAreActiveAtOnce() throws Exception {
+
+        writeKeystore(oldKey, newKey);
+
+        SigningKeyService service = new SigningKeyService(config);
+
+        assertEquals(newKeyId, service.getActiveKey().getKeyId());
+        assertEquals(2, service.getKeySet().getPublishedKeys().size());
+        assertEquals(newKeyId, service.getKeySet().getPublishedKeys().get(0).getKeyId());
+    }
+
+    @Test
+    public void addedKeyIsPublishedBeforeItsActivation() throws Exception {
+
+        writeKeystore(oldKey);
+
+        SigningKeyService service = new SigningKeyService(config);
+
+        long now = System.currentTimeMillis() / 1000;
+
+        writeKeystore(oldKey, newKey);
+
+        service.rotateKeys(now);
+
+        // The new key can be fetched by the relying parties, but nothing is signed with it yet
+        assertEquals(oldKeyId, service.getActiveKey().getKeyId());
+        assertNotNull(service.getKeySet().getKey(newKeyId));
+
+        service.rotateKeys(now + ACTIVATION_DELAY - 1);
+
+        assertEquals(oldKeyId, service.getActiveKey().getKeyId());
+
+        service.rotateKeys(now + ACTIVATION_DELAY);
+
+        assertEquals(newKeyId, service.getActiveKey().getKeyId());
+        assertEquals(newKeyId, service.getKeySet().getPublishedKeys().get(0).getKeyId());
+        assertNotNull(service.getKeySet().getKey(oldKeyId));
+    }
+
+    @Test
+    public void replacedKeyIsPublishedDuringTheRetention() throws Exception {
+
+        writeKeystore(oldKey);
+
+        SigningKeyService service = new SigningKeyService(config);
+
+        long now = System.currentTimeMillis() / 1000;
+
+        // The old key is removed from the keystore along with the addition of the new one
+        writeKeystore(newKey);
+
+        service.rotateKeys(now);
+
+        assertEquals(oldKeyId, service.getActiveKey().getKeyId());
+
+        long activation = now + ACTIVATION_DELAY;
+
+        service.rotateKeys(activation);
+
+        assertEquals(newKeyId, service.getActiveKey().getKeyId());
+
+        service.rotateKeys(activation + RETENTION);
+
+        // Tokens signed by the old key are verified through its kid until the end of the retention
+        SigningKey retiredKey = service.getKeySet().getKey(oldKeyId);
+
+        assertNotNull(retiredKey);
+        assertEquals(oldKey.getCertificate(), retiredKey.getCertificate());
+        assertEquals(2, service.getKeySet().getPublishedKeys().size());
+
+        service.rotateKeys(activation + RETENTION + 1);
+
+        assertNull(service.getKeySet().getKey(oldKeyId));
+        assertEquals(newKeyId, service.getKeySet().getKey(newKeyId).getKeyId());
+        assertEquals(1, service.getKeySet().getPublishedKeys().size());
+    }
+
+    @Test
+    public void currentKeysAreKeptWhenKeystoreIsUnreadable() throws Exception {
+
+        writeKeystore(oldKey, newKey);
+
+        SigningKeyService service = new SigningKeyService(config);
+
+        SigningKeyService.KeySet keySet = service.getKeySet();
+
+        long now = System.currentTimeMillis() / 1000;
+
+        Files.write(keystore.toPath(), new byte[]{1, 2, 3, 4, 5});
+
+        service.rotateKeys(now);
+
+        assertSame(keySet, service.getKeySet());
+
+        // A keystore without keys is rejected too
+        writeKeystore();
+
+        service.rotateKeys(now + ACTIVATION_DELAY + RETENTION + 1);
+
+        assertSame(keySet, service.getKeySet());
+        assertEquals(newKeyId, service.getActiveKey().getKeyId());
+
+        // Once fixed, the keystore is used again
+        writeKeystore(oldKey);
+
+        service.rotateKeys(now + 2 * (ACTIVATION_DELAY + RETENTION));
+
+        assertEquals(oldKeyId, service.getActiveKey().getKeyId());
+    }
+
+    @Test
+    public void keystoreSharedWithSamlRefusesNonRsaKeys() throws Exception {
+
+        writeKeystore(oldKey, ecKey);
+
+        try {
+            new SigningKeyService(config);
+            fail("The SAML signature keystore must only hold RSA keys");
+        } catch (InitializationException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void accessTokenKeystoreAcceptsEcKeys() throws Exception {
+
+        writeKeystore(ecKey);
+
+        // The SAML keystore is not read
+        config.setSignatureKeystorePath(new File(folder.getRoot(), "saml.p12").getPath());
+        config.setAccessTokenKeystorePath(keystore.getPath());
+        config.setAccessTokenKeystorePassword(PASSWORD);
+
+        assertEquals("ES256", new SigningKeyService(config).getActiveKey().getAlgorithm().getName());
+    }
+
+    private static void generateKey(File keystore, String alias, String startDate) throws Exception {
+        generateKey(keystore, alias, "RSA", "2048", startDate);
+    }
+
+    private static void generateKey(File keystore, String alias, String keyAlg, String keySize, String startDate)
+            throws Exception {
+
+        String keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-keyalg", keyAlg, "-keysize", keySize,
+                "-alias", alias, "-dname", "CN=" + alias, "-startdate", startDate, "-validity", "30",
+                "-storetype", "PKCS12", "-keystore", keystore.getPath(),
+                "-storepass", PASSWORD, "-keypass", PASSWORD)
+                .redirectErrorStream(true)
+                .start();
+
+        assertEquals(0, process.waitFor());
+    }
+
+    private void writeKeystore(KeyStore.PrivateKeyEntry... entries) throws Exception {
+
+        KeyStore ks = KeyStore.getInstance("PKCS12");
+        ks.load(null, PASSWORD.toCharArray());
+
+        for (int i = 0; i < entries.length; i++) {
+            ks.setEntry("key-" + i, entries[i], new KeyStore.PasswordProtection(PASSWORD.toCharArray()));
+        }
+
+        try (FileOutputStream fos = new FileOutputStream(keystore)) {
+            ks.store(fos, PASSWORD.toCharArray());
+        }
+    }
+}
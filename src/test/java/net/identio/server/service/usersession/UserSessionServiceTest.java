@@ -0,0 +1,203 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.service.usersession;
+
+import net.identio.server.exceptions.UnknownAuthLevelException;
+import net.identio.server.model.AuthLevel;
+import net.identio.server.model.AuthSession;
+import net.identio.server.model.UserSession;
+import net.identio.server.service.authentication.AuthenticationService;
+import net.identio.server.service.authentication.local.LocalAuthMethod;
+import net.identio.server.service.authpolicy.AuthPolicyService;
+import net.identio.server.service.data.journal.Journal;
+import net.identio.server.service.oauth.OAuthConfiguration;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class UserSessionServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private UserSessionConfiguration config;
+
+    private OAuthConfiguration oAuthConfiguration;
+
+    private AuthenticationService authenticationService;
+
+    private AuthPolicyService authPolicyService;
+
+    private LocalAuthMethod authMethod;
+
+    private AuthLevel authLevel;
+
+    private List<UserSessionService> services = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+
+        config = new UserSessionConfiguration();
+        config.setDuration(60);
+
+        oAuthConfiguration = new OAuthConfiguration();
+        oAuthConfiguration.getJournal().setDirectory(folder.getRoot().getPath());
+
+        authMethod = new LocalAuthMethod();
+        authMethod.setName("local");
+
+        authenticationService = new AuthenticationService();
+        authenticationService.registerExplicit(authMethod, null);
+
+        authLevel = new AuthLevel();
+        authLevel.setName("medium");
+
+        authPolicyService = mock(AuthPolicyService.class);
+        when(authPolicyService.getAuthLevelByName(anyString())).thenAnswer(invocation -> {
+
+            if (!"medium".equals(invocation.getArguments()[0])) throw new UnknownAuthLevelException("Unknown level");
+
+            return authLevel;
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+
+        for (UserSessionService service : services) {
+            service.destroy();
+        }
+    }
+
+    @Test
+    public void sessionsSurviveARestart() throws Exception {
+
+        UserSessionService service = startService();
+
+        UserSession authenticated = service.createUserSession();
+        AuthSession authSession = authenticated.addAuthSession("johndoe", authMethod, authLevel);
+        service.updateUserSession(authenticated);
+
+        UserSession loggedOut = service.createUserSession();
+        service.removeUserSession(loggedOut.getId());
+
+        service.destroy();
+
+        UserSessionService restarted = startService();
+
+        UserSession recovered = restarted.getUserSession(authenticated.getId());
+
+        assertEquals(authenticated.getId(), recovered.getId());
+        assertEquals("johndoe", recovered.getUserId());
+        assertEquals(1, recovered.getAuthSessions().size());
+        assertSame(authMethod, recovered.getAuthSessions().get(0).getAuthMethod());
+        assertSame(authLevel, recovered.getAuthSessions().get(0).getAuthLevel());
+        assertEquals(authSession.getAuthInstant(), recovered.getAuthSessions().get(0).getAuthInstant());
+        assertTrue(recovered.getValidatedAuthMethods().contains(authMethod));
+
+        // A removed session is replaced by a new one
+        assertNotEquals(loggedOut.getId(), restarted.getUserSession(loggedOut.getId()).getId());
+    }
+
+    @Test
+    public void changesAreOnlyRecordedWhenWrittenBack() throws Exception {
+
+        UserSessionService service = startService();
+
+        UserSession session = service.createUserSession();
+        session.addAuthSession("johndoe", authMethod, authLevel);
+
+        service.destroy();
+
+        UserSession recovered = startService().getUserSession(session.getId());
+
+        assertEquals(session.getId(), recovered.getId());
+        assertNull(recovered.getUserId());
+        assertTrue(recovered.getAuthSessions().isEmpty());
+    }
+
+    @Test
+    public void sessionWithAnUnknownLevelIsDropped() throws Exception {
+
+        UserSessionService service = startService();
+
+        AuthLevel removedLevel = new AuthLevel();
+        removedLevel.setName("removed");
+
+        UserSession session = service.createUserSession();
+        session.addAuthSession("johndoe", authMethod, removedLevel);
+        service.updateUserSession(session);
+
+        service.destroy();
+
+        assertNotEquals(session.getId(), startService().getUserSession(session.getId()).getId());
+    }
+
+    @Test
+    public void expiredSessionsAreNotReplayed() throws Exception {
+
+        UserSession session = new UserSession();
+        session.setId("expired");
+
+        long writeTime = DateTime.now(DateTimeZone.UTC).minusMinutes(config.getDuration() + 1).getMillis();
+
+        try (Journal journal = new Journal(folder.getRoot().toPath().resolve("sessions"), 64 * 1024)) {
+
+            journal.recover(new Journal.Replayer() {
+                @Override
+                public void put(byte[] key, byte[] value) {
+                }
+
+                @Override
+                public void remove(byte[] key) {
+                }
+            }, 1);
+
+            journal.put("expired".getBytes(StandardCharsets.UTF_8), UserSessionRecordCodec.encode(session, writeTime));
+        }
+
+        assertNotEquals("expired", startService().getUserSession("expired").getId());
+    }
+
+    private UserSessionService startService() {
+
+        UserSessionService service = new UserSessionService(config, oAuthConfiguration, authenticationService,
+                authPolicyService);
+        service.afterSingletonsInstantiated();
+
+        services.add(service);
+
+        return service;
+    }
+}
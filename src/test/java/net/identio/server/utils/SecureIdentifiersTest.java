@@ -0,0 +1,101 @@
+/*
+ * This file is part of Ident.io.
+ *
+ * Ident.io - A flexible authentication server
+ * Copyright (c) 2017 Loeiz TANGUY
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.identio.server.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class SecureIdentifiersTest {
+
+    private static final int THREADS = 8;
+    private static final int IDENTIFIERS_PER_THREAD = 10000;
+
+    @Test
+    public void identifiersHaveTheExpectedLength() {
+
+        assertEquals(22, SecureIdentifiers.generate(16).length());
+        assertEquals(43, SecureIdentifiers.generate(32).length());
+
+        // Longer than the per-thread buffer
+        assertEquals(1366, SecureIdentifiers.generate(1024).length());
+
+        for (int byteLength = 1; byteLength <= 64; byteLength++) {
+            assertEquals(byteLength, Base64.getUrlDecoder().decode(SecureIdentifiers.generate(byteLength)).length);
+        }
+    }
+
+    @Test
+    public void identifiersAreBase64UrlWithoutPadding() {
+
+        for (int i = 0; i < 1000; i++) {
+
+            String identifier = SecureIdentifiers.generate(1 + i % 40);
+
+            assertTrue(identifier, identifier.matches("[A-Za-z0-9_-]+"));
+        }
+    }
+
+    @Test
+    public void identifiersAreUniqueAcrossThreads() throws Exception {
+
+        Set<String> identifiers = ConcurrentHashMap.newKeySet();
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+        try {
+            List<Future<?>> results = new ArrayList<>();
+
+            for (int i = 0; i < THREADS; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+
+                    for (int j = 0; j < IDENTIFIERS_PER_THREAD; j++) {
+                        identifiers.add(SecureIdentifiers.generate(16));
+                    }
+
+                    return null;
+                }));
+            }
+
+            start.countDown();
+
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(THREADS * IDENTIFIERS_PER_THREAD, identifiers.size());
+    }
+}